@@ -0,0 +1,132 @@
+package com.example.linuxsimulator.terminal;
+
+import android.graphics.Typeface;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs on a device: the parser builds real android.text spans.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnsiParserTest {
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+
+    private final AnsiParser parser = new AnsiParser(WHITE, BLACK, false);
+
+    @Test
+    public void plainTextIsReturnedAsIs() {
+        String chunk = "no escapes here\n";
+        assertSame(chunk, parser.parse(chunk));
+    }
+
+    @Test
+    public void controlsAndOtherSequencesAreDropped() {
+        CharSequence text = parser.parse("a\rb\u0007c\u001b[2Kd\u001b]0;title\u0007e\u001b(Bf");
+        assertEquals("abcdef", text.toString());
+        assertNull(spanAt(text, 0, Object.class));
+    }
+
+    @Test
+    public void sgrColorsBecomeSpans() {
+        CharSequence text = parser.parse("\u001b[31mred\u001b[0m plain");
+        assertEquals("red plain", text.toString());
+        assertEquals(0xFFCD0000, spanAt(text, 0, ForegroundColorSpan.class).getForegroundColor());
+        assertEquals(0xFFCD0000, spanAt(text, 2, ForegroundColorSpan.class).getForegroundColor());
+        assertNull(spanAt(text, 4, ForegroundColorSpan.class));
+    }
+
+    @Test
+    public void attributesAnd256Colors() {
+        CharSequence text = parser.parse("\u001b[1;4;38;5;196mX");
+        assertEquals(Typeface.BOLD, spanAt(text, 0, StyleSpan.class).getStyle());
+        assertNotNull(spanAt(text, 0, UnderlineSpan.class));
+        assertEquals(0xFFFF0000, spanAt(text, 0, ForegroundColorSpan.class).getForegroundColor());
+    }
+
+    @Test
+    public void trueColorInBothForms() {
+        CharSequence text = parser.parse("\u001b[38;2;10;20;30mX\u001b[48:2:0:40:50:60mY");
+        assertEquals(0xFF0A141E, spanAt(text, 0, ForegroundColorSpan.class).getForegroundColor());
+        assertEquals(0xFF28323C, spanAt(text, 1, BackgroundColorSpan.class).getBackgroundColor());
+    }
+
+    @Test
+    public void sequencesSplitAcrossChunksAreCompleted() {
+        assertEquals("ab", parser.parse("ab\u001b[3").toString());
+        CharSequence text = parser.parse("2mgreen");
+        assertEquals("green", text.toString());
+        assertEquals(0xFF00CD00, spanAt(text, 0, ForegroundColorSpan.class).getForegroundColor());
+    }
+
+    @Test
+    public void styleCarriesOverToTheNextChunkUntilReset() {
+        parser.parse("\u001b[1mbold");
+        CharSequence text = parser.parse("still bold");
+        assertEquals(Typeface.BOLD, spanAt(text, 0, StyleSpan.class).getStyle());
+
+        parser.reset();
+        String chunk = "plain again";
+        assertSame(chunk, parser.parse(chunk));
+    }
+
+    @Test
+    public void inverseAndDimUseTheDefaultColors() {
+        CharSequence inverse = parser.parse("\u001b[7mX\u001b[0m");
+        assertEquals(BLACK, spanAt(inverse, 0, ForegroundColorSpan.class).getForegroundColor());
+        assertEquals(WHITE, spanAt(inverse, 0, BackgroundColorSpan.class).getBackgroundColor());
+
+        CharSequence dim = parser.parse("\u001b[2mX");
+        assertEquals(0x99FFFFFF, spanAt(dim, 0, ForegroundColorSpan.class).getForegroundColor());
+    }
+
+    @Test
+    public void stderrTextIsColoredEvenWhenPlain() {
+        AnsiParser stderr = new AnsiParser(0xFFFF5555, BLACK, true);
+        CharSequence text = stderr.parse("error");
+        assertEquals(0xFFFF5555, spanAt(text, 0, ForegroundColorSpan.class).getForegroundColor());
+    }
+
+    @Test
+    public void runawaySequenceIsShownAsText() {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            digits.append('1');
+        }
+        assertEquals("[" + digits, parser.parse("\u001b[" + digits).toString());
+    }
+
+    @Test
+    public void encodeRoundTripsThroughParse() {
+        CharSequence styled = parser.parse("\u001b[1;31mred\u001b[0m ok\n\u001b[4mline two\u001b[0m");
+        String encoded = AnsiParser.encode(styled);
+
+        CharSequence reparsed = new AnsiParser(WHITE, BLACK, false).parse(encoded);
+        assertEquals(styled.toString(), reparsed.toString());
+        assertEquals(0xFFCD0000, spanAt(reparsed, 0, ForegroundColorSpan.class).getForegroundColor());
+        assertEquals(Typeface.BOLD, spanAt(reparsed, 0, StyleSpan.class).getStyle());
+        assertNull(spanAt(reparsed, 4, Object.class));
+        assertNotNull(spanAt(reparsed, styled.toString().indexOf("two"), UnderlineSpan.class));
+
+        assertEquals("plain", AnsiParser.encode("plain"));
+    }
+
+    private static <T> T spanAt(CharSequence text, int index, Class<T> type) {
+        if (!(text instanceof Spanned)) {
+            return null;
+        }
+        T[] spans = ((Spanned) text).getSpans(index, index + 1, type);
+        return spans.length > 0 ? spans[0] : null;
+    }
+}
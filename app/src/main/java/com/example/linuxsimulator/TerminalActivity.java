@@ -5,10 +5,14 @@ import android.content.Intent;
 import android.graphics.Color;
 import android.graphics.Typeface;
 import android.os.Bundle;
-import android.os.Handler;
+import android.text.Editable;
+import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.TextWatcher;
+import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.View;
 import android.widget.*;
@@ -18,9 +22,23 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.linuxsimulator.data.FileSystemManager;
+import com.example.linuxsimulator.data.PathContext;
+import com.example.linuxsimulator.terminal.AnsiParser;
+import com.example.linuxsimulator.terminal.CommandExecutor;
+import com.example.linuxsimulator.terminal.CommandHistory;
 import com.example.linuxsimulator.terminal.CommandProcessor;
-
+import com.example.linuxsimulator.terminal.CompletionEngine;
+import com.example.linuxsimulator.terminal.OutputSink;
+import com.example.linuxsimulator.terminal.ScrollbackBuffer;
+import com.example.linuxsimulator.terminal.ScrollbackSearch;
+import com.example.linuxsimulator.terminal.SessionStore;
+import com.example.linuxsimulator.terminal.TerminalSession;
+
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.PatternSyntaxException;
 
 import org.json.JSONObject;
 import org.json.JSONArray;
@@ -28,28 +46,51 @@ import okhttp3.*;
 
 public class TerminalActivity extends AppCompatActivity {
     private RecyclerView terminalOutput;
+    private LinearLayoutManager terminalLayoutManager;
     private EditText commandInput;
     private TextView promptView;
-    private Button btnClear, btnFileManager, btnExit, btnKeyboard, btnExecute;
-    private ScrollView terminalScrollView;
+    private Button btnClear, btnFileManager, btnExit, btnKeyboard, btnExecute, btnInterrupt;
     private Button btnExplainCommand;
 
     // Quick command buttons
     private Button btnQuickLs, btnQuickPwd, btnQuickCd, btnQuickClear, btnQuickHelp, btnQuickWhoami;
 
     private FileSystemManager fsManager;
-    private CommandProcessor commandProcessor;
     private TerminalOutputAdapter outputAdapter;
-    private List<String> outputLines;
-    private List<String> commandHistory;
-    private int historyIndex = -1;
-    private Handler handler;
+    private CommandHistory commandHistory;
+    // Tabs; every session shares the executor, the history file and the script cache
+    private final List<TerminalSession> sessions = new ArrayList<>();
+    private TerminalSession activeSession;
+    private SessionStore sessionStore;
+    // Set once the last tab is closed, so the tabs are not saved for the next launch
+    private boolean discardSessions;
+    // The active session's processor and scrollback
+    private CommandProcessor commandProcessor;
+    private ScrollbackBuffer scrollback;
+    private LinearLayout tabBar;
+    // Ctrl-R reverse-i-search: the input holds the query, the prompt shows the match
+    private boolean reverseSearch;
+    private String searchMatch = "";
+    private int searchNumber = -1;
+    private String inputBeforeSearch = "";
+    // Ctrl-F scrollback search: the input holds the query, matches are highlighted in place
+    private static final int COLOR_MATCH = 0x66FFEB3B;
+    private static final int COLOR_CURRENT_MATCH = 0xCCFF9800;
+    private boolean outputSearch;
+    private boolean outputSearchRegex;
+    private ScrollbackSearch scrollbackSearch;
+    private int searchIndex = -1;
+    private String inputBeforeOutputSearch = "";
+    // Streamed command output is buffered per session and drained once per frame
+    private static final int FRAME_FLUSH_BUDGET = 64 * 1024;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private Choreographer choreographer;
+    private final Choreographer.FrameCallback flushFrame = frameTimeNanos -> flushSessions();
+    private final Choreographer.FrameCallback scrollFrame = frameTimeNanos -> scrollNow();
+    private boolean scrollScheduled;
 
     // Terminal state
-    private String currentUser = "kali";
     private String hostname = "linux";
-    private boolean isRoot = false;
-    private Map<String, String> environmentVariables;
 
     // Colors
     private int colorPrompt, colorCommand, colorOutput, colorError, colorSuccess;
@@ -70,6 +111,10 @@ public class TerminalActivity extends AppCompatActivity {
         initializeComponents();
         setupTerminal();
         setupListeners();
+        boolean restored = restoreSessions();
+        if (!restored) {
+            openSession();
+        }
 
         // Initialize HTTP client with reasonable timeouts
         httpClient = new OkHttpClient.Builder()
@@ -81,11 +126,18 @@ public class TerminalActivity extends AppCompatActivity {
         // Handle directory passed from file manager
         String startDir = getIntent().getStringExtra("currentDirectory");
         if (startDir != null) {
-            fsManager.changeDirectory(startDir.replace(fsManager.getAbsoluteCurrentDirectory(), ""));
+            PathContext start = activeSession.getPathContext().changeDirectory(startDir);
+            if (start != null) {
+                activeSession.setPathContext(start);
+                refreshTabs();
+            }
         }
 
-        showWelcomeMessage();
+        if (!restored) {
+            showWelcomeMessage();
+        }
         updatePrompt();
+        commandProcessor.getCompletionEngine().prefetch(activeSession.getPathContext().getCurrentDirectoryFile());
     }
 
     private void initializeColors() {
@@ -104,9 +156,9 @@ public class TerminalActivity extends AppCompatActivity {
         btnFileManager = findViewById(R.id.btn_file_manager);
         btnExit = findViewById(R.id.btn_exit);
         btnKeyboard = findViewById(R.id.btn_keyboard);
+        btnInterrupt = findViewById(R.id.btn_interrupt);
         btnExecute = findViewById(R.id.btn_execute);
         btnExplainCommand = findViewById(R.id.btn_explain_command);
-        terminalScrollView = findViewById(R.id.scroll_terminal);
 
         // Initialize quick command buttons
         btnQuickLs = findViewById(R.id.btn_quick_ls);
@@ -116,26 +168,21 @@ public class TerminalActivity extends AppCompatActivity {
         btnQuickHelp = findViewById(R.id.btn_quick_help);
         btnQuickWhoami = findViewById(R.id.btn_quick_whoami);
 
-        fsManager = FileSystemManager.getInstance(this);
-        commandProcessor = new CommandProcessor(this, fsManager);
-        outputLines = new ArrayList<>();
-        commandHistory = new ArrayList<>();
-        handler = new Handler();
+        tabBar = findViewById(R.id.tab_bar);
 
-        // Initialize environment variables
-        environmentVariables = new HashMap<>();
-        environmentVariables.put("HOME", "/home/" + currentUser);
-        environmentVariables.put("USER", currentUser);
-        environmentVariables.put("PWD", fsManager.getAbsoluteCurrentDirectory());
-        environmentVariables.put("PATH", "/usr/local/sbin:/usr/local/bin:/usr/sbin:/usr/bin:/sbin:/bin");
-        environmentVariables.put("SHELL", "/bin/bash");
-        environmentVariables.put("TERM", "xterm-256color");
+        fsManager = FileSystemManager.getInstance(this);
+        commandHistory = CommandHistory.getInstance(this);
+        sessionStore = SessionStore.getInstance(this);
+        choreographer = Choreographer.getInstance();
     }
 
     private void setupTerminal() {
-        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
-        terminalOutput.setLayoutManager(layoutManager);
-        outputAdapter = new TerminalOutputAdapter(outputLines);
+        terminalLayoutManager = new LinearLayoutManager(this);
+        terminalOutput.setLayoutManager(terminalLayoutManager);
+        // Rows only ever change through the scrollback; skip the per-row insert animations
+        terminalOutput.setHasFixedSize(true);
+        terminalOutput.setItemAnimator(null);
+        outputAdapter = new TerminalOutputAdapter();
         terminalOutput.setAdapter(outputAdapter);
 
         commandInput.setTypeface(Typeface.MONOSPACE);
@@ -153,6 +200,41 @@ public class TerminalActivity extends AppCompatActivity {
 
         commandInput.setOnKeyListener((v, keyCode, event) -> {
             if (event.getAction() == KeyEvent.ACTION_DOWN) {
+                if (keyCode == KeyEvent.KEYCODE_C && event.isCtrlPressed()) {
+                    interruptCommand();
+                    return true;
+                }
+                if (keyCode == KeyEvent.KEYCODE_R && event.isCtrlPressed()) {
+                    if (outputSearch) endOutputSearch(true);
+                    reverseSearchStep();
+                    return true;
+                }
+                if (keyCode == KeyEvent.KEYCODE_F && event.isCtrlPressed()) {
+                    outputSearchStep();
+                    return true;
+                }
+                if (outputSearch) {
+                    if (keyCode == KeyEvent.KEYCODE_ESCAPE
+                            || (keyCode == KeyEvent.KEYCODE_G && event.isCtrlPressed())) {
+                        endOutputSearch(true);
+                        return true;
+                    }
+                    if (keyCode == KeyEvent.KEYCODE_T && event.isCtrlPressed()) {
+                        outputSearchRegex = !outputSearchRegex;
+                        restartOutputSearch();
+                        return true;
+                    }
+                    // Volume keys walk the matches instead of the history
+                    if (keyCode == KeyEvent.KEYCODE_VOLUME_UP || keyCode == KeyEvent.KEYCODE_VOLUME_DOWN) {
+                        moveOutputSearch(keyCode == KeyEvent.KEYCODE_VOLUME_UP ? 1 : -1);
+                        return true;
+                    }
+                }
+                if (reverseSearch && (keyCode == KeyEvent.KEYCODE_ESCAPE
+                        || (keyCode == KeyEvent.KEYCODE_G && event.isCtrlPressed()))) {
+                    cancelReverseSearch();
+                    return true;
+                }
                 switch (keyCode) {
                     case KeyEvent.KEYCODE_VOLUME_UP:
                         navigateHistory(-1);
@@ -161,6 +243,7 @@ public class TerminalActivity extends AppCompatActivity {
                         navigateHistory(1);
                         return true;
                     case KeyEvent.KEYCODE_TAB:
+                        if (reverseSearch) acceptReverseSearch();
                         autoComplete();
                         return true;
                 }
@@ -168,11 +251,28 @@ public class TerminalActivity extends AppCompatActivity {
             return false;
         });
 
+        commandInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (reverseSearch) updateReverseSearch(false);
+                if (outputSearch) restartOutputSearch();
+            }
+        });
+
         btnClear.setOnClickListener(v -> clearTerminal());
         btnFileManager.setOnClickListener(v -> openFileManager());
         btnExit.setOnClickListener(v -> finish());
         btnKeyboard.setOnClickListener(v -> toggleKeyboard());
         btnExecute.setOnClickListener(v -> executeCommand());
+        if (btnInterrupt != null) btnInterrupt.setOnClickListener(v -> interruptCommand());
 
         if (btnExplainCommand != null) {
             btnExplainCommand.setOnClickListener(v -> explainCurrentCommand());
@@ -206,12 +306,10 @@ public class TerminalActivity extends AppCompatActivity {
     }
 
     private void updatePrompt() {
-        String currentDir = fsManager.getCurrentDirectory();
-        String displayDir = currentDir.replace("/home/" + currentUser, "~");
-        if (displayDir.isEmpty()) displayDir = "~";
+        String displayDir = activeSession.getPathContext().getDisplayDirectory();
 
         String prompt = String.format("┌──(%s@%s)-[%s]\n└─%s ",
-                currentUser, hostname, displayDir, isRoot ? "#" : "$");
+                activeSession.getCurrentUser(), hostname, displayDir, activeSession.isRoot() ? "#" : "$");
 
         SpannableStringBuilder spannablePrompt = new SpannableStringBuilder(prompt);
         spannablePrompt.setSpan(new ForegroundColorSpan(colorPrompt), 0, prompt.length(),
@@ -221,52 +319,188 @@ public class TerminalActivity extends AppCompatActivity {
     }
 
     private void executeCommand() {
-        String input = commandInput.getText().toString().trim();
-        if (input.isEmpty()) return;
+        if (outputSearch) {
+            moveOutputSearch(1);
+            return;
+        }
+        if (reverseSearch) acceptReverseSearch();
+        String typed = commandInput.getText().toString().trim();
+        if (typed.isEmpty()) return;
+        activeSession.setHistoryOffset(0);
+
+        String displayDir = activeSession.getPathContext().getDisplayDirectory();
+
+        String prompt = String.format("┌──(%s@%s)-[%s]\n└─%s ",
+                activeSession.getCurrentUser(), hostname, displayDir, activeSession.isRoot() ? "#" : "$");
 
-        if (!commandHistory.isEmpty() && !commandHistory.get(commandHistory.size() - 1).equals(input)) {
-            commandHistory.add(input);
-        } else if (commandHistory.isEmpty()) {
-            commandHistory.add(input);
+        SpannableStringBuilder fullPrompt = new SpannableStringBuilder(prompt).append(typed);
+        fullPrompt.setSpan(new ForegroundColorSpan(colorPrompt), 0, prompt.length(),
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        fullPrompt.setSpan(new ForegroundColorSpan(colorCommand), prompt.length(), fullPrompt.length(),
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        addOutputLine(fullPrompt);
+        commandInput.setText("");
+
+        // !!, !n and friends; like bash, the expanded line is echoed and recorded instead
+        String input;
+        try {
+            input = commandHistory.expand(typed);
+        } catch (IllegalArgumentException e) {
+            addOutputLine("bash: " + e.getMessage() + ": event not found", colorError);
+            return;
+        }
+        if (!input.equals(typed)) {
+            addOutputLine(input, colorOutput);
         }
-        historyIndex = -1;
+        commandHistory.add(input);
 
-        String currentDir = fsManager.getCurrentDirectory();
-        String displayDir = currentDir.replace("/home/" + currentUser, "~");
-        if (displayDir.isEmpty()) displayDir = "~";
+        commandProcessor.processCommand(input, new TerminalOutputSink(activeSession));
+    }
 
-        String fullPrompt = String.format("┌──(%s@%s)-[%s]\n└─%s %s",
-                currentUser, hostname, displayDir, isRoot ? "#" : "$", input);
+    // Receives one command's output on its worker thread and hands it to its session's buffer.
+    // Escape sequences are parsed here, once, on the worker thread
+    private class TerminalOutputSink implements OutputSink {
+        private final TerminalSession session;
+        private final AnsiParser stdout = new AnsiParser(colorOutput, Color.BLACK, false);
+        private final AnsiParser stderr = new AnsiParser(colorError, Color.BLACK, true);
 
-        addOutputLine(fullPrompt, colorCommand);
+        TerminalOutputSink(TerminalSession session) {
+            this.session = session;
+        }
 
-        commandProcessor.processCommand(input, new CommandProcessor.CommandCallback() {
-            @Override
-            public void onSuccess(String output) {
-                if (!output.isEmpty()) {
-                    addOutputLine(output, colorOutput);
+        @Override
+        public void onChunk(CharSequence chunk) {
+            session.appendOutput(stdout.parse(chunk));
+            scheduleFlush();
+        }
+
+        @Override
+        public void onErrorChunk(CharSequence chunk) {
+            session.appendOutput(stderr.parse(chunk));
+            scheduleFlush();
+        }
+
+        @Override
+        public void onProgress(CharSequence label, long current, long total) {
+            session.setProgress(formatProgress(label, current, total));
+            scheduleFlush();
+        }
+
+        @Override
+        public void onDirectoryChanged() {
+            CommandExecutor.getInstance().postToUi(() -> {
+                if (session != activeSession) {
+                    refreshTabs();
+                    return;
                 }
-                commandInput.setText("");
                 updatePrompt();
-                scrollToBottom();
-            }
+                refreshTabs();
+                // Warm the completion cache before the first Tab in the new directory
+                commandProcessor.getCompletionEngine().prefetch(session.getPathContext().getCurrentDirectoryFile());
+            });
+        }
 
-            @Override
-            public void onError(String error) {
-                addOutputLine(error, colorError);
-                commandInput.setText("");
-                updatePrompt();
-                scrollToBottom();
-            }
+        @Override
+        public void onComplete(int exitCode) {
+            CommandExecutor.getInstance().postToUi(() -> {
+                flushOutput(session, Integer.MAX_VALUE);
+                session.closeOpenLine();
+                if (session == activeSession) {
+                    updatePrompt();
+                    scrollToBottom();
+                } else if (sessions.contains(session)) {
+                    session.setUnseenOutput(true);
+                    refreshTabs();
+                }
+            });
+        }
+    }
 
-            @Override
-            public void onDirectoryChanged() {
-                updatePrompt();
-                environmentVariables.put("PWD", fsManager.getAbsoluteCurrentDirectory());
-            }
-        });
+    // At most one flush is queued per frame however many chunks arrive, from however many
+    // sessions. postFrameCallback may be called from any thread.
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(flushFrame);
+        }
+    }
+
+    // Background sessions are drained too, so their buffers stay bounded by the scrollback
+    private void flushSessions() {
+        flushScheduled.set(false);
+        boolean more = false;
+        for (TerminalSession session : sessions) {
+            flushOutput(session, FRAME_FLUSH_BUDGET);
+            more |= session.hasPendingOutput();
+        }
+        if (more) {
+            scheduleFlush();
+        }
+    }
+
+    // Drain everything now, so UI-thread output lands after what was already streamed
+    private void flushOutput() {
+        flushOutput(activeSession, Integer.MAX_VALUE);
+    }
+
+    private void flushOutput(TerminalSession session, int budget) {
+        ScrollbackBuffer rows = session.getScrollback();
+        long firstBefore = rows.getFirstLine();
+        long endBefore = rows.getEndLine();
+        long firstChanged = session.drainOutput(budget);
+        if (session == activeSession && notifyScrollback(firstBefore, endBefore, firstChanged)) {
+            scrollToBottom();
+        }
+    }
+
+    // Tell the adapter what happened since the scrollback spanned [firstBefore, endBefore):
+    // rows evicted from the top, rows redrawn in place from firstChanged on, rows appended.
+    // Returns true if rows were appended.
+    private boolean notifyScrollback(long firstBefore, long endBefore, long firstChanged) {
+        long first = scrollback.getFirstLine();
+        long end = scrollback.getEndLine();
+        int removed = (int) (Math.min(first, endBefore) - firstBefore);
+        if (removed > 0) {
+            outputAdapter.notifyItemRangeRemoved(0, removed);
+        }
+        long changedFrom = Math.max(firstChanged, first);
+        if (changedFrom < endBefore) {
+            outputAdapter.notifyItemRangeChanged((int) (changedFrom - first),
+                    (int) (endBefore - changedFrom));
+        }
+        long insertedFrom = Math.max(endBefore, first);
+        if (end > insertedFrom) {
+            outputAdapter.notifyItemRangeInserted((int) (insertedFrom - first),
+                    (int) (end - insertedFrom));
+            return true;
+        }
+        return false;
+    }
 
+    private static String formatProgress(CharSequence label, long current, long total) {
+        if (total <= 0) {
+            return String.format(Locale.US, "%s  %d", label, current);
+        }
+        int width = 20;
+        int percent = (int) Math.min(100, current * 100 / total);
+        int filled = percent * width / 100;
+        StringBuilder bar = new StringBuilder(width);
+        for (int i = 0; i < width; i++) {
+            bar.append(i < filled ? '=' : (i == filled ? '>' : ' '));
+        }
+        return String.format(Locale.US, "%s  [%s] %3d%%  %d/%d", label, bar, percent, current, total);
+    }
+
+    // Ctrl-C: cancel whatever is still running and drop the half-typed line, like a real shell
+    private void interruptCommand() {
+        if (outputSearch) endOutputSearch(false);
+        String pending = commandInput.getText().toString();
+        commandProcessor.interrupt();
+        addOutputLine("^C" + (pending.isEmpty() ? "" : " " + pending), colorError);
+        reverseSearch = false;
         commandInput.setText("");
+        activeSession.setHistoryOffset(0);
+        updatePrompt();
+        scrollToBottom();
     }
 
     private void explainCurrentCommand() {
@@ -295,7 +529,7 @@ public class TerminalActivity extends AppCompatActivity {
             @Override
             public void onSuccess(String explanation) {
                 android.util.Log.d("GeminiAPI", "Success! Explanation received");
-                runOnUiThread(() -> {
+                CommandExecutor.getInstance().postToUi(() -> {
                     dismissLoadingDialog();
                     showExplanationDialog(command, explanation);
                 });
@@ -304,7 +538,7 @@ public class TerminalActivity extends AppCompatActivity {
             @Override
             public void onError(String error) {
                 android.util.Log.e("GeminiAPI", "Error in callback: " + error);
-                runOnUiThread(() -> {
+                CommandExecutor.getInstance().postToUi(() -> {
                     dismissLoadingDialog();
                     new AlertDialog.Builder(TerminalActivity.this)
                             .setTitle("❌ Error")
@@ -326,7 +560,17 @@ public class TerminalActivity extends AppCompatActivity {
     }
 
     private void getCommandExplanation(String command, ExplanationCallback callback) {
-        new Thread(() -> {
+        try {
+            requestCommandExplanation(command, callback);
+        } catch (RejectedExecutionException e) {
+            // The network pool is full of running commands
+            dismissLoadingDialog();
+            Toast.makeText(this, "Busy, try again", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void requestCommandExplanation(String command, ExplanationCallback callback) {
+        CommandExecutor.getInstance().submit(CommandExecutor.Pool.NETWORK, () -> {
             Response response = null;
             try {
                 android.util.Log.d("GeminiAPI", "=== Starting API Request ===");
@@ -528,7 +772,7 @@ public class TerminalActivity extends AppCompatActivity {
                     response.close();
                 }
             }
-        }).start();
+        });
     }
 
     private void showLoadingDialog() {
@@ -617,59 +861,246 @@ public class TerminalActivity extends AppCompatActivity {
         void onError(String error);
     }
 
+    // direction -1 steps to an older command, 1 back towards the line being typed
     private void navigateHistory(int direction) {
-        if (commandHistory.isEmpty()) return;
-
-        historyIndex += direction;
+        if (reverseSearch) acceptReverseSearch();
+        int count = commandHistory.size();
+        if (count == 0) return;
 
-        if (historyIndex < 0) {
-            historyIndex = -1;
+        int historyOffset = Math.max(0, Math.min(count, activeSession.getHistoryOffset() - direction));
+        activeSession.setHistoryOffset(historyOffset);
+        if (historyOffset == 0) {
             commandInput.setText("");
-        } else if (historyIndex >= commandHistory.size()) {
-            historyIndex = commandHistory.size() - 1;
+            return;
         }
 
-        if (historyIndex >= 0) {
-            commandInput.setText(commandHistory.get(historyIndex));
+        String command = commandHistory.get(commandHistory.getLastNumber() - historyOffset + 1);
+        if (command != null) {
+            commandInput.setText(command);
             commandInput.setSelection(commandInput.getText().length());
         }
     }
 
-    private void autoComplete() {
-        String currentText = commandInput.getText().toString();
-        String[] parts = currentText.split(" ");
-        if (parts.length == 0) return;
+    // Ctrl-R: start a reverse-i-search, or step to the next older match
+    private void reverseSearchStep() {
+        if (!reverseSearch) {
+            inputBeforeSearch = commandInput.getText().toString();
+            searchMatch = "";
+            searchNumber = -1;
+            reverseSearch = true;
+            commandInput.setText("");
+            showReverseSearch("", false);
+            return;
+        }
+        updateReverseSearch(true);
+    }
+
+    // Look the query up again from the newest entry, or from the current match when stepping older
+    private void updateReverseSearch(boolean older) {
+        String query = commandInput.getText().toString();
+        if (query.isEmpty()) {
+            searchMatch = "";
+            searchNumber = -1;
+            showReverseSearch(query, false);
+            return;
+        }
+
+        int before = older && searchNumber >= 0 ? searchNumber : commandHistory.getLastNumber() + 1;
+        int number = commandHistory.searchBackward(query, before);
+        // Repeats of the command already shown are skipped
+        while (older && number != -1 && searchMatch.equals(commandHistory.get(number))) {
+            number = commandHistory.searchBackward(query, number);
+        }
+
+        if (number != -1) {
+            searchNumber = number;
+            searchMatch = commandHistory.get(number);
+        }
+        showReverseSearch(query, number == -1);
+    }
+
+    private void showReverseSearch(String query, boolean failed) {
+        String prompt = String.format("(%sreverse-i-search)`%s': %s\n└─ ",
+                failed ? "failed " : "", query, searchMatch);
+        SpannableStringBuilder spannablePrompt = new SpannableStringBuilder(prompt);
+        spannablePrompt.setSpan(new ForegroundColorSpan(failed ? colorError : colorPrompt), 0, prompt.length(),
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        promptView.setText(spannablePrompt);
+    }
+
+    // Put the match on the command line for editing or running
+    private void acceptReverseSearch() {
+        reverseSearch = false;
+        String match = searchMatch.isEmpty() ? inputBeforeSearch : searchMatch;
+        commandInput.setText(match);
+        commandInput.setSelection(match.length());
+        updatePrompt();
+    }
 
-        String lastPart = parts[parts.length - 1];
+    private void cancelReverseSearch() {
+        reverseSearch = false;
+        commandInput.setText(inputBeforeSearch);
+        commandInput.setSelection(inputBeforeSearch.length());
+        updatePrompt();
+    }
+
+    // Ctrl-F: start searching the scrollback, or step to the next older match
+    private void outputSearchStep() {
+        if (outputSearch) {
+            moveOutputSearch(1);
+            return;
+        }
+        if (reverseSearch) cancelReverseSearch();
+        inputBeforeOutputSearch = commandInput.getText().toString();
+        outputSearch = true;
+        commandInput.setText("");
+        restartOutputSearch();
+    }
 
-        List<String> files = new ArrayList<>();
+    // Search again from scratch whenever the query or mode changes; the old scan is abandoned
+    private void restartOutputSearch() {
+        if (scrollbackSearch != null) {
+            scrollbackSearch.cancel();
+            scrollbackSearch = null;
+            searchIndex = -1;
+            outputAdapter.notifyDataSetChanged();
+        }
+        String query = commandInput.getText().toString();
+        if (query.isEmpty()) {
+            showOutputSearch(query, null);
+            return;
+        }
+
+        ScrollbackSearch search;
         try {
-            for (com.example.linuxsimulator.data.FileItem file : fsManager.listFiles()) {
-                if (file.getName().startsWith(lastPart)) {
-                    files.add(file.getName());
-                }
-            }
-        } catch (Exception e) {
-            // Ignore
+            search = new ScrollbackSearch(query, outputSearchRegex);
+            search.start(scrollback.snapshot(), CommandExecutor.getInstance(), outputSearchListener);
+        } catch (PatternSyntaxException e) {
+            showOutputSearch(query, "invalid pattern");
+            return;
+        } catch (RejectedExecutionException e) {
+            showOutputSearch(query, "busy, try again");
+            return;
         }
+        scrollbackSearch = search;
+        showOutputSearch(query, null);
+    }
 
-        if (parts.length == 1) {
-            String[] commands = {"ls", "cd", "pwd", "mkdir", "touch", "rm", "cp", "mv", "cat", "nano",
-                    "chmod", "find", "grep", "ps", "kill", "clear", "help", "exit", "whoami"};
-            for (String cmd : commands) {
-                if (cmd.startsWith(lastPart)) {
-                    files.add(cmd);
-                }
+    private final ScrollbackSearch.Listener outputSearchListener = new ScrollbackSearch.Listener() {
+        @Override
+        public void onMatches(ScrollbackSearch search, int added) {
+            if (search != scrollbackSearch) return;
+            // Rebind the rows the new matches are on; they are newest first
+            int count = search.getMatchCount();
+            long first = scrollback.getFirstLine();
+            int newest = (int) Math.min(scrollback.size() - 1, search.getMatch(count - added).line - first);
+            int oldest = (int) Math.max(0, search.getMatch(count - 1).line - first);
+            if (newest >= oldest) {
+                outputAdapter.notifyItemRangeChanged(oldest, newest - oldest + 1);
             }
+            if (searchIndex < 0) {
+                jumpToMatch(0);
+            }
+            showOutputSearch(search.getQuery(), null);
+        }
+
+        @Override
+        public void onComplete(ScrollbackSearch search) {
+            if (search != scrollbackSearch) return;
+            showOutputSearch(search.getQuery(), null);
+        }
+    };
+
+    // direction 1 steps to an older match, -1 to a newer one
+    private void moveOutputSearch(int direction) {
+        if (scrollbackSearch == null || scrollbackSearch.getMatchCount() == 0) return;
+        int index = Math.max(0, Math.min(scrollbackSearch.getMatchCount() - 1, searchIndex + direction));
+        // Matches on rows evicted since the search started are gone
+        if (scrollbackSearch.getMatch(index).line < scrollback.getFirstLine()) return;
+        jumpToMatch(index);
+        showOutputSearch(scrollbackSearch.getQuery(), null);
+    }
+
+    private void jumpToMatch(int index) {
+        long first = scrollback.getFirstLine();
+        if (searchIndex >= 0) {
+            long previous = scrollbackSearch.getMatch(searchIndex).line - first;
+            if (previous >= 0) outputAdapter.notifyItemChanged((int) previous);
         }
+        searchIndex = index;
+        int position = (int) (scrollbackSearch.getMatch(index).line - first);
+        if (position >= 0) {
+            outputAdapter.notifyItemChanged(position);
+            terminalLayoutManager.scrollToPositionWithOffset(position, terminalOutput.getHeight() / 3);
+        }
+    }
+
+    private void showOutputSearch(String query, String error) {
+        String status;
+        boolean failed = error != null;
+        if (failed) {
+            status = error;
+        } else if (scrollbackSearch == null) {
+            status = "";
+        } else if (scrollbackSearch.getMatchCount() == 0) {
+            failed = scrollbackSearch.isComplete();
+            status = failed ? "no matches" : "searching...";
+        } else {
+            status = (searchIndex + 1) + "/" + scrollbackSearch.getMatchCount()
+                    + (scrollbackSearch.isComplete() ? "" : "+");
+        }
+        String prompt = String.format("(%s)`%s': %s\n└─ ",
+                outputSearchRegex ? "regex-search" : "search", query, status);
+        SpannableStringBuilder spannablePrompt = new SpannableStringBuilder(prompt);
+        spannablePrompt.setSpan(new ForegroundColorSpan(failed ? colorError : colorPrompt), 0, prompt.length(),
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        promptView.setText(spannablePrompt);
+    }
+
+    private void endOutputSearch(boolean restoreInput) {
+        outputSearch = false;
+        if (scrollbackSearch != null) {
+            scrollbackSearch.cancel();
+            scrollbackSearch = null;
+            outputAdapter.notifyDataSetChanged();
+        }
+        searchIndex = -1;
+        if (restoreInput) {
+            commandInput.setText(inputBeforeOutputSearch);
+            commandInput.setSelection(inputBeforeOutputSearch.length());
+        }
+        updatePrompt();
+        scrollToBottom();
+    }
+
+    // Overlay the search matches on a row while it is being bound
+    private CharSequence highlightMatches(CharSequence row, long line) {
+        int index = scrollbackSearch.findLine(line);
+        if (index < 0) return row;
+        SpannableString highlighted = new SpannableString(row);
+        for (int i = index; i < scrollbackSearch.getMatchCount(); i++) {
+            ScrollbackSearch.Match match = scrollbackSearch.getMatch(i);
+            if (match.line != line) break;
+            int end = Math.min(match.end, row.length());
+            if (match.start >= end) continue;
+            highlighted.setSpan(new BackgroundColorSpan(i == searchIndex ? COLOR_CURRENT_MATCH : COLOR_MATCH),
+                    match.start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return highlighted;
+    }
 
-        if (files.size() == 1) {
-            parts[parts.length - 1] = files.get(0);
-            commandInput.setText(String.join(" ", parts));
+    private void autoComplete() {
+        String currentText = commandInput.getText().toString();
+        CompletionEngine.Result result = commandProcessor.getCompletionEngine().complete(currentText);
+
+        if (!result.line.equals(currentText)) {
+            commandInput.setText(result.line);
             commandInput.setSelection(commandInput.getText().length());
-        } else if (files.size() > 1) {
+        } else if (!result.candidates.isEmpty()) {
+            String more = result.total > result.candidates.size()
+                    ? "  ... (" + result.total + " possibilities)" : "";
             addOutputLine("", colorOutput);
-            addOutputLine(String.join("  ", files), colorOutput);
+            addOutputLine(String.join("  ", result.candidates) + more, colorOutput);
             scrollToBottom();
         }
     }
@@ -686,19 +1117,194 @@ public class TerminalActivity extends AppCompatActivity {
     }
 
     private void addOutputLine(String line, int color) {
-        outputLines.add(line);
-        outputAdapter.notifyItemInserted(outputLines.size() - 1);
+        addOutputLine(colored(line, color));
+    }
+
+    private void addOutputLine(CharSequence line) {
+        // Keep ordering with streamed output and never append onto an unfinished line
+        flushOutput();
+        long firstBefore = scrollback.getFirstLine();
+        long endBefore = scrollback.getEndLine();
+        activeSession.appendLine(line);
+        notifyScrollback(firstBefore, endBefore, endBefore);
+    }
+
+    // Rows default to colorOutput, so only other colors need a span
+    private CharSequence colored(String text, int color) {
+        if (color == colorOutput || text.isEmpty()) {
+            return text;
+        }
+        SpannableString styled = new SpannableString(text);
+        styled.setSpan(new ForegroundColorSpan(color), 0, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        return styled;
     }
 
     private void clearTerminal() {
-        outputLines.clear();
+        activeSession.clearOutput();
         outputAdapter.notifyDataSetChanged();
         showWelcomeMessage();
     }
 
+    // ==================== Sessions ====================
+
+    // Open a new tab in the current directory and bring it to the front
+    private TerminalSession openSession() {
+        // Reuse the lowest free number, so tab names stay short
+        int id = 1;
+        for (boolean taken = true; taken; ) {
+            taken = false;
+            for (TerminalSession session : sessions) {
+                if (session.getId() == id) {
+                    taken = true;
+                    id++;
+                }
+            }
+        }
+        PathContext directory = activeSession != null
+                ? activeSession.getPathContext() : fsManager.getPathContext();
+        // A number can be reused; whatever an old tab left in its log is not this tab's
+        sessionStore.getLog(id).clear();
+        TerminalSession session = newSession(id, directory);
+        sessions.add(session);
+        switchSession(session);
+        sessionStore.save(sessions, activeSession);
+        return session;
+    }
+
+    private TerminalSession newSession(int id, PathContext directory) {
+        ScrollbackBuffer rows = new ScrollbackBuffer(ScrollbackBuffer.DEFAULT_MAX_LINES,
+                ScrollbackBuffer.DEFAULT_MAX_CHARS, ScrollbackBuffer.DEFAULT_MAX_LINE_LENGTH,
+                new File(getCacheDir(), "scrollback-" + id + ".txt"), CommandExecutor.getInstance());
+        return new TerminalSession(id, this, fsManager, directory, rows, sessionStore.getLog(id));
+    }
+
+    // Reopen the tabs saved when the terminal last went away. User, directory and environment
+    // are back at once; output is read back in the background, the last screenful first.
+    private boolean restoreSessions() {
+        TerminalSession front = null;
+        PathContext home = new PathContext(fsManager.getHomeDirectory(), fsManager.getHomeDirectory());
+        for (SessionStore.SavedSession saved : sessionStore.load()) {
+            boolean taken = false;
+            for (TerminalSession session : sessions) {
+                taken |= session.getId() == saved.id;
+            }
+            if (taken || saved.id < 1) continue;
+
+            // The directory may have gone away in the meantime
+            PathContext directory = saved.directory != null ? home.changeDirectory(saved.directory) : null;
+            if (directory == null) directory = home;
+            TerminalSession session = newSession(saved.id, directory);
+            session.setRoot(saved.root);
+            session.getEnvironment().putAll(saved.environment);
+            session.setPathContext(directory);
+            sessions.add(session);
+            session.restoreOutput(colorOutput, Color.BLACK, added -> onOutputRestored(session, added));
+            if (front == null || saved.active) {
+                front = session;
+            }
+        }
+        if (front == null) {
+            return false;
+        }
+        switchSession(front);
+        return true;
+    }
+
+    // Restored rows go above everything else; stay at the bottom if that is where the view was
+    private void onOutputRestored(TerminalSession session, int added) {
+        if (session != activeSession) return;
+        boolean atBottom = !terminalOutput.canScrollVertically(1);
+        outputAdapter.notifyItemRangeInserted(0, added);
+        if (atBottom) {
+            scrollNow();
+        }
+    }
+
+    private void switchSession(TerminalSession session) {
+        if (session == activeSession) return;
+        if (reverseSearch) cancelReverseSearch();
+        if (outputSearch) endOutputSearch(true);
+        if (activeSession != null) {
+            flushOutput();
+        }
+        // Drain before the adapter sees the rows; background sessions are never notified
+        flushOutput(session, Integer.MAX_VALUE);
+
+        activeSession = session;
+        commandProcessor = session.getProcessor();
+        scrollback = session.getScrollback();
+        session.setUnseenOutput(false);
+        outputAdapter.setLines(scrollback);
+        updatePrompt();
+        refreshTabs();
+        scrollNow();
+    }
+
+    /**
+     * Close a tab, stopping whatever it is running. Closing the last tab closes the terminal.
+     * @param session Session to close
+     */
+    public void closeSession(TerminalSession session) {
+        int index = sessions.indexOf(session);
+        if (index < 0) return;
+        if (sessions.size() == 1) {
+            // Closing the last tab is a deliberate exit; start fresh next time
+            discardSessions = true;
+            sessionStore.clear();
+            finish();
+            return;
+        }
+        sessions.remove(index);
+        session.close();
+        if (session == activeSession) {
+            activeSession = null;
+            switchSession(sessions.get(Math.min(index, sessions.size() - 1)));
+        } else {
+            refreshTabs();
+        }
+        sessionStore.save(sessions, activeSession);
+    }
+
+    private void refreshTabs() {
+        if (tabBar == null) return;
+        tabBar.removeAllViews();
+        for (TerminalSession session : sessions) {
+            Button tab = newTabButton(tabTitle(session), session == activeSession);
+            tab.setOnClickListener(v -> switchSession(session));
+            tab.setOnLongClickListener(v -> {
+                closeSession(session);
+                return true;
+            });
+            tabBar.addView(tab);
+        }
+        Button add = newTabButton("+", false);
+        add.setOnClickListener(v -> openSession());
+        tabBar.addView(add);
+    }
+
+    // "2:src" for a tab in .../src; a dot marks output that finished while in the background
+    private String tabTitle(TerminalSession session) {
+        PathContext directory = session.getPathContext();
+        String name = directory.getDisplayDirectory().equals("~")
+                ? "~" : directory.getCurrentDirectoryFile().getName();
+        if (name.isEmpty()) name = "/";
+        return session.getId() + ":" + name + (session.hasUnseenOutput() ? " •" : "");
+    }
+
+    private Button newTabButton(String text, boolean selected) {
+        Button tab = new Button(this);
+        tab.setAllCaps(false);
+        tab.setTypeface(Typeface.MONOSPACE);
+        tab.setTextSize(12);
+        tab.setText(text);
+        tab.setTextColor(selected ? colorPrompt : colorOutput);
+        tab.setBackgroundColor(selected ? 0x60FFFFFF : 0x20FFFFFF);
+        return tab;
+    }
+
     private void openFileManager() {
         Intent intent = new Intent(this, FileManagerActivity.class);
-        intent.putExtra("currentDirectory", fsManager.getAbsoluteCurrentDirectory());
+        intent.putExtra("currentDirectory", activeSession.getPathContext().getCurrentDirectory());
         startActivity(intent);
     }
 
@@ -707,17 +1313,38 @@ public class TerminalActivity extends AppCompatActivity {
         getWindow().setSoftInputMode(android.view.WindowManager.LayoutParams.SOFT_INPUT_STATE_VISIBLE);
     }
 
+    // Coalesced to one scroll per frame; held while a scrollback search is showing a match
     private void scrollToBottom() {
-        handler.post(() -> {
-            if (outputLines.size() > 0) {
-                terminalOutput.scrollToPosition(outputLines.size() - 1);
-            }
-        });
+        if (!scrollScheduled && !outputSearch) {
+            scrollScheduled = true;
+            choreographer.postFrameCallback(scrollFrame);
+        }
+    }
+
+    private void scrollNow() {
+        scrollScheduled = false;
+        if (scrollback.size() > 0) {
+            terminalOutput.scrollToPosition(scrollback.size() - 1);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // The process may be killed any time after this; the logs are already being written
+        if (!discardSessions) {
+            sessionStore.save(sessions, activeSession);
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        choreographer.removeFrameCallback(flushFrame);
+        choreographer.removeFrameCallback(scrollFrame);
+        for (TerminalSession session : sessions) {
+            session.getProcessor().close();
+        }
         if (explanationDialog != null && explanationDialog.isShowing()) {
             explanationDialog.dismiss();
         }
@@ -727,10 +1354,12 @@ public class TerminalActivity extends AppCompatActivity {
     }
 
     private class TerminalOutputAdapter extends RecyclerView.Adapter<TerminalOutputAdapter.OutputViewHolder> {
-        private List<String> lines;
+        private ScrollbackBuffer lines;
 
-        public TerminalOutputAdapter(List<String> lines) {
+        // Point the adapter at another session's rows
+        void setLines(ScrollbackBuffer lines) {
             this.lines = lines;
+            notifyDataSetChanged();
         }
 
         @Override
@@ -741,23 +1370,17 @@ public class TerminalActivity extends AppCompatActivity {
 
         @Override
         public void onBindViewHolder(OutputViewHolder holder, int position) {
-            String line = lines.get(position);
-            holder.textView.setText(line);
-
-            if (line.startsWith("┌──") || line.startsWith("└─")) {
-                holder.textView.setTextColor(colorPrompt);
-            } else if (line.contains("error") || line.contains("Error") || line.contains("ERROR")) {
-                holder.textView.setTextColor(colorError);
-            } else if (line.contains("success") || line.contains("✓")) {
-                holder.textView.setTextColor(colorSuccess);
-            } else {
-                holder.textView.setTextColor(colorOutput);
+            // Colors were applied as spans when the row was appended
+            CharSequence row = lines.get(position);
+            if (scrollbackSearch != null) {
+                row = highlightMatches(row, lines.getFirstLine() + position);
             }
+            holder.textView.setText(row);
         }
 
         @Override
         public int getItemCount() {
-            return lines.size();
+            return lines == null ? 0 : lines.size();
         }
 
         class OutputViewHolder extends RecyclerView.ViewHolder {
@@ -767,6 +1390,7 @@ public class TerminalActivity extends AppCompatActivity {
                 super(itemView);
                 textView = itemView.findViewById(R.id.tv_output_line);
                 textView.setTypeface(Typeface.MONOSPACE);
+                textView.setTextColor(colorOutput);
             }
         }
     }
@@ -776,12 +1400,11 @@ public class TerminalActivity extends AppCompatActivity {
     public int getColorOutput() { return colorOutput; }
     public int getColorError() { return colorError; }
     public int getColorSuccess() { return colorSuccess; }
-    public Map<String, String> getEnvironmentVariables() { return environmentVariables; }
-    public String getCurrentUser() { return currentUser; }
-    public boolean isRoot() { return isRoot; }
+    public Map<String, String> getEnvironmentVariables() { return activeSession.getEnvironment(); }
+    public String getCurrentUser() { return activeSession.getCurrentUser(); }
+    public boolean isRoot() { return activeSession.isRoot(); }
     public void setRoot(boolean root) {
-        isRoot = root;
-        currentUser = root ? "root" : "kali";
-        updatePrompt();
+        activeSession.setRoot(root);
+        CommandExecutor.getInstance().postToUi(this::updatePrompt);
     }
 }
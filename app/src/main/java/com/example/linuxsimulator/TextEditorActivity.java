@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Environment;
 import android.provider.Settings;
@@ -13,12 +14,14 @@ import android.text.Editable;
 import android.text.TextWatcher;
 import android.text.SpannableString;
 import android.text.style.BackgroundColorSpan;
+import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.inputmethod.EditorInfo;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -28,43 +31,106 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.linuxsimulator.data.FileSystemManager;
+import com.example.linuxsimulator.editor.BufferList;
+import com.example.linuxsimulator.editor.EditJournal;
+import com.example.linuxsimulator.editor.EditorBuffer;
+import com.example.linuxsimulator.editor.FileIndex;
+import com.example.linuxsimulator.editor.LargeFileAdapter;
+import com.example.linuxsimulator.editor.LargeFileIndex;
+import com.example.linuxsimulator.editor.LineNumberGutter;
+import com.example.linuxsimulator.editor.PieceTable;
+import com.example.linuxsimulator.editor.ProgressListener;
+import com.example.linuxsimulator.editor.QuickOpenAdapter;
+import com.example.linuxsimulator.editor.SearchSession;
+import com.example.linuxsimulator.editor.SyntaxHighlighter;
+import com.example.linuxsimulator.editor.SyntaxLexer;
+import com.example.linuxsimulator.editor.TextFileIO;
+import com.example.linuxsimulator.editor.TextSearch;
+import com.example.linuxsimulator.editor.UndoManager;
+import com.example.linuxsimulator.terminal.CancellationToken;
+import com.example.linuxsimulator.terminal.CommandExecutor;
+
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
 
 public class TextEditorActivity extends AppCompatActivity {
 
     // UI Components
     private EditText textEditor;
-    private TextView lineNumbers;
+    private LineNumberGutter lineNumbers;
     private TextView currentFilePath;
     private TextView fileStatus;
     private TextView lineInfo;
     private TextView charCount;
+    private TextView encodingInfo;
+    private LinearLayout ioContainer;
+    private TextView ioLabel;
+    private ProgressBar ioProgress;
     private EditText searchEditText;
+    private EditText replaceEditText;
+    private TextView searchCount;
     private EditText commandInput;
     private LinearLayout searchContainer;
     private ScrollView editorScrollView;
-    private ScrollView lineNumberScrollView;
-
-    // File Management
-    private File currentFile;
-    private boolean isModified = false;
-    private String originalContent = "";
 
-    // Undo/Redo System
-    private Stack<String> undoStack = new Stack<>();
-    private Stack<String> redoStack = new Stack<>();
+    // File Management: one buffer per open file, each in a tab; buffer is the one shown
+    private BufferList buffers;
+    private EditorBuffer buffer;
+    private LinearLayout tabContainer;
+    // Buffers not shown may hold this much of the heap before clean ones are spilled to disk
+    private static final long BUFFER_BUDGET_BYTES = Runtime.getRuntime().maxMemory() / 8;
+    // Load or save running on the IO pool; one at a time, cancelled from the progress bar
+    private CancellationToken ioToken;
+
+    // Source of truth for the text, the shown buffer's document; the EditText only displays it
+    private PieceTable document;
+    // True while the view is being given text the document already holds
+    private boolean syncingEditor = false;
+
+    // Colours the lines on screen, by the file's type
+    private SyntaxHighlighter highlighter;
+
+    // Each buffer keeps its edits since the last load or save on disk, so they survive the
+    // process; the journals of this session are told apart from those of earlier ones
+    private static final String JOURNAL_PREFIX = "editor-journal";
+    // How long recovery waits for an editor being destroyed, e.g. on rotation, to write out its journals
+    private static final long JOURNAL_CLOSE_WAIT_MS = 2000;
+    private final String journalSession = Long.toString(System.currentTimeMillis(), 36);
+    private int journalCount;
+
+    // Undo/Redo System: the shown buffer's history
+    private UndoManager undoManager;
     private boolean isUndoRedoOperation = false;
 
+    // Large files are shown read-only, a page at a time, instead of in the editor
+    private static final long LARGE_FILE_BYTES = 2 * 1024 * 1024;
+    private RecyclerView largeFileView;
+    private LinearLayoutManager largeFileLayoutManager;
+    private LargeFileAdapter largeFileAdapter;
+    // Search running in the viewer; cancelled when it is replaced or the viewer closes
+    private CancellationToken viewerToken;
+
     // Search
-    private int currentSearchPosition = -1;
+    private SearchSession searchSession;
+    private boolean matchCase = false;
+    private boolean wholeWord = false;
+    private boolean regexSearch = false;
+    private CancellationToken replaceToken;
+    // Last query searched for in the large file viewer
     private String lastSearchQuery = "";
 
     // Permissions
@@ -79,17 +145,19 @@ public class TextEditorActivity extends AppCompatActivity {
         setupEventListeners();
         setupBackPressHandler();
         requestStoragePermission();
-        updateLineNumbers();
         updateStatusBar();
-
-        // Load file if path is provided
-        String filePath = getIntent().getStringExtra("filePath");
-        if (filePath != null) {
-            File file = new File(filePath);
-            if (file.exists()) {
-                loadFile(file);
+        updateTabs();
+
+        // Offer back what the last session left unsaved, then load the file if a path is provided
+        checkForRecovery(() -> {
+            String filePath = getIntent().getStringExtra("filePath");
+            if (filePath != null) {
+                File file = new File(filePath);
+                if (file.exists()) {
+                    loadFile(file);
+                }
             }
-        }
+        });
     }
 
     private void initializeViews() {
@@ -99,11 +167,30 @@ public class TextEditorActivity extends AppCompatActivity {
         fileStatus = findViewById(R.id.fileStatus);
         lineInfo = findViewById(R.id.lineInfo);
         charCount = findViewById(R.id.charCount);
+        encodingInfo = findViewById(R.id.encoding);
+        ioContainer = findViewById(R.id.ioContainer);
+        ioLabel = findViewById(R.id.ioLabel);
+        ioProgress = findViewById(R.id.ioProgress);
         searchEditText = findViewById(R.id.searchEditText);
+        replaceEditText = findViewById(R.id.replaceEditText);
+        searchCount = findViewById(R.id.searchCount);
         commandInput = findViewById(R.id.commandInput);
         searchContainer = findViewById(R.id.searchContainer);
         editorScrollView = findViewById(R.id.editorScrollView);
-        lineNumberScrollView = findViewById(R.id.lineNumberScrollView);
+        tabContainer = findViewById(R.id.tabContainer);
+        buffers = new BufferList(BUFFER_BUDGET_BYTES);
+        buffer = createUntitledBuffer();
+        document = buffer.getDocument();
+        undoManager = buffer.getUndoManager();
+        lineNumbers.attach(textEditor, editorScrollView, document);
+        highlighter = new SyntaxHighlighter(CommandExecutor.getInstance());
+        highlighter.attach(textEditor, editorScrollView, document);
+        searchSession = new SearchSession(CommandExecutor.getInstance());
+        searchSession.attach(textEditor, editorScrollView, document, this::updateSearchCount);
+        largeFileView = findViewById(R.id.largeFileView);
+        largeFileLayoutManager = new LinearLayoutManager(this);
+        largeFileView.setLayoutManager(largeFileLayoutManager);
+        largeFileView.setItemAnimator(null);
     }
 
     private void setupEventListeners() {
@@ -114,7 +201,14 @@ public class TextEditorActivity extends AppCompatActivity {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                updateLineNumbers();
+                if (!syncingEditor) {
+                    buffer.noteEdit();
+                    CharSequence inserted = s.subSequence(start, start + count);
+                    if (!isUndoRedoOperation) {
+                        undoManager.record(start, document.getText(start, start + before), inserted);
+                    }
+                    document.replace(start, before, inserted);
+                }
                 updateStatusBar();
                 if (!isUndoRedoOperation) {
                     setModified(true);
@@ -122,25 +216,9 @@ public class TextEditorActivity extends AppCompatActivity {
             }
 
             @Override
-            public void afterTextChanged(Editable s) {
-                // Save current state for undo (only if not undo/redo operation)
-                if (!isUndoRedoOperation) {
-                    String currentText = s.toString();
-                    if (undoStack.isEmpty() || !undoStack.peek().equals(currentText)) {
-                        undoStack.push(currentText);
-                        if (undoStack.size() > 50) { // Limit undo stack size
-                            undoStack.remove(0);
-                        }
-                        redoStack.clear();
-                    }
-                }
-            }
+            public void afterTextChanged(Editable s) {}
         });
 
-        // Scroll synchronization
-        editorScrollView.setOnScrollChangeListener((v, scrollX, scrollY, oldScrollX, oldScrollY) ->
-                lineNumberScrollView.scrollTo(0, scrollY));
-
         // Button listeners
         findViewById(R.id.btnNew).setOnClickListener(v -> newFile());
         findViewById(R.id.btnOpen).setOnClickListener(v -> openFile());
@@ -151,7 +229,40 @@ public class TextEditorActivity extends AppCompatActivity {
         findViewById(R.id.btnFind).setOnClickListener(v -> toggleSearch());
         findViewById(R.id.btnSearchNext).setOnClickListener(v -> searchNext());
         findViewById(R.id.btnSearchClose).setOnClickListener(v -> closeSearch());
+        findViewById(R.id.btnMatchCase).setOnClickListener(v -> {
+            matchCase = !matchCase;
+            v.setAlpha(matchCase ? 1f : 0.5f);
+            updateSearch();
+        });
+        findViewById(R.id.btnWholeWord).setOnClickListener(v -> {
+            wholeWord = !wholeWord;
+            v.setAlpha(wholeWord ? 1f : 0.5f);
+            updateSearch();
+        });
+        findViewById(R.id.btnRegex).setOnClickListener(v -> {
+            regexSearch = !regexSearch;
+            v.setAlpha(regexSearch ? 1f : 0.5f);
+            updateSearch();
+        });
+        findViewById(R.id.btnReplace).setOnClickListener(v -> replaceNext());
+        findViewById(R.id.btnReplaceAll).setOnClickListener(v -> {
+            TextSearch search = buildSearch(true);
+            if (search != null) {
+                replaceAll(search, replaceEditText.getText().toString());
+            }
+        });
         findViewById(R.id.btnExecuteCommand).setOnClickListener(v -> executeCommand());
+        findViewById(R.id.btnCancelIo).setOnClickListener(v -> {
+            cancelIo();
+            showToast("Cancelled");
+        });
+
+        largeFileView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                updateViewerStatus();
+            }
+        });
 
         // Command input listener
         commandInput.setOnEditorActionListener((v, actionId, event) -> {
@@ -163,7 +274,19 @@ public class TextEditorActivity extends AppCompatActivity {
             return false;
         });
 
-        // Search input listener
+        // Search input listener; matches are counted as the query is typed
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                updateSearch();
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {}
+        });
         searchEditText.setOnEditorActionListener((v, actionId, event) -> {
             if (actionId == EditorInfo.IME_ACTION_SEARCH ||
                     (event != null && event.getKeyCode() == KeyEvent.KEYCODE_ENTER)) {
@@ -200,36 +323,18 @@ public class TextEditorActivity extends AppCompatActivity {
         }
     }
 
+    // Files open in tabs of their own, so nothing needs saving first
     private void newFile() {
-        if (isModified) {
-            showSaveDialog(() -> createNewFile());
-        } else {
-            createNewFile();
-        }
-    }
-
-    private void createNewFile() {
-        isUndoRedoOperation = true;
-        textEditor.setText("");
-        isUndoRedoOperation = false;
-        currentFile = null;
-        currentFilePath.setText("untitled.txt");
-        originalContent = "";
-        setModified(false);
-        undoStack.clear();
-        redoStack.clear();
+        showBuffer(createUntitledBuffer());
         showToast("New file created");
     }
 
     private void openFile() {
-        if (isModified) {
-            showSaveDialog(this::selectFileToOpen);
-        } else {
-            selectFileToOpen();
-        }
+        showQuickOpen();
     }
 
-    private void selectFileToOpen() {
+    // Folder by folder, for files the quick-open index leaves out
+    private void browseFileToOpen() {
         // Get app's documents directory (more reliable than external storage)
         File storageDir = getExternalFilesDir(Environment.DIRECTORY_DOCUMENTS);
         if (storageDir == null || !storageDir.exists()) {
@@ -238,43 +343,155 @@ public class TextEditorActivity extends AppCompatActivity {
         showFileDialog(storageDir, true, this::loadFile);
     }
 
+    // Find a file anywhere in storage by typing part of its name; the index keeps itself up to date
+    private void showQuickOpen() {
+        FileIndex index = FileIndex.getInstance(this);
+        index.refresh(false);
+
+        View view = getLayoutInflater().inflate(R.layout.dialog_quick_open, null);
+        EditText queryInput = view.findViewById(R.id.quickOpenQuery);
+        TextView status = view.findViewById(R.id.quickOpenStatus);
+        RecyclerView resultList = view.findViewById(R.id.quickOpenResults);
+        AlertDialog[] dialog = new AlertDialog[1];
+
+        QuickOpenAdapter adapter = new QuickOpenAdapter(index, CommandExecutor.getInstance(),
+                new QuickOpenAdapter.Listener() {
+                    @Override
+                    public void onFilePicked(File file) {
+                        dialog[0].dismiss();
+                        loadFile(file);
+                    }
+
+                    @Override
+                    public void onResultsChanged(int count) {
+                        String files = index.size() + (index.isCapped() ? "+" : "") + " files";
+                        if (index.isWalking()) {
+                            status.setText("Indexing... " + files);
+                        } else if (count == 0 && queryInput.getText().length() > 0) {
+                            status.setText("No matches in " + files);
+                        } else {
+                            status.setText(files);
+                        }
+                    }
+                });
+        resultList.setLayoutManager(new LinearLayoutManager(this));
+        resultList.setAdapter(adapter);
+
+        queryInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                adapter.setQuery(s.toString());
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {}
+        });
+        // Enter opens the best match
+        queryInput.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId == EditorInfo.IME_ACTION_GO ||
+                    (event != null && event.getKeyCode() == KeyEvent.KEYCODE_ENTER)) {
+                List<FileIndex.Result> results = adapter.getResults();
+                if (!results.isEmpty()) {
+                    dialog[0].dismiss();
+                    loadFile(results.get(0).file);
+                }
+                return true;
+            }
+            return false;
+        });
+
+        status.setText(index.isWalking() ? "Indexing..." : "");
+        dialog[0] = new AlertDialog.Builder(this)
+                .setTitle("📂 Open File")
+                .setView(view)
+                .setNeutralButton("Browse...", (d, which) -> browseFileToOpen())
+                .setNegativeButton("Cancel", null)
+                .setOnDismissListener(d -> adapter.close())
+                .show();
+        adapter.setQuery("");
+        queryInput.requestFocus();
+    }
+
     private void loadFile(File file) {
-        try {
-            StringBuilder content = new StringBuilder();
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
+        EditorBuffer open = buffers.find(file);
+        if (open != null) {
+            // Already open: show its tab rather than a second copy
+            switchToBuffer(open);
+            return;
+        }
+        CommandExecutor executor = CommandExecutor.getInstance();
+        runIo("Opening " + file.getName(), token -> {
+            TextFileIO.Encoding encoding = TextFileIO.detect(file);
+            ProgressListener progress = progressListener(token);
+            if (file.length() > LARGE_FILE_BYTES) {
+                LargeFileIndex index = indexLargeFile(file, encoding, token, progress);
+                executor.postToUi(() -> showLargeFile(file, index, encoding, token));
+            } else {
+                // Stamped before reading, so a change made while reading shows up on recovery
+                EditJournal.Stamp stamp = EditJournal.Stamp.of(file);
+                TextFileIO.Contents contents = TextFileIO.read(file, encoding, token, progress);
+                executor.postToUi(() -> showLoadedFile(file, contents, stamp, token));
             }
-            reader.close();
+        }, e -> showToast("Error opening file: " + e.getMessage()));
+    }
 
-            isUndoRedoOperation = true;
-            textEditor.setText(content.toString());
-            isUndoRedoOperation = false;
+    // UTF-16 cannot be split into rows without decoding it, so it is paged from a UTF-8 copy.
+    // The copy is unlinked once open; the index reads it until it is closed.
+    private LargeFileIndex indexLargeFile(File file, TextFileIO.Encoding encoding, CancellationToken token,
+                                          ProgressListener progress) throws IOException {
+        if (encoding.isAsciiCompatible()) {
+            return LargeFileIndex.build(file, encoding.charset, token, progress);
+        }
+        File copy = File.createTempFile("viewer", ".txt", getCacheDir());
+        try {
+            TextFileIO.transcode(file, encoding, copy, token, progress);
+            return LargeFileIndex.build(copy, StandardCharsets.UTF_8, token, progress);
+        } finally {
+            copy.delete();
+        }
+    }
 
-            currentFile = file;
-            currentFilePath.setText(file.getName());
-            originalContent = content.toString();
-            setModified(false);
-            undoStack.clear();
-            redoStack.clear();
-            undoStack.push(content.toString()); // Add initial state
+    private void showLoadedFile(File file, TextFileIO.Contents contents, EditJournal.Stamp stamp,
+                                CancellationToken token) {
+        if (token.isCancelled()) {
+            return;
+        }
+        EditorBuffer opened = createBuffer();
+        opened.restore(contents.text);
+        opened.setFile(file);
+        opened.setEncoding(contents.encoding);
+        opened.getJournal().start(file, stamp, contents.encoding);
+        showOpenedBuffer(opened);
+        if (contents.mixedLineEnds) {
+            showToast("File opened: " + file.getName() + " (mixed CRLF and LF line ends kept as they are)");
+        } else {
             showToast("File opened: " + file.getName());
-        } catch (IOException e) {
-            showToast("Error opening file: " + e.getMessage());
-            e.printStackTrace();
         }
     }
 
     private void saveFile() {
-        if (currentFile == null) {
-            saveAsFile();
+        saveFile(null);
+    }
+
+    // onSaved runs once the file is safely on disk
+    private void saveFile(Runnable onSaved) {
+        if (rejectIfReadOnly()) return;
+        if (buffer.getFile() == null) {
+            saveAsFile(onSaved);
         } else {
-            saveToFile(currentFile);
+            saveToFile(buffer.getFile(), onSaved);
         }
     }
 
     private void saveAsFile() {
+        saveAsFile(null);
+    }
+
+    private void saveAsFile(Runnable onSaved) {
+        if (rejectIfReadOnly()) return;
         // Use app's documents directory for saving
         File storageDir = getExternalFilesDir(Environment.DIRECTORY_DOCUMENTS);
         if (storageDir == null || !storageDir.exists()) {
@@ -285,30 +502,58 @@ public class TextEditorActivity extends AppCompatActivity {
             storageDir.mkdirs();
         }
 
-        showSaveDialog(storageDir);
+        showSaveDialog(storageDir, onSaved);
     }
 
-    private void saveToFile(File file) {
-        try {
-            // Create parent directories if they don't exist
-            File parentDir = file.getParentFile();
-            if (parentDir != null && !parentDir.exists()) {
-                parentDir.mkdirs();
-            }
+    private void saveToFile(File file, Runnable onSaved) {
+        saveToFile(buffer, file, buffer.getEncoding(), false, onSaved);
+    }
 
-            // Write to file
-            BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-            writer.write(textEditor.getText().toString());
-            writer.close();
-
-            currentFile = file;
-            currentFilePath.setText(file.getName());
-            originalContent = textEditor.getText().toString();
-            setModified(false);
-            showToast("✓ File saved: " + file.getName());
-        } catch (IOException e) {
+    // lossy: store characters the encoding cannot hold as '?' rather than fail
+    private void saveToFile(EditorBuffer saved, File file, TextFileIO.Encoding encoding, boolean lossy,
+                            Runnable onSaved) {
+        // The snapshot stays as it is while typing carries on, in this buffer or another
+        PieceTable.Snapshot snapshot = saved.getDocument().snapshot();
+        int savedEdit = saved.getEditCount();
+        CommandExecutor executor = CommandExecutor.getInstance();
+        runIo("Saving " + file.getName(), token -> {
+            TextFileIO.write(file, snapshot, encoding, lossy, token, progressListener(token));
+            EditJournal.Stamp stamp = EditJournal.Stamp.of(file);
+            executor.postToUi(() -> {
+                if (token.isCancelled()) {
+                    return;
+                }
+                if (!file.equals(saved.getFile())) {
+                    // A new file, or one the index may not know yet
+                    FileIndex.getInstance(this).invalidate();
+                }
+                if (buffers.indexOf(saved) >= 0) {
+                    saved.setFile(file);
+                    saved.setEncoding(encoding);
+                    // Anything typed during the save is not in the file yet
+                    setModified(saved, saved.getEditCount() != savedEdit);
+                    if (saved.isModified()) {
+                        saved.getJournal().start(file, saved.getDocument().snapshot(), encoding);
+                    } else {
+                        saved.getJournal().start(file, stamp, encoding);
+                    }
+                    saved.getUndoManager().breakStep();
+                    if (saved == buffer && largeFileAdapter == null) {
+                        showBufferInfo();
+                    }
+                    updateTabs();
+                }
+                showToast("✓ File saved: " + file.getName());
+                if (onSaved != null) {
+                    onSaved.run();
+                }
+            });
+        }, e -> {
+            if (e instanceof CharacterCodingException) {
+                confirmLossySave(saved, file, encoding, onSaved);
+                return;
+            }
             showToast("Error saving file: " + e.getMessage());
-            e.printStackTrace();
 
             // Show detailed error dialog
             new AlertDialog.Builder(this)
@@ -317,21 +562,403 @@ public class TextEditorActivity extends AppCompatActivity {
                             "\n\nTry saving to a different location.")
                     .setPositiveButton("OK", null)
                     .show();
-        } catch (Exception e) {
-            showToast("Unexpected error: " + e.getMessage());
-            e.printStackTrace();
+        });
+    }
+
+    // The text has characters the file's encoding cannot store; nothing was written yet
+    private void confirmLossySave(EditorBuffer saved, File file, TextFileIO.Encoding encoding, Runnable onSaved) {
+        TextFileIO.Encoding utf8 = new TextFileIO.Encoding(StandardCharsets.UTF_8, false, encoding.lineSeparator);
+        new AlertDialog.Builder(this)
+                .setTitle("Characters Would Be Lost")
+                .setMessage(file.getName() + " is saved as " + encoding.charset.name() +
+                        ", which cannot store some of its characters. Saving anyway replaces them with '?'.")
+                .setPositiveButton("Save as UTF-8", (d, which) -> saveToFile(saved, file, utf8, false, onSaved))
+                .setNeutralButton("Save Anyway", (d, which) -> saveToFile(saved, file, encoding, true, onSaved))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    // ==================== Recovery ====================
+
+    // Read the journals earlier sessions left; then runs once the user has chosen, unless the
+    // recovered text takes its place. Journals another editor in this process has open are
+    // not abandoned and are left alone.
+    private void checkForRecovery(Runnable then) {
+        String current = JOURNAL_PREFIX + "-" + journalSession + "-";
+        File[] files = getFilesDir().listFiles((dir, name) ->
+                name.startsWith(JOURNAL_PREFIX) && !name.startsWith(current));
+        if (files == null || files.length == 0) {
+            then.run();
+            return;
+        }
+        Arrays.sort(files);
+        CommandExecutor executor = CommandExecutor.getInstance();
+        try {
+            executor.execute(CommandExecutor.Pool.IO, () -> {
+                List<File> journals = new ArrayList<>();
+                List<EditJournal.Recovery> recoveries = new ArrayList<>();
+                for (File file : files) {
+                    try {
+                        if (!EditJournal.awaitClosed(file, JOURNAL_CLOSE_WAIT_MS)) {
+                            continue;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    try {
+                        EditJournal.Recovery recovery = EditJournal.read(file);
+                        if (recovery != null) {
+                            journals.add(file);
+                            recoveries.add(recovery);
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    // Nothing left to recover in it
+                    file.delete();
+                }
+                executor.postToUi(() -> offerRecovery(journals, recoveries, then));
+            });
+        } catch (RejectedExecutionException e) {
+            // The journals stay for the next launch
+            then.run();
         }
     }
 
-    private void undo() {
-        if (undoStack.size() > 1) {
-            redoStack.push(undoStack.pop());
-            String previousState = undoStack.peek();
+    private void offerRecovery(List<File> journals, List<EditJournal.Recovery> recoveries, Runnable then) {
+        if (isFinishing()) {
+            return;
+        }
+        if (recoveries.isEmpty()) {
+            then.run();
+            return;
+        }
+        int edits = 0;
+        StringBuilder names = new StringBuilder();
+        for (EditJournal.Recovery recovery : recoveries) {
+            edits += recovery.getEditCount();
+            File file = recovery.getFile();
+            names.append("\n• ").append(file != null ? file.getName() : "untitled.txt");
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("♻ Unsaved Changes")
+                .setMessage(edits + " unsaved edit(s) were left from the last session in:" + names
+                        + "\n\nRecover them?")
+                .setPositiveButton("Recover", (dialog, which) -> recoverEdits(journals, recoveries))
+                .setNegativeButton("Discard", (dialog, which) -> {
+                    CommandExecutor executor = CommandExecutor.getInstance();
+                    for (File journal : journals) {
+                        // Unless another editor recovered it meanwhile
+                        if (!EditJournal.isOpen(journal)) {
+                            new EditJournal(journal, executor).discard();
+                        }
+                    }
+                    then.run();
+                })
+                .setCancelable(false)
+                .show();
+    }
+
+    private void recoverEdits(List<File> journals, List<EditJournal.Recovery> recoveries) {
+        CommandExecutor executor = CommandExecutor.getInstance();
+        runIo("Recovering unsaved changes", token -> {
+            for (int i = 0; i < recoveries.size(); i++) {
+                File journal = journals.get(i);
+                EditJournal.Recovery recovery = recoveries.get(i);
+                if (EditJournal.isOpen(journal)) {
+                    // Another editor recovered it meanwhile
+                    continue;
+                }
+                try {
+                    String text = recovery.replay(token, progressListener(token));
+                    executor.postToUi(() -> showRecoveredFile(journal, recovery, text, token));
+                } catch (IOException e) {
+                    // The rest may still be fine
+                    executor.postToUi(() -> {
+                        showToast("Could not recover changes: " + e.getMessage());
+                        new EditJournal(journal, executor).discard();
+                    });
+                }
+            }
+        }, e -> showToast("Could not recover changes: " + e.getMessage()));
+    }
+
+    private void showRecoveredFile(File journalFile, EditJournal.Recovery recovery, String text,
+                                   CancellationToken token) {
+        if (token.isCancelled() || EditJournal.isOpen(journalFile)) {
+            return;
+        }
+        // Journalled in the file it came from, so a crash before the next save loses nothing
+        EditorBuffer recovered = new EditorBuffer(journalFile, CommandExecutor.getInstance());
+        recovered.restore(text);
+        recovered.setFile(recovery.getFile());
+        recovered.setEncoding(recovery.getEncoding());
+        recovered.setModified(true);
+        recovered.getJournal().resume(recovery);
+        showOpenedBuffer(recovered);
+        showToast("✓ Recovered " + recovery.getEditCount() + " unsaved edit(s) to " + recovered.getTitle());
+    }
 
+    // ==================== Buffers ====================
+
+    // A new buffer with a journal of its own, not yet added or shown
+    private EditorBuffer createBuffer() {
+        File journalFile = new File(getFilesDir(),
+                JOURNAL_PREFIX + "-" + journalSession + "-" + journalCount++);
+        return new EditorBuffer(journalFile, CommandExecutor.getInstance());
+    }
+
+    private EditorBuffer createUntitledBuffer() {
+        EditorBuffer untitled = createBuffer();
+        untitled.getJournal().start(null, "", untitled.getEncoding());
+        buffers.add(untitled);
+        return untitled;
+    }
+
+    // Show a buffer just opened or recovered; an empty untitled one it would sit beside goes
+    private void showOpenedBuffer(EditorBuffer opened) {
+        EditorBuffer previous = largeFileAdapter == null && buffer.isPristine() ? buffer : null;
+        buffers.add(opened);
+        showBuffer(opened);
+        if (previous != null) {
+            removeBuffer(previous);
+        }
+    }
+
+    // Show a buffer, reading it back from its file first if it was spilled
+    private void switchToBuffer(EditorBuffer target) {
+        if (!target.isSpilled()) {
+            showBuffer(target);
+            return;
+        }
+        File file = target.getFile();
+        TextFileIO.Encoding encoding = target.getEncoding();
+        CommandExecutor executor = CommandExecutor.getInstance();
+        runIo("Opening " + file.getName(), token -> {
+            EditJournal.Stamp stamp = EditJournal.Stamp.of(file);
+            TextFileIO.Contents contents = TextFileIO.read(file, encoding, token, progressListener(token));
+            executor.postToUi(() -> {
+                if (token.isCancelled() || buffers.indexOf(target) < 0 || !target.isSpilled()) {
+                    return;
+                }
+                target.restore(contents.text);
+                target.setEncoding(contents.encoding);
+                target.getJournal().start(file, stamp, contents.encoding);
+                showBuffer(target);
+            });
+        }, e -> showToast("Error opening file: " + e.getMessage()));
+    }
+
+    // Swap the shown buffer. The one left keeps its piece table, compacted, unless the memory
+    // budget spills it.
+    private void showBuffer(EditorBuffer next) {
+        closeLargeFile();
+        if (next == buffer) {
+            return;
+        }
+        if (buffers.indexOf(buffer) >= 0) {
+            buffer.saveViewState(textEditor.getSelectionStart(), textEditor.getSelectionEnd(),
+                    editorScrollView.getScrollY());
+            buffer.getUndoManager().breakStep();
+            buffer.compact();
+        }
+        if (replaceToken != null) {
+            replaceToken.cancel();
+            replaceToken = null;
+        }
+
+        buffer = next;
+        document = next.getDocument();
+        undoManager = next.getUndoManager();
+        lineNumbers.setDocument(document);
+        highlighter.setDocument(document);
+        searchSession.setDocument(document);
+
+        isUndoRedoOperation = true;
+        syncingEditor = true;
+        try {
+            textEditor.setText(document.toString());
+        } finally {
+            syncingEditor = false;
+            isUndoRedoOperation = false;
+        }
+        int length = textEditor.getText().length();
+        textEditor.setSelection(Math.min(next.getSelectionStart(), length),
+                Math.min(next.getSelectionEnd(), length));
+        int scrollY = next.getScrollY();
+        editorScrollView.post(() -> editorScrollView.scrollTo(0, scrollY));
+
+        showBufferInfo();
+        buffers.show(next);
+        updateTabs();
+    }
+
+    // Title, encoding, highlighting and status of the shown buffer
+    private void showBufferInfo() {
+        currentFilePath.setText(buffer.getTitle());
+        showEncoding(buffer.getEncoding());
+        if (buffer.getFile() != null) {
+            updateSyntax(buffer.getFile());
+        } else {
+            highlighter.setLexer(null);
+        }
+        showModified(buffer.isModified());
+        updateStatusBar();
+    }
+
+    private void updateTabs() {
+        tabContainer.removeAllViews();
+        int padding = (int) (12 * getResources().getDisplayMetrics().density);
+        for (int i = 0; i < buffers.size(); i++) {
+            EditorBuffer tabBuffer = buffers.get(i);
+            boolean shown = tabBuffer == buffer && largeFileAdapter == null;
+            TextView tab = new TextView(this);
+            tab.setText(tabBuffer.isModified() ? tabBuffer.getTitle() + " ●" : tabBuffer.getTitle());
+            tab.setTypeface(Typeface.MONOSPACE);
+            tab.setTextSize(12);
+            tab.setGravity(Gravity.CENTER_VERTICAL);
+            tab.setPadding(padding, 0, padding, 0);
+            tab.setBackgroundColor(shown ? 0xFF1E1E1E : 0xFF252526);
+            // Dimmed while spilled: switching to it reads the file again
+            tab.setTextColor(shown ? 0xFFFFFFFF : tabBuffer.isSpilled() ? 0xFF6A6A6A : 0xFFAAAAAA);
+            tab.setOnClickListener(v -> switchToBuffer(tabBuffer));
+            tab.setOnLongClickListener(v -> {
+                closeBuffer(tabBuffer);
+                return true;
+            });
+            tabContainer.addView(tab, new LinearLayout.LayoutParams(
+                    LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT));
+        }
+    }
+
+    private void closeBuffer(EditorBuffer target) {
+        if (target.isModified()) {
+            showBuffer(target);
+            showSaveDialog(() -> removeBuffer(target));
+        } else {
+            removeBuffer(target);
+        }
+    }
+
+    // Close a buffer for good; if it was shown, a neighbour, or a new untitled buffer, takes over
+    private void removeBuffer(EditorBuffer target) {
+        int index = buffers.indexOf(target);
+        if (index < 0) {
+            return;
+        }
+        // Saved or discarded either way, so there is nothing to recover
+        target.getJournal().discard();
+        buffers.remove(target);
+        if (target == buffer) {
+            // The nearest buffer still in memory, so the closed one is never left on screen
+            // while a spilled one is read back
+            EditorBuffer next = null;
+            for (int distance = 0; next == null && distance <= buffers.size(); distance++) {
+                for (int i : new int[] {index + distance, index - 1 - distance}) {
+                    if (next == null && i >= 0 && i < buffers.size() && !buffers.get(i).isSpilled()) {
+                        next = buffers.get(i);
+                    }
+                }
+            }
+            showBuffer(next != null ? next : createUntitledBuffer());
+        } else {
+            updateTabs();
+        }
+    }
+
+    // ==================== Background file IO ====================
+
+    private interface IoTask {
+        void run(CancellationToken token) throws IOException;
+    }
+
+    // Run a load or save on the IO pool behind the progress bar
+    private void runIo(String label, IoTask task, Consumer<IOException> onError) {
+        if (ioToken != null) {
+            showToast("Busy: " + ioLabel.getText());
+            return;
+        }
+        CancellationToken token = new CancellationToken();
+        ioToken = token;
+        ioLabel.setText(label);
+        ioProgress.setProgress(0);
+        ioContainer.setVisibility(View.VISIBLE);
+        CommandExecutor executor = CommandExecutor.getInstance();
+        try {
+            executor.execute(CommandExecutor.Pool.IO, () -> {
+                try {
+                    task.run(token);
+                } catch (CancellationException e) {
+                    // Cancelled from the progress bar, or by starting over with a new file
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    executor.postToUi(() -> {
+                        if (!token.isCancelled()) onError.accept(e);
+                    });
+                } catch (OutOfMemoryError e) {
+                    // Reported like any other failure rather than taking the app down
+                    IOException error = new IOException("not enough memory", e);
+                    executor.postToUi(() -> {
+                        if (!token.isCancelled()) onError.accept(error);
+                    });
+                } finally {
+                    executor.postToUi(() -> finishIo(token));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            finishIo(token);
+            showToast("Busy, try again");
+        }
+    }
+
+    // Progress for the bar, posted only when the percentage moves
+    private ProgressListener progressListener(CancellationToken token) {
+        CommandExecutor executor = CommandExecutor.getInstance();
+        int[] shown = {-1};
+        return (done, total) -> {
+            int percent = (int) (done * 100 / Math.max(1, total));
+            if (percent != shown[0]) {
+                shown[0] = percent;
+                executor.postToUi(() -> {
+                    if (ioToken == token) ioProgress.setProgress(percent);
+                });
+            }
+        };
+    }
+
+    private void finishIo(CancellationToken token) {
+        if (ioToken == token) {
+            ioToken = null;
+            ioContainer.setVisibility(View.GONE);
+        }
+    }
+
+    private void cancelIo() {
+        if (ioToken != null) {
+            ioToken.cancel();
+            finishIo(ioToken);
+        }
+    }
+
+    private void showEncoding(TextFileIO.Encoding encoding) {
+        encodingInfo.setText(encoding.describe());
+    }
+
+    // Highlight by the file's type; saving under another name can change it
+    private void updateSyntax(File file) {
+        String fileType = FileSystemManager.getInstance(this).getFileType(file.getName());
+        highlighter.setLexer(SyntaxLexer.forFileType(fileType));
+    }
+
+    private void undo() {
+        if (rejectIfReadOnly()) return;
+        if (undoManager.canUndo()) {
             isUndoRedoOperation = true;
-            textEditor.setText(previousState);
-            textEditor.setSelection(textEditor.getText().length()); // Move cursor to end
+            int cursor = undoManager.undo(this::replaceInEditor);
             isUndoRedoOperation = false;
+            textEditor.setSelection(Math.min(cursor, textEditor.getText().length())); // Cursor at the change
 
             showToast("Undo");
         } else {
@@ -340,14 +967,12 @@ public class TextEditorActivity extends AppCompatActivity {
     }
 
     private void redo() {
-        if (!redoStack.isEmpty()) {
-            String nextState = redoStack.pop();
-            undoStack.push(nextState);
-
+        if (rejectIfReadOnly()) return;
+        if (undoManager.canRedo()) {
             isUndoRedoOperation = true;
-            textEditor.setText(nextState);
-            textEditor.setSelection(textEditor.getText().length()); // Move cursor to end
+            int cursor = undoManager.redo(this::replaceInEditor);
             isUndoRedoOperation = false;
+            textEditor.setSelection(Math.min(cursor, textEditor.getText().length())); // Cursor at the change
 
             showToast("Redo");
         } else {
@@ -355,10 +980,16 @@ public class TextEditorActivity extends AppCompatActivity {
         }
     }
 
+    // Edit the view in place; the text watcher passes the change on to the document
+    private void replaceInEditor(int offset, int length, CharSequence text) {
+        textEditor.getText().replace(offset, offset + length, text);
+    }
+
     private void toggleSearch() {
         if (searchContainer.getVisibility() == View.GONE) {
             searchContainer.setVisibility(View.VISIBLE);
             searchEditText.requestFocus();
+            updateSearch();
         } else {
             closeSearch();
         }
@@ -369,6 +1000,50 @@ public class TextEditorActivity extends AppCompatActivity {
         clearSearchHighlight();
     }
 
+    // Compile what is in the search bar; null if it is empty or not a valid expression
+    private TextSearch buildSearch(boolean report) {
+        String query = searchEditText.getText().toString();
+        if (query.isEmpty()) {
+            if (report) showToast("Enter search text");
+            return null;
+        }
+        try {
+            return new TextSearch(query, matchCase, wholeWord, regexSearch);
+        } catch (PatternSyntaxException e) {
+            if (report) showToast("Invalid pattern: " + e.getDescription());
+            return null;
+        }
+    }
+
+    // Count the matches of the search bar in the background as it changes
+    private void updateSearch() {
+        boolean active = searchContainer.getVisibility() == View.VISIBLE && largeFileAdapter == null;
+        TextSearch search = active ? buildSearch(false) : null;
+        searchSession.setSearch(search);
+        updateSearchCount();
+        if (active && search == null && searchEditText.getText().length() > 0) {
+            searchCount.setText("Invalid");
+        }
+    }
+
+    private void updateSearchCount() {
+        TextSearch.Matches matches = searchSession.getMatches();
+        if (searchSession.getSearch() == null) {
+            searchCount.setText("");
+            return;
+        }
+        if (matches == null) {
+            searchCount.setText("…");
+            return;
+        }
+        String total = matches.count + (matches.capped ? "+" : "");
+        int start = textEditor.getSelectionStart();
+        int index = matches.indexFrom(start);
+        boolean onMatch = index < matches.count && matches.getStart(index) == start
+                && matches.getEnd(index) == textEditor.getSelectionEnd();
+        searchCount.setText(onMatch ? (index + 1) + " of " + total : total + " found");
+    }
+
     private void searchNext() {
         String query = searchEditText.getText().toString();
         if (query.isEmpty()) {
@@ -376,33 +1051,122 @@ public class TextEditorActivity extends AppCompatActivity {
             return;
         }
 
-        String content = textEditor.getText().toString();
-        if (!query.equals(lastSearchQuery)) {
-            currentSearchPosition = -1;
-            lastSearchQuery = query;
+        if (largeFileAdapter != null) {
+            searchLargeFile(query);
+            return;
         }
 
-        int startPos = currentSearchPosition + 1;
-        int foundPos = content.toLowerCase().indexOf(query.toLowerCase(), startPos);
-
-        if (foundPos == -1 && currentSearchPosition != -1) {
-            // Search from beginning
-            foundPos = content.toLowerCase().indexOf(query.toLowerCase(), 0);
+        TextSearch search = buildSearch(true);
+        if (search == null) {
+            return;
+        }
+        if (searchSession.getSearch() == null) {
+            searchSession.setSearch(search);
         }
 
-        if (foundPos != -1) {
-            currentSearchPosition = foundPos;
-            textEditor.setSelection(foundPos, foundPos + query.length());
+        // Step past the match that is selected now
+        int start = textEditor.getSelectionStart();
+        int from = textEditor.getSelectionEnd() > start ? start + 1 : start;
+        int[] match = new int[2];
+        if (findMatch(search, from, match) || (from > 0 && findMatch(search, 0, match))) {
+            textEditor.setSelection(match[0], match[1]);
             textEditor.requestFocus();
-            showToast("Found at position " + foundPos);
         } else {
             showToast("Not found");
         }
+        updateSearchCount();
+    }
+
+    // Find the next match, from the counted matches when they are up to date
+    private boolean findMatch(TextSearch search, int from, int[] match) {
+        TextSearch.Matches matches = searchSession.getMatches();
+        if (matches != null && searchSession.getSearch() == search) {
+            int index = matches.indexFrom(from);
+            if (index < matches.count) {
+                match[0] = matches.getStart(index);
+                match[1] = matches.getEnd(index);
+                return true;
+            }
+            if (!matches.capped) {
+                return false;
+            }
+        }
+        return search.find(document.snapshot(), from, match);
+    }
+
+    // Replace the selected match, then move on to the next one
+    private void replaceNext() {
+        if (rejectIfReadOnly()) return;
+        TextSearch search = buildSearch(true);
+        if (search == null) {
+            return;
+        }
+        int start = textEditor.getSelectionStart();
+        int end = textEditor.getSelectionEnd();
+        PieceTable.Snapshot text = document.snapshot();
+        if (end > start && search.matchesAt(text, start, end)) {
+            String replacement = search.expand(text, start, end, replaceEditText.getText().toString());
+            // Its own undo step, never merged with typing
+            undoManager.beginCompound();
+            replaceInEditor(start, end - start, replacement);
+            undoManager.endCompound();
+            textEditor.setSelection(start + replacement.length());
+        }
+        searchNext();
+    }
+
+    // Work out every replacement in the background, then apply them as one edit
+    private void replaceAll(TextSearch search, String replacement) {
+        if (rejectIfReadOnly()) return;
+        if (replaceToken != null) {
+            replaceToken.cancel();
+        }
+        CancellationToken token = new CancellationToken();
+        replaceToken = token;
+        EditorBuffer target = buffer;
+        PieceTable.Snapshot text = document.snapshot();
+        int startEdit = target.getEditCount();
+        CommandExecutor executor = CommandExecutor.getInstance();
+        try {
+            executor.execute(CommandExecutor.Pool.CPU, () -> {
+                try {
+                    TextSearch.Replacement edit = search.replaceAll(text, replacement, token);
+                    executor.postToUi(() -> applyReplaceAll(search, edit, token, target, startEdit));
+                } catch (CancellationException e) {
+                    // A newer replace took over
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            replaceToken = null;
+            showToast("Busy, try again");
+        }
+    }
+
+    private void applyReplaceAll(TextSearch search, TextSearch.Replacement edit, CancellationToken token,
+                                 EditorBuffer target, int startEdit) {
+        if (replaceToken != token) {
+            return;
+        }
+        replaceToken = null;
+        if (target != buffer || target.getEditCount() != startEdit) {
+            showToast("Text changed while replacing, try again");
+        } else if (edit == null) {
+            showToast("Text not found: " + search.getQuery());
+        } else {
+            undoManager.beginCompound();
+            replaceInEditor(edit.start, edit.end - edit.start, edit.text);
+            undoManager.endCompound();
+            showToast("✓ Replaced " + edit.count + " occurrence(s)");
+        }
     }
 
     private void clearSearchHighlight() {
-        currentSearchPosition = -1;
+        searchSession.setSearch(null);
+        searchCount.setText("");
         lastSearchQuery = "";
+        if (largeFileAdapter != null) {
+            largeFileAdapter.setMatch(-1, 0, 0);
+        }
     }
 
     private void executeCommand() {
@@ -438,8 +1202,9 @@ public class TextEditorActivity extends AppCompatActivity {
                 saveAsFile();
                 break;
             case "clear":
+                if (rejectIfReadOnly()) break;
                 isUndoRedoOperation = true;
-                textEditor.setText("");
+                setEditorText("");
                 isUndoRedoOperation = false;
                 break;
             case "count":
@@ -452,6 +1217,13 @@ public class TextEditorActivity extends AppCompatActivity {
                     showToast("Usage: goto [line_number]");
                 }
                 break;
+            case "offset":
+                if (parts.length > 1) {
+                    gotoOffset(parts[1]);
+                } else {
+                    showToast("Usage: offset [position]");
+                }
+                break;
             case "find":
                 if (parts.length > 1) {
                     searchEditText.setText(parts[1]);
@@ -462,12 +1234,16 @@ public class TextEditorActivity extends AppCompatActivity {
                 }
                 break;
             case "replace":
+                if (rejectIfReadOnly()) break;
                 if (parts.length > 2) {
                     replaceText(parts[1], parts[2]);
                 } else {
                     showToast("Usage: replace [old_text] [new_text]");
                 }
                 break;
+            case "close":
+                closeBuffer(buffer);
+                break;
             case "exit":
                 finish();
                 break;
@@ -484,9 +1260,11 @@ public class TextEditorActivity extends AppCompatActivity {
                 "open [path] - Open file\n" +
                 "save - Save current file\n" +
                 "saveas - Save as new file\n" +
+                "close - Close current file\n" +
                 "clear - Clear editor\n" +
                 "count - Show word count\n" +
                 "goto [line] - Go to line number\n" +
+                "offset [pos] - Go to a character (byte, for large files) offset\n" +
                 "find [text] - Search for text\n" +
                 "replace [old] [new] - Replace text\n" +
                 "exit - Exit editor";
@@ -517,10 +1295,28 @@ public class TextEditorActivity extends AppCompatActivity {
     }
 
     private void showWordCount() {
-        String text = textEditor.getText().toString();
+        if (largeFileAdapter != null) {
+            LargeFileIndex index = largeFileAdapter.getIndex();
+            new AlertDialog.Builder(this)
+                    .setTitle("Statistics")
+                    .setMessage(String.format(Locale.US, "📊 Document Statistics:\n\nBytes: %d\nLines: %d\n\n"
+                            + "Large file, opened read-only", index.getLength(), index.getLineCount()))
+                    .setPositiveButton("OK", null)
+                    .show();
+            return;
+        }
+        PieceTable.Snapshot text = document.snapshot();
         int chars = text.length();
-        int words = text.trim().isEmpty() ? 0 : text.trim().split("\\s+").length;
-        int lines = text.isEmpty() ? 0 : text.split("\n").length;
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < chars; i++) {
+            boolean space = Character.isWhitespace(text.charAt(i));
+            if (!space && !inWord) {
+                words++;
+            }
+            inWord = !space;
+        }
+        int lines = chars == 0 ? 0 : text.getLineCount() - (text.charAt(chars - 1) == '\n' ? 1 : 0);
 
         String message = String.format("📊 Document Statistics:\n\nCharacters: %d\nWords: %d\nLines: %d",
                 chars, words, lines);
@@ -534,88 +1330,254 @@ public class TextEditorActivity extends AppCompatActivity {
     private void gotoLine(String lineStr) {
         try {
             int line = Integer.parseInt(lineStr);
-            String text = textEditor.getText().toString();
-            String[] lines = text.split("\n");
-
-            if (line > 0 && line <= lines.length) {
-                int position = 0;
-                for (int i = 0; i < line - 1; i++) {
-                    position += lines[i].length() + 1; // +1 for newline
+            if (largeFileAdapter != null) {
+                LargeFileIndex index = largeFileAdapter.getIndex();
+                if (line > 0 && line <= index.getLineCount()) {
+                    jumpInLargeFile(() -> index.rowOfLine(line), "line " + line);
+                } else {
+                    showToast("Line number out of range (1-" + index.getLineCount() + ")");
                 }
-                textEditor.setSelection(position);
+                return;
+            }
+            int lineCount = document.getLineCount();
+
+            if (line > 0 && line <= lineCount) {
+                textEditor.setSelection(document.getLineStart(line - 1));
                 textEditor.requestFocus();
                 showToast("✓ Moved to line " + line);
             } else {
-                showToast("Line number out of range (1-" + lines.length + ")");
+                showToast("Line number out of range (1-" + lineCount + ")");
             }
         } catch (NumberFormatException e) {
             showToast("Invalid line number");
         }
     }
 
-    private void replaceText(String oldText, String newText) {
-        String content = textEditor.getText().toString();
-        int count = 0;
-        String temp = content;
-        while (temp.contains(oldText)) {
-            temp = temp.replaceFirst(oldText, "");
-            count++;
-        }
-
-        if (count > 0) {
-            String replaced = content.replace(oldText, newText);
-            isUndoRedoOperation = true;
-            textEditor.setText(replaced);
-            isUndoRedoOperation = false;
-            showToast("✓ Replaced " + count + " occurrence(s)");
-        } else {
-            showToast("Text not found: " + oldText);
+    private void gotoOffset(String offsetStr) {
+        try {
+            long offset = Long.parseLong(offsetStr);
+            if (offset < 0) {
+                showToast("Invalid offset");
+            } else if (largeFileAdapter != null) {
+                jumpInLargeFile(() -> largeFileAdapter.getIndex().rowOfOffset(offset), "byte " + offset);
+            } else {
+                textEditor.setSelection((int) Math.min(offset, document.length()));
+                textEditor.requestFocus();
+                showToast("✓ Moved to offset " + Math.min(offset, document.length()));
+            }
+        } catch (NumberFormatException e) {
+            showToast("Invalid offset");
         }
     }
 
-    private void updateLineNumbers() {
-        String text = textEditor.getText().toString();
-        int lineCount = text.isEmpty() ? 1 : text.split("\n", -1).length;
+    private void replaceText(String oldText, String newText) {
+        // Literal and case-sensitive, as the command has always been
+        replaceAll(new TextSearch(oldText, true, false, false), newText);
+    }
 
-        StringBuilder lineNums = new StringBuilder();
-        for (int i = 1; i <= lineCount; i++) {
-            lineNums.append(i).append("\n");
+    // Give the view new text, replacing the document outright instead of mirroring the edit.
+    // The undo history refers to the old text, so it goes too.
+    private void setEditorText(String text) {
+        buffer.noteEdit();
+        document.setText(text);
+        undoManager.clear();
+        syncingEditor = true;
+        try {
+            textEditor.setText(text);
+        } finally {
+            syncingEditor = false;
         }
-        lineNumbers.setText(lineNums.toString());
     }
 
     private void updateStatusBar() {
-        String text = textEditor.getText().toString();
-        int cursorPos = textEditor.getSelectionStart();
+        int cursorPos = Math.max(0, Math.min(textEditor.getSelectionStart(), document.length()));
 
-        // Calculate line and column
-        String beforeCursor = text.substring(0, Math.min(cursorPos, text.length()));
-        String[] lines = beforeCursor.split("\n", -1);
-        int line = lines.length;
-        int column = lines[lines.length - 1].length() + 1;
+        // Calculate line and column from the document's line index
+        int line = document.getLineOfOffset(cursorPos);
+        int column = cursorPos - document.getLineStart(line) + 1;
 
-        lineInfo.setText(String.format("Ln %d, Col %d", line, column));
-        charCount.setText(text.length() + " chars");
+        lineInfo.setText(String.format("Ln %d, Col %d", line + 1, column));
+        charCount.setText(document.length() + " chars");
     }
 
     private void setModified(boolean modified) {
-        isModified = modified;
+        setModified(buffer, modified);
+    }
+
+    private void setModified(EditorBuffer target, boolean modified) {
+        if (target.isModified() == modified) {
+            return;
+        }
+        target.setModified(modified);
+        if (target == buffer && largeFileAdapter == null) {
+            showModified(modified);
+        }
+        updateTabs();
+    }
+
+    private void showModified(boolean modified) {
         fileStatus.setText(modified ? "●" : "○");
         fileStatus.setTextColor(modified ?
                 ContextCompat.getColor(this, android.R.color.holo_red_light) :
                 ContextCompat.getColor(this, android.R.color.holo_green_light));
     }
 
+    // ==================== Large file viewer ====================
+
+    private void showLargeFile(File file, LargeFileIndex index, TextFileIO.Encoding encoding,
+                               CancellationToken token) {
+        LargeFileAdapter adapter = new LargeFileAdapter(index, CommandExecutor.getInstance());
+        if (token.isCancelled() || isFinishing()) {
+            adapter.close();
+            return;
+        }
+        closeLargeFile();
+        // The viewer covers the editor; the buffer under it stays open, in its tab
+
+        largeFileAdapter = adapter;
+        largeFileView.setAdapter(adapter);
+        editorScrollView.setVisibility(View.GONE);
+        lineNumbers.setVisibility(View.GONE);
+        largeFileView.setVisibility(View.VISIBLE);
+
+        currentFilePath.setText(file.getName() + " [read-only]");
+        showEncoding(encoding);
+        showModified(false);
+        clearSearchHighlight();
+        updateTabs();
+        charCount.setText(formatFileSize(index.getLength()));
+        updateViewerStatus();
+        showToast("Large file opened read-only: " + file.getName());
+    }
+
+    // Back to the editor; the viewer's file is closed
+    private void closeLargeFile() {
+        if (viewerToken != null) {
+            viewerToken.cancel();
+            viewerToken = null;
+        }
+        if (largeFileAdapter == null) {
+            return;
+        }
+        largeFileAdapter.close();
+        largeFileAdapter = null;
+        largeFileView.setAdapter(null);
+        largeFileView.setVisibility(View.GONE);
+        editorScrollView.setVisibility(View.VISIBLE);
+        lineNumbers.setVisibility(View.VISIBLE);
+        showBufferInfo();
+        updateTabs();
+    }
+
+    private String formatFileSize(long size) {
+        if (size < 1024) return size + " B";
+        if (size < 1024 * 1024) return String.format(Locale.US, "%.1f KB", size / 1024.0);
+        if (size < 1024 * 1024 * 1024) return String.format(Locale.US, "%.1f MB", size / (1024.0 * 1024));
+        return String.format(Locale.US, "%.1f GB", size / (1024.0 * 1024 * 1024));
+    }
+
+    private boolean rejectIfReadOnly() {
+        if (largeFileAdapter == null) {
+            return false;
+        }
+        showToast("Read-only: file is too large to edit");
+        return true;
+    }
+
+    private void updateViewerStatus() {
+        if (largeFileAdapter == null) {
+            return;
+        }
+        int row = Math.max(0, largeFileLayoutManager.findFirstVisibleItemPosition());
+        int line = largeFileAdapter.getLineOfRow(row);
+        int lines = largeFileAdapter.getIndex().getLineCount();
+        lineInfo.setText(line > 0 ? String.format(Locale.US, "Ln %d of %d", line, lines)
+                : String.format(Locale.US, "%d lines", lines));
+    }
+
+    private interface RowLookup {
+        int find() throws IOException;
+    }
+
+    // Find a row in the background, then scroll to it
+    private void jumpInLargeFile(RowLookup lookup, String description) {
+        LargeFileAdapter adapter = largeFileAdapter;
+        CommandExecutor executor = CommandExecutor.getInstance();
+        try {
+            executor.execute(CommandExecutor.Pool.IO, () -> {
+                try {
+                    int row = lookup.find();
+                    executor.postToUi(() -> {
+                        if (largeFileAdapter == adapter) {
+                            largeFileLayoutManager.scrollToPositionWithOffset(row, 0);
+                            showToast("✓ Moved to " + description);
+                        }
+                    });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    executor.postToUi(() -> showToast("Error reading file: " + e.getMessage()));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            showToast("Busy, try again");
+        }
+    }
+
+    // Search the file from just after the current match, or from the top of the screen
+    private void searchLargeFile(String query) {
+        LargeFileAdapter adapter = largeFileAdapter;
+        int fromRow;
+        int fromColumn;
+        if (query.equals(lastSearchQuery) && adapter.getMatchRow() >= 0) {
+            fromRow = adapter.getMatchRow();
+            fromColumn = adapter.getMatchEnd();
+        } else {
+            fromRow = Math.max(0, largeFileLayoutManager.findFirstVisibleItemPosition());
+            fromColumn = 0;
+        }
+        lastSearchQuery = query;
+
+        if (viewerToken != null) {
+            viewerToken.cancel();
+        }
+        CancellationToken token = new CancellationToken();
+        viewerToken = token;
+        CommandExecutor executor = CommandExecutor.getInstance();
+        try {
+            executor.execute(CommandExecutor.Pool.IO, () -> {
+                try {
+                    LargeFileIndex.Match match = adapter.getIndex().search(query, fromRow, fromColumn, token);
+                    executor.postToUi(() -> {
+                        if (viewerToken != token || largeFileAdapter != adapter) {
+                            return;
+                        }
+                        viewerToken = null;
+                        if (match == null) {
+                            showToast("Not found");
+                            return;
+                        }
+                        adapter.setMatch(match.row, match.start, match.end);
+                        largeFileLayoutManager.scrollToPositionWithOffset(match.row, largeFileView.getHeight() / 3);
+                    });
+                } catch (CancellationException e) {
+                    // A newer search took over
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    executor.postToUi(() -> showToast("Error reading file: " + e.getMessage()));
+                }
+            });
+            showToast("Searching...");
+        } catch (RejectedExecutionException e) {
+            viewerToken = null;
+            showToast("Busy, try again");
+        }
+    }
+
     private void showSaveDialog(Runnable onDiscard) {
         new AlertDialog.Builder(this)
                 .setTitle("💾 Unsaved Changes")
                 .setMessage("Do you want to save changes before continuing?")
-                .setPositiveButton("Save", (dialog, which) -> {
-                    saveFile();
-                    if (!isModified) { // Only continue if save was successful
-                        onDiscard.run();
-                    }
-                })
+                .setPositiveButton("Save", (dialog, which) -> saveFile(onDiscard)) // Continues once saved
                 .setNegativeButton("Discard", (dialog, which) -> onDiscard.run())
                 .setNeutralButton("Cancel", null)
                 .show();
@@ -702,14 +1664,14 @@ public class TextEditorActivity extends AppCompatActivity {
         builder.show();
     }
 
-    private void showSaveDialog(File directory) {
-        showFileDialog(directory, false, this::saveToFile);
+    private void showSaveDialog(File directory, Runnable onSaved) {
+        showFileDialog(directory, false, file -> saveToFile(file, onSaved));
     }
 
     private void showSaveNameDialog(File directory, FileDialogCallback callback) {
         final EditText input = new EditText(this);
         input.setHint("filename.txt");
-        input.setText(currentFile != null ? currentFile.getName() : "untitled.txt");
+        input.setText(buffer.getTitle());
         input.setSelection(input.getText().length());
 
         new AlertDialog.Builder(this)
@@ -751,15 +1713,54 @@ public class TextEditorActivity extends AppCompatActivity {
         getOnBackPressedDispatcher().addCallback(this, new OnBackPressedCallback(true) {
             @Override
             public void handleOnBackPressed() {
-                if (isModified) {
-                    showSaveDialog(() -> finish());
-                } else {
-                    finish();
-                }
+                finishAfterSaving();
             }
         });
     }
 
+    // Offer to save each buffer with unsaved changes in turn, then leave
+    private void finishAfterSaving() {
+        EditorBuffer unsaved = buffers.firstModified();
+        if (unsaved == null) {
+            finish();
+            return;
+        }
+        showBuffer(unsaved);
+        // Saved or discarded either way, so there is nothing to recover
+        showSaveDialog(() -> {
+            removeBuffer(unsaved);
+            finishAfterSaving();
+        });
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // The process may be killed any time from here on
+        for (int i = 0; i < buffers.size(); i++) {
+            buffers.get(i).getJournal().flush();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        for (int i = 0; i < buffers.size(); i++) {
+            EditorBuffer open = buffers.get(i);
+            if (isFinishing() && !open.isModified()) {
+                open.getJournal().discard();
+            } else {
+                // Left for recovery, by the next instance if this one is being recreated
+                open.getJournal().close();
+            }
+        }
+        cancelIo();
+        if (replaceToken != null) {
+            replaceToken.cancel();
+        }
+        closeLargeFile();
+        super.onDestroy();
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
                                            @NonNull int[] grantResults) {
@@ -51,6 +51,15 @@ public class FileSystemManager {
         return homeDirectory + "/" + currentDirectory;
     }
 
+    /**
+     * Snapshot the file manager's working directory as an immutable context. Terminal sessions
+     * keep their own context and pass it to the methods below instead of relying on this one.
+     * @return Context for the current directory
+     */
+    public PathContext getPathContext() {
+        return new PathContext(homeDirectory, getAbsoluteCurrentDirectory());
+    }
+
     public boolean changeDirectory(String path) {
         if (path == null || path.trim().isEmpty()) {
             return false;
@@ -110,8 +119,18 @@ public class FileSystemManager {
     }
 
     public List<FileItem> listFiles() {
+        return listFiles(getPathContext(), ".");
+    }
+
+    /**
+     * List a directory, directories first
+     * @param ctx Working directory to resolve against
+     * @param path Directory to list
+     * @return Entries, empty if the path is not a directory
+     */
+    public List<FileItem> listFiles(PathContext ctx, String path) {
         List<FileItem> fileList = new ArrayList<>();
-        File dir = new File(getAbsoluteCurrentDirectory());
+        File dir = ctx.resolve(path);
 
         if (!dir.exists() || !dir.isDirectory()) {
             return fileList;
@@ -151,21 +170,29 @@ public class FileSystemManager {
     }
 
     public boolean createDirectory(String name) {
+        return createDirectory(getPathContext(), name);
+    }
+
+    public boolean createDirectory(PathContext ctx, String name) {
         if (name == null || name.trim().isEmpty()) {
             return false;
         }
 
-        File newDir = new File(getAbsoluteCurrentDirectory(), name.trim());
+        File newDir = ctx.resolve(name.trim());
         return newDir.mkdir();
     }
 
     public boolean createFile(String name) {
+        return createFile(getPathContext(), name);
+    }
+
+    public boolean createFile(PathContext ctx, String name) {
         if (name == null || name.trim().isEmpty()) {
             return false;
         }
 
         try {
-            File newFile = new File(getAbsoluteCurrentDirectory(), name.trim());
+            File newFile = ctx.resolve(name.trim());
             return newFile.createNewFile();
         } catch (IOException e) {
             e.printStackTrace();
@@ -174,11 +201,15 @@ public class FileSystemManager {
     }
 
     public boolean deleteFile(String name) {
+        return deleteFile(getPathContext(), name);
+    }
+
+    public boolean deleteFile(PathContext ctx, String name) {
         if (name == null || name.trim().isEmpty()) {
             return false;
         }
 
-        File file = new File(getAbsoluteCurrentDirectory(), name);
+        File file = ctx.resolve(name);
         return deleteRecursive(file);
     }
 
@@ -197,12 +228,16 @@ public class FileSystemManager {
     }
 
     public boolean renameFile(String oldName, String newName) {
+        return renameFile(getPathContext(), oldName, newName);
+    }
+
+    public boolean renameFile(PathContext ctx, String oldName, String newName) {
         if (oldName == null || newName == null || oldName.trim().isEmpty() || newName.trim().isEmpty()) {
             return false;
         }
 
-        File oldFile = new File(getAbsoluteCurrentDirectory(), oldName);
-        File newFile = new File(getAbsoluteCurrentDirectory(), newName.trim());
+        File oldFile = ctx.resolve(oldName);
+        File newFile = ctx.resolve(newName.trim());
 
         return oldFile.renameTo(newFile);
     }
@@ -276,8 +311,12 @@ public class FileSystemManager {
     }
 
     public String readFile(String filename) {
+        return readFile(getPathContext(), filename);
+    }
+
+    public String readFile(PathContext ctx, String filename) {
         try {
-            File file = new File(getAbsoluteCurrentDirectory(), filename);
+            File file = ctx.resolve(filename);
             if (!file.exists() || file.isDirectory()) {
                 return null;
             }
@@ -298,8 +337,12 @@ public class FileSystemManager {
     }
 
     public boolean writeFile(String filename, String content) {
+        return writeFile(getPathContext(), filename, content);
+    }
+
+    public boolean writeFile(PathContext ctx, String filename, String content) {
         try {
-            File file = new File(getAbsoluteCurrentDirectory(), filename);
+            File file = ctx.resolve(filename);
             try (FileWriter writer = new FileWriter(file)) {
                 writer.write(content);
                 return true;
@@ -377,11 +420,15 @@ public class FileSystemManager {
 
     // Get detailed file information
     public FileItem getFileInfo(String filename) {
+        return getFileInfo(getPathContext(), filename);
+    }
+
+    public FileItem getFileInfo(PathContext ctx, String filename) {
         if (filename == null || filename.trim().isEmpty()) {
             return null;
         }
 
-        File file = new File(getAbsoluteCurrentDirectory(), filename);
+        File file = ctx.resolve(filename);
         if (!file.exists()) {
             return null;
         }
@@ -421,11 +468,15 @@ public class FileSystemManager {
 
     // Check if file exists
     public boolean fileExists(String filename) {
+        return fileExists(getPathContext(), filename);
+    }
+
+    public boolean fileExists(PathContext ctx, String filename) {
         if (filename == null || filename.trim().isEmpty()) {
             return false;
         }
 
-        File file = new File(getAbsoluteCurrentDirectory(), filename);
+        File file = ctx.resolve(filename);
         return file.exists();
     }
 
@@ -0,0 +1,142 @@
+package com.example.linuxsimulator.data;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Immutable working-directory context: the home directory and an absolute current directory.
+ * Path resolution is a pure function of the context and the path, so commands running on
+ * different threads (or in different terminal sessions) never see each other's cd.
+ * Changing directory yields a new context instead of modifying this one.
+ */
+public final class PathContext {
+
+    private final String homeDirectory;
+    private final String currentDirectory;
+
+    /**
+     * Create a context
+     * @param homeDirectory Absolute home directory, what ~ expands to
+     * @param currentDirectory Absolute current directory
+     */
+    public PathContext(String homeDirectory, String currentDirectory) {
+        this.homeDirectory = normalize(homeDirectory);
+        this.currentDirectory = normalize(currentDirectory);
+    }
+
+    public String getHomeDirectory() {
+        return homeDirectory;
+    }
+
+    /**
+     * Get the current directory
+     * @return Absolute, normalized path
+     */
+    public String getCurrentDirectory() {
+        return currentDirectory;
+    }
+
+    public File getCurrentDirectoryFile() {
+        return new File(currentDirectory);
+    }
+
+    /**
+     * Get the current directory for prompts, with the home directory shown as ~
+     * @return Display path
+     */
+    public String getDisplayDirectory() {
+        if (currentDirectory.equals(homeDirectory)) {
+            return "~";
+        }
+        if (currentDirectory.startsWith(homeDirectory + "/")) {
+            return "~" + currentDirectory.substring(homeDirectory.length());
+        }
+        return currentDirectory;
+    }
+
+    /**
+     * Resolve a path against this context. Handles ~, ~/..., absolute and relative paths,
+     * . and .. components; does not touch the file system.
+     * @param path Path as typed
+     * @return Absolute, normalized path
+     */
+    public String resolvePath(String path) {
+        if (path == null || path.isEmpty() || path.equals(".")) {
+            return currentDirectory;
+        }
+        if (path.equals("~")) {
+            return homeDirectory;
+        }
+        if (path.startsWith("~/")) {
+            return normalize(homeDirectory + path.substring(1));
+        }
+        if (path.startsWith("/")) {
+            return normalize(path);
+        }
+        return normalize(currentDirectory + "/" + path);
+    }
+
+    /**
+     * Resolve a path against this context
+     * @param path Path as typed
+     * @return File for the absolute path
+     */
+    public File resolve(String path) {
+        return new File(resolvePath(path));
+    }
+
+    /**
+     * Change directory
+     * @param path Target directory as typed
+     * @return New context, or null if the target is not an existing directory
+     */
+    public PathContext changeDirectory(String path) {
+        String target = resolvePath(path == null || path.trim().isEmpty() ? "~" : path.trim());
+        if (!new File(target).isDirectory()) {
+            return null;
+        }
+        return target.equals(currentDirectory) ? this : new PathContext(homeDirectory, target);
+    }
+
+    // Collapse duplicate slashes, . and .. components; .. above the root stays at the root
+    private static String normalize(String path) {
+        Deque<String> parts = new ArrayDeque<>();
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || part.equals(".")) {
+                continue;
+            }
+            if (part.equals("..")) {
+                parts.pollLast();
+            } else {
+                parts.addLast(part);
+            }
+        }
+        if (parts.isEmpty()) {
+            return "/";
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (String part : parts) {
+            normalized.append('/').append(part);
+        }
+        return normalized.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PathContext)) return false;
+        PathContext other = (PathContext) o;
+        return homeDirectory.equals(other.homeDirectory) && currentDirectory.equals(other.currentDirectory);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * homeDirectory.hashCode() + currentDirectory.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return currentDirectory;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.linuxsimulator.editor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The buffers open in the editor, in tab order, with a memory budget for the ones not shown.
+ * Buffers are tracked from least to most recently shown; when their piece tables and undo
+ * histories add up to more than the budget, the least recently shown buffers with no unsaved
+ * changes are spilled back to their files until the rest fit. Buffers with unsaved changes
+ * are never spilled, whatever the budget.
+ *
+ * Used from the UI thread.
+ */
+public final class BufferList {
+
+    private final long budgetBytes;
+    private final List<EditorBuffer> buffers = new ArrayList<>();
+    // Least recently shown first
+    private final LinkedHashMap<EditorBuffer, Boolean> recent = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param budgetBytes Memory the buffers may hold before clean ones are spilled
+     */
+    public BufferList(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public int size() {
+        return buffers.size();
+    }
+
+    public EditorBuffer get(int index) {
+        return buffers.get(index);
+    }
+
+    public int indexOf(EditorBuffer buffer) {
+        return buffers.indexOf(buffer);
+    }
+
+    /**
+     * Add a buffer after the others
+     * @param buffer Buffer to add
+     */
+    public void add(EditorBuffer buffer) {
+        buffers.add(buffer);
+        recent.put(buffer, Boolean.TRUE);
+    }
+
+    public void remove(EditorBuffer buffer) {
+        buffers.remove(buffer);
+        recent.remove(buffer);
+    }
+
+    /**
+     * Find the buffer a file is open in
+     * @param file File to look for
+     * @return Buffer, or null if the file is not open
+     */
+    public EditorBuffer find(File file) {
+        for (EditorBuffer buffer : buffers) {
+            if (file.equals(buffer.getFile())) {
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the first buffer with unsaved changes
+     * @return Buffer, or null if everything is saved
+     */
+    public EditorBuffer firstModified() {
+        for (EditorBuffer buffer : buffers) {
+            if (buffer.isModified()) {
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Note that a buffer is being shown, then spill buffers until the rest fit the budget
+     * @param shown Buffer now shown; never spilled
+     * @return Buffers spilled
+     */
+    public List<EditorBuffer> show(EditorBuffer shown) {
+        recent.put(shown, Boolean.TRUE);
+        return trim(shown, budgetBytes);
+    }
+
+    /**
+     * Spill buffers until the rest fit a budget, least recently shown first
+     * @param shown Buffer shown; never spilled
+     * @param budget Bytes the buffers may hold
+     * @return Buffers spilled
+     */
+    public List<EditorBuffer> trim(EditorBuffer shown, long budget) {
+        List<EditorBuffer> spilled = new ArrayList<>();
+        long used = 0;
+        for (EditorBuffer buffer : buffers) {
+            used += buffer.getMemoryBytes();
+        }
+        for (EditorBuffer buffer : recent.keySet()) {
+            if (used <= budget) {
+                break;
+            }
+            if (buffer == shown || buffer.isSpilled() || buffer.isModified() || buffer.getFile() == null) {
+                continue;
+            }
+            used -= buffer.getMemoryBytes();
+            buffer.spill();
+            spilled.add(buffer);
+        }
+        return spilled;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.linuxsimulator.editor;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Lexer for the C family, scripting languages and JSON, set up per language with its
+ * keywords, comment markers and quote characters. It knows enough to find comments, strings,
+ * numbers and keywords; it does not parse.
+ */
+final class CodeLexer extends SyntaxLexer {
+
+    // Options
+    private static final int TRIPLE_QUOTES = 1;   // Python """ and '''
+    private static final int SHELL_SYNTAX = 2;    // $variables, raw single quotes, # only at a word start
+    private static final int PREPROCESSOR = 4;    // #include and friends
+    private static final int KEYS = 8;            // A string before ':' is an object key
+
+    // States a line can start in, besides INITIAL_STATE
+    private static final int IN_BLOCK_COMMENT = 1;
+    private static final int IN_STRING = 0x10000;  // | quote character
+    private static final int IN_TRIPLE = 0x20000;  // | quote character
+
+    static final CodeLexer SHELL = new CodeLexer(
+            words("if then else elif fi case esac for select while until do done in function time "
+                    + "return exit break continue local export readonly declare unset shift source"),
+            words("true false"), "#", null, null, "\"'`", "\"'`", SHELL_SYNTAX);
+
+    static final CodeLexer PYTHON = new CodeLexer(
+            words("and as assert async await break class continue def del elif else except finally "
+                    + "for from global if import in is lambda nonlocal not or pass raise return try "
+                    + "while with yield match case"),
+            words("True False None"), "#", null, null, "\"'", "", TRIPLE_QUOTES);
+
+    static final CodeLexer JAVA = new CodeLexer(
+            words("abstract assert boolean break byte case catch char class const continue default "
+                    + "do double else enum extends final finally float for goto if implements import "
+                    + "instanceof int interface long native new package private protected public "
+                    + "return short static strictfp super switch synchronized this throw throws "
+                    + "transient try void volatile while var record yield"),
+            words("true false null"), "//", "/*", "*/", "\"'", "", 0);
+
+    private static final String C_KEYWORDS = "auto break case char const continue default do double "
+            + "else enum extern float for goto if inline int long register restrict return short "
+            + "signed sizeof static struct switch typedef union unsigned void volatile while";
+
+    static final CodeLexer C = new CodeLexer(words(C_KEYWORDS),
+            words("NULL true false"), "//", "/*", "*/", "\"'", "", PREPROCESSOR);
+
+    static final CodeLexer CPP = new CodeLexer(
+            words(C_KEYWORDS + " bool catch class constexpr delete explicit friend mutable namespace "
+                    + "new noexcept operator override private protected public template this throw "
+                    + "try typename using virtual"),
+            words("NULL nullptr true false"), "//", "/*", "*/", "\"'", "", PREPROCESSOR);
+
+    static final CodeLexer JAVASCRIPT = new CodeLexer(
+            words("async await break case catch class const continue debugger default delete do "
+                    + "else export extends finally for function if import in instanceof let new of "
+                    + "return static super switch this throw try typeof var void while with yield"),
+            words("true false null undefined NaN Infinity"), "//", "/*", "*/", "\"'`", "`", 0);
+
+    static final CodeLexer JSON = new CodeLexer(new HashSet<>(),
+            words("true false null"), null, null, null, "\"", "", KEYS);
+
+    private final Set<String> keywords;
+    private final Set<String> literals;
+    private final String lineComment;
+    private final String blockOpen;
+    private final String blockClose;
+    private final String quotes;
+    // Quotes whose strings may run over several lines
+    private final String multilineQuotes;
+    private final int options;
+
+    private CodeLexer(Set<String> keywords, Set<String> literals, String lineComment,
+                      String blockOpen, String blockClose, String quotes, String multilineQuotes,
+                      int options) {
+        this.keywords = keywords;
+        this.literals = literals;
+        this.lineComment = lineComment;
+        this.blockOpen = blockOpen;
+        this.blockClose = blockClose;
+        this.quotes = quotes;
+        this.multilineQuotes = multilineQuotes;
+        this.options = options;
+    }
+
+    private static Set<String> words(String list) {
+        return new HashSet<>(Arrays.asList(list.split(" ")));
+    }
+
+    @Override
+    public int lexLine(CharSequence text, int start, int end, int state, TokenSink sink) {
+        int i = start;
+        // Finish whatever the previous line left open
+        if (state == IN_BLOCK_COMMENT) {
+            int close = indexOf(text, i, end, blockClose);
+            if (close < 0) {
+                emit(sink, i, end, COMMENT);
+                return state;
+            }
+            i = close + blockClose.length();
+            emit(sink, start, i, COMMENT);
+        } else if (state != INITIAL_STATE) {
+            char quote = (char) (state & 0xFFFF);
+            boolean triple = (state & IN_TRIPLE) != 0;
+            int close = stringEnd(text, i, end, quote, triple);
+            if (close < 0) {
+                emit(sink, i, end, STRING);
+                return state;
+            }
+            emit(sink, i, close, STRING);
+            i = close;
+        }
+
+        if ((options & PREPROCESSOR) != 0) {
+            int first = skipSpaces(text, i, end);
+            if (first < end && text.charAt(first) == '#') {
+                int word = skipSpaces(text, first + 1, end);
+                int wordEnd = identifierEnd(text, word, end);
+                emit(sink, first, wordEnd, KEYWORD);
+                i = wordEnd;
+            }
+        }
+
+        while (i < end) {
+            char c = text.charAt(i);
+            if (lineComment != null && regionMatches(text, i, end, lineComment)
+                    && ((options & SHELL_SYNTAX) == 0 || i == start || Character.isWhitespace(text.charAt(i - 1)))) {
+                emit(sink, i, end, COMMENT);
+                return INITIAL_STATE;
+            }
+            if (blockOpen != null && regionMatches(text, i, end, blockOpen)) {
+                int close = indexOf(text, i + blockOpen.length(), end, blockClose);
+                if (close < 0) {
+                    emit(sink, i, end, COMMENT);
+                    return IN_BLOCK_COMMENT;
+                }
+                emit(sink, i, close + blockClose.length(), COMMENT);
+                i = close + blockClose.length();
+                continue;
+            }
+            if (quotes.indexOf(c) >= 0) {
+                boolean triple = (options & TRIPLE_QUOTES) != 0 && regionMatches(text, i, end, tripled(c));
+                int close = stringEnd(text, i + (triple ? 3 : 1), end, c, triple);
+                if (close < 0) {
+                    emit(sink, i, end, STRING);
+                    if (triple) {
+                        return IN_TRIPLE | c;
+                    }
+                    return multilineQuotes.indexOf(c) >= 0 ? IN_STRING | c : INITIAL_STATE;
+                }
+                emit(sink, i, close, (options & KEYS) != 0 && isKey(text, close, end) ? ATTRIBUTE : STRING);
+                i = close;
+                continue;
+            }
+            if ((options & SHELL_SYNTAX) != 0 && c == '$' && i + 1 < end) {
+                int variableEnd = variableEnd(text, i + 1, end);
+                emit(sink, i, variableEnd, VARIABLE);
+                i = variableEnd;
+                continue;
+            }
+            if (Character.isDigit(c)) {
+                int numberEnd = i + 1;
+                while (numberEnd < end && (Character.isLetterOrDigit(text.charAt(numberEnd))
+                        || text.charAt(numberEnd) == '.')) {
+                    numberEnd++;
+                }
+                emit(sink, i, numberEnd, LITERAL);
+                i = numberEnd;
+                continue;
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                int wordEnd = identifierEnd(text, i, end);
+                // Only the end state matters when nothing is listening, and words never change it
+                if (sink != null) {
+                    String word = text.subSequence(i, wordEnd).toString();
+                    if (keywords.contains(word)) {
+                        sink.onToken(i, wordEnd, KEYWORD);
+                    } else if (literals.contains(word)) {
+                        sink.onToken(i, wordEnd, LITERAL);
+                    }
+                }
+                i = wordEnd;
+                continue;
+            }
+            i++;
+        }
+        return INITIAL_STATE;
+    }
+
+    // Offset just past the closing quote, or -1 if the string does not close on this line
+    private int stringEnd(CharSequence text, int from, int end, char quote, boolean triple) {
+        // Nothing escapes inside single quotes in the shell
+        boolean escapes = (options & SHELL_SYNTAX) == 0 || quote != '\'';
+        for (int i = from; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && escapes) {
+                i++;
+            } else if (c == quote) {
+                if (!triple) {
+                    return i + 1;
+                }
+                if (regionMatches(text, i, end, tripled(quote))) {
+                    return i + 3;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static String tripled(char quote) {
+        return quote == '"' ? "\"\"\"" : "'''";
+    }
+
+    // A JSON string followed by a colon names a key
+    private static boolean isKey(CharSequence text, int from, int end) {
+        int next = skipSpaces(text, from, end);
+        return next < end && text.charAt(next) == ':';
+    }
+
+    // $name, ${...}, or a special parameter such as $? or $1
+    private static int variableEnd(CharSequence text, int from, int end) {
+        char c = text.charAt(from);
+        if (c == '{') {
+            int close = indexOf(text, from, end, "}");
+            return close < 0 ? end : close + 1;
+        }
+        if (Character.isLetter(c) || c == '_') {
+            return identifierEnd(text, from, end);
+        }
+        return "?#@*!$-0123456789".indexOf(c) >= 0 ? from + 1 : from;
+    }
+
+    private static int identifierEnd(CharSequence text, int from, int end) {
+        int i = from;
+        while (i < end && Character.isJavaIdentifierPart(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipSpaces(CharSequence text, int from, int end) {
+        int i = from;
+        while (i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
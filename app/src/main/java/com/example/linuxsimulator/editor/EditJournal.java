@@ -0,0 +1,590 @@
+package com.example.linuxsimulator.editor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+import com.example.linuxsimulator.terminal.CommandExecutor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the edits made to a document since it was last loaded or saved, so
+ * unsaved changes survive the process being killed. The journal names the file the edits
+ * apply to, then holds one record per edit: the range replaced and the text put in its place.
+ * Recovery reads the file back and replays the records, which costs no more than the edits
+ * themselves; nothing has to rewrite the whole document while the user types.
+ *
+ * Edits are collected in memory and appended in batches on the IO pool once typing pauses,
+ * then synced to the disk. Every record carries a checksum, so a record cut short by the
+ * process dying mid-write is simply where the journal ends.
+ *
+ * A journal is open from the time it starts until it is discarded or closed and written out.
+ * Recovery leaves open journals alone: they belong to an editor still running in this process.
+ *
+ * Used from the UI thread.
+ */
+public final class EditJournal implements PieceTable.ChangeListener {
+
+    private static final int MAGIC = 0x45444A31; // "EDJ1"
+    // Appended once typing has paused this long
+    private static final long IDLE_MS = 1000;
+    // ...or at the latest this long after the oldest edit not yet written
+    private static final long MAX_DELAY_MS = 5000;
+    // ...or straight away once this much is waiting
+    private static final int MAX_PENDING_BYTES = 64 * 1024;
+
+    // Paths of the journals open in this process, mapped to whether they are being closed
+    private static final Map<String, Boolean> OPEN = new HashMap<>();
+
+    /**
+     * Size and modification time of a file, taken when its text was read or written. Recovery
+     * only replays onto a file that still matches.
+     */
+    public static final class Stamp {
+        final long length;
+        final long modified;
+
+        private Stamp(long length, long modified) {
+            this.length = length;
+            this.modified = modified;
+        }
+
+        /**
+         * Stamp a file as it is now; call from the IO pool
+         * @param file File just read or written
+         * @return Its stamp
+         */
+        public static Stamp of(File file) {
+            return new Stamp(file.length(), file.lastModified());
+        }
+
+        boolean matches(File file) {
+            return file.length() == length && file.lastModified() == modified;
+        }
+    }
+
+    /**
+     * Edits found in a journal left behind by an earlier process
+     */
+    public static final class Recovery {
+        // Null for an untitled document
+        private final File file;
+        // Null when the journal starts from an empty document instead of the file's text
+        private final Stamp stamp;
+        private final TextFileIO.Encoding encoding;
+        // Offset, removed length and inserted text of every edit, in order
+        private final int[] offsets;
+        private final int[] removed;
+        private final List<String> inserted;
+
+        Recovery(File file, Stamp stamp, TextFileIO.Encoding encoding, int[] offsets, int[] removed,
+                 List<String> inserted) {
+            this.file = file;
+            this.stamp = stamp;
+            this.encoding = encoding;
+            this.offsets = offsets;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        /**
+         * @return File the edits were made to, or null if it was never saved
+         */
+        public File getFile() {
+            return file;
+        }
+
+        public TextFileIO.Encoding getEncoding() {
+            return encoding;
+        }
+
+        public int getEditCount() {
+            return inserted.size();
+        }
+
+        /**
+         * Rebuild the document: read the file the journal starts from and replay the edits on
+         * it. Call from the IO pool.
+         * @param token Stops the work when cancelled
+         * @param listener Progress reading the file, or null
+         * @return Text with every journalled edit applied
+         * @throws IOException if the file cannot be read, has changed since the journal began,
+         *                     or the edits do not fit it
+         * @throws java.util.concurrent.CancellationException if the token was cancelled
+         */
+        public String replay(CancellationToken token, ProgressListener listener) throws IOException {
+            String base = "";
+            if (stamp != null) {
+                if (!stamp.matches(file)) {
+                    throw new IOException(file.getName() + " has changed since it was edited");
+                }
+                base = TextFileIO.read(file, encoding, token, listener).text;
+            }
+            PieceTable text = new PieceTable(base);
+            for (int i = 0; i < inserted.size(); i++) {
+                if ((i & 255) == 0) {
+                    token.throwIfCancelled();
+                }
+                try {
+                    text.replace(offsets[i], removed[i], inserted.get(i));
+                } catch (IndexOutOfBoundsException e) {
+                    throw new IOException("Journal does not match " + (file != null ? file.getName() : "the text"));
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    private final File file;
+    private final CommandExecutor executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable idleFlush = this::flush;
+    private PieceTable document;
+    // Whether edits are being journalled; off until the document has a starting point
+    private boolean active;
+    // When the oldest edit not yet handed to the IO pool was made
+    private long pendingSince;
+
+    private final Object lock = new Object();
+    // Records waiting to be appended
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    // Header of a journal that replaces the file, or null to append to it
+    private byte[] pendingHeader;
+    private boolean pendingDelete;
+    // Let the journal go once everything before it is written
+    private boolean pendingRelease;
+    private boolean drainScheduled;
+
+    public EditJournal(File file, CommandExecutor executor) {
+        this.file = file;
+        this.executor = executor;
+    }
+
+    /**
+     * Journal the edits made to a document
+     * @param document Document to follow
+     */
+    public void attach(PieceTable document) {
+        if (this.document != null) {
+            this.document.removeChangeListener(this);
+        }
+        this.document = document;
+        document.addChangeListener(this);
+    }
+
+    /**
+     * Start over from a file's text as it is on disk; edits from now on are journalled
+     * against it
+     * @param base File the document was read from or just written to
+     * @param stamp Stamp taken when it was read or written
+     * @param encoding Encoding of the file
+     */
+    public void start(File base, Stamp stamp, TextFileIO.Encoding encoding) {
+        begin(header(base, stamp, encoding), null);
+    }
+
+    /**
+     * Start over from text that is not on disk, e.g. an untitled document or one edited while
+     * it was being saved. The text is journalled in full first.
+     * @param base File the text belongs to, or null if it has none yet
+     * @param text Text of the document now
+     * @param encoding Encoding to save it in
+     */
+    public void start(File base, CharSequence text, TextFileIO.Encoding encoding) {
+        begin(header(base, null, encoding), text);
+    }
+
+    /**
+     * Carry on from a journal that was just recovered. It is written out again with the same
+     * starting point and edits, which also drops a record the old process left half written.
+     * @param recovery Edits recovered and applied to the document
+     */
+    public void resume(Recovery recovery) {
+        begin(header(recovery.file, recovery.stamp, recovery.encoding), null);
+        for (int i = 0; i < recovery.inserted.size(); i++) {
+            record(recovery.offsets[i], recovery.removed[i], recovery.inserted.get(i));
+        }
+        flush();
+    }
+
+    /**
+     * Stop journalling and remove the journal, e.g. when the document is thrown away
+     */
+    public void discard() {
+        active = false;
+        handler.removeCallbacks(idleFlush);
+        synchronized (lock) {
+            pending.reset();
+            pendingHeader = null;
+            pendingDelete = true;
+            pendingRelease = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Stop journalling but keep the journal, e.g. when the editor goes away with the document
+     * unsaved. It is written out, then left for recovery.
+     */
+    public void close() {
+        active = false;
+        handler.removeCallbacks(idleFlush);
+        synchronized (OPEN) {
+            if (OPEN.containsKey(file.getAbsolutePath())) {
+                OPEN.put(file.getAbsolutePath(), true);
+            }
+        }
+        synchronized (lock) {
+            pendingRelease = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Check whether an editor in this process has a journal open
+     * @param file Journal file
+     * @return True if it is open, or being closed
+     */
+    public static boolean isOpen(File file) {
+        synchronized (OPEN) {
+            return OPEN.containsKey(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Wait for a journal that is being {@link #close() closed} to be written out, e.g. by an
+     * editor destroyed to be recreated. Call from the IO pool.
+     * @param file Journal file
+     * @param timeoutMs Longest to wait
+     * @return True if the journal is not open, so recovery may have it
+     * @throws InterruptedException if the wait was interrupted
+     */
+    public static boolean awaitClosed(File file, long timeoutMs) throws InterruptedException {
+        String path = file.getAbsolutePath();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (OPEN) {
+            while (Boolean.TRUE.equals(OPEN.get(path))) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    break;
+                }
+                OPEN.wait(left);
+            }
+            return !OPEN.containsKey(path);
+        }
+    }
+
+    /**
+     * Append the edits collected so far now instead of waiting for typing to pause, e.g.
+     * when the app goes to the background
+     */
+    public void flush() {
+        handler.removeCallbacks(idleFlush);
+        synchronized (lock) {
+            if (pending.size() > 0 || pendingHeader != null) {
+                schedule();
+            }
+        }
+    }
+
+    @Override
+    public void onTextChanged(int offset, int removed, int inserted, int line, int lineDelta) {
+        if (!active) {
+            return;
+        }
+        record(offset, removed, document.getText(offset, offset + inserted));
+    }
+
+    private void begin(byte[] header, CharSequence text) {
+        handler.removeCallbacks(idleFlush);
+        synchronized (OPEN) {
+            OPEN.put(file.getAbsolutePath(), false);
+        }
+        synchronized (lock) {
+            pending.reset();
+            pendingHeader = header;
+            pendingDelete = false;
+            pendingRelease = false;
+        }
+        active = true;
+        if (text != null && text.length() > 0) {
+            record(0, 0, text.toString());
+        }
+        flush();
+    }
+
+    private void record(int offset, int removed, String inserted) {
+        byte[] record = frame(offset, removed, inserted);
+        long now = SystemClock.uptimeMillis();
+        int size;
+        synchronized (lock) {
+            if (pending.size() == 0) {
+                pendingSince = now;
+            }
+            pending.write(record, 0, record.length);
+            size = pending.size();
+        }
+        if (size >= MAX_PENDING_BYTES || now - pendingSince >= MAX_DELAY_MS) {
+            flush();
+        } else {
+            handler.removeCallbacks(idleFlush);
+            handler.postDelayed(idleFlush, IDLE_MS);
+        }
+    }
+
+    // One edit as stored: length, then offset, removed length and inserted text, then checksum
+    static byte[] frame(int offset, int removed, CharSequence inserted) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(8 + inserted.length());
+        writeInt(payload, offset);
+        writeInt(payload, removed);
+        encode(inserted, payload);
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 8);
+        writeInt(record, bytes.length);
+        record.write(bytes, 0, bytes.length);
+        writeInt(record, (int) crc.getValue());
+        return record.toByteArray();
+    }
+
+    static byte[] header(File base, Stamp stamp, TextFileIO.Encoding encoding) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(base != null ? base.getAbsolutePath() : "");
+            out.writeBoolean(stamp != null);
+            out.writeLong(stamp != null ? stamp.length : 0);
+            out.writeLong(stamp != null ? stamp.modified : 0);
+            out.writeUTF(encoding.charset.name());
+            out.writeBoolean(encoding.bom);
+            out.writeUTF(encoding.lineSeparator);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // UTF-8 one char at a time, as DataOutputStream.writeUTF does, so half of a surrogate
+    // pair split by an edit survives the round trip
+    private static void encode(CharSequence text, ByteArrayOutputStream out) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != 0 && c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | c >> 6);
+                out.write(0x80 | c & 0x3F);
+            } else {
+                out.write(0xE0 | c >> 12);
+                out.write(0x80 | c >> 6 & 0x3F);
+                out.write(0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private static String decode(byte[] bytes, int from) {
+        StringBuilder text = new StringBuilder(bytes.length - from);
+        int i = from;
+        while (i < bytes.length) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                text.append((char) b);
+                i++;
+            } else if (b < 0xE0) {
+                text.append((char) ((b & 0x1F) << 6 | bytes[i + 1] & 0x3F));
+                i += 2;
+            } else {
+                text.append((char) ((b & 0x0F) << 12 | (bytes[i + 1] & 0x3F) << 6 | bytes[i + 2] & 0x3F));
+                i += 3;
+            }
+        }
+        return text.toString();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    // ==================== IO pool ====================
+
+    // Called with the lock held; one drain at a time keeps the writes in order
+    private void schedule() {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        try {
+            executor.execute(CommandExecutor.Pool.IO, this::drain);
+        } catch (RejectedExecutionException e) {
+            // Still pending; the next flush schedules it again
+            drainScheduled = false;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            byte[] header;
+            byte[] records;
+            boolean delete;
+            synchronized (lock) {
+                if (pending.size() == 0 && pendingHeader == null && !pendingDelete) {
+                    drainScheduled = false;
+                    if (pendingRelease) {
+                        pendingRelease = false;
+                        release();
+                    }
+                    return;
+                }
+                header = pendingHeader;
+                records = pending.toByteArray();
+                delete = pendingDelete;
+                pending.reset();
+                pendingHeader = null;
+                pendingDelete = false;
+            }
+            try {
+                if (delete) {
+                    file.delete();
+                }
+                if (header != null || records.length > 0) {
+                    write(header, records);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void release() {
+        synchronized (OPEN) {
+            OPEN.remove(file.getAbsolutePath());
+            OPEN.notifyAll();
+        }
+    }
+
+    private void write(byte[] header, byte[] records) throws IOException {
+        if (header == null && !file.exists()) {
+            // Nothing to append to; the journal was removed, so these edits have no base
+            return;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        try (FileOutputStream out = new FileOutputStream(file, header == null)) {
+            if (header != null) {
+                out.write(header);
+            }
+            out.write(records);
+            out.getFD().sync();
+        }
+    }
+
+    // ==================== Recovery ====================
+
+    /**
+     * Read the journal left by an earlier process. Call from the IO pool, before anything new
+     * is journalled.
+     * @param file Journal file
+     * @return Its edits, or null if there is no journal or it holds no edits
+     * @throws IOException if the journal cannot be read
+     */
+    public static Recovery read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            File base;
+            Stamp stamp;
+            TextFileIO.Encoding encoding;
+            try {
+                if (in.readInt() != MAGIC) {
+                    return null;
+                }
+                String path = in.readUTF();
+                base = path.isEmpty() ? null : new File(path);
+                boolean stamped = in.readBoolean();
+                long length = in.readLong();
+                long modified = in.readLong();
+                stamp = stamped && base != null ? new Stamp(length, modified) : null;
+                String charset = in.readUTF();
+                boolean bom = in.readBoolean();
+                String lineSeparator = in.readUTF();
+                encoding = new TextFileIO.Encoding(Charset.forName(charset), bom, lineSeparator);
+            } catch (EOFException | IllegalArgumentException e) {
+                // Cut short before the header was complete, or from an unknown charset
+                return null;
+            }
+
+            int[] offsets = new int[64];
+            int[] removed = new int[64];
+            List<String> inserted = new ArrayList<>();
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    if (length < 8 || length > file.length()) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    crc.reset();
+                    crc.update(record);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // The last batch was cut short; everything before it stands
+                    break;
+                }
+                int count = inserted.size();
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    removed = Arrays.copyOf(removed, count * 2);
+                }
+                offsets[count] = readInt(record, 0);
+                removed[count] = readInt(record, 4);
+                try {
+                    inserted.add(decode(record, 8));
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    break;
+                }
+            }
+            if (inserted.isEmpty()) {
+                return null;
+            }
+            return new Recovery(base, stamp, encoding, offsets, removed, inserted);
+        }
+    }
+
+    private static int readInt(byte[] bytes, int at) {
+        return (bytes[at] & 0xFF) << 24 | (bytes[at + 1] & 0xFF) << 16
+                | (bytes[at + 2] & 0xFF) << 8 | (bytes[at + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.linuxsimulator.editor;
+
+import com.example.linuxsimulator.terminal.CommandExecutor;
+
+import java.io.File;
+
+/**
+ * One open file in the editor: its document, undo history and journal, and where the view
+ * was the last time it was shown. While another file is shown the buffer keeps its piece
+ * table, so switching back costs no more than handing the text to the view; a buffer with no
+ * unsaved changes can instead be spilled, dropping the text and keeping only the file to read
+ * it from again.
+ *
+ * Used from the UI thread.
+ */
+public final class EditorBuffer {
+
+    private final EditJournal journal;
+    private final UndoManager undoManager = new UndoManager();
+    // Null while spilled
+    private PieceTable document = new PieceTable();
+    // Null until the buffer is saved
+    private File file;
+    private TextFileIO.Encoding encoding = TextFileIO.Encoding.DEFAULT;
+    private boolean modified;
+    // Bumped on every edit, so a save can tell whether the text changed while it ran
+    private int editCount;
+    // Where the view was when another buffer was shown
+    private int selectionStart;
+    private int selectionEnd;
+    private int scrollY;
+
+    /**
+     * Create an empty, untitled buffer
+     * @param journalFile File to journal its edits in
+     * @param executor Executor for the journal
+     */
+    public EditorBuffer(File journalFile, CommandExecutor executor) {
+        journal = new EditJournal(journalFile, executor);
+        journal.attach(document);
+    }
+
+    /**
+     * @return The document, or null while the buffer is spilled
+     */
+    public PieceTable getDocument() {
+        return document;
+    }
+
+    public UndoManager getUndoManager() {
+        return undoManager;
+    }
+
+    public EditJournal getJournal() {
+        return journal;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public String getTitle() {
+        return file != null ? file.getName() : "untitled.txt";
+    }
+
+    public TextFileIO.Encoding getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(TextFileIO.Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    public void setModified(boolean modified) {
+        this.modified = modified;
+    }
+
+    public int getEditCount() {
+        return editCount;
+    }
+
+    public void noteEdit() {
+        editCount++;
+    }
+
+    /**
+     * Check whether the buffer is an untitled one that was never typed in, which opening a
+     * file may simply replace
+     * @return True if there is nothing in it to lose
+     */
+    public boolean isPristine() {
+        return file == null && !modified && document != null && document.length() == 0;
+    }
+
+    // ==================== View state ====================
+
+    /**
+     * Remember where the view was, before another buffer is shown
+     * @param selectionStart Selection start
+     * @param selectionEnd Selection end
+     * @param scrollY Vertical scroll position
+     */
+    public void saveViewState(int selectionStart, int selectionEnd, int scrollY) {
+        this.selectionStart = selectionStart;
+        this.selectionEnd = selectionEnd;
+        this.scrollY = scrollY;
+    }
+
+    public int getSelectionStart() {
+        return selectionStart;
+    }
+
+    public int getSelectionEnd() {
+        return selectionEnd;
+    }
+
+    public int getScrollY() {
+        return scrollY;
+    }
+
+    // ==================== Memory ====================
+
+    public boolean isSpilled() {
+        return document == null;
+    }
+
+    /**
+     * Estimate the heap the buffer holds on to
+     * @return Bytes in its piece table and undo history
+     */
+    public long getMemoryBytes() {
+        return document == null ? 0 : document.getBufferedChars() * 2 + undoManager.getUsedBytes();
+    }
+
+    /**
+     * Drop the text edits have replaced, once the buffer is no longer shown
+     */
+    public void compact() {
+        if (document != null) {
+            document.compact();
+        }
+    }
+
+    /**
+     * Drop the text, keeping only the file to read it back from. Only for a buffer that is
+     * saved and not shown; its undo history goes too.
+     */
+    public void spill() {
+        document = null;
+        undoManager.clear();
+    }
+
+    /**
+     * Give the buffer its text, after loading or reading a spilled buffer back
+     * @param text Text of the file
+     */
+    public void restore(String text) {
+        document = new PieceTable(text);
+        journal.attach(document);
+        undoManager.clear();
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.linuxsimulator.editor;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.SystemClock;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+import com.example.linuxsimulator.terminal.CommandExecutor;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Names of the files in shared storage and the app's documents, for the quick-open picker.
+ * The index walks the storage on the IO pool and keeps what it found as a flat list of paths,
+ * which a fuzzy query scans far faster than any directory listing; it walks again by itself
+ * once the list is more than a minute old and the picker asks for it.
+ *
+ * Lists are published whole, so queries on other threads always see a consistent one. While
+ * the first walk is under way, partial lists are published as it goes.
+ */
+public final class FileIndex {
+
+    // Files past this are left out; the picker says the index is incomplete
+    private static final int MAX_FILES = 30_000;
+    private static final int MAX_DEPTH = 16;
+    // A walk older than this is repeated the next time the picker opens
+    private static final long REFRESH_MS = 60_000;
+    // Partial lists are published this often during the first walk
+    private static final int PUBLISH_EVERY = 2_000;
+
+    private static FileIndex instance;
+
+    /**
+     * Told on the UI thread when a new list has been published
+     */
+    public interface Listener {
+        void onIndexChanged();
+    }
+
+    /**
+     * A file that matched a query
+     */
+    public static final class Result {
+        public final File file;
+        // Name and directory as shown, relative to the storage root
+        public final String name;
+        public final String directory;
+        // Offsets in name of the characters the query matched
+        public final int[] nameMatches;
+
+        Result(File file, String name, String directory, int[] nameMatches) {
+            this.file = file;
+            this.name = name;
+            this.directory = directory;
+            this.nameMatches = nameMatches;
+        }
+    }
+
+    // A published list of files
+    private static final class Entries {
+        static final Entries EMPTY = new Entries(new String[0], new int[0], new int[0], new long[0], 0, false);
+
+        final String[] paths;
+        // Where the part shown, past the storage root, starts
+        final int[] relativeStarts;
+        final int[] nameStarts;
+        final long[] modified;
+        final int count;
+        // Whether the walk stopped at MAX_FILES
+        final boolean capped;
+
+        Entries(String[] paths, int[] relativeStarts, int[] nameStarts, long[] modified, int count,
+                boolean capped) {
+            this.paths = paths;
+            this.relativeStarts = relativeStarts;
+            this.nameStarts = nameStarts;
+            this.modified = modified;
+            this.count = count;
+            this.capped = capped;
+        }
+    }
+
+    private final File[] roots;
+    private final CommandExecutor executor;
+    private final List<Listener> listeners = new ArrayList<>();
+    private volatile Entries entries = Entries.EMPTY;
+    // UI thread only
+    private boolean walking;
+    private boolean walked;
+    private boolean stale;
+    private long walkedAt;
+
+    FileIndex(File[] roots, CommandExecutor executor) {
+        this.roots = roots;
+        this.executor = executor;
+    }
+
+    public static synchronized FileIndex getInstance(Context context) {
+        if (instance == null) {
+            List<File> roots = new ArrayList<>();
+            File documents = context.getApplicationContext().getExternalFilesDir(Environment.DIRECTORY_DOCUMENTS);
+            if (documents != null) {
+                roots.add(documents);
+            }
+            roots.add(Environment.getExternalStorageDirectory());
+            instance = new FileIndex(roots.toArray(new File[0]), CommandExecutor.getInstance());
+        }
+        return instance;
+    }
+
+    // ==================== UI thread ====================
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Walk the storage again if the list is out of date
+     * @param force Walk even if the last walk was recent, e.g. after a file was saved
+     */
+    public void refresh(boolean force) {
+        if (walking || (!force && walked && !stale && SystemClock.uptimeMillis() - walkedAt < REFRESH_MS)) {
+            return;
+        }
+        walking = true;
+        stale = false;
+        boolean first = !walked;
+        try {
+            executor.execute(CommandExecutor.Pool.IO, () -> {
+                Entries found = Entries.EMPTY;
+                try {
+                    found = walk(first);
+                } finally {
+                    Entries done = found;
+                    executor.postToUi(() -> {
+                        walking = false;
+                        walked = true;
+                        walkedAt = SystemClock.uptimeMillis();
+                        publish(done);
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            walking = false;
+        }
+    }
+
+    /**
+     * Mark the list out of date, so the next {@link #refresh} walks the storage again
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    public boolean isWalking() {
+        return walking;
+    }
+
+    public int size() {
+        return entries.count;
+    }
+
+    public boolean isCapped() {
+        return entries.capped;
+    }
+
+    private void publish(Entries found) {
+        entries = found;
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onIndexChanged();
+        }
+    }
+
+    // ==================== Queries ====================
+
+    /**
+     * Rank the files against a query. Call from the CPU pool.
+     * @param query Query as typed; when it is empty, the most recently modified files come back
+     * @param limit Most results to return
+     * @param token Stops the work when cancelled
+     * @return Best matches first
+     * @throws java.util.concurrent.CancellationException if the token was cancelled
+     */
+    public List<Result> query(String query, int limit, CancellationToken token) {
+        Entries list = entries;
+        FuzzyMatcher matcher = new FuzzyMatcher(query);
+        // Worst of the best so far on top, so it is the one pushed out
+        PriorityQueue<int[]> best = new PriorityQueue<>(limit + 1, (a, b) -> compare(list, b, a));
+        for (int i = 0; i < list.count; i++) {
+            if ((i & 1023) == 0) {
+                token.throwIfCancelled();
+            }
+            int score = matcher.score(list.paths[i], list.relativeStarts[i], list.nameStarts[i], null);
+            if (score == FuzzyMatcher.NO_MATCH) {
+                continue;
+            }
+            int[] candidate = {score, i};
+            if (best.size() < limit) {
+                best.add(candidate);
+            } else if (compare(list, candidate, best.peek()) < 0) {
+                best.poll();
+                best.add(candidate);
+            }
+        }
+
+        List<Result> results = new ArrayList<>(best.size());
+        int[][] ranked = best.toArray(new int[0][]);
+        Arrays.sort(ranked, (a, b) -> compare(list, a, b));
+        int[] positions = new int[matcher.length()];
+        for (int[] candidate : ranked) {
+            int i = candidate[1];
+            String path = list.paths[i];
+            int nameStart = list.nameStarts[i];
+            int relativeStart = list.relativeStarts[i];
+            // Only the name is highlighted, so only its matches are kept
+            matcher.score(path, relativeStart, nameStart, positions);
+            int matched = 0;
+            for (int position : positions) {
+                if (position >= nameStart) {
+                    matched++;
+                }
+            }
+            int[] nameMatches = new int[matched];
+            matched = 0;
+            for (int position : positions) {
+                if (position >= nameStart) {
+                    nameMatches[matched++] = position - nameStart;
+                }
+            }
+            String directory = nameStart - 1 > relativeStart ? path.substring(relativeStart, nameStart - 1) : "";
+            results.add(new Result(new File(path), path.substring(nameStart), directory, nameMatches));
+        }
+        return results;
+    }
+
+    // Better first: higher score, then more recently modified
+    private static int compare(Entries list, int[] a, int[] b) {
+        if (a[0] != b[0]) {
+            return Integer.compare(b[0], a[0]);
+        }
+        return Long.compare(list.modified[b[1]], list.modified[a[1]]);
+    }
+
+    // ==================== IO pool ====================
+
+    // Breadth first, so a walk cut short at MAX_FILES keeps the shallow files
+    private Entries walk(boolean publishPartial) {
+        String[] paths = new String[1024];
+        int[] relativeStarts = new int[1024];
+        int[] nameStarts = new int[1024];
+        long[] modified = new long[1024];
+        int count = 0;
+        boolean capped = false;
+
+        Deque<File> directories = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        outer:
+        for (int r = 0; r < roots.length; r++) {
+            File root = roots[r];
+            int relativeStart = root.getAbsolutePath().length() + 1;
+            directories.add(root);
+            depths.add(0);
+            while (!directories.isEmpty()) {
+                File directory = directories.poll();
+                int depth = depths.poll();
+                File[] files = directory.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.startsWith(".")) {
+                        continue;
+                    }
+                    if (file.isDirectory()) {
+                        // A root inside another root is walked on its own
+                        if (depth < MAX_DEPTH && !isRoot(file, r)) {
+                            directories.add(file);
+                            depths.add(depth + 1);
+                        }
+                        continue;
+                    }
+                    if (count == MAX_FILES) {
+                        capped = true;
+                        break outer;
+                    }
+                    if (count == paths.length) {
+                        paths = Arrays.copyOf(paths, count * 2);
+                        relativeStarts = Arrays.copyOf(relativeStarts, count * 2);
+                        nameStarts = Arrays.copyOf(nameStarts, count * 2);
+                        modified = Arrays.copyOf(modified, count * 2);
+                    }
+                    String path = file.getAbsolutePath();
+                    paths[count] = path;
+                    relativeStarts[count] = Math.min(relativeStart, path.length() - name.length());
+                    nameStarts[count] = path.length() - name.length();
+                    modified[count] = file.lastModified();
+                    count++;
+                    if (publishPartial && count % PUBLISH_EVERY == 0) {
+                        // The arrays are only ever appended to past count, so sharing them is safe
+                        Entries partial = new Entries(paths, relativeStarts, nameStarts, modified, count, false);
+                        executor.postToUi(() -> publish(partial));
+                    }
+                }
+            }
+        }
+        return new Entries(paths, relativeStarts, nameStarts, modified, count, capped);
+    }
+
+    private boolean isRoot(File directory, int walking) {
+        for (int r = 0; r < roots.length; r++) {
+            if (r != walking && roots[r].equals(directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
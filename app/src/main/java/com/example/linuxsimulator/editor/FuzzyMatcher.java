@@ -0,0 +1,180 @@
+package com.example.linuxsimulator.editor;
+
+/**
+ * A compiled fuzzy query: a path matches if the query's characters appear in it in order,
+ * not necessarily next to each other. Matches score higher when their characters run
+ * together, start words or path segments, and fall in the file name rather than the
+ * directories above it, so "tea" ranks "TextEditorActivity.java" above "templates/area".
+ *
+ * Immutable and thread-safe. Case is ignored; spaces in the query are skipped.
+ */
+public final class FuzzyMatcher {
+
+    public static final int NO_MATCH = Integer.MIN_VALUE;
+
+    private static final int SCORE_MATCH = 16;
+    private static final int BONUS_BOUNDARY = 10;   // After '/', '_', '-', '.', ' ' or at the start
+    private static final int BONUS_CAMEL = 8;       // An upper case letter after a lower case one
+    private static final int BONUS_CONSECUTIVE = 6;
+    private static final int BONUS_FIRST_CHAR = 6;  // The query starts where the file name does
+    private static final int BONUS_IN_NAME = 4;     // Per character matched in the file name
+    private static final int PENALTY_GAP_START = 3;
+    private static final int PENALTY_GAP_EXTENSION = 1;
+
+    private final char[] query;
+
+    /**
+     * Compile a query
+     * @param query Text as typed
+     */
+    public FuzzyMatcher(String query) {
+        StringBuilder folded = new StringBuilder(query.length());
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                folded.append(fold(c));
+            }
+        }
+        this.query = folded.toString().toCharArray();
+    }
+
+    /**
+     * @return Characters to match, without spaces
+     */
+    public int length() {
+        return query.length;
+    }
+
+    /**
+     * Score a path against the query
+     * @param path Path to match
+     * @param from Where the part of the path that may match starts, e.g. past the storage root
+     * @param nameStart Where the file name starts
+     * @param positions Receives the offset of each matched character, or null; at least as
+     *                  long as the query
+     * @return Score, higher for a better match, or {@link #NO_MATCH}
+     */
+    public int score(String path, int from, int nameStart, int[] positions) {
+        if (query.length == 0) {
+            return 0;
+        }
+        // Last place the query can end: scan forwards for a subsequence match
+        int q = 0;
+        int end = -1;
+        for (int i = from; i < path.length(); i++) {
+            if (fold(path.charAt(i)) == query[q] && ++q == query.length) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            return NO_MATCH;
+        }
+        // Prefer matching in the file name: if the query fits there, match from its start
+        int start;
+        if (nameStart >= from && fits(path, nameStart, path.length() - 1, 0)) {
+            start = nameStart;
+            end = path.length() - 1;
+        } else {
+            // Otherwise the shortest window that ends where the forward scan stopped
+            start = matchBackward(path, from, end);
+        }
+        return scoreWindow(path, start, end, from, nameStart, positions);
+    }
+
+    // Scan backwards from end for the query; returns where the match starts, or -1
+    private int matchBackward(String path, int from, int end) {
+        int q = query.length - 1;
+        for (int i = end; i >= from; i--) {
+            if (fold(path.charAt(i)) == query[q] && --q < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Match the query greedily within [start, end], favouring word starts when one is close
+    private int scoreWindow(String path, int start, int end, int from, int nameStart, int[] positions) {
+        int score = 0;
+        int previous = -1;
+        int q = 0;
+        for (int i = start; i <= end && q < query.length; i++) {
+            if (fold(path.charAt(i)) != query[q]) {
+                continue;
+            }
+            int bonus = bonus(path, i, from);
+            if (bonus == 0 && previous != i - 1) {
+                // Skip ahead to a word start that matches the same character, if there is one
+                // and the rest of the query still fits after it
+                int better = nextBoundary(path, i + 1, end, query[q], from);
+                if (better >= 0 && fits(path, better + 1, end, q + 1)) {
+                    i = better;
+                    bonus = bonus(path, i, from);
+                }
+            }
+            score += SCORE_MATCH + bonus;
+            if (previous >= 0) {
+                int gap = i - previous - 1;
+                if (gap == 0) {
+                    score += BONUS_CONSECUTIVE;
+                } else {
+                    score -= PENALTY_GAP_START + (gap - 1) * PENALTY_GAP_EXTENSION;
+                }
+            }
+            if (i >= nameStart) {
+                score += BONUS_IN_NAME;
+                if (i == nameStart && q == 0) {
+                    score += BONUS_FIRST_CHAR;
+                }
+            }
+            if (positions != null) {
+                positions[q] = i;
+            }
+            previous = i;
+            q++;
+        }
+        if (q < query.length) {
+            return NO_MATCH;
+        }
+        // Shorter paths win ties
+        return score * 256 - Math.min(255, path.length() - from);
+    }
+
+    private int nextBoundary(String path, int from, int end, char c, int min) {
+        for (int i = from; i <= end; i++) {
+            if (fold(path.charAt(i)) == c && bonus(path, i, min) > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Whether query[q..] is a subsequence of path[from..end]
+    private boolean fits(String path, int from, int end, int q) {
+        for (int i = from; i <= end && q < query.length; i++) {
+            if (fold(path.charAt(i)) == query[q]) {
+                q++;
+            }
+        }
+        return q == query.length;
+    }
+
+    private static int bonus(String path, int i, int from) {
+        if (i == from) {
+            return BONUS_BOUNDARY;
+        }
+        char before = path.charAt(i - 1);
+        char c = path.charAt(i);
+        if (before == '/' || before == '_' || before == '-' || before == '.' || before == ' ') {
+            return BONUS_BOUNDARY;
+        }
+        if (Character.isUpperCase(c) && Character.isLowerCase(before)) {
+            return BONUS_CAMEL;
+        }
+        return 0;
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
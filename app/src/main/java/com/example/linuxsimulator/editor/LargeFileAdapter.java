@@ -0,0 +1,195 @@
+package com.example.linuxsimulator.editor;
+
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.linuxsimulator.R;
+import com.example.linuxsimulator.terminal.CommandExecutor;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Rows of a {@link LargeFileIndex} for a RecyclerView. Pages are read on the IO pool the
+ * first time one of their rows is bound and kept in a small LRU cache, so memory use depends
+ * on how much has been looked at recently, never on the size of the file. A row whose page
+ * is still loading shows empty and is rebound when the page arrives.
+ *
+ * Used from the UI thread.
+ */
+public final class LargeFileAdapter extends RecyclerView.Adapter<LargeFileAdapter.RowHolder> {
+
+    // 12 pages of 256 rows is a few screens either side of the visible one
+    private static final int CACHED_PAGES = 12;
+    private static final int COLOR_MATCH = 0xFF515C6A;
+
+    private final LargeFileIndex index;
+    private final CommandExecutor executor;
+    private final Map<Integer, LargeFileIndex.Page> pages =
+            new LinkedHashMap<Integer, LargeFileIndex.Page>(CACHED_PAGES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, LargeFileIndex.Page> eldest) {
+                    return size() > CACHED_PAGES;
+                }
+            };
+    private final Set<Integer> loading = new HashSet<>();
+    private int matchRow = -1;
+    private int matchStart;
+    private int matchEnd;
+    private boolean closed;
+
+    public LargeFileAdapter(LargeFileIndex index, CommandExecutor executor) {
+        this.index = index;
+        this.executor = executor;
+    }
+
+    public LargeFileIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Highlight a search match
+     * @param row Row of the match, or -1 for none
+     * @param start Start column
+     * @param end End column
+     */
+    public void setMatch(int row, int start, int end) {
+        int previous = matchRow;
+        matchRow = row;
+        matchStart = start;
+        matchEnd = end;
+        if (previous >= 0) notifyItemChanged(previous);
+        if (row >= 0) notifyItemChanged(row);
+    }
+
+    public int getMatchRow() {
+        return matchRow;
+    }
+
+    public int getMatchEnd() {
+        return matchEnd;
+    }
+
+    /**
+     * Get the line a row belongs to, if its page is loaded
+     * @param row Row number
+     * @return Line number from 1, or -1 if not known yet
+     */
+    public int getLineOfRow(int row) {
+        LargeFileIndex.Page page = pages.get(row / LargeFileIndex.PAGE_ROWS);
+        if (page == null) {
+            return -1;
+        }
+        // A row continuing a cut line has no number; the line started on an earlier row
+        for (int i = row - page.firstRow; i >= 0; i--) {
+            if (page.lines[i] > 0) {
+                return page.lines[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stop loading pages and close the file
+     */
+    public void close() {
+        closed = true;
+        pages.clear();
+        try {
+            executor.execute(CommandExecutor.Pool.IO, this::closeIndex);
+        } catch (RejectedExecutionException e) {
+            closeIndex();
+        }
+    }
+
+    private void closeIndex() {
+        try {
+            index.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public RowHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.large_file_row, parent, false);
+        return new RowHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(RowHolder holder, int position) {
+        int pageNumber = position / LargeFileIndex.PAGE_ROWS;
+        LargeFileIndex.Page page = pages.get(pageNumber);
+        if (page == null) {
+            holder.number.setText("");
+            holder.text.setText("");
+            requestPage(pageNumber);
+            return;
+        }
+        int i = position - page.firstRow;
+        holder.number.setText(page.lines[i] > 0 ? Integer.toString(page.lines[i]) : "");
+        CharSequence row = page.rows[i];
+        if (position == matchRow && matchEnd <= row.length() && matchStart < matchEnd) {
+            SpannableString highlighted = new SpannableString(row);
+            highlighted.setSpan(new BackgroundColorSpan(COLOR_MATCH), matchStart, matchEnd,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            row = highlighted;
+        }
+        holder.text.setText(row);
+    }
+
+    @Override
+    public int getItemCount() {
+        return index.getRowCount();
+    }
+
+    private void requestPage(int pageNumber) {
+        if (closed || !loading.add(pageNumber)) {
+            return;
+        }
+        try {
+            executor.execute(CommandExecutor.Pool.IO, () -> {
+                LargeFileIndex.Page page = null;
+                try {
+                    page = index.readPage(pageNumber);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                LargeFileIndex.Page loaded = page;
+                executor.postToUi(() -> {
+                    loading.remove(pageNumber);
+                    if (closed || loaded == null) {
+                        return;
+                    }
+                    pages.put(pageNumber, loaded);
+                    notifyItemRangeChanged(loaded.firstRow, loaded.rows.length);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            // Asked for again the next time one of its rows is bound
+            loading.remove(pageNumber);
+        }
+    }
+
+    public static class RowHolder extends RecyclerView.ViewHolder {
+        final TextView number;
+        final TextView text;
+
+        RowHolder(View itemView) {
+            super(itemView);
+            number = itemView.findViewById(R.id.rowNumber);
+            text = itemView.findViewById(R.id.rowText);
+        }
+    }
+}
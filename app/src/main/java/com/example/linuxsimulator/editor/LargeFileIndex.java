@@ -0,0 +1,355 @@
+package com.example.linuxsimulator.editor;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Row index of a file too large to load, for viewing it a page at a time. One scan records
+ * where every page of {@link #PAGE_ROWS} rows starts, so the index stays a few kilobytes even
+ * for a 100 MB log, and any page can be read back with a single positional read.
+ *
+ * A row is a line, except that a line longer than {@link #MAX_ROW_BYTES} is cut into several
+ * rows so no page can grow without bound. Rows split on the byte '\n', which works for UTF-8
+ * and the single-byte charsets but not for UTF-16.
+ *
+ * Reading pages and searching are thread-safe.
+ */
+public final class LargeFileIndex implements Closeable {
+
+    public static final int PAGE_ROWS = 256;
+    public static final int MAX_ROW_BYTES = 4096;
+
+    private static final int SCAN_BUFFER = 64 * 1024;
+
+    /**
+     * Decoded rows of one page
+     */
+    public static final class Page {
+        public final int firstRow;
+        public final String[] rows;
+        // Line number of each row from 1, or 0 if the row continues a cut line
+        public final int[] lines;
+        final long[] offsets;
+
+        Page(int firstRow, String[] rows, int[] lines, long[] offsets) {
+            this.firstRow = firstRow;
+            this.rows = rows;
+            this.lines = lines;
+            this.offsets = offsets;
+        }
+    }
+
+    /**
+     * Where a search matched
+     */
+    public static final class Match {
+        public final int row;
+        public final int start;
+        public final int end;
+
+        Match(int row, int start, int end) {
+            this.row = row;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final File file;
+    private final Charset charset;
+    private final FileChannel channel;
+    private final long length;
+    // Byte offset and first line number of every page, plus an end marker
+    private final long[] pageOffsets;
+    private final int[] pageLines;
+    private final int rowCount;
+    private final int lineCount;
+
+    private LargeFileIndex(File file, Charset charset, FileChannel channel, long length,
+                           long[] pageOffsets, int[] pageLines, int rowCount, int lineCount) {
+        this.file = file;
+        this.charset = charset;
+        this.channel = channel;
+        this.length = length;
+        this.pageOffsets = pageOffsets;
+        this.pageLines = pageLines;
+        this.rowCount = rowCount;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Scan a file. Runs for as long as it takes to read the file once; call it off the UI thread.
+     * @param file File to index
+     * @param charset Charset the file is in
+     * @param token Stops the scan when cancelled
+     * @param listener Progress listener, or null
+     * @return Index, which keeps the file open until closed
+     * @throws IOException if the file cannot be read
+     * @throws java.util.concurrent.CancellationException if the token was cancelled
+     */
+    public static LargeFileIndex build(File file, Charset charset, CancellationToken token,
+                                       ProgressListener listener) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            long[] offsets = new long[64];
+            int[] lines = new int[64];
+            int pages = 0;
+            int rows = 0;
+            int line = 1;
+
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+            long position = 0;
+            long rowStart = 0;
+            boolean lineStart = true;
+            while (position < length) {
+                token.throwIfCancelled();
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                byte[] bytes = buffer.array();
+                for (int i = 0; i < read; i++) {
+                    long at = position + i;
+                    if (at != rowStart && cutsBefore(bytes[i], at - rowStart)) {
+                        rowStart = at;
+                        lineStart = false;
+                    }
+                    if (at == rowStart) {
+                        if (rows % PAGE_ROWS == 0) {
+                            if (pages + 1 >= offsets.length) {
+                                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                                lines = Arrays.copyOf(lines, lines.length * 2);
+                            }
+                            offsets[pages] = at;
+                            lines[pages] = lineStart ? line : -line;
+                            pages++;
+                        }
+                        rows++;
+                    }
+                    if (bytes[i] == '\n') {
+                        rowStart = at + 1;
+                        lineStart = true;
+                        line++;
+                    }
+                }
+                position += read;
+                if (listener != null) {
+                    listener.onProgress(position, length);
+                }
+            }
+            if (pages + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, pages + 1);
+                lines = Arrays.copyOf(lines, pages + 1);
+            }
+            offsets[pages] = length;
+            lines[pages] = line;
+            // A final line feed does not start another line
+            int lineCount = rowStart == length && length > 0 ? line - 1 : line;
+            return new LargeFileIndex(file, charset, channel, length,
+                    Arrays.copyOf(offsets, pages + 1), Arrays.copyOf(lines, pages + 1), rows, lineCount);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    // Whether a long row is cut just before this byte. The rule only looks at the byte and
+    // the row so far, so the scan and readPage cut in the same places. A cut never lands
+    // inside a multi-byte UTF-8 character or just before a line feed.
+    private static boolean cutsBefore(byte b, long rowLength) {
+        return rowLength >= MAX_ROW_BYTES && b != '\n' && (b & 0xC0) != 0x80;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getPageCount() {
+        return pageOffsets.length - 1;
+    }
+
+    /**
+     * Read and decode one page
+     * @param page Page number
+     * @return Rows of the page
+     * @throws IOException if the file cannot be read
+     */
+    public Page readPage(int page) throws IOException {
+        long start = pageOffsets[page];
+        int size = (int) (pageOffsets[page + 1] - start);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        byte[] bytes = buffer.array();
+        int count = Math.min(PAGE_ROWS, rowCount - page * PAGE_ROWS);
+        String[] rows = new String[count];
+        int[] lines = new int[count];
+        long[] offsets = new long[count];
+
+        int line = Math.abs(pageLines[page]);
+        boolean lineStart = pageLines[page] > 0;
+        int rowStart = 0;
+        int row = 0;
+        for (int i = 0; i <= size && row < count; i++) {
+            boolean end = i == size;
+            if (!end && i != rowStart && cutsBefore(bytes[i], i - rowStart)) {
+                rows[row] = new String(bytes, rowStart, i - rowStart, charset);
+                lines[row] = lineStart ? line : 0;
+                offsets[row++] = start + rowStart;
+                rowStart = i;
+                lineStart = false;
+            }
+            boolean newline = !end && bytes[i] == '\n';
+            if (newline || (end && rowStart < size)) {
+                int textEnd = newline && i > rowStart && bytes[i - 1] == '\r' ? i - 1 : i;
+                rows[row] = new String(bytes, rowStart, textEnd - rowStart, charset);
+                lines[row] = lineStart ? line : 0;
+                offsets[row++] = start + rowStart;
+                rowStart = i + 1;
+                lineStart = true;
+                line++;
+            }
+        }
+        // Only if the file changed under the index
+        for (; row < count; row++) {
+            rows[row] = "";
+            offsets[row] = start + size;
+        }
+        return new Page(page * PAGE_ROWS, rows, lines, offsets);
+    }
+
+    /**
+     * Find the row holding a byte offset
+     * @param offset Byte offset, clamped to the file
+     * @return Row number
+     * @throws IOException if the file cannot be read
+     */
+    public int rowOfOffset(long offset) throws IOException {
+        if (rowCount == 0) {
+            return 0;
+        }
+        offset = Math.max(0, Math.min(offset, length - 1));
+        int page = Arrays.binarySearch(pageOffsets, 0, getPageCount(), offset);
+        if (page < 0) {
+            page = -page - 2;
+        }
+        Page rows = readPage(page);
+        int row = 0;
+        while (row + 1 < rows.rows.length && rows.offsets[row + 1] <= offset) {
+            row++;
+        }
+        return rows.firstRow + row;
+    }
+
+    /**
+     * Find the first row of a line
+     * @param line Line number from 1, clamped to the file
+     * @return Row number
+     * @throws IOException if the file cannot be read
+     */
+    public int rowOfLine(int line) throws IOException {
+        if (rowCount == 0) {
+            return 0;
+        }
+        line = Math.max(1, Math.min(line, lineCount));
+        // Last page starting at or before the line
+        int low = 0;
+        int high = getPageCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (Math.abs(pageLines[mid]) <= line) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int page = low;
+        // Pages in the middle of the line itself: its first row is further back
+        while (page > 0 && pageLines[page] == -line) {
+            page--;
+        }
+        for (; page < getPageCount(); page++) {
+            Page rows = readPage(page);
+            for (int i = 0; i < rows.lines.length; i++) {
+                if (rows.lines[i] >= line) {
+                    return rows.firstRow + i;
+                }
+            }
+        }
+        return rowCount - 1;
+    }
+
+    /**
+     * Find the next row containing some text, ignoring case; wraps round at the end of the file
+     * @param query Text to find; matches do not span rows
+     * @param fromRow Row to start at
+     * @param fromColumn Column in that row to start at
+     * @param token Stops the search when cancelled
+     * @return Match, or null if the text is not in the file
+     * @throws IOException if the file cannot be read
+     * @throws java.util.concurrent.CancellationException if the token was cancelled
+     */
+    public Match search(String query, int fromRow, int fromColumn, CancellationToken token)
+            throws IOException {
+        if (rowCount == 0 || query.isEmpty()) {
+            return null;
+        }
+        String needle = query.toLowerCase(Locale.ROOT);
+        fromRow = Math.max(0, Math.min(fromRow, rowCount - 1));
+        int firstPage = fromRow / PAGE_ROWS;
+        int pages = getPageCount();
+        for (int n = 0; n <= pages; n++) {
+            token.throwIfCancelled();
+            int page = (firstPage + n) % pages;
+            Page rows = readPage(page);
+            for (int i = 0; i < rows.rows.length; i++) {
+                int row = rows.firstRow + i;
+                // The first page is searched twice: from the start row, then up to it after wrapping
+                if ((n == 0 && row < fromRow) || (n == pages && row > fromRow)) {
+                    continue;
+                }
+                int from = n == 0 && row == fromRow ? fromColumn : 0;
+                int at = rows.rows[i].toLowerCase(Locale.ROOT).indexOf(needle, from);
+                if (at >= 0) {
+                    return new Match(row, at, at + query.length());
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
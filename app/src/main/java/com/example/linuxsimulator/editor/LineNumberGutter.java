@@ -0,0 +1,120 @@
+package com.example.linuxsimulator.editor;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.text.Layout;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Line numbers beside an editor. Only the numbers of lines on screen are drawn, straight from
+ * the editor's {@link Layout}, so the cost of a frame does not depend on the size of the file;
+ * a wrapped line gets its number once, on its first row. The gutter redraws when the editor
+ * scrolls or reflows and when the document gains or loses lines, not on every keystroke.
+ */
+public class LineNumberGutter extends View implements PieceTable.ChangeListener {
+
+    private static final int TEXT_COLOR = Color.parseColor("#858585");
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    // Digits of the number being drawn, filled from the end
+    private final char[] digits = new char[11];
+    private TextView editor;
+    private View scroller;
+    private PieceTable document;
+
+    public LineNumberGutter(Context context) {
+        super(context);
+        init();
+    }
+
+    public LineNumberGutter(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        paint.setColor(TEXT_COLOR);
+        paint.setTextAlign(Paint.Align.RIGHT);
+    }
+
+    /**
+     * Number the lines of an editor
+     * @param editor Editor whose rows are numbered; its text must mirror the document
+     * @param scroller View that scrolls the editor vertically
+     * @param document Document shown by the editor
+     */
+    public void attach(TextView editor, View scroller, PieceTable document) {
+        this.editor = editor;
+        this.scroller = scroller;
+        paint.setTextSize(editor.getTextSize());
+        paint.setTypeface(editor.getTypeface());
+        setDocument(document);
+        scroller.setOnScrollChangeListener((v, scrollX, scrollY, oldScrollX, oldScrollY) -> invalidate());
+        // Reflowing moves numbers without changing the line count
+        editor.addOnLayoutChangeListener((v, left, top, right, bottom,
+                                          oldLeft, oldTop, oldRight, oldBottom) -> invalidate());
+        invalidate();
+    }
+
+    /**
+     * Follow another document, e.g. when the editor switches files
+     * @param document Document the editor shows from now on
+     */
+    public void setDocument(PieceTable document) {
+        if (this.document != null) {
+            this.document.removeChangeListener(this);
+        }
+        this.document = document;
+        document.addChangeListener(this);
+        requestLayout();
+        invalidate();
+    }
+
+    @Override
+    public void onTextChanged(int offset, int removed, int inserted, int line, int lineDelta) {
+        if (lineDelta != 0) {
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        Layout layout = editor != null ? editor.getLayout() : null;
+        if (layout == null) {
+            return;
+        }
+        // Editor rows in this view's coordinates; the editor sits at the top of its scroller
+        int offsetY = editor.getTop() + editor.getTotalPaddingTop() - scroller.getScrollY();
+        int first = layout.getLineForVertical(Math.max(0, -offsetY));
+        int last = layout.getLineForVertical(Math.max(0, getHeight() - offsetY));
+        CharSequence text = editor.getText();
+        float x = getWidth() - getPaddingRight();
+
+        int number = -1;
+        for (int row = first; row <= last; row++) {
+            int start = layout.getLineStart(row);
+            if (start > 0 && start <= text.length() && text.charAt(start - 1) != '\n') {
+                continue;
+            }
+            // One lookup for the first number on screen; the rest follow from it
+            number = number < 0 ? document.getLineOfOffset(start) + 1 : number + 1;
+            int from = format(number);
+            canvas.drawText(digits, from, digits.length - from, x, layout.getLineBaseline(row) + offsetY, paint);
+        }
+    }
+
+    // Write the number into digits, returning the index of its first digit
+    private int format(int number) {
+        int index = digits.length;
+        do {
+            digits[--index] = (char) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        return index;
+    }
+}
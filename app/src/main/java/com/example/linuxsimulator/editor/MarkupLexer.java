@@ -0,0 +1,112 @@
+package com.example.linuxsimulator.editor;
+
+/**
+ * Lexer for XML and HTML: tags, attributes and their values, comments, CDATA sections and
+ * entities. A tag, comment or attribute value may run over several lines.
+ */
+final class MarkupLexer extends SyntaxLexer {
+
+    static final MarkupLexer INSTANCE = new MarkupLexer();
+
+    // States a line can start in, besides INITIAL_STATE (between tags)
+    private static final int IN_TAG = 1;
+    private static final int IN_COMMENT = 2;
+    private static final int IN_CDATA = 3;
+    private static final int IN_VALUE = 0x10000;  // | quote character
+
+    private MarkupLexer() {
+    }
+
+    @Override
+    public int lexLine(CharSequence text, int start, int end, int state, TokenSink sink) {
+        int i = start;
+        while (i < end) {
+            if (state == IN_COMMENT || state == IN_CDATA) {
+                String close = state == IN_COMMENT ? "-->" : "]]>";
+                int at = indexOf(text, i, end, close);
+                int closeEnd = at < 0 ? end : at + close.length();
+                emit(sink, i, closeEnd, state == IN_COMMENT ? COMMENT : STRING);
+                if (at < 0) {
+                    return state;
+                }
+                i = closeEnd;
+                state = INITIAL_STATE;
+            } else if ((state & IN_VALUE) != 0) {
+                char quote = (char) (state & 0xFFFF);
+                int at = indexOf(text, i, end, String.valueOf(quote));
+                int closeEnd = at < 0 ? end : at + 1;
+                emit(sink, i, closeEnd, STRING);
+                if (at < 0) {
+                    return state;
+                }
+                i = closeEnd;
+                state = IN_TAG;
+            } else if (state == IN_TAG) {
+                char c = text.charAt(i);
+                if (c == '>' || ((c == '/' || c == '?') && i + 1 < end && text.charAt(i + 1) == '>')) {
+                    int tagEnd = c == '>' ? i + 1 : i + 2;
+                    emit(sink, i, tagEnd, TAG);
+                    i = tagEnd;
+                    state = INITIAL_STATE;
+                } else if (c == '"' || c == '\'') {
+                    emit(sink, i, i + 1, STRING);
+                    i++;
+                    state = IN_VALUE | c;
+                } else if (isNameStart(c)) {
+                    int nameEnd = nameEnd(text, i, end);
+                    emit(sink, i, nameEnd, ATTRIBUTE);
+                    i = nameEnd;
+                } else {
+                    i++;
+                }
+            } else {
+                char c = text.charAt(i);
+                if (c == '<') {
+                    if (regionMatches(text, i, end, "<!--")) {
+                        emit(sink, i, i + 4, COMMENT);
+                        i += 4;
+                        state = IN_COMMENT;
+                    } else if (regionMatches(text, i, end, "<![CDATA[")) {
+                        emit(sink, i, i + 9, TAG);
+                        i += 9;
+                        state = IN_CDATA;
+                    } else {
+                        // <name, </name, <?xml or <!DOCTYPE
+                        int nameStart = i + 1;
+                        if (nameStart < end && "/?!".indexOf(text.charAt(nameStart)) >= 0) {
+                            nameStart++;
+                        }
+                        int nameEnd = nameEnd(text, nameStart, end);
+                        emit(sink, i, nameEnd, TAG);
+                        i = nameEnd;
+                        state = IN_TAG;
+                    }
+                } else if (c == '&') {
+                    int at = indexOf(text, i, Math.min(end, i + 12), ";");
+                    int entityEnd = at < 0 ? i + 1 : at + 1;
+                    emit(sink, i, entityEnd, LITERAL);
+                    i = entityEnd;
+                } else {
+                    i++;
+                }
+            }
+        }
+        return state;
+    }
+
+    private static boolean isNameStart(char c) {
+        return Character.isLetter(c) || c == '_' || c == ':';
+    }
+
+    private static int nameEnd(CharSequence text, int from, int end) {
+        int i = from;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != ':' && c != '-' && c != '.') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,631 @@
+package com.example.linuxsimulator.editor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Text of an open document, kept as a piece table: the text as loaded and everything typed
+ * since live in two append-only buffers, and the document is a sequence of pieces pointing
+ * into them. The pieces form a balanced tree that also counts characters and line feeds per
+ * subtree, so edits, offset/line conversion and line counting are O(log n) whatever the size
+ * of the file; nothing is ever copied to make an edit.
+ *
+ * Tree nodes are never modified, so a {@link Snapshot} is just the current root and stays
+ * valid forever. Edits and listeners belong to the UI thread; snapshots can be read anywhere.
+ */
+public final class PieceTable {
+
+    /**
+     * Notified on the editing thread after every change
+     */
+    public interface ChangeListener {
+        /**
+         * Text was replaced
+         * @param offset Start of the change
+         * @param removed Characters removed
+         * @param inserted Characters inserted
+         * @param line Line the change starts on
+         * @param lineDelta Lines added, negative if lines were removed
+         */
+        void onTextChanged(int offset, int removed, int inserted, int line, int lineDelta);
+    }
+
+    private final Random random = new Random();
+    private final List<ChangeListener> listeners = new ArrayList<>();
+    private Buffer original = new Buffer();
+    private Buffer added = new Buffer();
+    private volatile Snapshot current = new Snapshot(null);
+
+    public PieceTable() {
+    }
+
+    public PieceTable(CharSequence text) {
+        setText(text);
+    }
+
+    // ==================== Editing ====================
+
+    /**
+     * Replace the whole document. The old buffers are dropped, so this is also the way to
+     * reclaim memory after a long editing session.
+     * @param text New contents
+     */
+    public void setText(CharSequence text) {
+        int removed = current.length();
+        int removedLines = current.getLineCount() - 1;
+        original = new Buffer();
+        added = new Buffer();
+        original.append(text);
+        Node root = text.length() == 0 ? null
+                : new Node(original, 0, text.length(), original.lineFeedCount(), random.nextInt(), null, null);
+        current = new Snapshot(root);
+        notifyChanged(0, removed, text.length(), 0, current.getLineCount() - 1 - removedLines);
+    }
+
+    /**
+     * Drop the text that edits have replaced or removed, keeping only the document as it reads
+     * now. The text stays the same, so listeners are not told; snapshots taken before keep
+     * reading the old buffers.
+     */
+    public void compact() {
+        Snapshot before = current;
+        if (added.length() == 0 && original.length() == before.length()) {
+            return;
+        }
+        String text = before.toString();
+        original = new Buffer();
+        added = new Buffer();
+        original.append(text);
+        current = new Snapshot(text.isEmpty() ? null
+                : new Node(original, 0, text.length(), original.lineFeedCount(), random.nextInt(), null, null));
+    }
+
+    /**
+     * Insert text
+     * @param offset Position to insert at
+     * @param text Text to insert
+     */
+    public void insert(int offset, CharSequence text) {
+        replace(offset, 0, text);
+    }
+
+    /**
+     * Remove text
+     * @param offset Start of the range
+     * @param length Characters to remove
+     */
+    public void delete(int offset, int length) {
+        replace(offset, length, "");
+    }
+
+    /**
+     * Replace a range with new text
+     * @param offset Start of the range
+     * @param length Characters to remove
+     * @param text Text to insert in their place
+     */
+    public void replace(int offset, int length, CharSequence text) {
+        Snapshot before = current;
+        if (offset < 0 || length < 0 || offset + length > before.length()) {
+            throw new IndexOutOfBoundsException("replace " + offset + "+" + length
+                    + " in length " + before.length());
+        }
+        if (length == 0 && text.length() == 0) {
+            return;
+        }
+        int line = before.getLineOfOffset(offset);
+        Node[] head = split(before.root, offset);
+        Node[] tail = split(head[1], length);
+        int removedLines = lineFeeds(tail[0]);
+
+        Node left = head[0];
+        int insertedLines = 0;
+        if (text.length() > 0) {
+            int start = added.length();
+            int lineFeedsBefore = added.lineFeedCount();
+            added.append(text);
+            insertedLines = added.lineFeedCount() - lineFeedsBefore;
+            Node last = last(left);
+            if (last != null && last.buffer == added && last.start + last.length == start) {
+                // Typing: the new text continues the piece before it
+                left = extendLast(left, text.length(), insertedLines);
+            } else {
+                left = merge(left, new Node(added, start, text.length(), insertedLines,
+                        random.nextInt(), null, null));
+            }
+        }
+        current = new Snapshot(merge(left, tail[1]));
+        notifyChanged(offset, length, text.length(), line, insertedLines - removedLines);
+    }
+
+    // ==================== Reading ====================
+
+    /**
+     * Get the document as it is now; later edits do not affect it
+     * @return Immutable view of the text
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(current.root);
+    }
+
+    public int length() {
+        return current.length();
+    }
+
+    /**
+     * Get the characters held in the buffers, text since replaced or removed included
+     * @return Characters, a measure of the memory the document takes
+     */
+    public long getBufferedChars() {
+        return (long) original.length() + added.length();
+    }
+
+    public char charAt(int offset) {
+        return current.charAt(offset);
+    }
+
+    /**
+     * Get part of the text
+     * @param start Start offset
+     * @param end End offset, exclusive
+     * @return Copy of the range
+     */
+    public String getText(int start, int end) {
+        return current.getText(start, end);
+    }
+
+    public int getLineCount() {
+        return current.getLineCount();
+    }
+
+    /**
+     * Get the line an offset is on
+     * @param offset Offset, 0 to length
+     * @return Line number, from 0
+     */
+    public int getLineOfOffset(int offset) {
+        return current.getLineOfOffset(offset);
+    }
+
+    /**
+     * Get the offset of the first character of a line
+     * @param line Line number, from 0
+     * @return Offset
+     */
+    public int getLineStart(int line) {
+        return current.getLineStart(line);
+    }
+
+    /**
+     * Get the offset just past the last character of a line, before its line feed
+     * @param line Line number, from 0
+     * @return Offset
+     */
+    public int getLineEnd(int line) {
+        return current.getLineEnd(line);
+    }
+
+    @Override
+    public String toString() {
+        return current.toString();
+    }
+
+    // ==================== Listeners ====================
+
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyChanged(int offset, int removed, int inserted, int line, int lineDelta) {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onTextChanged(offset, removed, inserted, line, lineDelta);
+        }
+    }
+
+    // ==================== Snapshot ====================
+
+    /**
+     * The document at one moment. Reads are O(log n), except that reading forward from the
+     * last position read is O(1) per character, so scanning a snapshot front to back through
+     * {@link #charAt} is as cheap as scanning a string. A snapshot can be handed to another
+     * thread, but one instance should not be read by two threads at once.
+     */
+    public static final class Snapshot implements CharSequence {
+
+        private final Node root;
+        // Piece of the last charAt, as document offsets
+        private Node cached;
+        private int cachedStart;
+        private int cachedEnd;
+
+        Snapshot(Node root) {
+            this.root = root;
+        }
+
+        @Override
+        public int length() {
+            return root == null ? 0 : root.size;
+        }
+
+        @Override
+        public char charAt(int offset) {
+            if (cached == null || offset < cachedStart || offset >= cachedEnd) {
+                if (offset < 0 || offset >= length()) {
+                    throw new IndexOutOfBoundsException("offset " + offset + ", length " + length());
+                }
+                Node node = root;
+                int base = 0;
+                while (true) {
+                    int leftSize = size(node.left);
+                    if (offset < base + leftSize) {
+                        node = node.left;
+                    } else if (offset >= base + leftSize + node.length) {
+                        base += leftSize + node.length;
+                        node = node.right;
+                    } else {
+                        cached = node;
+                        cachedStart = base + leftSize;
+                        cachedEnd = cachedStart + node.length;
+                        break;
+                    }
+                }
+            }
+            return cached.buffer.charAt(cached.start + offset - cachedStart);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return getText(start, end);
+        }
+
+        /**
+         * Copy part of the text
+         * @param start Start offset
+         * @param end End offset, exclusive
+         * @return Text in the range
+         */
+        public String getText(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("range " + start + ".." + end + ", length " + length());
+            }
+            StringBuilder builder = new StringBuilder(end - start);
+            appendRange(root, 0, start, end, builder);
+            return builder.toString();
+        }
+
+        /**
+         * Write the whole text without building it as one string
+         * @param writer Destination
+         * @throws IOException if the writer fails
+         */
+        public void writeTo(Writer writer) throws IOException {
+            char[] chunk = new char[8192];
+            int length = length();
+            for (int offset = 0; offset < length; offset += chunk.length) {
+                int count = Math.min(chunk.length, length - offset);
+                for (int i = 0; i < count; i++) {
+                    chunk[i] = charAt(offset + i);
+                }
+                writer.write(chunk, 0, count);
+            }
+        }
+
+        public int getLineCount() {
+            return lineFeeds(root) + 1;
+        }
+
+        /**
+         * Get the line an offset is on
+         * @param offset Offset, 0 to length
+         * @return Line number, from 0
+         */
+        public int getLineOfOffset(int offset) {
+            offset = Math.max(0, Math.min(offset, length()));
+            int lines = 0;
+            Node node = root;
+            while (node != null) {
+                int leftSize = size(node.left);
+                if (offset <= leftSize) {
+                    node = node.left;
+                    continue;
+                }
+                lines += lineFeeds(node.left);
+                int inPiece = offset - leftSize;
+                if (inPiece < node.length) {
+                    return lines + node.buffer.lineFeedsBetween(node.start, node.start + inPiece);
+                }
+                lines += node.lineFeeds;
+                offset -= leftSize + node.length;
+                node = node.right;
+            }
+            return lines;
+        }
+
+        /**
+         * Get the offset of the first character of a line
+         * @param line Line number, from 0; clamped to the document
+         * @return Offset
+         */
+        public int getLineStart(int line) {
+            if (line <= 0) {
+                return 0;
+            }
+            if (line >= getLineCount()) {
+                return getLineStart(getLineCount() - 1);
+            }
+            return lineFeedOffset(line - 1) + 1;
+        }
+
+        /**
+         * Get the offset just past the last character of a line, before its line feed
+         * @param line Line number, from 0; clamped to the document
+         * @return Offset
+         */
+        public int getLineEnd(int line) {
+            if (line >= getLineCount() - 1) {
+                return length();
+            }
+            return lineFeedOffset(Math.max(0, line));
+        }
+
+        // Document offset of the index-th line feed, from 0
+        private int lineFeedOffset(int index) {
+            Node node = root;
+            int base = 0;
+            while (node != null) {
+                int leftLines = lineFeeds(node.left);
+                if (index < leftLines) {
+                    node = node.left;
+                    continue;
+                }
+                index -= leftLines;
+                int leftSize = size(node.left);
+                if (index < node.lineFeeds) {
+                    int position = node.buffer.lineFeedPosition(
+                            node.buffer.lineFeedsBetween(0, node.start) + index);
+                    return base + leftSize + position - node.start;
+                }
+                index -= node.lineFeeds;
+                base += leftSize + node.length;
+                node = node.right;
+            }
+            throw new IllegalStateException("line index out of sync");
+        }
+
+        @Override
+        public String toString() {
+            return getText(0, length());
+        }
+
+        private static void appendRange(Node node, int base, int start, int end, StringBuilder out) {
+            while (node != null) {
+                int leftSize = size(node.left);
+                int pieceStart = base + leftSize;
+                int pieceEnd = pieceStart + node.length;
+                if (start < pieceStart) {
+                    appendRange(node.left, base, start, end, out);
+                }
+                if (start < pieceEnd && end > pieceStart) {
+                    int from = Math.max(start, pieceStart) - pieceStart;
+                    int to = Math.min(end, pieceEnd) - pieceStart;
+                    node.buffer.appendTo(out, node.start + from, node.start + to);
+                }
+                if (end <= pieceEnd) {
+                    return;
+                }
+                base = pieceEnd;
+                node = node.right;
+            }
+        }
+    }
+
+    // ==================== Piece tree ====================
+
+    // A piece of one buffer, and the root of a treap ordered by document position
+    static final class Node {
+        final Buffer buffer;
+        final int start;
+        final int length;
+        final int lineFeeds;
+        final int priority;
+        final Node left;
+        final Node right;
+        // Totals over this subtree
+        final int size;
+        final int subtreeLineFeeds;
+
+        Node(Buffer buffer, int start, int length, int lineFeeds, int priority, Node left, Node right) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+            this.lineFeeds = lineFeeds;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + length + size(right);
+            this.subtreeLineFeeds = lineFeeds(left) + lineFeeds + lineFeeds(right);
+        }
+
+        Node withChildren(Node left, Node right) {
+            return new Node(buffer, start, length, lineFeeds, priority, left, right);
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int lineFeeds(Node node) {
+        return node == null ? 0 : node.subtreeLineFeeds;
+    }
+
+    // Everything before offset, and everything from it; splits a piece if needed
+    private static Node[] split(Node node, int offset) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        int leftSize = size(node.left);
+        if (offset <= leftSize) {
+            Node[] parts = split(node.left, offset);
+            return new Node[]{parts[0], node.withChildren(parts[1], node.right)};
+        }
+        if (offset >= leftSize + node.length) {
+            Node[] parts = split(node.right, offset - leftSize - node.length);
+            return new Node[]{node.withChildren(node.left, parts[0]), parts[1]};
+        }
+        int at = node.start + offset - leftSize;
+        int headLines = node.buffer.lineFeedsBetween(node.start, at);
+        // Both halves keep the priority: each only takes over one side of the old subtree
+        Node head = new Node(node.buffer, node.start, at - node.start, headLines,
+                node.priority, node.left, null);
+        Node tail = new Node(node.buffer, at, node.start + node.length - at, node.lineFeeds - headLines,
+                node.priority, null, node.right);
+        return new Node[]{head, tail};
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority >= right.priority) {
+            return left.withChildren(left.left, merge(left.right, right));
+        }
+        return right.withChildren(merge(left, right.left), right.right);
+    }
+
+    private static Node last(Node node) {
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    // Grow the last piece of a subtree, which must end where the add buffer did
+    private static Node extendLast(Node node, int length, int lineFeeds) {
+        if (node.right != null) {
+            return node.withChildren(node.left, extendLast(node.right, length, lineFeeds));
+        }
+        return new Node(node.buffer, node.start, node.length + length, node.lineFeeds + lineFeeds,
+                node.priority, node.left, null);
+    }
+
+    // ==================== Buffers ====================
+
+    /**
+     * Append-only characters plus the positions of their line feeds. Both are stored in
+     * fixed-size chunks that never move, so a snapshot on another thread can keep reading
+     * what was appended before it was taken while the UI thread appends more.
+     */
+    static final class Buffer {
+        private static final int CHUNK_BITS = 14;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private volatile char[][] chars = new char[4][];
+        private volatile int[][] lineFeedPositions = new int[4][];
+        private volatile int length;
+        private volatile int lineFeedCount;
+
+        int length() {
+            return length;
+        }
+
+        int lineFeedCount() {
+            return lineFeedCount;
+        }
+
+        char charAt(int index) {
+            return chars[index >>> CHUNK_BITS][index & CHUNK_MASK];
+        }
+
+        void append(CharSequence text) {
+            int end = length;
+            int lines = lineFeedCount;
+            int count = text.length();
+            for (int i = 0; i < count; i++) {
+                char c = text.charAt(i);
+                char[] chunk = charChunk(end >>> CHUNK_BITS);
+                chunk[end & CHUNK_MASK] = c;
+                if (c == '\n') {
+                    lineFeedChunk(lines >>> CHUNK_BITS)[lines & CHUNK_MASK] = end;
+                    lines++;
+                }
+                end++;
+            }
+            // Published last, so readers never see a slot that is not filled in yet
+            lineFeedCount = lines;
+            length = end;
+        }
+
+        void appendTo(StringBuilder out, int start, int end) {
+            while (start < end) {
+                char[] chunk = chars[start >>> CHUNK_BITS];
+                int from = start & CHUNK_MASK;
+                int count = Math.min(end - start, CHUNK_SIZE - from);
+                out.append(chunk, from, count);
+                start += count;
+            }
+        }
+
+        // Line feeds at positions in [start, end)
+        int lineFeedsBetween(int start, int end) {
+            return lineFeedsBefore(end) - lineFeedsBefore(start);
+        }
+
+        // Position of the index-th line feed in the buffer
+        int lineFeedPosition(int index) {
+            return lineFeedPositions[index >>> CHUNK_BITS][index & CHUNK_MASK];
+        }
+
+        private int lineFeedsBefore(int position) {
+            int low = 0;
+            int high = lineFeedCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lineFeedPosition(mid) < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private char[] charChunk(int index) {
+            if (index >= chars.length) {
+                char[][] grown = new char[chars.length * 2][];
+                System.arraycopy(chars, 0, grown, 0, chars.length);
+                chars = grown;
+            }
+            if (chars[index] == null) {
+                chars[index] = new char[CHUNK_SIZE];
+            }
+            return chars[index];
+        }
+
+        private int[] lineFeedChunk(int index) {
+            if (index >= lineFeedPositions.length) {
+                int[][] grown = new int[lineFeedPositions.length * 2][];
+                System.arraycopy(lineFeedPositions, 0, grown, 0, lineFeedPositions.length);
+                lineFeedPositions = grown;
+            }
+            if (lineFeedPositions[index] == null) {
+                lineFeedPositions[index] = new int[CHUNK_SIZE];
+            }
+            return lineFeedPositions[index];
+        }
+    }
+}
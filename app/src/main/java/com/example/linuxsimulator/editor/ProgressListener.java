@@ -0,0 +1,12 @@
+package com.example.linuxsimulator.editor;
+
+/**
+ * Progress of a long file operation, reported from the thread doing it
+ */
+public interface ProgressListener {
+    /**
+     * @param done Work done so far, e.g. bytes read
+     * @param total Total work, in the same unit
+     */
+    void onProgress(long done, long total);
+}
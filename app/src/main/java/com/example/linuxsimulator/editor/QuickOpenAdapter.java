@@ -0,0 +1,157 @@
+package com.example.linuxsimulator.editor;
+
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.linuxsimulator.R;
+import com.example.linuxsimulator.terminal.CancellationToken;
+import com.example.linuxsimulator.terminal.CommandExecutor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Results of a quick-open query for a RecyclerView. Every change to the query, and every new
+ * list the {@link FileIndex} publishes, ranks the files again on the CPU pool; a ranking still
+ * running when the next one starts is cancelled, so typing never waits for a stale one.
+ *
+ * Used from the UI thread.
+ */
+public final class QuickOpenAdapter extends RecyclerView.Adapter<QuickOpenAdapter.ResultHolder>
+        implements FileIndex.Listener {
+
+    private static final int MAX_RESULTS = 50;
+    private static final int COLOR_MATCH = 0xFF569CD6;
+
+    /**
+     * Told when a result is picked, and when the results change
+     */
+    public interface Listener {
+        void onFilePicked(File file);
+
+        void onResultsChanged(int count);
+    }
+
+    private final FileIndex index;
+    private final CommandExecutor executor;
+    private final Listener listener;
+    private List<FileIndex.Result> results = new ArrayList<>();
+    private String query = "";
+    private CancellationToken token;
+    private boolean closed;
+
+    public QuickOpenAdapter(FileIndex index, CommandExecutor executor, Listener listener) {
+        this.index = index;
+        this.executor = executor;
+        this.listener = listener;
+        index.addListener(this);
+    }
+
+    /**
+     * Rank the files against a new query
+     * @param query Query as typed
+     */
+    public void setQuery(String query) {
+        this.query = query;
+        rank();
+    }
+
+    public List<FileIndex.Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Stop ranking and stop following the index
+     */
+    public void close() {
+        closed = true;
+        index.removeListener(this);
+        if (token != null) {
+            token.cancel();
+            token = null;
+        }
+    }
+
+    @Override
+    public void onIndexChanged() {
+        rank();
+    }
+
+    private void rank() {
+        if (closed) {
+            return;
+        }
+        if (token != null) {
+            token.cancel();
+        }
+        CancellationToken rankToken = new CancellationToken();
+        token = rankToken;
+        String ranked = query;
+        try {
+            executor.execute(CommandExecutor.Pool.CPU, () -> {
+                try {
+                    List<FileIndex.Result> found = index.query(ranked, MAX_RESULTS, rankToken);
+                    executor.postToUi(() -> {
+                        if (token != rankToken) {
+                            return;
+                        }
+                        token = null;
+                        results = found;
+                        notifyDataSetChanged();
+                        listener.onResultsChanged(found.size());
+                    });
+                } catch (CancellationException e) {
+                    // The query changed
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The next keystroke or index update tries again
+            token = null;
+        }
+    }
+
+    @Override
+    public ResultHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.quick_open_row, parent, false);
+        return new ResultHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ResultHolder holder, int position) {
+        FileIndex.Result result = results.get(position);
+        SpannableString name = new SpannableString(result.name);
+        for (int offset : result.nameMatches) {
+            name.setSpan(new ForegroundColorSpan(COLOR_MATCH), offset, offset + 1,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        holder.name.setText(name);
+        holder.path.setText(result.directory.isEmpty() ? "/" : result.directory);
+        holder.itemView.setOnClickListener(v -> listener.onFilePicked(result.file));
+    }
+
+    @Override
+    public int getItemCount() {
+        return results.size();
+    }
+
+    public static class ResultHolder extends RecyclerView.ViewHolder {
+        final TextView name;
+        final TextView path;
+
+        ResultHolder(View itemView) {
+            super(itemView);
+            name = itemView.findViewById(R.id.quickOpenName);
+            path = itemView.findViewById(R.id.quickOpenPath);
+        }
+    }
+}
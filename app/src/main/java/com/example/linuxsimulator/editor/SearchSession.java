@@ -0,0 +1,204 @@
+package com.example.linuxsimulator.editor;
+
+import android.text.Editable;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.view.View;
+import android.widget.EditText;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+import com.example.linuxsimulator.terminal.CommandExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps the matches of a {@link TextSearch} over a document: finds them all on the CPU pool
+ * whenever the search or the text changes, for an "N of M" count, and highlights the ones on
+ * screen. Only the matches in view get a span, however many there are in the file.
+ *
+ * Used from the UI thread.
+ */
+public final class SearchSession implements PieceTable.ChangeListener {
+
+    // Typing in the search field or the text waits this long before a new count
+    private static final long DELAY_MS = 150;
+    private static final int MAX_HIGHLIGHTS = 500;
+    private static final int COLOR_MATCH = 0xFF515C6A;
+
+    /**
+     * Told when the matches have been counted, or have gone out of date
+     */
+    public interface Listener {
+        void onMatchesChanged();
+    }
+
+    // Marks the spans this class owns
+    private static final class MatchSpan extends BackgroundColorSpan {
+        MatchSpan() {
+            super(COLOR_MATCH);
+        }
+    }
+
+    private final CommandExecutor executor;
+    private final Runnable count = this::startCount;
+    private final Runnable highlight = this::highlightVisible;
+    private final List<MatchSpan> applied = new ArrayList<>();
+    private EditText editor;
+    private View scroller;
+    private PieceTable document;
+    private Listener listener;
+    private TextSearch search;
+    // Null while out of date
+    private TextSearch.Matches matches;
+    private CancellationToken token;
+    private boolean highlightScheduled;
+
+    public SearchSession(CommandExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Search an editor
+     * @param editor Editor whose text mirrors the document
+     * @param scroller View that scrolls the editor vertically
+     * @param document Document shown by the editor
+     * @param listener Told when the count changes
+     */
+    public void attach(EditText editor, View scroller, PieceTable document, Listener listener) {
+        this.editor = editor;
+        this.scroller = scroller;
+        this.listener = listener;
+        setDocument(document);
+        scroller.getViewTreeObserver().addOnScrollChangedListener(() -> {
+            if (matches != null && !highlightScheduled) {
+                highlightScheduled = true;
+                editor.post(highlight);
+            }
+        });
+    }
+
+    /**
+     * Search another document, e.g. when the editor switches files
+     * @param document Document the editor shows from now on
+     */
+    public void setDocument(PieceTable document) {
+        if (this.document != null) {
+            this.document.removeChangeListener(this);
+        }
+        this.document = document;
+        document.addChangeListener(this);
+        restart();
+    }
+
+    /**
+     * Start a new search
+     * @param search Search, or null to stop searching and remove the highlights
+     */
+    public void setSearch(TextSearch search) {
+        this.search = search;
+        restart();
+    }
+
+    public TextSearch getSearch() {
+        return search;
+    }
+
+    /**
+     * Get every match in the document
+     * @return Matches, or null while they are being counted
+     */
+    public TextSearch.Matches getMatches() {
+        return matches;
+    }
+
+    @Override
+    public void onTextChanged(int offset, int removed, int inserted, int line, int lineDelta) {
+        if (search != null) {
+            restart();
+        }
+    }
+
+    private void restart() {
+        if (token != null) {
+            token.cancel();
+            token = null;
+        }
+        editor.removeCallbacks(count);
+        boolean wasCurrent = matches != null;
+        matches = null;
+        if (search != null) {
+            editor.postDelayed(count, DELAY_MS);
+        } else {
+            clearSpans();
+        }
+        if (wasCurrent) {
+            listener.onMatchesChanged();
+        }
+    }
+
+    private void startCount() {
+        TextSearch counted = search;
+        if (counted == null) {
+            return;
+        }
+        CancellationToken countToken = new CancellationToken();
+        token = countToken;
+        PieceTable.Snapshot text = document.snapshot();
+        try {
+            executor.execute(CommandExecutor.Pool.CPU, () -> {
+                try {
+                    TextSearch.Matches found = counted.findAll(text, countToken);
+                    executor.postToUi(() -> {
+                        if (token != countToken) {
+                            return;
+                        }
+                        token = null;
+                        matches = found;
+                        highlightVisible();
+                        listener.onMatchesChanged();
+                    });
+                } catch (CancellationException e) {
+                    // The search or the text changed
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            token = null;
+            editor.postDelayed(count, DELAY_MS);
+        }
+    }
+
+    // Highlight the matches on screen, and drop the highlights of the ones that scrolled away
+    private void highlightVisible() {
+        highlightScheduled = false;
+        clearSpans();
+        Layout layout = editor.getLayout();
+        if (matches == null || matches.count == 0 || layout == null) {
+            return;
+        }
+        Editable text = editor.getText();
+        int top = scroller.getScrollY() - editor.getTop() - editor.getTotalPaddingTop();
+        int start = layout.getLineStart(layout.getLineForVertical(Math.max(0, top)));
+        int end = layout.getLineEnd(layout.getLineForVertical(Math.max(0, top + scroller.getHeight())));
+        for (int i = matches.indexFrom(start); i < matches.count && applied.size() < MAX_HIGHLIGHTS; i++) {
+            if (matches.getStart(i) >= end) {
+                break;
+            }
+            MatchSpan span = new MatchSpan();
+            text.setSpan(span, matches.getStart(i), Math.min(matches.getEnd(i), text.length()),
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            applied.add(span);
+        }
+    }
+
+    private void clearSpans() {
+        Editable text = editor.getText();
+        for (int i = 0; i < applied.size(); i++) {
+            text.removeSpan(applied.get(i));
+        }
+        applied.clear();
+    }
+}
@@ -0,0 +1,352 @@
+package com.example.linuxsimulator.editor;
+
+import android.graphics.Color;
+import android.text.Editable;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.view.View;
+import android.widget.EditText;
+
+import com.example.linuxsimulator.terminal.CommandExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Colours the text of an editor with a {@link SyntaxLexer}, lexing on the CPU pool and only
+ * ever colouring the lines on screen. The state each line starts in is cached, so after an
+ * edit lexing resumes at the edited line and stops as soon as the states line up with the
+ * cached ones again; a keystroke in a 50,000 line file re-lexes a few lines, not the file.
+ *
+ * Driven from the UI thread. Passes run one at a time, on a snapshot of the document.
+ */
+public final class SyntaxHighlighter implements PieceTable.ChangeListener {
+
+    // Lines coloured above and below the screen, so a short scroll needs no new pass
+    private static final int MARGIN_LINES = 20;
+    // Edits and scrolls in quick succession share one pass
+    private static final long DELAY_MS = 60;
+    // A pass gives up on a stale document this often while catching up on line states
+    private static final int CHECK_EVERY_LINES = 1024;
+    private static final int UNKNOWN = -1;
+
+    private static final int[] COLORS = {
+            0,
+            Color.parseColor("#569CD6"), // KEYWORD
+            Color.parseColor("#B5CEA8"), // LITERAL
+            Color.parseColor("#CE9178"), // STRING
+            Color.parseColor("#6A9955"), // COMMENT
+            Color.parseColor("#9CDCFE"), // VARIABLE
+            Color.parseColor("#569CD6"), // TAG
+            Color.parseColor("#9CDCFE"), // ATTRIBUTE
+    };
+
+    // Marks the spans this class owns, so they can be told apart from the editor's own
+    private static final class TokenSpan extends ForegroundColorSpan {
+        TokenSpan(int color) {
+            super(color);
+        }
+    }
+
+    // Tokens of the lines a pass coloured
+    private static final class Result {
+        final int[] tokens;
+        final int count;
+
+        Result(int[] tokens, int count) {
+            this.tokens = tokens;
+            this.count = count;
+        }
+    }
+
+    private final CommandExecutor executor;
+    private final Runnable pass = this::startPass;
+    private final List<TokenSpan> applied = new ArrayList<>();
+    private EditText editor;
+    private View scroller;
+    private PieceTable document;
+    private SyntaxLexer lexer;
+    // Bumped by every edit; a pass that started before the latest edit is thrown away
+    private volatile int generation;
+    private boolean scheduled;
+    private boolean running;
+    private boolean rerun;
+    // Edits since the last pass started, three ints each: first line, last line, line delta
+    private int[] edits = new int[3 * 16];
+    private int editCount;
+    // Set when the language changes, so the next pass starts its line states over
+    private boolean resetStates = true;
+
+    // Line states, only touched by the pass that is running. states[line] is the state the
+    // line starts in; the first `valid` are right for the text, the rest up to `known` are
+    // from before the latest edits and are used to tell when lexing can stop.
+    private int[] states = new int[256];
+    private int known = 1;
+    private int valid = 1;
+
+    public SyntaxHighlighter(CommandExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Colour an editor
+     * @param editor Editor whose text mirrors the document
+     * @param scroller View that scrolls the editor vertically
+     * @param document Document shown by the editor
+     */
+    public void attach(EditText editor, View scroller, PieceTable document) {
+        this.editor = editor;
+        this.scroller = scroller;
+        setDocument(document);
+        scroller.getViewTreeObserver().addOnScrollChangedListener(this::schedule);
+        editor.addOnLayoutChangeListener((v, left, top, right, bottom,
+                                          oldLeft, oldTop, oldRight, oldBottom) -> schedule());
+    }
+
+    /**
+     * Colour another document, e.g. when the editor switches files. The line states start over.
+     * @param document Document the editor shows from now on
+     */
+    public void setDocument(PieceTable document) {
+        if (this.document != null) {
+            this.document.removeChangeListener(this);
+        }
+        this.document = document;
+        document.addChangeListener(this);
+        resetStates = true;
+        editCount = 0;
+        generation++;
+        clearSpans();
+        schedule();
+    }
+
+    /**
+     * Change the language
+     * @param lexer Lexer for the document, or null for plain text
+     */
+    public void setLexer(SyntaxLexer lexer) {
+        if (lexer == this.lexer) {
+            return;
+        }
+        this.lexer = lexer;
+        resetStates = true;
+        editCount = 0;
+        generation++;
+        clearSpans();
+        schedule();
+    }
+
+    @Override
+    public void onTextChanged(int offset, int removed, int inserted, int line, int lineDelta) {
+        if (lexer == null) {
+            return;
+        }
+        if (editCount * 3 == edits.length) {
+            edits = Arrays.copyOf(edits, edits.length * 2);
+        }
+        edits[editCount * 3] = line;
+        edits[editCount * 3 + 1] = document.getLineOfOffset(offset + inserted);
+        edits[editCount * 3 + 2] = lineDelta;
+        editCount++;
+        generation++;
+        schedule();
+    }
+
+    private void schedule() {
+        if (!scheduled && editor != null) {
+            scheduled = true;
+            editor.postDelayed(pass, DELAY_MS);
+        }
+    }
+
+    // ==================== UI thread ====================
+
+    private void startPass() {
+        scheduled = false;
+        if (lexer == null) {
+            return;
+        }
+        if (running) {
+            rerun = true;
+            return;
+        }
+        Layout layout = editor.getLayout();
+        if (layout == null || document.length() == 0) {
+            return;
+        }
+        // Rows on screen, in the editor's coordinates
+        int top = scroller.getScrollY() - editor.getTop() - editor.getTotalPaddingTop();
+        int firstRow = layout.getLineForVertical(Math.max(0, top));
+        int lastRow = layout.getLineForVertical(Math.max(0, top + scroller.getHeight()));
+        int length = document.length();
+        int firstLine = Math.max(0,
+                document.getLineOfOffset(Math.min(layout.getLineStart(firstRow), length)) - MARGIN_LINES);
+        int lastLine = Math.min(document.getLineCount() - 1,
+                document.getLineOfOffset(Math.min(layout.getLineEnd(lastRow), length)) + MARGIN_LINES);
+
+        PieceTable.Snapshot text = document.snapshot();
+        SyntaxLexer passLexer = lexer;
+        int passGeneration = generation;
+        int[] passEdits = Arrays.copyOf(edits, editCount * 3);
+        int passEditCount = editCount;
+        boolean passReset = resetStates;
+        editCount = 0;
+        resetStates = false;
+        running = true;
+        try {
+            executor.execute(CommandExecutor.Pool.CPU, () -> {
+                Result result = null;
+                try {
+                    result = highlight(text, passLexer, passReset, passEdits, passEditCount,
+                            firstLine, lastLine, passGeneration);
+                } finally {
+                    Result done = result;
+                    executor.postToUi(() -> finishPass(done, passGeneration));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The edits are still in the array; keep them for the next try
+            running = false;
+            editCount = passEditCount;
+            resetStates = passReset;
+            schedule();
+        }
+    }
+
+    private void finishPass(Result result, int passGeneration) {
+        running = false;
+        if (result == null && passGeneration == generation) {
+            // The pass failed part way, so the line states cannot be trusted
+            resetStates = true;
+        } else if (result != null && passGeneration == generation && lexer != null) {
+            applySpans(result);
+        }
+        if (rerun || passGeneration != generation) {
+            rerun = false;
+            schedule();
+        }
+    }
+
+    private void applySpans(Result result) {
+        Editable text = editor.getText();
+        clearSpans();
+        int length = text.length();
+        int[] tokens = result.tokens;
+        for (int i = 0; i < result.count; i += 3) {
+            int start = tokens[i];
+            int end = Math.min(tokens[i + 1], length);
+            if (start < end) {
+                TokenSpan span = new TokenSpan(COLORS[tokens[i + 2]]);
+                text.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                applied.add(span);
+            }
+        }
+    }
+
+    private void clearSpans() {
+        if (editor == null) {
+            return;
+        }
+        Editable text = editor.getText();
+        for (int i = 0; i < applied.size(); i++) {
+            text.removeSpan(applied.get(i));
+        }
+        applied.clear();
+    }
+
+    // ==================== Pass ====================
+
+    // Bring the line states up to date and lex the lines wanted. Returns null if the document
+    // changed while the states were catching up.
+    private Result highlight(PieceTable.Snapshot text, SyntaxLexer lexer, boolean reset, int[] passEdits,
+                             int passEditCount, int firstLine, int lastLine, int passGeneration) {
+        if (reset) {
+            known = 1;
+            valid = 1;
+        } else {
+            for (int i = 0; i < passEditCount; i++) {
+                applyEdit(passEdits[i * 3], passEdits[i * 3 + 1], passEdits[i * 3 + 2]);
+            }
+        }
+        if (!catchUp(text, lexer, firstLine, passGeneration)) {
+            return null;
+        }
+
+        int[][] tokens = {new int[3 * 256]};
+        int[] count = {0};
+        SyntaxLexer.TokenSink sink = (start, end, kind) -> {
+            if (count[0] == tokens[0].length) {
+                tokens[0] = Arrays.copyOf(tokens[0], tokens[0].length * 2);
+            }
+            tokens[0][count[0]++] = start;
+            tokens[0][count[0]++] = end;
+            tokens[0][count[0]++] = kind;
+        };
+        int state = states[firstLine];
+        for (int line = firstLine; line <= lastLine; line++) {
+            state = lexer.lexLine(text, text.getLineStart(line), text.getLineEnd(line), state, sink);
+        }
+        return new Result(tokens[0], count[0]);
+    }
+
+    // Shift the cached states to match an edit. Lines after the edit keep their old states;
+    // the edited lines become unknown.
+    private void applyEdit(int line, int lastLine, int lineDelta) {
+        // The next line's old state was lexed from this line's old text, so lexing may not skip
+        // from this line to the next; the state of line 0 never changes
+        valid = Math.min(valid, Math.max(1, line));
+        if (line > 0 && line < known) {
+            states[line] = UNKNOWN;
+        }
+        // First line after the edit, as it was numbered before it
+        int oldTail = lastLine + 1 - lineDelta;
+        if (oldTail >= known) {
+            known = Math.min(known, line + 1);
+            return;
+        }
+        int tail = known - oldTail;
+        ensureCapacity(lastLine + 1 + tail);
+        System.arraycopy(states, oldTail, states, lastLine + 1, tail);
+        Arrays.fill(states, line + 1, lastLine + 1, UNKNOWN);
+        known = lastLine + 1 + tail;
+    }
+
+    // Lex forward until the state of the target line is known. Returns false if the document
+    // changed first.
+    private boolean catchUp(PieceTable.Snapshot text, SyntaxLexer lexer, int target, int passGeneration) {
+        boolean current = true;
+        while (valid <= target) {
+            if (valid % CHECK_EVERY_LINES == 0 && passGeneration != generation) {
+                current = false;
+                break;
+            }
+            int line = valid - 1;
+            int state = lexer.lexLine(text, text.getLineStart(line), text.getLineEnd(line), states[line], null);
+            if (valid < known && states[valid] == state) {
+                // In step with the old states again: they hold up to the next unknown line
+                valid++;
+                while (valid < known && states[valid] != UNKNOWN) {
+                    valid++;
+                }
+                continue;
+            }
+            ensureCapacity(valid + 1);
+            states[valid++] = state;
+            known = Math.max(known, valid);
+        }
+        if (valid < known) {
+            // Lexed from the state just replaced, so no longer part of a chain that can be matched
+            states[valid] = UNKNOWN;
+        }
+        return current;
+    }
+
+    private void ensureCapacity(int lines) {
+        if (lines > states.length) {
+            states = Arrays.copyOf(states, Math.max(lines, states.length * 2));
+        }
+    }
+}
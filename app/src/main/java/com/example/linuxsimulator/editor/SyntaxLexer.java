@@ -0,0 +1,104 @@
+package com.example.linuxsimulator.editor;
+
+/**
+ * Splits source text into tokens one line at a time. Everything a line needs to know about the
+ * lines before it (an open block comment, a string that runs on) is folded into one int, the
+ * state the line starts in, so a highlighter can cache that per line and re-lex from any line
+ * without going back to the top of the file.
+ *
+ * Lexers hold no mutable state and can be used from any thread.
+ */
+public abstract class SyntaxLexer {
+
+    // Token kinds
+    public static final int KEYWORD = 1;
+    public static final int LITERAL = 2;
+    public static final int STRING = 3;
+    public static final int COMMENT = 4;
+    public static final int VARIABLE = 5;
+    public static final int TAG = 6;
+    public static final int ATTRIBUTE = 7;
+
+    /**
+     * State of the first line of a file
+     */
+    public static final int INITIAL_STATE = 0;
+
+    /**
+     * Receives the tokens of a line in order
+     */
+    public interface TokenSink {
+        void onToken(int start, int end, int kind);
+    }
+
+    /**
+     * Lex one line
+     * @param text Text the line is in
+     * @param start Offset of the line
+     * @param end Offset just past the line, before its line feed
+     * @param state State the line starts in
+     * @param sink Where tokens go, or null when only the end state is wanted
+     * @return State the next line starts in; never negative
+     */
+    public abstract int lexLine(CharSequence text, int start, int end, int state, TokenSink sink);
+
+    /**
+     * Find a lexer for a file
+     * @param fileType Type from {@link com.example.linuxsimulator.data.FileSystemManager#getFileType}
+     * @return Lexer, or null if the file is shown as plain text
+     */
+    public static SyntaxLexer forFileType(String fileType) {
+        switch (fileType) {
+            case "application/x-shellscript":
+                return CodeLexer.SHELL;
+            case "text/x-python":
+                return CodeLexer.PYTHON;
+            case "text/x-java-source":
+                return CodeLexer.JAVA;
+            case "text/x-c":
+                return CodeLexer.C;
+            case "text/x-c++":
+                return CodeLexer.CPP;
+            case "text/javascript":
+                return CodeLexer.JAVASCRIPT;
+            case "application/json":
+                return CodeLexer.JSON;
+            case "application/xml":
+            case "text/html":
+                return MarkupLexer.INSTANCE;
+            default:
+                return null;
+        }
+    }
+
+    // ==================== Helpers ====================
+
+    static boolean regionMatches(CharSequence text, int offset, int end, String word) {
+        if (offset + word.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (text.charAt(offset + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Offset of the first occurrence of word in [from, end), or -1
+    static int indexOf(CharSequence text, int from, int end, String word) {
+        char first = word.charAt(0);
+        for (int i = from; i + word.length() <= end; i++) {
+            if (text.charAt(i) == first && regionMatches(text, i, end, word)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static void emit(TokenSink sink, int start, int end, int kind) {
+        if (sink != null && start < end) {
+            sink.onToken(start, end, kind);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.example.linuxsimulator.editor;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reads and writes text files for the editor, off the UI thread. Loading works out the
+ * charset (from a byte order mark, or by checking whether the start of the file is valid
+ * UTF-8), decodes while streaming and turns CRLF into LF; saving puts all of that back and
+ * replaces the file atomically, so a crash or a full disk never leaves half a file behind.
+ */
+public final class TextFileIO {
+
+    // Bytes looked at to guess the charset and line separator
+    private static final int SNIFF_BYTES = 64 * 1024;
+    private static final int CHUNK_CHARS = 16 * 1024;
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    private static final Charset WINDOWS_1252 = charsetOr("windows-1252", StandardCharsets.ISO_8859_1);
+
+    /**
+     * How a file's text is stored on disk
+     */
+    public static final class Encoding {
+        public static final Encoding DEFAULT = new Encoding(StandardCharsets.UTF_8, false, "\n");
+
+        public final Charset charset;
+        // Whether the file starts with a byte order mark
+        public final boolean bom;
+        public final String lineSeparator;
+
+        public Encoding(Charset charset, boolean bom, String lineSeparator) {
+            this.charset = charset;
+            this.bom = bom;
+            this.lineSeparator = lineSeparator;
+        }
+
+        /**
+         * Check whether a line feed is always the single byte '\n', so the file can be split
+         * into lines without decoding it
+         * @return False for UTF-16
+         */
+        public boolean isAsciiCompatible() {
+            return !charset.name().startsWith("UTF-16");
+        }
+
+        /**
+         * Describe for the status bar
+         * @return e.g. "UTF-8", "UTF-16LE BOM CRLF"
+         */
+        public String describe() {
+            return charset.name() + (bom ? " BOM" : "") + ("\r\n".equals(lineSeparator) ? " CRLF" : "");
+        }
+    }
+
+    private TextFileIO() {
+    }
+
+    /**
+     * Work out how a file is encoded from its first bytes
+     * @param file File to look at
+     * @return Encoding; UTF-8 with LF line ends for an empty file
+     * @throws IOException if the file cannot be read
+     */
+    public static Encoding detect(File file) throws IOException {
+        byte[] head = new byte[(int) Math.min(SNIFF_BYTES, file.length())];
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            while (length < head.length) {
+                int read = in.read(head, length, head.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+        }
+        return detect(head, length, length < file.length());
+    }
+
+    static Encoding detect(byte[] head, int length, boolean truncated) {
+        Charset charset;
+        boolean bom = true;
+        if (startsWith(head, length, 0xEF, 0xBB, 0xBF)) {
+            charset = StandardCharsets.UTF_8;
+        } else if (startsWith(head, length, 0xFF, 0xFE)) {
+            charset = StandardCharsets.UTF_16LE;
+        } else if (startsWith(head, length, 0xFE, 0xFF)) {
+            charset = StandardCharsets.UTF_16BE;
+        } else {
+            bom = false;
+            charset = guessCharset(head, length, truncated);
+        }
+        String separator = "\n";
+        // In UTF-16 the CR of a CRLF is two bytes back, whichever the byte order
+        int step = charset.name().startsWith("UTF-16") ? 2 : 1;
+        for (int i = step; i < length; i++) {
+            if (head[i] == '\n') {
+                separator = head[i - step] == '\r' ? "\r\n" : "\n";
+                break;
+            }
+        }
+        return new Encoding(charset, bom, separator);
+    }
+
+    // Without a BOM: UTF-16 if every other byte is zero, UTF-8 if the bytes decode as UTF-8,
+    // otherwise the usual single-byte Windows charset
+    private static Charset guessCharset(byte[] head, int length, boolean truncated) {
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i < length; i++) {
+            if (head[i] == 0) {
+                if (i % 2 == 0) evenZeros++;
+                else oddZeros++;
+            }
+        }
+        int pairs = length / 2;
+        if (pairs > 0 && oddZeros > pairs * 0.4 && evenZeros < pairs * 0.05) {
+            return StandardCharsets.UTF_16LE;
+        }
+        if (pairs > 0 && evenZeros > pairs * 0.4 && oddZeros < pairs * 0.05) {
+            return StandardCharsets.UTF_16BE;
+        }
+        int end = length;
+        if (truncated) {
+            // The sample may stop inside a character; drop a partial sequence at the end
+            int back = 0;
+            while (back < 3 && end > 0 && (head[end - 1] & 0xC0) == 0x80) {
+                end--;
+                back++;
+            }
+            if (end > 0 && (head[end - 1] & 0xC0) == 0xC0) {
+                end--;
+            }
+        }
+        try {
+            StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(head, 0, end));
+            return StandardCharsets.UTF_8;
+        } catch (CharacterCodingException e) {
+            return WINDOWS_1252;
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int... prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Charset charsetOr(String name, Charset fallback) {
+        try {
+            return Charset.forName(name);
+        } catch (RuntimeException e) {
+            return fallback;
+        }
+    }
+
+    // ==================== Load ====================
+
+    /**
+     * A file's text and how it is stored
+     */
+    public static final class Contents {
+        public final String text;
+        // Line separator as found in the whole file, not just the first line
+        public final Encoding encoding;
+        // CRLF and lone LF line ends were both found; the text then keeps them as they are
+        public final boolean mixedLineEnds;
+
+        Contents(String text, Encoding encoding, boolean mixedLineEnds) {
+            this.text = text;
+            this.encoding = encoding;
+            this.mixedLineEnds = mixedLineEnds;
+        }
+    }
+
+    /**
+     * Read a whole file as text. When every line ends in CRLF the line ends are turned into
+     * '\n' and written back as CRLF; a file that mixes CRLF and LF is left as it is, so
+     * saving it does not rewrite the lines no one touched.
+     * @param file File to read
+     * @param encoding Encoding from {@link #detect(File)}
+     * @param token Stops reading when cancelled
+     * @param listener Progress in bytes, or null
+     * @return Text, without the byte order mark, and the line separator to save it with
+     * @throws IOException if the file cannot be read
+     * @throws CancellationException if the token was cancelled
+     */
+    public static Contents read(File file, Encoding encoding, CancellationToken token,
+                                ProgressListener listener) throws IOException {
+        long total = file.length();
+        StringBuilder text = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, total));
+        int crlf = 0;
+        int lf = 0;
+        try (CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+             Reader reader = new InputStreamReader(counter, encoding.charset)) {
+            char[] chunk = new char[CHUNK_CHARS];
+            boolean first = true;
+            char previous = 0;
+            int read;
+            while ((read = reader.read(chunk)) >= 0) {
+                token.throwIfCancelled();
+                int start = 0;
+                if (first && read > 0) {
+                    first = false;
+                    if (encoding.bom && chunk[0] == '\uFEFF') {
+                        start = 1;
+                    }
+                }
+                for (int i = start; i < read; i++) {
+                    char c = chunk[i];
+                    if (c == '\n') {
+                        if (previous == '\r') crlf++;
+                        else lf++;
+                    }
+                    previous = c;
+                }
+                text.append(chunk, start, read - start);
+                if (listener != null) {
+                    listener.onProgress(counter.count, total);
+                }
+            }
+        }
+        String separator = encoding.lineSeparator;
+        if (crlf > 0 && lf == 0) {
+            separator = "\r\n";
+            dropReturnsBeforeNewlines(text);
+        } else if (lf > 0) {
+            separator = "\n";
+        }
+        return new Contents(text.toString(), new Encoding(encoding.charset, encoding.bom, separator),
+                crlf > 0 && lf > 0);
+    }
+
+    // In place, so a large file is not held twice
+    private static void dropReturnsBeforeNewlines(StringBuilder text) {
+        int length = text.length();
+        int kept = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                continue;
+            }
+            text.setCharAt(kept++, c);
+        }
+        text.setLength(kept);
+    }
+
+    /**
+     * Copy a file into UTF-8, byte order mark dropped and line ends kept, so a file in a
+     * charset that is not {@link Encoding#isAsciiCompatible() ASCII compatible} can be paged
+     * @param file File to copy
+     * @param encoding Encoding from {@link #detect(File)}
+     * @param target File to write the copy to; replaced
+     * @param token Stops copying when cancelled
+     * @param listener Progress in bytes of the source, or null
+     * @throws IOException if either file cannot be accessed
+     * @throws CancellationException if the token was cancelled
+     */
+    public static void transcode(File file, Encoding encoding, File target, CancellationToken token,
+                                 ProgressListener listener) throws IOException {
+        long total = file.length();
+        try (CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+             Reader reader = new InputStreamReader(counter, encoding.charset);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                     new FileOutputStream(target), StandardCharsets.UTF_8), WRITE_BUFFER)) {
+            char[] chunk = new char[CHUNK_CHARS];
+            boolean first = true;
+            int read;
+            while ((read = reader.read(chunk)) >= 0) {
+                token.throwIfCancelled();
+                int start = 0;
+                if (first && read > 0) {
+                    first = false;
+                    if (encoding.bom && chunk[0] == '\uFEFF') {
+                        start = 1;
+                    }
+                }
+                writer.write(chunk, start, read - start);
+                if (listener != null) {
+                    listener.onProgress(counter.count, total);
+                }
+            }
+        }
+    }
+
+    // ==================== Save ====================
+
+    /**
+     * Write text to a file, replacing it only once everything has reached the disk. The text
+     * is written to a temporary file next to the target, synced, then renamed over it.
+     * @param file Target file
+     * @param text Text with '\n' line ends; must not change while it is written
+     * @param encoding How to encode it
+     * @param token Abandons the write when cancelled, leaving the target untouched
+     * @param listener Progress in characters, or null
+     * @throws CharacterCodingException if the charset cannot store some of the text; the
+     * target is left untouched
+     * @throws IOException if the file cannot be written
+     * @throws CancellationException if the token was cancelled
+     */
+    public static void write(File file, CharSequence text, Encoding encoding, CancellationToken token,
+                             ProgressListener listener) throws IOException {
+        write(file, text, encoding, false, token, listener);
+    }
+
+    /**
+     * Write text to a file, as {@link #write(File, CharSequence, Encoding, CancellationToken, ProgressListener)}
+     * @param lossy Store characters the charset cannot hold as its replacement, usually '?',
+     * rather than fail
+     */
+    public static void write(File file, CharSequence text, Encoding encoding, boolean lossy,
+                             CancellationToken token, ProgressListener listener) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists()) {
+            directory.mkdirs();
+        }
+        File temp = new File(directory, "." + file.getName() + ".tmp");
+        boolean done = false;
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            CodingErrorAction unmappable = lossy ? CodingErrorAction.REPLACE : CodingErrorAction.REPORT;
+            CharsetEncoder encoder = encoding.charset.newEncoder()
+                    .onMalformedInput(unmappable)
+                    .onUnmappableCharacter(unmappable);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, encoder), WRITE_BUFFER)) {
+                if (encoding.bom) {
+                    writer.write('\uFEFF');
+                }
+                boolean crlf = "\r\n".equals(encoding.lineSeparator);
+                char[] chunk = new char[CHUNK_CHARS];
+                int length = text.length();
+                for (int offset = 0; offset < length; ) {
+                    token.throwIfCancelled();
+                    int count = 0;
+                    while (count < chunk.length - 1 && offset < length) {
+                        char c = text.charAt(offset++);
+                        if (c == '\n' && crlf) {
+                            chunk[count++] = '\r';
+                        }
+                        chunk[count++] = c;
+                    }
+                    writer.write(chunk, 0, count);
+                    if (listener != null) {
+                        listener.onProgress(offset, length);
+                    }
+                }
+                writer.flush();
+                out.getFD().sync();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file.getName());
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                temp.delete();
+            }
+        }
+    }
+
+    // Counts bytes read, for progress
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.linuxsimulator.editor;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled search: plain text or a regular expression, optionally case-sensitive and whole
+ * words only. Searches read the text through {@link CharSequence#charAt}, so a document
+ * snapshot is searched where it lies, without being copied into a string first; plain
+ * searches ignore case by folding one character at a time.
+ *
+ * Immutable and thread-safe. Matches are never empty.
+ */
+public final class TextSearch {
+
+    // Past this many matches the count stops and reads as "at least"
+    public static final int MAX_MATCHES = 100_000;
+
+    /**
+     * Positions of every match, in order
+     */
+    public static final class Matches {
+        public static final Matches NONE = new Matches(new int[0], new int[0], 0, false);
+
+        final int[] starts;
+        final int[] ends;
+        public final int count;
+        // Whether the search stopped at MAX_MATCHES
+        public final boolean capped;
+
+        Matches(int[] starts, int[] ends, int count, boolean capped) {
+            this.starts = starts;
+            this.ends = ends;
+            this.count = count;
+            this.capped = capped;
+        }
+
+        public int getStart(int index) {
+            return starts[index];
+        }
+
+        public int getEnd(int index) {
+            return ends[index];
+        }
+
+        /**
+         * Find the first match starting at or after an offset
+         * @param offset Offset in the text
+         * @return Index of the match, or count if there is none
+         */
+        public int indexFrom(int offset) {
+            int index = Arrays.binarySearch(starts, 0, count, offset);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+
+    /**
+     * A replace-all as a single edit
+     */
+    public static final class Replacement {
+        // Range from the start of the first match to the end of the last
+        public final int start;
+        public final int end;
+        // The range with every match in it replaced
+        public final String text;
+        public final int count;
+
+        Replacement(int start, int end, String text, int count) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+            this.count = count;
+        }
+    }
+
+    private final String query;
+    private final boolean matchCase;
+    private final boolean wholeWord;
+    // Set for a regular expression; otherwise the query folded for comparison
+    private final Pattern pattern;
+    private final char[] folded;
+
+    /**
+     * Compile a search
+     * @param query Text or expression to find; not empty
+     * @param matchCase Whether case must match
+     * @param wholeWord Whether a match must not have a letter, digit or '_' on either side
+     * @param regex Whether the query is a regular expression
+     * @throws PatternSyntaxException if the expression is not valid
+     */
+    public TextSearch(String query, boolean matchCase, boolean wholeWord, boolean regex) {
+        this.query = query;
+        this.matchCase = matchCase;
+        this.wholeWord = wholeWord;
+        if (regex) {
+            pattern = Pattern.compile(query, Pattern.MULTILINE
+                    | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+            folded = null;
+        } else {
+            pattern = null;
+            folded = new char[query.length()];
+            for (int i = 0; i < folded.length; i++) {
+                folded[i] = fold(query.charAt(i));
+            }
+        }
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public boolean isRegex() {
+        return pattern != null;
+    }
+
+    /**
+     * Find the next match
+     * @param text Text to search
+     * @param from Offset to start at
+     * @param match Receives the start and end of the match
+     * @return False if there is no match at or after from
+     */
+    public boolean find(CharSequence text, int from, int[] match) {
+        return pattern != null ? findRegex(pattern.matcher(text), text, from, match)
+                : findPlain(text, from, match);
+    }
+
+    /**
+     * Check whether a match starts at an offset and ends at another, e.g. to see if the
+     * selection is a match before replacing it
+     * @param text Text to search
+     * @param start Start of the range
+     * @param end End of the range
+     * @return True if the range is exactly a match
+     */
+    public boolean matchesAt(CharSequence text, int start, int end) {
+        int[] match = new int[2];
+        return find(text, start, match) && match[0] == start && match[1] == end;
+    }
+
+    /**
+     * Find every match, up to {@link #MAX_MATCHES}
+     * @param text Text to search
+     * @param token Stops the search when cancelled
+     * @return Matches in order
+     * @throws java.util.concurrent.CancellationException if the token was cancelled
+     */
+    public Matches findAll(CharSequence text, CancellationToken token) {
+        int[] starts = new int[64];
+        int[] ends = new int[64];
+        int count = 0;
+        int[] match = new int[2];
+        Matcher matcher = pattern != null ? pattern.matcher(text) : null;
+        int from = 0;
+        while (count < MAX_MATCHES) {
+            if ((count & 255) == 0) {
+                token.throwIfCancelled();
+            }
+            boolean found = matcher != null ? findRegex(matcher, text, from, match)
+                    : findPlain(text, from, match);
+            if (!found) {
+                return new Matches(starts, ends, count, false);
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = match[0];
+            ends[count++] = match[1];
+            from = match[1];
+        }
+        return new Matches(starts, ends, count, true);
+    }
+
+    /**
+     * Work out the text a match is replaced with. In a regular expression search $1 stands
+     * for the first group and \ quotes the next character; otherwise the replacement is
+     * taken as it is.
+     * @param text Text searched
+     * @param start Start of the match
+     * @param end End of the match
+     * @param replacement Replacement as typed
+     * @return Text to put in place of the match
+     */
+    public String expand(CharSequence text, int start, int end, String replacement) {
+        if (pattern == null) {
+            return replacement;
+        }
+        // Transparent bounds, so lookarounds and anchors see the text around the match
+        Matcher matcher = pattern.matcher(text).useTransparentBounds(true).useAnchoringBounds(false);
+        matcher.region(start, end);
+        if (!matcher.lookingAt()) {
+            return replacement;
+        }
+        StringBuilder result = new StringBuilder(replacement.length());
+        for (int i = 0; i < replacement.length(); i++) {
+            char c = replacement.charAt(i);
+            if (c == '\\' && i + 1 < replacement.length()) {
+                result.append(replacement.charAt(++i));
+            } else if (c == '$' && i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))) {
+                int group = replacement.charAt(++i) - '0';
+                if (group <= matcher.groupCount() && matcher.group(group) != null) {
+                    result.append(matcher.group(group));
+                }
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Replace every match. Rather than one edit per match, the result is a single edit over
+     * the range the matches cover, so the document changes once and undo takes it back in
+     * one step.
+     * @param text Text to search
+     * @param replacement Replacement as typed, see {@link #expand}
+     * @param token Stops the work when cancelled
+     * @return Edit, or null if nothing matches
+     * @throws java.util.concurrent.CancellationException if the token was cancelled
+     */
+    public Replacement replaceAll(CharSequence text, String replacement, CancellationToken token) {
+        int[] match = new int[2];
+        Matcher matcher = pattern != null ? pattern.matcher(text) : null;
+        StringBuilder result = new StringBuilder();
+        int start = -1;
+        int copied = 0;
+        int count = 0;
+        while (matcher != null ? findRegex(matcher, text, copied, match) : findPlain(text, copied, match)) {
+            if ((count & 255) == 0) {
+                token.throwIfCancelled();
+            }
+            if (start < 0) {
+                start = match[0];
+            } else {
+                result.append(text, copied, match[0]);
+            }
+            result.append(expand(text, match[0], match[1], replacement));
+            copied = match[1];
+            count++;
+        }
+        return count == 0 ? null : new Replacement(start, copied, result.toString(), count);
+    }
+
+    // ==================== Internal ====================
+
+    private boolean findPlain(CharSequence text, int from, int[] match) {
+        int last = text.length() - folded.length;
+        char first = folded[0];
+        for (int i = Math.max(0, from); i <= last; i++) {
+            if (fold(text.charAt(i)) != first) {
+                continue;
+            }
+            int matched = 1;
+            while (matched < folded.length && fold(text.charAt(i + matched)) == folded[matched]) {
+                matched++;
+            }
+            if (matched == folded.length && isWholeWord(text, i, i + folded.length)) {
+                match[0] = i;
+                match[1] = i + folded.length;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean findRegex(Matcher matcher, CharSequence text, int from, int[] match) {
+        int position = Math.max(0, from);
+        while (position <= text.length() && matcher.find(position)) {
+            int start = matcher.start();
+            int end = matcher.end();
+            if (end > start && isWholeWord(text, start, end)) {
+                match[0] = start;
+                match[1] = end;
+                return true;
+            }
+            position = start + 1;
+        }
+        return false;
+    }
+
+    private char fold(char c) {
+        return matchCase ? c : Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private boolean isWholeWord(CharSequence text, int start, int end) {
+        return !wholeWord || ((start == 0 || !isWordChar(text.charAt(start - 1)))
+                && (end == text.length() || !isWordChar(text.charAt(end))));
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
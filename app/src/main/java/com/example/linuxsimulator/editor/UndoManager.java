@@ -0,0 +1,282 @@
+package com.example.linuxsimulator.editor;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Undo history kept as a log of edits rather than copies of the document: each entry holds
+ * only the position and the text removed and inserted. Consecutive typing and consecutive
+ * deletes merge into one entry, so undo steps back a word or a burst of typing rather than a
+ * character. The oldest steps are dropped once the history outgrows its memory budget.
+ *
+ * Not thread-safe; used from the UI thread.
+ */
+public final class UndoManager {
+
+    // Roughly what the history may hold, counting chars at two bytes
+    private static final long DEFAULT_BUDGET_BYTES = 8L * 1024 * 1024;
+    // Object headers and fields of one edit and its strings
+    private static final int EDIT_OVERHEAD_BYTES = 96;
+    // Typing paused longer than this starts a new undo step
+    private static final long COALESCE_MS = 1500;
+    // A step stops growing at this many characters
+    private static final int MAX_COALESCED = 1024;
+    // Largest edit still treated as typing rather than a paste
+    private static final int MAX_KEYSTROKE = 64;
+
+    /**
+     * Where undo and redo apply their edits
+     */
+    public interface Target {
+        void replace(int offset, int length, CharSequence text);
+    }
+
+    // One replacement: removed was at offset and inserted took its place
+    private static final class Edit {
+        int offset;
+        String removed;
+        String inserted;
+
+        Edit(int offset, String removed, String inserted) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        long cost() {
+            return EDIT_OVERHEAD_BYTES + 2L * (removed.length() + inserted.length());
+        }
+    }
+
+    // Edits undone and redone together
+    private static final class Step {
+        final List<Edit> edits = new ArrayList<>(1);
+        long cost;
+    }
+
+    private final long budgetBytes;
+    private final LongSupplier clock;
+    private final Deque<Step> undoSteps = new ArrayDeque<>();
+    private final Deque<Step> redoSteps = new ArrayDeque<>();
+    private long usedBytes;
+    private long lastEditTime;
+    // Set while edits are being gathered into one step, and while the last step may grow
+    private Step compound;
+    private int compoundDepth;
+    private boolean mayCoalesce;
+
+    public UndoManager() {
+        this(DEFAULT_BUDGET_BYTES);
+    }
+
+    public UndoManager(long budgetBytes) {
+        this(budgetBytes, SystemClock::uptimeMillis);
+    }
+
+    // The clock decides when a pause in typing starts a new step
+    UndoManager(long budgetBytes, LongSupplier clock) {
+        this.budgetBytes = budgetBytes;
+        this.clock = clock;
+    }
+
+    /**
+     * Record an edit made to the document
+     * @param offset Where it happened
+     * @param removed Text that was replaced
+     * @param inserted Text that replaced it
+     */
+    public void record(int offset, CharSequence removed, CharSequence inserted) {
+        if (removed.length() == 0 && inserted.length() == 0) {
+            return;
+        }
+        for (Step step : redoSteps) {
+            usedBytes -= step.cost;
+        }
+        redoSteps.clear();
+
+        long now = clock.getAsLong();
+        Step step = compound;
+        if (step == null && mayCoalesce && now - lastEditTime < COALESCE_MS && !undoSteps.isEmpty()) {
+            step = undoSteps.peekLast();
+            Edit last = step.edits.get(step.edits.size() - 1);
+            long before = last.cost();
+            if (coalesce(last, offset, removed, inserted)) {
+                grow(step, last.cost() - before);
+                lastEditTime = now;
+                return;
+            }
+            step = null;
+        }
+        Edit edit = new Edit(offset, removed.toString(), inserted.toString());
+        if (step == null) {
+            step = new Step();
+            undoSteps.addLast(step);
+            if (compoundDepth > 0) {
+                compound = step;
+            }
+        }
+        step.edits.add(edit);
+        grow(step, edit.cost());
+        mayCoalesce = compoundDepth == 0 && isTyping(removed, inserted);
+        lastEditTime = now;
+        trim();
+    }
+
+    /**
+     * Start gathering edits into one undo step, e.g. for a replace-all. Calls nest; the step
+     * closes at the matching {@link #endCompound}.
+     */
+    public void beginCompound() {
+        compoundDepth++;
+        mayCoalesce = false;
+    }
+
+    public void endCompound() {
+        if (compoundDepth > 0 && --compoundDepth == 0) {
+            compound = null;
+            trim();
+        }
+    }
+
+    /**
+     * Make the next edit a new step even if it continues the last one, e.g. after the
+     * cursor was moved or the file was saved
+     */
+    public void breakStep() {
+        mayCoalesce = false;
+    }
+
+    public boolean canUndo() {
+        return !undoSteps.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    /**
+     * Revert the last step
+     * @param target Document to edit
+     * @return Offset to put the cursor at, or -1 if there was nothing to undo
+     */
+    public int undo(Target target) {
+        Step step = undoSteps.pollLast();
+        if (step == null) {
+            return -1;
+        }
+        int cursor = -1;
+        for (int i = step.edits.size() - 1; i >= 0; i--) {
+            Edit edit = step.edits.get(i);
+            target.replace(edit.offset, edit.inserted.length(), edit.removed);
+            cursor = edit.offset + edit.removed.length();
+        }
+        redoSteps.addLast(step);
+        mayCoalesce = false;
+        return cursor;
+    }
+
+    /**
+     * Apply the last undone step again
+     * @param target Document to edit
+     * @return Offset to put the cursor at, or -1 if there was nothing to redo
+     */
+    public int redo(Target target) {
+        Step step = redoSteps.pollLast();
+        if (step == null) {
+            return -1;
+        }
+        int cursor = -1;
+        for (Edit edit : step.edits) {
+            target.replace(edit.offset, edit.removed.length(), edit.inserted);
+            cursor = edit.offset + edit.inserted.length();
+        }
+        undoSteps.addLast(step);
+        mayCoalesce = false;
+        return cursor;
+    }
+
+    /**
+     * Forget the whole history, e.g. when another file is loaded
+     */
+    public void clear() {
+        undoSteps.clear();
+        redoSteps.clear();
+        usedBytes = 0;
+        compound = null;
+        compoundDepth = 0;
+        mayCoalesce = false;
+    }
+
+    /**
+     * Get the memory the history is estimated to hold
+     * @return Bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    // ==================== Internal ====================
+
+    // Keystroke-sized edits without a line break may join the previous edit. Keyboards that
+    // compose words send each keystroke as a replacement of the word so far, so those count too.
+    private static boolean isTyping(CharSequence removed, CharSequence inserted) {
+        if (removed.length() + inserted.length() > MAX_KEYSTROKE) {
+            return false;
+        }
+        for (int i = 0; i < inserted.length(); i++) {
+            if (inserted.charAt(i) == '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Fold an edit into the previous one if it carries straight on from it
+    private static boolean coalesce(Edit last, int offset, CharSequence removed, CharSequence inserted) {
+        if (!isTyping(removed, inserted)
+                || last.removed.length() + last.inserted.length() >= MAX_COALESCED) {
+            return false;
+        }
+        int insertedEnd = last.offset + last.inserted.length();
+        if (last.inserted.length() > 0) {
+            // Typing, backspacing over what was typed, or recomposing its last word
+            if (offset < last.offset || offset + removed.length() != insertedEnd) {
+                return false;
+            }
+            last.inserted = last.inserted.substring(0, offset - last.offset) + inserted;
+            return true;
+        }
+        if (inserted.length() > 0) {
+            return false;
+        }
+        if (offset + removed.length() == last.offset) {
+            // Backspace
+            last.removed = removed + last.removed;
+            last.offset = offset;
+            return true;
+        }
+        if (offset == last.offset) {
+            // Forward delete
+            last.removed += removed;
+            return true;
+        }
+        return false;
+    }
+
+    private void grow(Step step, long bytes) {
+        step.cost += bytes;
+        usedBytes += bytes;
+    }
+
+    // Drop the oldest steps until the history fits; the newest step always stays
+    private void trim() {
+        while (usedBytes > budgetBytes && undoSteps.size() > 1 && undoSteps.peekFirst() != compound) {
+            usedBytes -= undoSteps.pollFirst().cost;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.example.linuxsimulator.terminal;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+
+/**
+ * Turns a stream of terminal output containing ANSI escape sequences into styled text.
+ * SGR sequences (ESC [ ... m) become spans: bold, dim, italic, underline, inverse, strike
+ * and 16, 256 and 24-bit colors. Every other escape sequence (cursor movement, erase, window
+ * titles) is dropped, as are carriage returns and bells. The parser is incremental: a sequence
+ * split across chunks is completed by the next chunk, and the current style carries over.
+ *
+ * One parser per stream; not thread-safe.
+ */
+public final class AnsiParser {
+
+    private static final char ESC = '\u001b';
+    private static final char BEL = '\u0007';
+    // An unfinished sequence longer than this is garbage rather than a sequence
+    private static final int MAX_SEQUENCE = 256;
+    private static final int MAX_PARAMS = 32;
+
+    // Color value meaning "terminal default"; real colors always have a non-zero alpha
+    private static final int DEFAULT = 0;
+
+    private static final int BOLD = 1;
+    private static final int DIM = 1 << 1;
+    private static final int ITALIC = 1 << 2;
+    private static final int UNDERLINE = 1 << 3;
+    private static final int INVERSE = 1 << 4;
+    private static final int STRIKE = 1 << 5;
+
+    // xterm's default 16-color palette
+    private static final int[] PALETTE = {
+            0xFF000000, 0xFFCD0000, 0xFF00CD00, 0xFFCDCD00,
+            0xFF0000EE, 0xFFCD00CD, 0xFF00CDCD, 0xFFE5E5E5,
+            0xFF7F7F7F, 0xFFFF0000, 0xFF00FF00, 0xFFFFFF00,
+            0xFF5C5CFF, 0xFFFF00FF, 0xFF00FFFF, 0xFFFFFFFF
+    };
+
+    private final int foreground;
+    private final int background;
+    private final boolean colorPlainText;
+
+    private int fg = DEFAULT;
+    private int bg = DEFAULT;
+    private int attributes;
+    // Start of an escape sequence the previous chunk ended in
+    private final StringBuilder partial = new StringBuilder();
+    private final int[] params = new int[MAX_PARAMS];
+
+    /**
+     * Create a parser
+     * @param foreground Default text color, used for inverse video and dim text
+     * @param background Default background color, used for inverse video
+     * @param colorPlainText Whether unstyled text gets an explicit span in the default text
+     *                       color (for stderr); otherwise it is left unstyled
+     */
+    public AnsiParser(int foreground, int background, boolean colorPlainText) {
+        this.foreground = foreground;
+        this.background = background;
+        this.colorPlainText = colorPlainText;
+    }
+
+    /**
+     * Parse the next chunk of the stream
+     * @param chunk Raw output
+     * @return The chunk without escape sequences; a Spanned if any of it is styled,
+     *         the chunk itself if it needed no changes
+     */
+    public CharSequence parse(CharSequence chunk) {
+        CharSequence input = chunk;
+        if (partial.length() > 0) {
+            input = partial.append(chunk).toString();
+            partial.setLength(0);
+        }
+        if (!colorPlainText && isPlainStyle() && !hasControl(input)) {
+            return input;
+        }
+
+        SpannableStringBuilder out = new SpannableStringBuilder();
+        int length = input.length();
+        int textStart = 0;
+        int runStart = 0;
+        int i = 0;
+        while (i < length) {
+            char c = input.charAt(i);
+            if (c != ESC && c != '\r' && c != BEL) {
+                i++;
+                continue;
+            }
+            out.append(input, textStart, i);
+            if (c != ESC) {
+                i++;
+            } else {
+                int end = sequenceEnd(input, i);
+                if (end < 0) {
+                    if (length - i <= MAX_SEQUENCE) {
+                        partial.append(input, i, length);
+                        textStart = length;
+                        break;
+                    }
+                    // Never terminated; drop the ESC and show the rest as text
+                    end = i + 1;
+                } else if (input.charAt(i + 1) == '[' && input.charAt(end - 1) == 'm') {
+                    applyStyle(out, runStart);
+                    runStart = out.length();
+                    selectGraphicRendition(input, i + 2, end - 1);
+                }
+                i = end;
+            }
+            textStart = i;
+        }
+        if (textStart < length) {
+            out.append(input, textStart, length);
+        }
+        applyStyle(out, runStart);
+        return out;
+    }
+
+    /**
+     * Forget the current style and any unfinished sequence
+     */
+    public void reset() {
+        fg = DEFAULT;
+        bg = DEFAULT;
+        attributes = 0;
+        partial.setLength(0);
+    }
+
+    /**
+     * Turn styled text back into SGR sequences, the inverse of {@link #parse}. Every styled run
+     * is closed with a reset before each newline, so every line parses on its own.
+     * @param text Text, possibly with spans
+     * @return Text with escape sequences in place of spans
+     */
+    public static String encode(CharSequence text) {
+        if (!(text instanceof Spanned)) {
+            return text.toString();
+        }
+        Spanned spanned = (Spanned) text;
+        int length = text.length();
+        if (spanned.getSpans(0, length, Object.class).length == 0) {
+            return text.toString();
+        }
+
+        StringBuilder out = new StringBuilder(length + 32);
+        int start = 0;
+        while (start < length) {
+            int end = spanned.nextSpanTransition(start, length, Object.class);
+            String sgr = sgrFor(spanned, start, end);
+            int lineStart = start;
+            while (lineStart < end) {
+                int newline = TextUtils.indexOf(text, '\n', lineStart, end);
+                int lineEnd = newline < 0 ? end : newline;
+                if (sgr.isEmpty() || lineEnd == lineStart) {
+                    out.append(text, lineStart, lineEnd);
+                } else {
+                    out.append(ESC).append('[').append(sgr).append('m')
+                            .append(text, lineStart, lineEnd)
+                            .append(ESC).append("[0m");
+                }
+                if (newline >= 0) {
+                    out.append('\n');
+                }
+                lineStart = lineEnd + 1;
+            }
+            start = end;
+        }
+        return out.toString();
+    }
+
+    // SGR parameters for the spans covering [start, end), empty if there are none
+    private static String sgrFor(Spanned text, int start, int end) {
+        StringBuilder sgr = new StringBuilder();
+        for (Object span : text.getSpans(start, end, Object.class)) {
+            if (span instanceof ForegroundColorSpan) {
+                int color = ((ForegroundColorSpan) span).getForegroundColor();
+                // Anything translucent is what dim text turns into
+                if ((color >>> 24) != 0xFF) {
+                    appendParam(sgr, "2");
+                }
+                appendParam(sgr, "38;2;" + rgb(color));
+            } else if (span instanceof BackgroundColorSpan) {
+                appendParam(sgr, "48;2;" + rgb(((BackgroundColorSpan) span).getBackgroundColor()));
+            } else if (span instanceof StyleSpan) {
+                int style = ((StyleSpan) span).getStyle();
+                if ((style & Typeface.BOLD) != 0) appendParam(sgr, "1");
+                if ((style & Typeface.ITALIC) != 0) appendParam(sgr, "3");
+            } else if (span instanceof UnderlineSpan) {
+                appendParam(sgr, "4");
+            } else if (span instanceof StrikethroughSpan) {
+                appendParam(sgr, "9");
+            }
+        }
+        return sgr.toString();
+    }
+
+    private static void appendParam(StringBuilder sgr, String param) {
+        if (sgr.length() > 0) {
+            sgr.append(';');
+        }
+        sgr.append(param);
+    }
+
+    private static String rgb(int color) {
+        return ((color >> 16) & 0xFF) + ";" + ((color >> 8) & 0xFF) + ";" + (color & 0xFF);
+    }
+
+    private boolean isPlainStyle() {
+        return fg == DEFAULT && bg == DEFAULT && attributes == 0;
+    }
+
+    private static boolean hasControl(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ESC || c == '\r' || c == BEL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Index just past the sequence starting at start, or -1 if the input ends inside it
+    private static int sequenceEnd(CharSequence input, int start) {
+        int length = input.length();
+        if (start + 1 >= length) {
+            return -1;
+        }
+        char kind = input.charAt(start + 1);
+        switch (kind) {
+            case '[': {
+                // CSI: parameter and intermediate bytes, then one final byte
+                for (int i = start + 2; i < length; i++) {
+                    char c = input.charAt(i);
+                    if (c >= 0x40 && c <= 0x7E) {
+                        return i + 1;
+                    }
+                    if (c < 0x20 || c > 0x3F) {
+                        // Malformed; drop what was read so far
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            case ']':
+            case 'P':
+            case 'X':
+            case '^':
+            case '_': {
+                // String sequences (OSC window titles and friends) end with BEL or ESC \
+                for (int i = start + 2; i < length; i++) {
+                    char c = input.charAt(i);
+                    if (c == BEL) {
+                        return i + 1;
+                    }
+                    if (c == ESC) {
+                        return i + 1 < length ? i + 2 : -1;
+                    }
+                }
+                return -1;
+            }
+            case '(':
+            case ')':
+            case '*':
+            case '+':
+                // Character set designation takes one more byte
+                return start + 2 < length ? start + 3 : -1;
+            default:
+                return start + 2;
+        }
+    }
+
+    // Parameters run from start to end (exclusive) of the input, e.g. "1;38;5;208"
+    private void selectGraphicRendition(CharSequence input, int start, int end) {
+        int count = 0;
+        int value = 0;
+        boolean colon = false;
+        for (int i = start; i <= end && count < MAX_PARAMS; i++) {
+            char c = i < end ? input.charAt(i) : ';';
+            if (c >= '0' && c <= '9') {
+                value = Math.min(value * 10 + (c - '0'), 0xFFFF);
+            } else if (c == ';' || c == ':') {
+                colon |= c == ':';
+                params[count++] = value;
+                value = 0;
+            } else {
+                // Private sequences like ESC [ ? ... m are not SGR
+                return;
+            }
+        }
+
+        for (int k = 0; k < count; k++) {
+            int p = params[k];
+            if (p == 0) {
+                fg = DEFAULT;
+                bg = DEFAULT;
+                attributes = 0;
+            } else if (p == 1) {
+                attributes |= BOLD;
+            } else if (p == 2) {
+                attributes |= DIM;
+            } else if (p == 3) {
+                attributes |= ITALIC;
+            } else if (p == 4) {
+                attributes |= UNDERLINE;
+            } else if (p == 7) {
+                attributes |= INVERSE;
+            } else if (p == 9) {
+                attributes |= STRIKE;
+            } else if (p == 22) {
+                attributes &= ~(BOLD | DIM);
+            } else if (p == 23) {
+                attributes &= ~ITALIC;
+            } else if (p == 24) {
+                attributes &= ~UNDERLINE;
+            } else if (p == 27) {
+                attributes &= ~INVERSE;
+            } else if (p == 29) {
+                attributes &= ~STRIKE;
+            } else if (p >= 30 && p <= 37) {
+                fg = PALETTE[p - 30];
+            } else if (p >= 40 && p <= 47) {
+                bg = PALETTE[p - 40];
+            } else if (p >= 90 && p <= 97) {
+                fg = PALETTE[p - 90 + 8];
+            } else if (p >= 100 && p <= 107) {
+                bg = PALETTE[p - 100 + 8];
+            } else if (p == 39) {
+                fg = DEFAULT;
+            } else if (p == 49) {
+                bg = DEFAULT;
+            } else if ((p == 38 || p == 48) && k + 1 < count) {
+                int color = DEFAULT;
+                int mode = params[k + 1];
+                if (mode == 5 && k + 2 < count) {
+                    color = color256(params[k + 2]);
+                    k += 2;
+                } else if (mode == 2) {
+                    // The colon form may carry a color space id before r:g:b
+                    int first = colon && count - k >= 6 ? k + 3 : k + 2;
+                    if (first + 2 < count) {
+                        color = 0xFF000000 | (Math.min(params[first], 255) << 16)
+                                | (Math.min(params[first + 1], 255) << 8)
+                                | Math.min(params[first + 2], 255);
+                    }
+                    k = first + 2;
+                } else {
+                    k++;
+                }
+                if (p == 38) {
+                    fg = color;
+                } else {
+                    bg = color;
+                }
+            }
+        }
+    }
+
+    private static int color256(int index) {
+        if (index < 16) {
+            return PALETTE[index];
+        }
+        if (index < 232) {
+            int cube = index - 16;
+            return 0xFF000000 | (cubeLevel(cube / 36) << 16) | (cubeLevel(cube / 6 % 6) << 8)
+                    | cubeLevel(cube % 6);
+        }
+        int gray = 8 + 10 * (Math.min(index, 255) - 232);
+        return 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+    }
+
+    private static int cubeLevel(int level) {
+        return level == 0 ? 0 : 55 + 40 * level;
+    }
+
+    // Style the text appended since runStart with the current attributes
+    private void applyStyle(SpannableStringBuilder out, int runStart) {
+        int end = out.length();
+        if (runStart >= end) {
+            return;
+        }
+        int textColor = fg;
+        int backColor = bg;
+        if ((attributes & INVERSE) != 0) {
+            textColor = bg == DEFAULT ? background : bg;
+            backColor = fg == DEFAULT ? foreground : fg;
+        }
+        if ((attributes & DIM) != 0) {
+            textColor = ((textColor == DEFAULT ? foreground : textColor) & 0x00FFFFFF) | 0x99000000;
+        }
+        if (textColor == DEFAULT && colorPlainText) {
+            textColor = foreground;
+        }
+
+        int flags = Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+        if (textColor != DEFAULT) {
+            out.setSpan(new ForegroundColorSpan(textColor), runStart, end, flags);
+        }
+        if (backColor != DEFAULT) {
+            out.setSpan(new BackgroundColorSpan(backColor), runStart, end, flags);
+        }
+        int typeface = ((attributes & BOLD) != 0 ? Typeface.BOLD : 0)
+                | ((attributes & ITALIC) != 0 ? Typeface.ITALIC : 0);
+        if (typeface != 0) {
+            out.setSpan(new StyleSpan(typeface), runStart, end, flags);
+        }
+        if ((attributes & UNDERLINE) != 0) {
+            out.setSpan(new UnderlineSpan(), runStart, end, flags);
+        }
+        if ((attributes & STRIKE) != 0) {
+            out.setSpan(new StrikethroughSpan(), runStart, end, flags);
+        }
+    }
+}
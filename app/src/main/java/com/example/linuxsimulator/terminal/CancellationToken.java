@@ -0,0 +1,100 @@
+package com.example.linuxsimulator.terminal;
+
+import java.io.Closeable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Cooperative cancellation flag for a single running command.
+ * Handlers check it inside their loops and register a close hook for anything that
+ * blocks (sockets, SSH channels, child processes) so Ctrl-C unblocks them immediately.
+ */
+public final class CancellationToken {
+
+    private final CopyOnWriteArrayList<Runnable> hooks = new CopyOnWriteArrayList<>();
+    private final Object sleepLock = new Object();
+    private volatile boolean cancelled;
+
+    /**
+     * Check whether the command has been cancelled
+     * @return True once {@link #cancel()} has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Cancel the command and run every registered close hook. Safe to call more than once.
+     */
+    public void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+        synchronized (sleepLock) {
+            sleepLock.notifyAll();
+        }
+        // Whoever removes a hook runs it, so a hook racing with onCancel runs exactly once
+        for (Runnable hook : hooks) {
+            if (hooks.remove(hook)) {
+                runQuietly(hook);
+            }
+        }
+    }
+
+    /**
+     * Stop the current handler if the command has been cancelled
+     * @throws CancellationException if cancelled
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Register a hook that releases a blocking resource when the command is cancelled.
+     * Runs immediately if the command is already cancelled.
+     * @param hook Hook to run, e.g. {@code connection::disconnect}
+     * @return Registration to close once the resource is no longer in use
+     */
+    public Registration onCancel(Runnable hook) {
+        hooks.add(hook);
+        if (cancelled && hooks.remove(hook)) {
+            runQuietly(hook);
+        }
+        return () -> hooks.remove(hook);
+    }
+
+    /**
+     * Sleep that wakes up as soon as the command is cancelled
+     * @param millis Time to sleep
+     * @throws CancellationException if cancelled before or during the sleep
+     * @throws InterruptedException if the worker thread is interrupted
+     */
+    public void sleep(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        synchronized (sleepLock) {
+            long remaining = millis;
+            while (!cancelled && remaining > 0) {
+                sleepLock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+        throwIfCancelled();
+    }
+
+    private static void runQuietly(Runnable hook) {
+        try {
+            hook.run();
+        } catch (RuntimeException e) {
+            // Closing a resource that is already gone is not an error here
+        }
+    }
+
+    /**
+     * Handle for a close hook; close it when the guarded resource has been released
+     */
+    public interface Registration extends Closeable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.linuxsimulator.terminal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A command line split on the shell list operators {@code ;}, {@code &&} and {@code ||}.
+ * Operators inside quotes or parentheses are left alone.
+ */
+public final class CommandChain {
+
+    /**
+     * When a step runs, based on the exit status of the step before it
+     */
+    public enum Condition {
+        ALWAYS,
+        IF_SUCCESS,
+        IF_FAILURE
+    }
+
+    /**
+     * One command of the chain together with the operator that precedes it
+     */
+    public static final class Step {
+        public final String command;
+        public final Condition condition;
+
+        Step(String command, Condition condition) {
+            this.command = command;
+            this.condition = condition;
+        }
+
+        /**
+         * Check whether this step should run after a step that exited with the given status
+         * @param previousStatus Exit status of the previous step
+         * @return True if the step runs
+         */
+        public boolean shouldRun(int previousStatus) {
+            switch (condition) {
+                case IF_SUCCESS:
+                    return previousStatus == OutputSink.EXIT_SUCCESS;
+                case IF_FAILURE:
+                    return previousStatus != OutputSink.EXIT_SUCCESS;
+                case ALWAYS:
+                default:
+                    return true;
+            }
+        }
+    }
+
+    private final List<Step> steps;
+
+    private CommandChain(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Split a command line into steps
+     * @param line Command line
+     * @return Parsed chain, possibly with a single step
+     * @throws IllegalArgumentException with the offending operator if the line is malformed
+     */
+    public static CommandChain parse(String line) {
+        List<Step> steps = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        Condition pending = Condition.ALWAYS;
+        char quote = 0;
+        int depth = 0;
+        int length = line.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+                current.append(c);
+                continue;
+            }
+
+            String operator = null;
+            if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && depth > 0) {
+                depth--;
+            } else if (depth > 0) {
+                // Operators inside $( ) belong to the substituted command
+            } else if (c == ';') {
+                operator = ";";
+            } else if (c == '&' && i + 1 < length && line.charAt(i + 1) == '&') {
+                operator = "&&";
+            } else if (c == '|' && i + 1 < length && line.charAt(i + 1) == '|') {
+                operator = "||";
+            }
+
+            if (operator == null) {
+                current.append(c);
+                continue;
+            }
+
+            String command = current.toString().trim();
+            if (command.isEmpty()) {
+                throw new IllegalArgumentException(operator);
+            }
+            steps.add(new Step(command, pending));
+            current.setLength(0);
+            i += operator.length() - 1;
+            pending = operator.equals("&&") ? Condition.IF_SUCCESS
+                    : operator.equals("||") ? Condition.IF_FAILURE
+                    : Condition.ALWAYS;
+        }
+
+        String last = current.toString().trim();
+        if (!last.isEmpty()) {
+            steps.add(new Step(last, pending));
+        } else if (pending != Condition.ALWAYS) {
+            // "ls &&" is incomplete; a trailing ";" is fine
+            throw new IllegalArgumentException(pending == Condition.IF_SUCCESS ? "&&" : "||");
+        }
+        return new CommandChain(steps);
+    }
+
+    /**
+     * Get the steps in execution order
+     * @return Steps
+     */
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Check whether the chain has nothing to run
+     * @return True if empty
+     */
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+}
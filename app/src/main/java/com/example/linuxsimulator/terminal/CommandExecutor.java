@@ -0,0 +1,140 @@
+package com.example.linuxsimulator.terminal;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide execution service for terminal work.
+ * Commands run on one of three bounded pools (disk I/O, CPU, network) so a burst of
+ * commands queues up instead of spawning a thread each, and every result is handed
+ * back to the UI through {@link #postToUi(Runnable)}.
+ */
+public final class CommandExecutor {
+
+    /**
+     * Pool a task should run on
+     */
+    public enum Pool {
+        IO,
+        CPU,
+        NETWORK
+    }
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int CPU_THREADS = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+    private static final int IO_THREADS = 4;
+    private static final int NETWORK_THREADS = 6;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static CommandExecutor instance;
+
+    private final ThreadPoolExecutor ioPool;
+    private final ThreadPoolExecutor cpuPool;
+    private final ThreadPoolExecutor networkPool;
+    private final Handler mainHandler;
+
+    private CommandExecutor() {
+        ioPool = createPool("term-io", IO_THREADS);
+        cpuPool = createPool("term-cpu", CPU_THREADS);
+        networkPool = createPool("term-net", NETWORK_THREADS);
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized CommandExecutor getInstance() {
+        if (instance == null) {
+            instance = new CommandExecutor();
+        }
+        return instance;
+    }
+
+    private static ThreadPoolExecutor createPool(String name, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+                new NamedThreadFactory(name));
+        // Idle pools give their threads back instead of pinning them for the app lifetime
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Run a task on the given pool
+     * @param pool Pool to run on
+     * @param task Task to run
+     * @return Future that can be cancelled to interrupt the task
+     * @throws RejectedExecutionException if the pool's queue is full
+     */
+    public Future<?> submit(Pool pool, Runnable task) {
+        return poolFor(pool).submit(task);
+    }
+
+    /**
+     * Run a task on the given pool without tracking it
+     * @param pool Pool to run on
+     * @param task Task to run, typically a {@link java.util.concurrent.FutureTask} owned by the caller
+     * @throws RejectedExecutionException if the pool's queue is full
+     */
+    public void execute(Pool pool, Runnable task) {
+        poolFor(pool).execute(task);
+    }
+
+    /**
+     * Run a task on the UI thread. Runs inline when already called from it.
+     * @param task Task to run
+     */
+    public void postToUi(Runnable task) {
+        if (isUiThread()) {
+            task.run();
+        } else {
+            mainHandler.post(task);
+        }
+    }
+
+    /**
+     * Check whether the caller is on the UI thread
+     * @return True if on the main looper thread
+     */
+    public boolean isUiThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    private ThreadPoolExecutor poolFor(Pool pool) {
+        switch (pool) {
+            case IO:
+                return ioPool;
+            case NETWORK:
+                return networkPool;
+            case CPU:
+            default:
+                return cpuPool;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger(1);
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, prefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
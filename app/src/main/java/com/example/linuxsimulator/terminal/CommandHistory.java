@@ -0,0 +1,499 @@
+package com.example.linuxsimulator.terminal;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Command history persisted to an append-only file in the app's private storage.
+ * The file is read on a background thread the first time history is touched, new commands
+ * are appended in batches, and the file is rewritten only when old entries are evicted.
+ * A trigram index keeps substring search (Ctrl-R) fast even at the full capacity.
+ */
+public final class CommandHistory {
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private static final String FILE_NAME = "bash_history";
+    // Trigrams hash into a fixed table; collisions are weeded out by the final contains() check
+    private static final int INDEX_BUCKETS = 1 << 16;
+
+    private static CommandHistory instance;
+
+    private final File file;
+    private final int maxEntries;
+    private final int evictionBatch;
+    private final CommandExecutor executor;
+    // Held while touching the file so batches land in order
+    private final Object fileLock = new Object();
+
+    // Everything below is guarded by this
+    private String[] entries = new String[256];
+    private int size;
+    // History number of entries[0]; grows as old entries are evicted
+    private int firstNumber = 1;
+    private IntList[] index = new IntList[INDEX_BUCKETS];
+    private final List<String> pendingWrites = new ArrayList<>();
+    private boolean loadStarted;
+    private boolean loaded;
+    private boolean clearedWhileLoading;
+    private boolean rewriteNeeded;
+    private boolean writeScheduled;
+
+    // Growable int array for posting lists
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int last() {
+            return size == 0 ? -1 : values[size - 1];
+        }
+    }
+
+    CommandHistory(File file, int maxEntries, CommandExecutor executor) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.evictionBatch = Math.max(1, maxEntries / 10);
+        this.executor = executor;
+    }
+
+    public static synchronized CommandHistory getInstance(Context context) {
+        if (instance == null) {
+            instance = new CommandHistory(new File(context.getApplicationContext().getFilesDir(), FILE_NAME),
+                    DEFAULT_MAX_ENTRIES, CommandExecutor.getInstance());
+        }
+        return instance;
+    }
+
+    // ==================== Queries ====================
+
+    /**
+     * Get the number of entries currently held
+     * @return Entry count
+     */
+    public synchronized int size() {
+        ensureLoading();
+        return size;
+    }
+
+    /**
+     * Get the history number of the oldest entry
+     * @return First number, as shown by {@code history}
+     */
+    public synchronized int getFirstNumber() {
+        ensureLoading();
+        return firstNumber;
+    }
+
+    /**
+     * Get the history number of the newest entry
+     * @return Last number, or {@link #getFirstNumber()} - 1 when empty
+     */
+    public synchronized int getLastNumber() {
+        ensureLoading();
+        return firstNumber + size - 1;
+    }
+
+    /**
+     * Get an entry by its history number
+     * @param number History number
+     * @return Command, or null if out of range
+     */
+    public synchronized String get(int number) {
+        ensureLoading();
+        int position = number - firstNumber;
+        return position >= 0 && position < size ? entries[position] : null;
+    }
+
+    /**
+     * Copy a range of entries for display
+     * @param fromNumber History number of the first entry to copy
+     * @return Entries from that number to the newest one
+     */
+    public synchronized List<String> getFrom(int fromNumber) {
+        ensureLoading();
+        int start = Math.min(Math.max(0, fromNumber - firstNumber), size);
+        return new ArrayList<>(Arrays.asList(entries).subList(start, size));
+    }
+
+    /**
+     * Find the newest entry older than {@code beforeNumber} that contains the query
+     * @param query Text to look for, case-sensitive like bash
+     * @param beforeNumber Only entries with a lower number are considered
+     * @return History number of the match, or -1
+     */
+    public synchronized int searchBackward(String query, int beforeNumber) {
+        ensureLoading();
+        int from = Math.min(beforeNumber - firstNumber, size) - 1;
+        if (from < 0) {
+            return -1;
+        }
+        if (query.isEmpty()) {
+            return firstNumber + from;
+        }
+        if (query.length() < 3) {
+            for (int i = from; i >= 0; i--) {
+                if (entries[i].contains(query)) return firstNumber + i;
+            }
+            return -1;
+        }
+
+        // Walk the shortest posting list among the query's trigrams
+        IntList candidates = null;
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            IntList postings = index[trigram(query, i)];
+            if (postings == null) {
+                return -1;
+            }
+            if (candidates == null || postings.size < candidates.size) {
+                candidates = postings;
+            }
+        }
+        int position = upperBound(candidates, from);
+        for (int i = position - 1; i >= 0; i--) {
+            int entry = candidates.values[i];
+            if (entries[entry].contains(query)) return firstNumber + entry;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the newest entry that starts with the prefix
+     * @param prefix Command prefix
+     * @return History number of the match, or -1
+     */
+    public synchronized int searchPrefix(String prefix) {
+        int number = getLastNumber() + 1;
+        while ((number = searchBackward(prefix, number)) != -1) {
+            if (entries[number - firstNumber].startsWith(prefix)) {
+                return number;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Expand history references: !!, !n, !-n, !prefix and !?text?
+     * @param line Command line as typed
+     * @return Line with every reference replaced
+     * @throws IllegalArgumentException with the failing reference if an event is not found
+     */
+    public synchronized String expand(String line) {
+        if (line.indexOf('!') < 0) {
+            return line;
+        }
+        StringBuilder expanded = new StringBuilder(line.length());
+        boolean inSingleQuotes = false;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c == '\'') {
+                inSingleQuotes = !inSingleQuotes;
+            } else if (c == '\\' && i + 1 < length) {
+                expanded.append(c).append(line.charAt(++i));
+                continue;
+            }
+            // "! cmd", "!=" and "$!" are not history references
+            if (c != '!' || inSingleQuotes || i + 1 >= length || " \t\n=(".indexOf(line.charAt(i + 1)) >= 0
+                    || (i > 0 && line.charAt(i - 1) == '$')) {
+                expanded.append(c);
+                continue;
+            }
+
+            int end;
+            int number;
+            char next = line.charAt(i + 1);
+            if (next == '!') {
+                end = i + 2;
+                number = getLastNumber();
+            } else if (next == '?') {
+                int close = line.indexOf('?', i + 2);
+                end = close < 0 ? length : close + 1;
+                String text = line.substring(i + 2, close < 0 ? length : close);
+                number = searchBackward(text, getLastNumber() + 1);
+            } else if (Character.isDigit(next) || (next == '-' && i + 2 < length && Character.isDigit(line.charAt(i + 2)))) {
+                end = i + 2;
+                while (end < length && Character.isDigit(line.charAt(end))) end++;
+                int value = Integer.parseInt(line.substring(next == '-' ? i + 2 : i + 1, end));
+                number = next == '-' ? getLastNumber() - value + 1 : value;
+            } else {
+                end = i + 1;
+                while (end < length && " \t;&|<>()".indexOf(line.charAt(end)) < 0) end++;
+                number = searchPrefix(line.substring(i + 1, end));
+            }
+
+            String event = get(number);
+            if (event == null) {
+                throw new IllegalArgumentException(line.substring(i, end));
+            }
+            expanded.append(event);
+            i = end - 1;
+        }
+        return expanded.toString();
+    }
+
+    // ==================== Updates ====================
+
+    /**
+     * Record a command, skipping an immediate repeat of the previous one
+     * @param command Command line as run
+     */
+    public synchronized void add(String command) {
+        ensureLoading();
+        if (command.isEmpty() || (size > 0 && entries[size - 1].equals(command))) {
+            return;
+        }
+        append(command);
+        evictIfNeeded();
+        pendingWrites.add(command);
+        scheduleWrite();
+    }
+
+    /**
+     * Forget every entry, in memory and on disk
+     */
+    public synchronized void clear() {
+        entries = new String[256];
+        size = 0;
+        firstNumber = 1;
+        index = new IntList[INDEX_BUCKETS];
+        pendingWrites.clear();
+        clearedWhileLoading = loadStarted && !loaded;
+        rewriteNeeded = true;
+        scheduleWrite();
+    }
+
+    // Called with the lock held
+    private void append(String command) {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        entries[size] = command;
+        indexEntry(size);
+        size++;
+    }
+
+    // Drop the oldest entries in one batch so the index is rebuilt rarely
+    private void evictIfNeeded() {
+        if (size <= maxEntries + evictionBatch) {
+            return;
+        }
+        int drop = size - maxEntries;
+        System.arraycopy(entries, drop, entries, 0, size - drop);
+        Arrays.fill(entries, size - drop, size, null);
+        size -= drop;
+        firstNumber += drop;
+        rebuildIndex();
+        rewriteNeeded = true;
+    }
+
+    private void rebuildIndex() {
+        index = new IntList[INDEX_BUCKETS];
+        for (int i = 0; i < size; i++) {
+            indexEntry(i);
+        }
+    }
+
+    private void indexEntry(int position) {
+        String command = entries[position];
+        for (int i = 0; i + 3 <= command.length(); i++) {
+            int bucket = trigram(command, i);
+            IntList postings = index[bucket];
+            if (postings == null) {
+                postings = new IntList();
+                index[bucket] = postings;
+            }
+            // Repeated trigrams within one command are indexed once
+            if (postings.last() != position) {
+                postings.add(position);
+            }
+        }
+    }
+
+    private static int trigram(String text, int offset) {
+        int hash = text.charAt(offset);
+        hash = hash * 31 + text.charAt(offset + 1);
+        hash = hash * 31 + text.charAt(offset + 2);
+        return (hash ^ (hash >>> 16)) & (INDEX_BUCKETS - 1);
+    }
+
+    // Index of the first posting greater than position
+    private static int upperBound(IntList postings, int position) {
+        int low = 0;
+        int high = postings.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (postings.values[mid] <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // ==================== Persistence ====================
+
+    // Called with the lock held; the first touch starts reading the file in the background
+    private void ensureLoading() {
+        if (loadStarted) {
+            return;
+        }
+        loadStarted = true;
+        try {
+            executor.execute(CommandExecutor.Pool.IO, this::load);
+        } catch (RejectedExecutionException e) {
+            // Try again on the next touch
+            loadStarted = false;
+        }
+    }
+
+    private void load() {
+        List<String> stored = new ArrayList<>();
+        synchronized (fileLock) {
+            if (file.exists()) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(file), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) stored.add(unescape(line));
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        synchronized (this) {
+            loaded = true;
+            if (clearedWhileLoading) {
+                scheduleWrite();
+                return;
+            }
+            // Commands run before the file was read go after the stored ones
+            String[] session = Arrays.copyOf(entries, size);
+            int keep = Math.min(stored.size(), maxEntries);
+            entries = new String[Math.max(256, keep + session.length + evictionBatch)];
+            size = 0;
+            firstNumber = 1 + stored.size() - keep;
+            index = new IntList[INDEX_BUCKETS];
+            for (String command : stored.subList(stored.size() - keep, stored.size())) {
+                append(command);
+            }
+            for (String command : session) {
+                append(command);
+            }
+            evictIfNeeded();
+            if (stored.size() > maxEntries) {
+                rewriteNeeded = true;
+            }
+            scheduleWrite();
+        }
+    }
+
+    // Called with the lock held; one write task at a time, and none until the file has been read
+    private void scheduleWrite() {
+        if (!loaded || writeScheduled || (pendingWrites.isEmpty() && !rewriteNeeded)) {
+            return;
+        }
+        writeScheduled = true;
+        try {
+            executor.execute(CommandExecutor.Pool.IO, this::writePending);
+        } catch (RejectedExecutionException e) {
+            // Still pending; the next add schedules it again
+            writeScheduled = false;
+        }
+    }
+
+    private void writePending() {
+        synchronized (fileLock) {
+            List<String> batch;
+            String[] snapshot = null;
+            synchronized (this) {
+                writeScheduled = false;
+                batch = new ArrayList<>(pendingWrites);
+                pendingWrites.clear();
+                if (rewriteNeeded) {
+                    snapshot = Arrays.copyOf(entries, size);
+                    rewriteNeeded = false;
+                }
+            }
+
+            try {
+                if (snapshot != null) {
+                    rewrite(snapshot);
+                } else if (!batch.isEmpty()) {
+                    try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+                        for (String command : batch) {
+                            writer.write(escape(command));
+                            writer.write('\n');
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Write the whole history to a temporary file and swap it in
+    private void rewrite(String[] commands) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            for (String command : commands) {
+                writer.write(escape(command));
+                writer.write('\n');
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    // One command per line: backslashes and newlines are escaped
+    private static String escape(String command) {
+        if (command.indexOf('\\') < 0 && command.indexOf('\n') < 0) {
+            return command;
+        }
+        return command.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String unescape(String line) {
+        if (line.indexOf('\\') < 0) {
+            return line;
+        }
+        StringBuilder command = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                command.append(next == 'n' ? '\n' : next);
+            } else {
+                command.append(c);
+            }
+        }
+        return command.toString();
+    }
+}
@@ -5,6 +5,7 @@ import android.content.Intent;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Build;
+import android.os.Debug;
 
 import com.example.linuxsimulator.GitSimulator;
 import com.example.linuxsimulator.NetworkToolsSimulator;
@@ -12,17 +13,24 @@ import com.example.linuxsimulator.TextEditorActivity;
 import com.example.linuxsimulator.WiFiAnalyzer;
 import com.example.linuxsimulator.data.FileSystemManager;
 import com.example.linuxsimulator.data.FileItem;
+import com.example.linuxsimulator.data.PathContext;
 import com.example.linuxsimulator.TerminalActivity;
 
 import java.io.*;
 import java.net.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.EmptyProgressMonitor;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
@@ -31,30 +39,182 @@ import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import com.jcraft.jsch.*;
 
 public class CommandProcessor {
+    private static final Set<String> NETWORK_COMMANDS = new HashSet<>(Arrays.asList(
+            "ssh", "ping", "netstat", "ifconfig", "ip", "nslookup", "dig", "traceroute",
+            "curl", "wget", "hostname", "wifi-scan"));
+    private static final Set<String> IO_COMMANDS = new HashSet<>(Arrays.asList(
+            "ls", "cd", "mkdir", "touch", "rm", "cp", "mv", "cat", "find", "grep",
+            "head", "tail", "wc", "tree", "dmesg", "top", "sh", "bash", "source", "."));
+    // Everything dispatch() understands, for tab completion
+    private static final List<String> COMMAND_NAMES = Arrays.asList(
+            "ls", "cd", "pwd", "mkdir", "touch", "rm", "cp", "mv", "cat", "nano", "vim", "edit",
+            "chmod", "find", "grep", "ps", "kill", "clear", "help", "whoami", "date", "echo",
+            "history", "su", "sudo", "env", "which", "man", "tree", "head", "tail", "wc", "df",
+            "free", "uname", "exit", "wifi-scan", "bpad.txt", "ssh", "ssh-sim", "ssh-list",
+            "ssh-sessions", "ssh-disconnect", "ssh-add", "ssh-toggle", "ping", "netstat",
+            "ifconfig", "ip", "nslookup", "dig", "traceroute", "curl", "wget", "hostname", "git",
+            "uptime", "top", "lsof", "dmesg", "true", "false", "time", "perfstat");
+    private static final Set<String> GIT_NETWORK_COMMANDS = new HashSet<>(Arrays.asList(
+            "clone", "pull", "push"));
+    // Commands that run the rest of their line as another command
+    private static final Set<String> WRAPPER_COMMANDS = new HashSet<>(Arrays.asList(
+            "sudo", "time"));
+
     private WiFiAnalyzer wifiAnalyzer;
     private TerminalActivity terminal;
+    private final TerminalSession terminalSession;
     private FileSystemManager fsManager;
     private Context context;
     private Map<String, Process> runningProcesses;
+    private final CommandExecutor executor;
+    private final CommandStats commandStats = CommandStats.getInstance();
+    private final Set<CommandJob> runningJobs = ConcurrentHashMap.newKeySet();
+    // Lines typed while another is running wait here, so a session's lines run one at a time
+    // and in order, as they did on the UI thread. Guarded by itself.
+    private final ArrayDeque<PendingLine> pendingLines = new ArrayDeque<>();
+    private boolean lineRunning;
     private int nextProcessId = 1;
     private GitSimulator gitSimulator;
     private String currentDirectory;
 
     // SSH-related fields (Real SSH)
     private Map<String, Session> realSSHSessions;
-    private String currentSSHSessionId = null;
-    private boolean inSSHMode = false;
-    private ChannelExec currentExecChannel = null;
+    private volatile String currentSSHSessionId = null;
+    private volatile boolean inSSHMode = false;
 
     // Simulated SSH for demo
     private Map<String, SSHDevice> availableDevices;
     private Map<String, SSHSession> activeSessions;
-    private String currentSimulatedSSHSession = null;
+    private volatile String currentSimulatedSSHSession = null;
+
+    // Shell state shared by every command line typed into this terminal
+    private final ShellContext shell = new ShellContext();
+    private final ShellInterpreter interpreter;
+    private final CompletionEngine completionEngine;
+
+    // Output of an interrupted command is dropped; the terminal has already printed ^C
+    private static class CancellableSink implements OutputSink {
+        private final OutputSink delegate;
+        private final CancellationToken token;
+
+        CancellableSink(OutputSink delegate, CancellationToken token) {
+            this.delegate = delegate;
+            this.token = token;
+        }
+
+        @Override
+        public void onChunk(CharSequence chunk) {
+            if (!token.isCancelled()) delegate.onChunk(chunk);
+        }
+
+        @Override
+        public void onErrorChunk(CharSequence chunk) {
+            if (!token.isCancelled()) delegate.onErrorChunk(chunk);
+        }
+
+        @Override
+        public void onProgress(CharSequence label, long current, long total) {
+            if (!token.isCancelled()) delegate.onProgress(label, current, total);
+        }
+
+        @Override
+        public void onDirectoryChanged() {
+            delegate.onDirectoryChanged();
+        }
+
+        @Override
+        public void onComplete(int exitCode) {
+            complete(exitCode);
+        }
+
+        // Reports interrupted once the token has tripped, whatever the command returned
+        int complete(int exitCode) {
+            int status = token.isCancelled() ? EXIT_INTERRUPTED : exitCode;
+            delegate.onComplete(status);
+            return status;
+        }
+    }
+
+    // A submitted command line; cancelling it trips its token before interrupting the worker.
+    // A job cancelled while still queued never runs its body, so it completes from done().
+    private class CommandJob extends FutureTask<Void> {
+        private final CancellationToken token;
+        private final CancellableSink out;
+        // Claimed once, by the body starting or by a cancel that got there first
+        private final AtomicBoolean started;
+
+        CommandJob(Runnable body, CancellationToken token, CancellableSink out) {
+            this(body, token, out, new AtomicBoolean());
+        }
+
+        private CommandJob(Runnable body, CancellationToken token, CancellableSink out, AtomicBoolean started) {
+            super(() -> {
+                if (started.compareAndSet(false, true)) {
+                    body.run();
+                }
+            }, null);
+            this.token = token;
+            this.out = out;
+            this.started = started;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            token.cancel();
+            return super.cancel(mayInterruptIfRunning);
+        }
 
-    public interface CommandCallback {
-        void onSuccess(String output);
-        void onError(String error);
-        void onDirectoryChanged();
+        @Override
+        protected void done() {
+            runningJobs.remove(this);
+            if (started.compareAndSet(false, true)) {
+                completeLine(out, OutputSink.EXIT_INTERRUPTED);
+            }
+        }
+    }
+
+    // A command line waiting for the one before it to finish
+    private static class PendingLine {
+        final String input;
+        final OutputSink sink;
+
+        PendingLine(String input, OutputSink sink) {
+            this.input = input;
+            this.sink = sink;
+        }
+    }
+
+    // Streams jgit transfer progress and aborts between updates once the command is cancelled
+    private static class SinkProgressMonitor extends EmptyProgressMonitor {
+        private final CancellationToken token;
+        private final OutputSink out;
+        private String task = "";
+        private int total;
+        private int done;
+
+        SinkProgressMonitor(CancellationToken token, OutputSink out) {
+            this.token = token;
+            this.out = out;
+        }
+
+        @Override
+        public void beginTask(String title, int totalWork) {
+            task = title;
+            total = totalWork;
+            done = 0;
+            out.onProgress(task, 0, total == UNKNOWN ? -1 : total);
+        }
+
+        @Override
+        public void update(int completed) {
+            done += completed;
+            out.onProgress(task, done, total == UNKNOWN ? -1 : total);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return token.isCancelled();
+        }
     }
 
     // SSH Device class (for simulation)
@@ -110,17 +270,21 @@ public class CommandProcessor {
         }
     }
 
-    public CommandProcessor(TerminalActivity terminal, FileSystemManager fsManager) {
+    public CommandProcessor(TerminalActivity terminal, TerminalSession terminalSession, FileSystemManager fsManager) {
         this.terminal = terminal;
+        this.terminalSession = terminalSession;
         this.fsManager = fsManager;
         this.context = terminal;
         this.wifiAnalyzer = new WiFiAnalyzer(terminal);
-        this.runningProcesses = new HashMap<>();
-        this.realSSHSessions = new HashMap<>();
+        this.runningProcesses = new ConcurrentHashMap<>();
+        this.realSSHSessions = new ConcurrentHashMap<>();
+        this.executor = CommandExecutor.getInstance();
+        this.interpreter = new ShellInterpreter(new TerminalShellHost(), ScriptPlanCache.getInstance());
+        this.completionEngine = new CompletionEngine(new TerminalCompletionHost(), executor);
 
         // Initialize simulated SSH components
-        this.availableDevices = new HashMap<>();
-        this.activeSessions = new HashMap<>();
+        this.availableDevices = new ConcurrentHashMap<>();
+        this.activeSessions = new ConcurrentHashMap<>();
         initializeSSHDevices();
     }
 
@@ -137,292 +301,518 @@ public class CommandProcessor {
         availableDevices.put(deviceId, device);
     }
 
-    public void processCommand(String input, CommandCallback callback) {
+    /**
+     * Run a command line on the shared executor. The line is parsed as shell input, so
+     * ;, &amp;&amp;, ||, variables, if/for/while and functions all run on the same worker thread.
+     * Output is streamed to the sink as it is produced, followed by a single
+     * {@link OutputSink#onComplete(int)} with the status of the last command.
+     * Lines run one at a time: a line submitted while another is running waits for it.
+     * @param input Raw command line
+     * @param sink Destination for the command's output
+     */
+    public void processCommand(String input, OutputSink sink) {
+        synchronized (pendingLines) {
+            pendingLines.add(new PendingLine(input, sink));
+            if (lineRunning) {
+                return;
+            }
+            lineRunning = true;
+        }
+        runNextLine();
+    }
+
+    // Start waiting lines until one goes to a worker; its completion calls back in here
+    private void runNextLine() {
+        while (true) {
+            PendingLine next;
+            synchronized (pendingLines) {
+                next = pendingLines.poll();
+                if (next == null) {
+                    lineRunning = false;
+                    return;
+                }
+            }
+            if (startLine(next.input, next.sink)) {
+                return;
+            }
+        }
+    }
+
+    // True if the line went to a worker; false if it has already finished
+    private boolean startLine(String input, OutputSink sink) {
         if (input.trim().isEmpty()) {
-            callback.onSuccess("");
-            return;
+            sink.onComplete(OutputSink.EXIT_SUCCESS);
+            return false;
+        }
+
+        String line = input.trim();
+        ShellScript script = null;
+        // In SSH mode the remote shell does its own parsing
+        if (!inSSHMode) {
+            try {
+                script = ShellScript.parse(line);
+            } catch (ShellScript.SyntaxError e) {
+                shell.setLastStatus(OutputSink.EXIT_USAGE);
+                sink.onErrorChunk("bash: " + e.getMessage() + "\n");
+                sink.onComplete(OutputSink.EXIT_USAGE);
+                return false;
+            }
+        }
+
+        ShellScript plan = script;
+        CancellationToken token = new CancellationToken();
+        CancellableSink out = new CancellableSink(sink, token);
+        CommandJob job = new CommandJob(() -> {
+            int exitCode;
+            try {
+                exitCode = plan != null ? interpreter.run(plan, shell, token, out) : dispatchRemote(line, token, out);
+            } catch (CancellationException e) {
+                exitCode = OutputSink.EXIT_INTERRUPTED;
+            }
+            completeLine(out, exitCode);
+        }, token, out);
+        runningJobs.add(job);
+        try {
+            executor.execute(plan != null ? poolFor(plan) : sshPool(), job);
+        } catch (RejectedExecutionException e) {
+            runningJobs.remove(job);
+            shell.setLastStatus(out.complete(out.fail("terminal: too many running commands, try again later")));
+            return false;
+        }
+        return true;
+    }
+
+    // The line's one completion, then the next line. $? is the status the sink reported, so a
+    // cancelled line leaves EXIT_INTERRUPTED even if its command returned something else.
+    private void completeLine(CancellableSink out, int exitCode) {
+        shell.setLastStatus(out.complete(exitCode));
+        runNextLine();
+    }
+
+    /**
+     * Get the exit status of the last command that ran
+     * @return Exit status, as seen by $?
+     */
+    public int getLastExitStatus() {
+        return shell.getLastStatus();
+    }
+
+    // Lets scripts run terminal commands and see the terminal's files and environment
+    private class TerminalShellHost implements ShellInterpreter.Host {
+        @Override
+        public int runCommand(List<String> argv, CancellationToken token, OutputSink out) {
+            return dispatch(argv, token, out);
+        }
+
+        @Override
+        public File resolvePath(String path) {
+            return terminalSession.getPathContext().resolve(path);
+        }
+
+        @Override
+        public String getEnvironmentVariable(String name) {
+            return terminalSession.getEnvironment().get(name);
+        }
+    }
+
+    /**
+     * Get the tab completion engine for this terminal
+     * @return Completion engine
+     */
+    public CompletionEngine getCompletionEngine() {
+        return completionEngine;
+    }
+
+    // Feeds tab completion with the terminal's directories, commands and SSH devices
+    private class TerminalCompletionHost implements CompletionEngine.Host {
+        @Override
+        public File getCurrentDirectory() {
+            return terminalSession.getPathContext().getCurrentDirectoryFile();
+        }
+
+        @Override
+        public File getHomeDirectory() {
+            return new File(terminalSession.getPathContext().getHomeDirectory());
+        }
+
+        @Override
+        public Collection<String> getCommandNames() {
+            Set<String> names = new HashSet<>(COMMAND_NAMES);
+            names.addAll(ShellInterpreter.getBuiltinNames());
+            names.addAll(shell.getFunctionNames());
+            return names;
+        }
+
+        @Override
+        public Collection<String> getSSHHosts() {
+            Set<String> hosts = new HashSet<>();
+            for (SSHDevice device : availableDevices.values()) {
+                hosts.add(device.hostname);
+                hosts.add(device.ipAddress);
+            }
+            return hosts;
+        }
+
+        @Override
+        public File getGitDirectory(File directory) {
+            // Clones live under git_repos, with only a .git_ref pointer left in the directory
+            File gitDir = new File(getActualGitDirectory(directory), ".git");
+            if (gitDir.isDirectory()) {
+                return gitDir;
+            }
+            // Otherwise a directory inside a work tree, as git itself finds it
+            for (File dir = directory.getParentFile(); dir != null; dir = dir.getParentFile()) {
+                gitDir = new File(dir, ".git");
+                if (gitDir.isDirectory()) {
+                    return gitDir;
+                }
+            }
+            return null;
         }
+    }
 
-        // If in SSH mode, handle differently
-        if (inSSHMode && currentSSHSessionId != null) {
-            processRealSSHCommand(input.trim(), callback);
-            return;
-        } else if (inSSHMode && currentSimulatedSSHSession != null) {
-            processSSHModeCommand(input.trim(), callback);
-            return;
+    /**
+     * Interrupt every command started by this processor that is still running, and drop the
+     * lines waiting to run after it. Trips each command's {@link CancellationToken}, which closes its sockets and channels.
+     * @return Number of commands that were interrupted
+     */
+    public int interrupt() {
+        // Lines typed after the interrupted one are dropped, like a shell's typeahead
+        List<PendingLine> dropped;
+        synchronized (pendingLines) {
+            dropped = new ArrayList<>(pendingLines);
+            pendingLines.clear();
+        }
+        for (PendingLine pending : dropped) {
+            pending.sink.onComplete(OutputSink.EXIT_INTERRUPTED);
         }
+        int cancelled = 0;
+        for (CommandJob job : runningJobs) {
+            if (job.cancel(true)) {
+                cancelled++;
+            }
+        }
+        runningJobs.clear();
+        return cancelled;
+    }
 
-        String[] parts = parseCommand(input);
+    /**
+     * Interrupt everything still running and drop any SSH connection, for a closing tab
+     */
+    public void close() {
+        interrupt();
+        disconnectRealSSH();
+        currentSimulatedSSHSession = null;
+    }
+
+    // SSH lines go to the remote host, or to the simulated device on this one
+    private CommandExecutor.Pool sshPool() {
+        return currentSSHSessionId != null ? CommandExecutor.Pool.NETWORK : CommandExecutor.Pool.CPU;
+    }
+
+    // A command line runs on one thread, so it goes to the pool its heaviest command needs
+    private CommandExecutor.Pool poolFor(ShellScript script) {
+        CommandExecutor.Pool pool = CommandExecutor.Pool.CPU;
+        for (String command : script.getCommandLines()) {
+            CommandExecutor.Pool stepPool = poolFor(command);
+            if (stepPool == CommandExecutor.Pool.NETWORK) {
+                return stepPool;
+            } else if (stepPool == CommandExecutor.Pool.IO) {
+                pool = stepPool;
+            }
+        }
+        return pool;
+    }
+
+    // Pick the pool a single command should run on from its first word
+    private CommandExecutor.Pool poolFor(String line) {
+        String[] parts = parseCommand(line);
+        int first = WRAPPER_COMMANDS.contains(parts[0].toLowerCase()) && parts.length > 1 ? 1 : 0;
+        String command = parts[first].toLowerCase();
+        if (command.equals("git")) {
+            String sub = parts.length > first + 1 ? parts[first + 1].toLowerCase() : "";
+            return GIT_NETWORK_COMMANDS.contains(sub) ? CommandExecutor.Pool.NETWORK : CommandExecutor.Pool.IO;
+        }
+        if (NETWORK_COMMANDS.contains(command)) {
+            return CommandExecutor.Pool.NETWORK;
+        } else if (IO_COMMANDS.contains(command)) {
+            return CommandExecutor.Pool.IO;
+        }
+        return CommandExecutor.Pool.CPU;
+    }
+
+    // Runs on a worker thread; every command is timed, whether typed, chained or scripted
+    private int dispatch(List<String> argv, CancellationToken token, OutputSink out) {
+        String name = argv.get(0).toLowerCase();
+        // sudo and time dispatch the command they run, which records it under its own name
+        if (WRAPPER_COMMANDS.contains(name)) {
+            return dispatchCommand(argv, token, out);
+        }
+        long cpuStart = Debug.threadCpuTimeNanos();
+        long start = System.nanoTime();
+        try {
+            return dispatchCommand(argv, token, out);
+        } finally {
+            record(name, start, cpuStart);
+        }
+    }
+
+    // In SSH mode the line goes to the remote shell as typed, for it to parse
+    private int dispatchRemote(String line, CancellationToken token, OutputSink out) {
+        if (currentSSHSessionId == null && currentSimulatedSSHSession == null) {
+            return dispatch(Arrays.asList(parseCommand(line)), token, out);
+        }
+        long cpuStart = Debug.threadCpuTimeNanos();
+        long start = System.nanoTime();
+        try {
+            return currentSSHSessionId != null
+                    ? processRealSSHCommand(line, token, out)
+                    : processSSHModeCommand(line, out);
+        } finally {
+            record("ssh:" + parseCommand(line)[0].toLowerCase(), start, cpuStart);
+        }
+    }
+
+    // Commands are grouped by first word; SSH lines by the remote command
+    private void record(String name, long start, long cpuStart) {
+        long wall = System.nanoTime() - start;
+        long cpu = cpuStart < 0 ? -1 : Debug.threadCpuTimeNanos() - cpuStart;
+        commandStats.record(name, wall, cpu);
+    }
+
+    // Handlers complete synchronously and return their exit status. The words are used as
+    // the interpreter expanded them, so quoted spaces stay inside their argument.
+    private int dispatchCommand(List<String> argv, CancellationToken token, OutputSink out) {
+        String[] parts = argv.toArray(new String[0]);
         String command = parts[0].toLowerCase();
         String[] args = Arrays.copyOfRange(parts, 1, parts.length);
 
         try {
             switch (command) {
                 case "ls":
-                    handleLs(args, callback);
-                    break;
+                    return handleLs(args, out);
                 case "cd":
-                    handleCd(args, callback);
-                    break;
+                    return handleCd(args, out);
                 case "pwd":
-                    handlePwd(callback);
-                    break;
+                    return handlePwd(out);
                 case "mkdir":
-                    handleMkdir(args, callback);
-                    break;
+                    return handleMkdir(args, out);
                 case "touch":
-                    handleTouch(args, callback);
-                    break;
+                    return handleTouch(args, out);
                 case "rm":
-                    handleRm(args, callback);
-                    break;
+                    return handleRm(args, out);
                 case "cp":
-                    handleCp(args, callback);
-                    break;
+                    return handleCp(args, out);
                 case "mv":
-                    handleMv(args, callback);
-                    break;
+                    return handleMv(args, out);
                 case "cat":
-                    handleCat(args, callback);
-                    break;
+                    return handleCat(args, token, out);
                 case "nano":
                 case "vim":
                 case "edit":
-                    handleEdit(args, callback);
-                    break;
+                    return handleEdit(args, out);
                 case "chmod":
-                    handleChmod(args, callback);
-                    break;
+                    return handleChmod(args, out);
                 case "find":
-                    handleFind(args, callback);
-                    break;
+                    return handleFind(args, token, out);
                 case "grep":
-                    handleGrep(args, callback);
-                    break;
+                    return handleGrep(args, token, out);
                 case "ps":
-                    handlePs(callback);
-                    break;
+                    return handlePs(out);
                 case "kill":
-                    handleKill(args, callback);
-                    break;
+                    return handleKill(args, out);
                 case "clear":
-                    handleClear(callback);
-                    break;
+                    return handleClear(out);
                 case "help":
-                    handleHelp(callback);
-                    break;
+                    return handleHelp(out);
                 case "whoami":
-                    handleWhoami(callback);
-                    break;
+                    return handleWhoami(out);
                 case "date":
-                    handleDate(callback);
-                    break;
+                    return handleDate(out);
                 case "echo":
-                    handleEcho(args, callback);
-                    break;
+                    return handleEcho(args, out);
                 case "history":
-                    handleHistory(callback);
-                    break;
+                    return handleHistory(args, token, out);
                 case "su":
-                    handleSu(args, callback);
-                    break;
+                    return handleSu(args, out);
                 case "sudo":
-                    handleSudo(Arrays.copyOfRange(parts, 1, parts.length), callback);
-                    break;
+                    return handleSudo(Arrays.copyOfRange(parts, 1, parts.length), token, out);
                 case "env":
-                    handleEnv(callback);
-                    break;
+                    return handleEnv(out);
                 case "which":
-                    handleWhich(args, callback);
-                    break;
+                    return handleWhich(args, out);
                 case "man":
-                    handleMan(args, callback);
-                    break;
+                    return handleMan(args, out);
                 case "tree":
-                    handleTree(args, callback);
-                    break;
+                    return handleTree(args, out);
                 case "head":
-                    handleHead(args, callback);
-                    break;
+                    return handleHead(args, out);
                 case "tail":
-                    handleTail(args, callback);
-                    break;
+                    return handleTail(args, out);
                 case "wc":
-                    handleWc(args, callback);
-                    break;
+                    return handleWc(args, out);
                 case "df":
-                    handleDf(callback);
-                    break;
+                    return handleDf(out);
                 case "free":
-                    handleFree(callback);
-                    break;
+                    return handleFree(out);
                 case "uname":
-                    handleUname(args, callback);
-                    break;
+                    return handleUname(args, out);
                 case "exit":
-                    terminal.finish();
-                    break;
+                    executor.postToUi(() -> terminal.closeSession(terminalSession));
+                    return OutputSink.EXIT_SUCCESS;
                 case "wifi-scan":
-                    handleRealWifiScan(callback);
-                    break;
+                    return handleRealWifiScan(out);
                 case "bpad.txt":
-                    handleBpad(args, callback);
-                    break;
+                    return handleBpad(args, out);
                 // Real SSH Commands
                 case "ssh":
-                    handleRealSSH(input.trim(), callback);
-                    break;
+                    return handleRealSSH(parts, token, out);
                 case "ssh-sim":
-                    handleSSH(input.trim(), callback);
-                    break;
+                    return handleSSH(parts, out);
                 case "ssh-list":
-                    handleSSHList(callback);
-                    break;
+                    return handleSSHList(out);
                 case "ssh-sessions":
                 case "sshsessions":
-                    handleSSHSessions(callback);
-                    break;
+                    return handleSSHSessions(out);
                 case "ssh-disconnect":
                 case "sshdisconnect":
-                    handleSSHDisconnect(args, callback);
-                    break;
+                    return handleSSHDisconnect(args, out);
                 case "ssh-add":
                 case "sshadd":
-                    handleSSHAdd(args, callback);
-                    break;
+                    return handleSSHAdd(args, out);
                 case "ssh-toggle":
                 case "sshtoggle":
-                    handleSSHToggle(args, callback);
-                    break;
+                    return handleSSHToggle(args, out);
                 // Real Network Commands
                 case "ping":
-                    handleRealPing(args, callback);
-                    break;
+                    return handleRealPing(args, token, out);
                 case "netstat":
-                    handleRealNetstat(args, callback);
-                    break;
+                    return handleRealNetstat(args, token, out);
                 case "ifconfig":
                 case "ip":
-                    handleRealIfconfig(callback);
-                    break;
+                    return handleRealIfconfig(out);
                 case "nslookup":
                 case "dig":
-                    handleRealNslookup(args, callback);
-                    break;
+                    return handleRealNslookup(args, out);
                 case "traceroute":
-                    handleRealTraceroute(args, callback);
-                    break;
+                    return handleRealTraceroute(args, token, out);
                 case "curl":
-                    handleRealCurl(args, callback);
-                    break;
+                    return handleRealCurl(args, token, out);
                 case "wget":
-                    handleRealWget(args, callback);
-                    break;
+                    return handleRealWget(args, token, out);
                 case "hostname":
-                    handleRealHostname(callback);
-                    break;
+                    return handleRealHostname(out);
                 // Real Git Commands
                 case "git":
-                    handleRealGit(args, callback);
-                    break;
+                    return handleRealGit(args, token, out);
                 // System Info Commands
                 case "uptime":
-                    handleRealUptime(callback);
-                    break;
+                    return handleRealUptime(out);
                 case "top":
-                    handleRealTop(callback);
-                    break;
+                    return handleRealTop(token, out);
                 case "lsof":
-                    handleRealLsof(callback);
-                    break;
+                    return handleRealLsof(out);
                 case "dmesg":
-                    handleRealDmesg(callback);
-                    break;
+                    return handleRealDmesg(token, out);
+                case "true":
+                    return OutputSink.EXIT_SUCCESS;
+                case "false":
+                    return OutputSink.EXIT_FAILURE;
+                case "time":
+                    return handleTime(args, token, out);
+                case "perfstat":
+                    return handlePerfstat(args, out);
                 default:
-                    callback.onError("Command not found: " + command + "\nType 'help' for available commands");
-                    break;
+                    out.onErrorChunk("Command not found: " + command + "\nType 'help' for available commands\n");
+                    return OutputSink.EXIT_NOT_FOUND;
             }
+        } catch (CancellationException e) {
+            // Interrupted with Ctrl-C; nothing more to report
+            return OutputSink.EXIT_INTERRUPTED;
         } catch (Exception e) {
-            callback.onError("Error executing command: " + e.getMessage());
+            return out.fail("Error executing command: " + e.getMessage());
         }
     }
 
     // ==================== REAL GIT COMMANDS ====================
-    private void handleRealGit(String[] args, CommandCallback callback) {
+    private int handleRealGit(String[] args, CancellationToken token, OutputSink out) {
         if (args.length == 0) {
-            showGitHelp(callback);
-            return;
+            return showGitHelp(out);
         }
 
         String subCommand = args[0].toLowerCase();
-        File currentDir = new File(fsManager.getAbsoluteCurrentDirectory());
+        File currentDir = terminalSession.getPathContext().getCurrentDirectoryFile();
 
-        new Thread(() -> {
-            try {
-                String result = "";
-                switch (subCommand) {
-                    case "init":
-                        result = realGitInit(currentDir);
-                        break;
-                    case "clone":
-                        if (args.length < 2) {
-                            result = "Error: git clone requires a repository URL";
-                        } else {
-                            result = realGitClone(args[1], currentDir);
-                        }
-                        break;
-                    case "status":
-                        result = realGitStatus(currentDir);
-                        break;
-                    case "add":
-                        if (args.length < 2) {
-                            result = "Error: git add requires a file path";
-                        } else {
-                            result = realGitAdd(currentDir, args[1]);
-                        }
-                        break;
-                    case "commit":
-                        if (args.length < 3 || !args[1].equals("-m")) {
-                            result = "Error: git commit requires -m \"message\"";
-                        } else {
-                            String message = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
-                            result = realGitCommit(currentDir, message.replaceAll("^\"|\"$", ""));
-                        }
-                        break;
-                    case "log":
-                        result = realGitLog(currentDir);
-                        break;
-                    case "branch":
-                        result = realGitBranch(currentDir, args);
-                        break;
-                    case "checkout":
-                        if (args.length < 2) {
-                            result = "Error: git checkout requires a branch name";
-                        } else {
-                            result = realGitCheckout(currentDir, args[1]);
-                        }
-                        break;
-                    case "pull":
-                        result = realGitPull(currentDir);
-                        break;
-                    case "push":
-                        result = realGitPush(currentDir);
-                        break;
-                    case "remote":
-                        result = realGitRemote(currentDir, args);
-                        break;
-                    case "diff":
-                        result = realGitDiff(currentDir);
-                        break;
-                    default:
-                        result = "Unknown git command: " + subCommand + "\nUse 'git help' for available commands";
-                }
-                final String finalResult = result;
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
-            } catch (Exception e) {
-                terminal.runOnUiThread(() -> callback.onError("Git error: " + e.getMessage()));
+        try {
+            String result = "";
+            switch (subCommand) {
+                case "init":
+                    result = realGitInit(currentDir);
+                    break;
+                case "clone":
+                    if (args.length < 2) {
+                        out.fail("Error: git clone requires a repository URL");
+                        return OutputSink.EXIT_USAGE;
+                    } else {
+                        result = realGitClone(args[1], currentDir, token, out);
+                    }
+                    break;
+                case "status":
+                    result = realGitStatus(currentDir);
+                    break;
+                case "add":
+                    if (args.length < 2) {
+                        out.fail("Error: git add requires a file path");
+                        return OutputSink.EXIT_USAGE;
+                    } else {
+                        result = realGitAdd(currentDir, args[1]);
+                    }
+                    break;
+                case "commit":
+                    if (args.length < 3 || !args[1].equals("-m")) {
+                        out.fail("Error: git commit requires -m \"message\"");
+                        return OutputSink.EXIT_USAGE;
+                    } else {
+                        String message = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
+                        result = realGitCommit(currentDir, message.replaceAll("^\"|\"$", ""));
+                    }
+                    break;
+                case "log":
+                    result = realGitLog(currentDir);
+                    break;
+                case "branch":
+                    result = realGitBranch(currentDir, args);
+                    break;
+                case "checkout":
+                    if (args.length < 2) {
+                        out.fail("Error: git checkout requires a branch name");
+                        return OutputSink.EXIT_USAGE;
+                    } else {
+                        result = realGitCheckout(currentDir, args[1]);
+                    }
+                    break;
+                case "pull":
+                    result = realGitPull(currentDir, token, out);
+                    break;
+                case "push":
+                    result = realGitPush(currentDir, token, out);
+                    break;
+                case "remote":
+                    result = realGitRemote(currentDir, args);
+                    break;
+                case "diff":
+                    result = realGitDiff(currentDir);
+                    break;
+                default:
+                    out.fail("Unknown git command: " + subCommand + "\nUse 'git help' for available commands");
+                    return OutputSink.EXIT_USAGE;
             }
-        }).start();
+            return out.success(result);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return out.fail("Git error: " + e.getMessage());
+        }
     }
 
     private String realGitInit(File dir) throws GitAPIException {
@@ -447,7 +837,7 @@ public class CommandProcessor {
         return "✓ Initialized empty Git repository in " + gitDir.getAbsolutePath() + "/.git/";
     }
 
-    private String realGitClone(String url, File dir) throws GitAPIException {
+    private String realGitClone(String url, File dir, CancellationToken token, OutputSink out) throws GitAPIException {
         String repoName = getRepoNameFromUrl(url);
 
         // Use app's internal storage for Git operations
@@ -457,11 +847,20 @@ public class CommandProcessor {
         }
         gitDir.mkdirs();
 
-        Git git = Git.cloneRepository()
-                .setURI(url)
-                .setDirectory(gitDir)
-                .call();
+        Git git;
+        try {
+            git = Git.cloneRepository()
+                    .setURI(url)
+                    .setDirectory(gitDir)
+                    .setProgressMonitor(new SinkProgressMonitor(token, out))
+                    .call();
+        } catch (GitAPIException | RuntimeException e) {
+            // Don't leave a half-written clone behind after Ctrl-C or a failed transfer
+            deleteRecursive(gitDir);
+            throw e;
+        }
         git.close();
+        token.throwIfCancelled();
 
         // Create a symlink reference in the current directory
         File targetDir = new File(dir, repoName);
@@ -660,27 +1059,35 @@ public class CommandProcessor {
         return "✓ Switched to branch '" + branch + "'";
     }
 
-    private String realGitPull(File dir) throws Exception {
+    private String realGitPull(File dir, CancellationToken token, OutputSink out) throws Exception {
         File actualGitDir = getActualGitDirectory(dir);
 
         Repository repo = new FileRepositoryBuilder()
                 .setGitDir(new File(actualGitDir, ".git"))
                 .build();
         Git git = new Git(repo);
-        git.pull().call();
-        git.close();
+        try {
+            git.pull().setProgressMonitor(new SinkProgressMonitor(token, out)).call();
+        } finally {
+            git.close();
+        }
+        token.throwIfCancelled();
         return "✓ Successfully pulled from remote";
     }
 
-    private String realGitPush(File dir) throws Exception {
+    private String realGitPush(File dir, CancellationToken token, OutputSink out) throws Exception {
         File actualGitDir = getActualGitDirectory(dir);
 
         Repository repo = new FileRepositoryBuilder()
                 .setGitDir(new File(actualGitDir, ".git"))
                 .build();
         Git git = new Git(repo);
-        git.push().call();
-        git.close();
+        try {
+            git.push().setProgressMonitor(new SinkProgressMonitor(token, out)).call();
+        } finally {
+            git.close();
+        }
+        token.throwIfCancelled();
         return "✓ Successfully pushed to remote";
     }
 
@@ -726,7 +1133,7 @@ public class CommandProcessor {
         return diff.isEmpty() ? "No changes" : diff;
     }
 
-    private void showGitHelp(CommandCallback callback) {
+    private int showGitHelp(OutputSink out) {
         String help = "usage: git [--version] [--help] <command> [<args>]\n\n" +
                 "Common Git commands:\n" +
                 "  init       Initialize a new Git repository\n" +
@@ -741,7 +1148,7 @@ public class CommandProcessor {
                 "  push       Push commits to remote\n" +
                 "  remote     Manage remote repositories\n" +
                 "  diff       Show changes\n";
-        callback.onSuccess(help);
+        return out.success(help);
     }
 
     private String getRepoNameFromUrl(String url) {
@@ -750,12 +1157,9 @@ public class CommandProcessor {
     }
 
     // ==================== REAL SSH COMMANDS ====================
-    private void handleRealSSH(String fullCommand, CommandCallback callback) {
-        String[] parts = fullCommand.trim().split("\\s+");
-
+    private int handleRealSSH(String[] parts, CancellationToken token, OutputSink out) {
         if (parts.length < 2) {
-            callback.onError("Usage: ssh [user@]hostname [-p port]");
-            return;
+            return out.fail("Usage: ssh [user@]hostname [-p port]");
         }
 
         String target = parts[1];
@@ -779,98 +1183,93 @@ public class CommandProcessor {
                 try {
                     port = Integer.parseInt(parts[i + 1]);
                 } catch (NumberFormatException e) {
-                    callback.onError("Invalid port number");
-                    return;
+                    return out.fail("Invalid port number");
                 }
             }
         }
 
-        final String finalUsername = username;
-        final String finalHostname = hostname;
-        final int finalPort = port;
-
-        new Thread(() -> {
-            try {
-                JSch jsch = new JSch();
-                Session session = jsch.getSession(finalUsername, finalHostname, finalPort);
+        try {
+            JSch jsch = new JSch();
+            Session session = jsch.getSession(username, hostname, port);
 
-                // For demo purposes - in production, use proper authentication
-                session.setPassword(""); // You should prompt for password
+            // For demo purposes - in production, use proper authentication
+            session.setPassword(""); // You should prompt for password
 
-                Properties config = new Properties();
-                config.put("StrictHostKeyChecking", "no");
-                session.setConfig(config);
+            Properties config = new Properties();
+            config.put("StrictHostKeyChecking", "no");
+            session.setConfig(config);
 
+            // Closing the session socket is the only way to abort a pending handshake
+            try (CancellationToken.Registration ignored = token.onCancel(session::disconnect)) {
                 session.connect(30000);
+            }
+            token.throwIfCancelled();
 
-                String sessionId = UUID.randomUUID().toString().substring(0, 8);
-                realSSHSessions.put(sessionId, session);
-                currentSSHSessionId = sessionId;
-                inSSHMode = true;
+            String sessionId = UUID.randomUUID().toString().substring(0, 8);
+            realSSHSessions.put(sessionId, session);
+            currentSSHSessionId = sessionId;
+            inSSHMode = true;
 
-                terminal.runOnUiThread(() -> {
-                    callback.onSuccess("✓ Connected to " + finalHostname + " as " + finalUsername);
-                    callback.onDirectoryChanged();
-                });
+            out.onDirectoryChanged();
+            return out.success("✓ Connected to " + hostname + " as " + username);
 
-            } catch (JSchException e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("SSH connection failed: " + e.getMessage())
-                );
-            }
-        }).start();
+        } catch (JSchException e) {
+            return out.fail("SSH connection failed: " + e.getMessage());
+        }
     }
 
-    private void processRealSSHCommand(String command, CommandCallback callback) {
+    private int processRealSSHCommand(String command, CancellationToken token, OutputSink out) {
         if (command.equals("exit") || command.equals("logout")) {
             disconnectRealSSH();
-            callback.onSuccess("Connection closed");
-            callback.onDirectoryChanged();
-            return;
+            out.onDirectoryChanged();
+            return out.success("Connection closed");
         }
 
         Session session = realSSHSessions.get(currentSSHSessionId);
         if (session == null || !session.isConnected()) {
-            callback.onError("SSH session not connected");
-            return;
+            return out.fail("SSH session not connected");
         }
 
-        new Thread(() -> {
-            try {
-                ChannelExec channel = (ChannelExec) session.openChannel("exec");
-                channel.setCommand(command);
+        try {
+            ChannelExec channel = (ChannelExec) session.openChannel("exec");
+            channel.setCommand(command);
 
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+            ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
 
-                channel.setOutputStream(outputStream);
-                channel.setErrStream(errorStream);
+            channel.setErrStream(errorStream);
+            InputStream in = channel.getInputStream();
+            int exitStatus;
 
+            // Block on the channel stream until the remote command exits, forwarding output as it
+            // arrives; Ctrl-C closes the channel, which ends the stream instead of a poll loop
+            try (CancellationToken.Registration ignored = token.onCancel(channel::disconnect)) {
                 channel.connect();
-
-                while (!channel.isClosed()) {
-                    Thread.sleep(100);
+                Reader reader = new InputStreamReader(in);
+                char[] buffer = new char[4096];
+                int charsRead;
+                while ((charsRead = reader.read(buffer)) != -1) {
+                    out.onChunk(new String(buffer, 0, charsRead));
                 }
-
-                String output = outputStream.toString();
-                String error = errorStream.toString();
-
+                exitStatus = channel.getExitStatus();
+            } finally {
                 channel.disconnect();
+            }
+            token.throwIfCancelled();
 
-                terminal.runOnUiThread(() -> {
-                    if (!error.isEmpty()) {
-                        callback.onError(error);
-                    } else {
-                        callback.onSuccess(output);
-                    }
-                });
-
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("Command execution failed: " + e.getMessage())
-                );
+            String error = errorStream.toString();
+            if (!error.isEmpty()) {
+                out.onErrorChunk(OutputSink.endLine(error));
             }
-        }).start();
+            if (exitStatus >= 0) {
+                return exitStatus;
+            }
+            return error.isEmpty() ? OutputSink.EXIT_SUCCESS : OutputSink.EXIT_FAILURE;
+
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return out.fail("Command execution failed: " + e.getMessage());
+        }
     }
 
     private void disconnectRealSSH() {
@@ -885,10 +1284,9 @@ public class CommandProcessor {
     }
 
     // ==================== REAL NETWORK COMMANDS ====================
-    private void handleRealPing(String[] args, CommandCallback callback) {
+    private int handleRealPing(String[] args, CancellationToken token, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("Usage: ping <hostname>");
-            return;
+            return out.fail("Usage: ping <hostname>");
         }
 
         String host = args[0];
@@ -900,339 +1298,313 @@ public class CommandProcessor {
                 try {
                     count = Integer.parseInt(args[i + 1]);
                 } catch (NumberFormatException e) {
-                    callback.onError("Invalid count");
-                    return;
+                    return out.fail("Invalid count");
                 }
             }
         }
 
-        final int finalCount = count;
-        new Thread(() -> {
-            StringBuilder result = new StringBuilder();
-            result.append("PING ").append(host).append("\n");
-
-            int received = 0;
-            long totalTime = 0;
+        out.println("PING " + host);
 
-            try {
-                InetAddress address = InetAddress.getByName(host);
-                result.append("Pinging ").append(address.getHostAddress()).append("\n\n");
-
-                for (int i = 0; i < finalCount; i++) {
-                    long startTime = System.currentTimeMillis();
-                    boolean reachable = address.isReachable(5000);
-                    long endTime = System.currentTimeMillis();
-                    long time = endTime - startTime;
-
-                    if (reachable) {
-                        result.append("Reply from ").append(address.getHostAddress())
-                                .append(": bytes=32 time=").append(time).append("ms TTL=64\n");
-                        received++;
-                        totalTime += time;
-                    } else {
-                        result.append("Request timeout for ").append(address.getHostAddress()).append("\n");
-                    }
+        int received = 0;
+        long totalTime = 0;
 
-                    if (i < finalCount - 1) {
-                        Thread.sleep(1000);
-                    }
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            out.onChunk("Pinging " + address.getHostAddress() + "\n\n");
+
+            for (int i = 0; i < count; i++) {
+                token.throwIfCancelled();
+                long startTime = System.currentTimeMillis();
+                boolean reachable = address.isReachable(5000);
+                long endTime = System.currentTimeMillis();
+                long time = endTime - startTime;
+
+                if (reachable) {
+                    out.println("Reply from " + address.getHostAddress()
+                            + ": bytes=32 time=" + time + "ms TTL=64");
+                    received++;
+                    totalTime += time;
+                } else {
+                    out.println("Request timeout for " + address.getHostAddress());
                 }
 
-                result.append("\n--- ").append(host).append(" ping statistics ---\n");
-                result.append(finalCount).append(" packets transmitted, ");
-                result.append(received).append(" received, ");
-                result.append((finalCount - received) * 100 / finalCount).append("% packet loss\n");
-
-                if (received > 0) {
-                    result.append("rtt min/avg/max = ").append(totalTime / received).append(" ms\n");
+                if (i < count - 1) {
+                    token.sleep(1000);
                 }
+            }
 
-                final String finalResult = result.toString();
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
+            StringBuilder result = new StringBuilder();
+            result.append("\n--- ").append(host).append(" ping statistics ---\n");
+            result.append(count).append(" packets transmitted, ");
+            result.append(received).append(" received, ");
+            result.append((count - received) * 100 / count).append("% packet loss\n");
 
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("ping: " + host + ": " + e.getMessage())
-                );
+            if (received > 0) {
+                result.append("rtt min/avg/max = ").append(totalTime / received).append(" ms\n");
             }
-        }).start();
+
+            return out.success(result.toString());
+
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return out.fail("ping: " + host + ": " + e.getMessage());
+        }
     }
 
-    private void handleRealNetstat(String[] args, CommandCallback callback) {
-        new Thread(() -> {
-            try {
-                StringBuilder result = new StringBuilder();
-                result.append("Active Internet connections\n");
-                result.append(String.format("%-8s %-22s %-22s %-12s\n",
-                        "Proto", "Local Address", "Foreign Address", "State"));
+    private int handleRealNetstat(String[] args, CancellationToken token, OutputSink out) {
+        try {
+            out.onChunk("Active Internet connections\n" + String.format("%-8s %-22s %-22s %-12s\n",
+                    "Proto", "Local Address", "Foreign Address", "State"));
 
-                // Get network connections (Android specific)
-                try {
-                    Process process = Runtime.getRuntime().exec("netstat");
-                    BufferedReader reader = new BufferedReader(
-                            new InputStreamReader(process.getInputStream()));
+            // Get network connections (Android specific)
+            try {
+                Process process = Runtime.getRuntime().exec("netstat");
+                try (CancellationToken.Registration ignored = token.onCancel(process::destroy);
+                     BufferedReader reader = new BufferedReader(
+                             new InputStreamReader(process.getInputStream()))) {
                     String line;
                     while ((line = reader.readLine()) != null) {
-                        result.append(line).append("\n");
+                        token.throwIfCancelled();
+                        out.println(line);
                     }
-                    reader.close();
-                } catch (Exception e) {
-                    // Fallback to simulated output
-                    result.append("tcp        0.0.0.0:22              0.0.0.0:*               LISTEN\n");
-                    result.append("tcp        0.0.0.0:80              0.0.0.0:*               LISTEN\n");
-                    result.append("tcp        127.0.0.1:3306          0.0.0.0:*               LISTEN\n");
                 }
-
-                final String finalResult = result.toString();
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
-
+            } catch (CancellationException e) {
+                throw e;
             } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("netstat error: " + e.getMessage())
-                );
+                // Fallback to simulated output
+                out.onChunk("tcp        0.0.0.0:22              0.0.0.0:*               LISTEN\n"
+                        + "tcp        0.0.0.0:80              0.0.0.0:*               LISTEN\n"
+                        + "tcp        127.0.0.1:3306          0.0.0.0:*               LISTEN\n");
             }
-        }).start();
+
+            return OutputSink.EXIT_SUCCESS;
+
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return out.fail("netstat error: " + e.getMessage());
+        }
     }
 
-    private void handleRealIfconfig(CommandCallback callback) {
-        new Thread(() -> {
-            try {
-                StringBuilder result = new StringBuilder();
+    private int handleRealIfconfig(OutputSink out) {
+        try {
+            StringBuilder result = new StringBuilder();
 
-                // Get network interfaces
-                Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            // Get network interfaces
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
 
-                while (interfaces.hasMoreElements()) {
-                    NetworkInterface iface = interfaces.nextElement();
+            while (interfaces.hasMoreElements()) {
+                NetworkInterface iface = interfaces.nextElement();
 
-                    result.append(iface.getName()).append(": ");
-                    result.append("flags=").append(iface.isUp() ? "UP" : "DOWN").append("\n");
+                result.append(iface.getName()).append(": ");
+                result.append("flags=").append(iface.isUp() ? "UP" : "DOWN").append("\n");
 
-                    Enumeration<InetAddress> addresses = iface.getInetAddresses();
-                    while (addresses.hasMoreElements()) {
-                        InetAddress addr = addresses.nextElement();
-                        if (addr instanceof Inet4Address) {
-                            result.append("    inet ").append(addr.getHostAddress()).append("\n");
-                        } else if (addr instanceof Inet6Address) {
-                            result.append("    inet6 ").append(addr.getHostAddress()).append("\n");
-                        }
+                Enumeration<InetAddress> addresses = iface.getInetAddresses();
+                while (addresses.hasMoreElements()) {
+                    InetAddress addr = addresses.nextElement();
+                    if (addr instanceof Inet4Address) {
+                        result.append("    inet ").append(addr.getHostAddress()).append("\n");
+                    } else if (addr instanceof Inet6Address) {
+                        result.append("    inet6 ").append(addr.getHostAddress()).append("\n");
                     }
+                }
 
-                    byte[] mac = iface.getHardwareAddress();
-                    if (mac != null) {
-                        StringBuilder macStr = new StringBuilder();
-                        for (int i = 0; i < mac.length; i++) {
-                            macStr.append(String.format("%02X%s", mac[i], (i < mac.length - 1) ? ":" : ""));
-                        }
-                        result.append("    ether ").append(macStr).append("\n");
+                byte[] mac = iface.getHardwareAddress();
+                if (mac != null) {
+                    StringBuilder macStr = new StringBuilder();
+                    for (int i = 0; i < mac.length; i++) {
+                        macStr.append(String.format("%02X%s", mac[i], (i < mac.length - 1) ? ":" : ""));
                     }
-                    result.append("\n");
+                    result.append("    ether ").append(macStr).append("\n");
                 }
+                result.append("\n");
+            }
 
-                final String finalResult = result.toString();
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
+            return out.success(result.toString());
 
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("ifconfig error: " + e.getMessage())
-                );
-            }
-        }).start();
+        } catch (Exception e) {
+            return out.fail("ifconfig error: " + e.getMessage());
+        }
     }
 
-    private void handleRealNslookup(String[] args, CommandCallback callback) {
+    private int handleRealNslookup(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("Usage: nslookup <hostname>");
-            return;
+            return out.fail("Usage: nslookup <hostname>");
         }
 
         String hostname = args[0];
 
-        new Thread(() -> {
-            try {
-                InetAddress[] addresses = InetAddress.getAllByName(hostname);
-                StringBuilder result = new StringBuilder();
-                result.append("Server:\t\t8.8.8.8\n");
-                result.append("Address:\t8.8.8.8#53\n\n");
-                result.append("Name:\t").append(hostname).append("\n");
-
-                for (InetAddress addr : addresses) {
-                    result.append("Address: ").append(addr.getHostAddress()).append("\n");
-                }
-
-                final String finalResult = result.toString();
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
+        try {
+            InetAddress[] addresses = InetAddress.getAllByName(hostname);
+            StringBuilder result = new StringBuilder();
+            result.append("Server:\t\t8.8.8.8\n");
+            result.append("Address:\t8.8.8.8#53\n\n");
+            result.append("Name:\t").append(hostname).append("\n");
 
-            } catch (UnknownHostException e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("** server can't find " + hostname + ": NXDOMAIN")
-                );
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("nslookup error: " + e.getMessage())
-                );
+            for (InetAddress addr : addresses) {
+                result.append("Address: ").append(addr.getHostAddress()).append("\n");
             }
-        }).start();
+
+            return out.success(result.toString());
+
+        } catch (UnknownHostException e) {
+            return out.fail("** server can't find " + hostname + ": NXDOMAIN");
+        } catch (Exception e) {
+            return out.fail("nslookup error: " + e.getMessage());
+        }
     }
 
-    private void handleRealTraceroute(String[] args, CommandCallback callback) {
+    private int handleRealTraceroute(String[] args, CancellationToken token, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("Usage: traceroute <hostname>");
-            return;
+            return out.fail("Usage: traceroute <hostname>");
         }
 
         String host = args[0];
 
-        new Thread(() -> {
-            try {
-                InetAddress target = InetAddress.getByName(host);
-                StringBuilder result = new StringBuilder();
-                result.append("traceroute to ").append(host).append(" (")
-                        .append(target.getHostAddress()).append("), 30 hops max\n");
-
-                // Simulate traceroute (real implementation would require raw sockets)
-                int maxHops = 10;
-                for (int i = 1; i <= maxHops; i++) {
-                    result.append(String.format("%2d  ", i));
-
-                    if (i < maxHops) {
-                        result.append("* * *\n");
-                        Thread.sleep(500);
-                    } else {
-                        result.append(target.getHostAddress()).append("  ")
-                                .append(target.getHostName()).append("\n");
-                    }
-                }
+        try {
+            InetAddress target = InetAddress.getByName(host);
+            out.println("traceroute to " + host + " (" + target.getHostAddress() + "), 30 hops max");
 
-                final String finalResult = result.toString();
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
+            // Simulate traceroute (real implementation would require raw sockets)
+            int maxHops = 10;
+            for (int i = 1; i <= maxHops; i++) {
+                String hop = String.format("%2d  ", i);
 
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("traceroute error: " + e.getMessage())
-                );
+                if (i < maxHops) {
+                    out.println(hop + "* * *");
+                    token.sleep(500);
+                } else {
+                    out.println(hop + target.getHostAddress() + "  " + target.getHostName());
+                }
             }
-        }).start();
+
+            return OutputSink.EXIT_SUCCESS;
+
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return out.fail("traceroute error: " + e.getMessage());
+        }
     }
 
-    private void handleRealCurl(String[] args, CommandCallback callback) {
+    private int handleRealCurl(String[] args, CancellationToken token, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("Usage: curl <url>");
-            return;
+            return out.fail("Usage: curl <url>");
         }
 
         String url = args[0];
 
-        new Thread(() -> {
-            try {
-                URL urlObj = new URL(url);
-                HttpURLConnection conn = (HttpURLConnection) urlObj.openConnection();
-                conn.setRequestMethod("GET");
-                conn.setConnectTimeout(5000);
-                conn.setReadTimeout(5000);
-
+        try {
+            URL urlObj = new URL(url);
+            HttpURLConnection conn = (HttpURLConnection) urlObj.openConnection();
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(5000);
+
+            // Disconnecting closes the socket, so a stalled read fails right away on Ctrl-C
+            try (CancellationToken.Registration ignored = token.onCancel(conn::disconnect)) {
                 int responseCode = conn.getResponseCode();
 
-                BufferedReader in = new BufferedReader(
-                        new InputStreamReader(conn.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
+                // Forward the body as it arrives instead of buffering the whole response
+                Reader in = new InputStreamReader(conn.getInputStream());
+                char[] buffer = new char[8192];
+                int charsRead;
 
-                while ((line = in.readLine()) != null) {
-                    response.append(line).append("\n");
+                while ((charsRead = in.read(buffer)) != -1) {
+                    token.throwIfCancelled();
+                    out.onChunk(new String(buffer, 0, charsRead));
                 }
                 in.close();
+            } finally {
+                conn.disconnect();
+            }
+            token.throwIfCancelled();
 
-                final String finalResult = response.toString();
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
+            // Keep the next prompt on its own line when the body has no trailing newline
+            out.onChunk("\n");
+            return OutputSink.EXIT_SUCCESS;
 
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("curl: (" + e.getClass().getSimpleName() + ") " + e.getMessage())
-                );
-            }
-        }).start();
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return out.fail("curl: (" + e.getClass().getSimpleName() + ") " + e.getMessage());
+        }
     }
 
-    private void handleRealWget(String[] args, CommandCallback callback) {
+    private int handleRealWget(String[] args, CancellationToken token, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("Usage: wget <url>");
-            return;
+            return out.fail("Usage: wget <url>");
         }
 
         String url = args[0];
         String filename = url.substring(url.lastIndexOf('/') + 1);
         if (filename.isEmpty()) filename = "index.html";
 
-        String finalFilename = filename;
-        String finalFilename1 = filename;
-        new Thread(() -> {
-            try {
-                URL urlObj = new URL(url);
-                HttpURLConnection conn = (HttpURLConnection) urlObj.openConnection();
-                conn.setRequestMethod("GET");
+        try {
+            URL urlObj = new URL(url);
+            HttpURLConnection conn = (HttpURLConnection) urlObj.openConnection();
+            conn.setRequestMethod("GET");
 
-                int fileSize = conn.getContentLength();
+            int fileSize = conn.getContentLength();
 
-                terminal.runOnUiThread(() ->
-                        callback.onSuccess("Connecting to " + urlObj.getHost() + "... connected.\n" +
-                                "Saving to: '" + finalFilename + "'")
-                );
+            out.println("Connecting to " + urlObj.getHost() + "... connected.\n" +
+                    "Saving to: '" + filename + "'");
 
-                InputStream in = conn.getInputStream();
-                File outputFile = new File(fsManager.getAbsoluteCurrentDirectory(), finalFilename1);
-                FileOutputStream out = new FileOutputStream(outputFile);
+            File outputFile = terminalSession.getPathContext().resolve(filename);
+            long totalRead = 0;
 
-                byte[] buffer = new byte[4096];
+            try (CancellationToken.Registration ignored = token.onCancel(conn::disconnect);
+                 InputStream in = conn.getInputStream();
+                 FileOutputStream fileOut = new FileOutputStream(outputFile)) {
+                byte[] buffer = new byte[8192];
                 int bytesRead;
-                int totalRead = 0;
 
                 while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+                    token.throwIfCancelled();
+                    fileOut.write(buffer, 0, bytesRead);
                     totalRead += bytesRead;
+                    out.onProgress(filename, totalRead, fileSize);
                 }
+            } catch (IOException | CancellationException e) {
+                // Never leave a truncated download behind
+                outputFile.delete();
+                throw e;
+            } finally {
+                conn.disconnect();
+            }
+            token.throwIfCancelled();
 
-                in.close();
-                out.close();
-
-                final int finalTotalRead = totalRead;
-                terminal.runOnUiThread(() ->
-                        callback.onSuccess("✓ Downloaded " + finalTotalRead + " bytes to '" + finalFilename1 + "'")
-                );
+            return out.success("✓ Downloaded " + totalRead + " bytes to '" + filename + "'");
 
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("wget: error: " + e.getMessage())
-                );
-            }
-        }).start();
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return out.fail("wget: error: " + e.getMessage());
+        }
     }
 
-    private void handleRealHostname(CommandCallback callback) {
-        new Thread(() -> {
-            try {
-                InetAddress localhost = InetAddress.getLocalHost();
-                String hostname = localhost.getHostName();
-                terminal.runOnUiThread(() -> callback.onSuccess(hostname));
-            } catch (Exception e) {
-                terminal.runOnUiThread(() -> callback.onSuccess(Build.MODEL));
-            }
-        }).start();
+    private int handleRealHostname(OutputSink out) {
+        try {
+            InetAddress localhost = InetAddress.getLocalHost();
+            String hostname = localhost.getHostName();
+            return out.success(hostname);
+        } catch (Exception e) {
+            return out.success(Build.MODEL);
+        }
     }
 
-    private void handleRealWifiScan(CommandCallback callback) {
+    private int handleRealWifiScan(OutputSink out) {
         try {
             WifiManager wifiManager = (WifiManager) context.getApplicationContext()
                     .getSystemService(Context.WIFI_SERVICE);
 
             if (wifiManager == null) {
-                callback.onError("WiFi not available");
-                return;
+                return out.fail("WiFi not available");
             }
 
             if (!wifiManager.isWifiEnabled()) {
-                callback.onError("WiFi is disabled");
-                return;
+                return out.fail("WiFi is disabled");
             }
 
             WifiInfo wifiInfo = wifiManager.getConnectionInfo();
@@ -1244,10 +1616,10 @@ public class CommandProcessor {
             result.append("Link Speed: ").append(wifiInfo.getLinkSpeed()).append(" Mbps\n");
             result.append("Signal Strength: ").append(wifiInfo.getRssi()).append(" dBm\n");
 
-            callback.onSuccess(result.toString());
+            return out.success(result.toString());
 
         } catch (Exception e) {
-            callback.onError("WiFi scan error: " + e.getMessage());
+            return out.fail("WiFi scan error: " + e.getMessage());
         }
     }
 
@@ -1257,71 +1629,68 @@ public class CommandProcessor {
     }
 
     // ==================== REAL SYSTEM COMMANDS ====================
-    private void handleRealUptime(CommandCallback callback) {
-        new Thread(() -> {
-            try {
-                long uptime = System.currentTimeMillis() - android.os.SystemClock.elapsedRealtime();
-                long uptimeSeconds = android.os.SystemClock.elapsedRealtime() / 1000;
+    private int handleRealUptime(OutputSink out) {
+        try {
+            long uptime = System.currentTimeMillis() - android.os.SystemClock.elapsedRealtime();
+            long uptimeSeconds = android.os.SystemClock.elapsedRealtime() / 1000;
 
-                long days = uptimeSeconds / 86400;
-                long hours = (uptimeSeconds % 86400) / 3600;
-                long minutes = (uptimeSeconds % 3600) / 60;
+            long days = uptimeSeconds / 86400;
+            long hours = (uptimeSeconds % 86400) / 3600;
+            long minutes = (uptimeSeconds % 3600) / 60;
 
-                String result = String.format("up %d days, %d hours, %d minutes", days, hours, minutes);
-                terminal.runOnUiThread(() -> callback.onSuccess(result));
+            String result = String.format("up %d days, %d hours, %d minutes", days, hours, minutes);
+            return out.success(result);
 
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("uptime error: " + e.getMessage())
-                );
-            }
-        }).start();
+        } catch (Exception e) {
+            return out.fail("uptime error: " + e.getMessage());
+        }
     }
 
-    private void handleRealTop(CommandCallback callback) {
-        new Thread(() -> {
-            try {
-                StringBuilder result = new StringBuilder();
-                result.append("Tasks: ").append(Thread.activeCount()).append(" active threads\n");
-                result.append("CPU usage: ").append(getCpuUsage()).append("%\n");
-                result.append("Memory: ").append(getMemoryInfo()).append("\n\n");
-
-                result.append(String.format("%-8s %-20s %-8s\n", "TID", "NAME", "STATE"));
-                result.append("─".repeat(40)).append("\n");
-
-                Set<Thread> threads = Thread.getAllStackTraces().keySet();
-                int count = 0;
-                for (Thread thread : threads) {
-                    if (count++ > 10) break;
-                    result.append(String.format("%-8d %-20s %-8s\n",
-                            thread.getId(),
-                            thread.getName().substring(0, Math.min(20, thread.getName().length())),
-                            thread.getState().toString()));
-                }
+    private int handleRealTop(CancellationToken token, OutputSink out) {
+        try {
+            StringBuilder result = new StringBuilder();
+            result.append("Tasks: ").append(Thread.activeCount()).append(" active threads\n");
+            result.append("CPU usage: ").append(getCpuUsage(token)).append("%\n");
+            result.append("Memory: ").append(getMemoryInfo()).append("\n\n");
 
-                final String finalResult = result.toString();
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
+            result.append(String.format("%-8s %-20s %-8s\n", "TID", "NAME", "STATE"));
+            result.append("─".repeat(40)).append("\n");
 
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("top error: " + e.getMessage())
-                );
+            Set<Thread> threads = Thread.getAllStackTraces().keySet();
+            int count = 0;
+            for (Thread thread : threads) {
+                if (count++ > 10) break;
+                result.append(String.format("%-8d %-20s %-8s\n",
+                        thread.getId(),
+                        thread.getName().substring(0, Math.min(20, thread.getName().length())),
+                        thread.getState().toString()));
             }
-        }).start();
+
+            token.throwIfCancelled();
+            return out.success(result.toString());
+
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return out.fail("top error: " + e.getMessage());
+        }
     }
 
-    private String getCpuUsage() {
+    private String getCpuUsage(CancellationToken token) {
         try {
             Process process = Runtime.getRuntime().exec("top -n 1");
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.contains("CPU")) {
-                    return line.split(":")[1].trim().split("%")[0];
+            try (CancellationToken.Registration ignored = token.onCancel(process::destroy);
+                 BufferedReader reader = new BufferedReader(
+                         new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.contains("CPU")) {
+                        return line.split(":")[1].trim().split("%")[0];
+                    }
                 }
+            } finally {
+                process.destroy();
             }
-            reader.close();
         } catch (Exception e) {
             // Ignore
         }
@@ -1339,80 +1708,72 @@ public class CommandProcessor {
                 usedMemory, freeMemory, maxMemory);
     }
 
-    private void handleRealLsof(CommandCallback callback) {
-        new Thread(() -> {
-            try {
-                StringBuilder result = new StringBuilder();
-                result.append("Open files and network connections:\n");
-                result.append(String.format("%-10s %-8s %-8s %-50s\n",
-                        "COMMAND", "PID", "USER", "NAME"));
-                result.append("─".repeat(80)).append("\n");
+    private int handleRealLsof(OutputSink out) {
+        try {
+            StringBuilder result = new StringBuilder();
+            result.append("Open files and network connections:\n");
+            result.append(String.format("%-10s %-8s %-8s %-50s\n",
+                    "COMMAND", "PID", "USER", "NAME"));
+            result.append("─".repeat(80)).append("\n");
 
-                // Simulate lsof output
-                result.append(String.format("%-10s %-8d %-8s %-50s\n",
-                        "java", android.os.Process.myPid(), "app", "/dev/pts/0"));
-                result.append(String.format("%-10s %-8d %-8s %-50s\n",
-                        "java", android.os.Process.myPid(), "app", "socket:[12345]"));
+            // Simulate lsof output
+            result.append(String.format("%-10s %-8d %-8s %-50s\n",
+                    "java", android.os.Process.myPid(), "app", "/dev/pts/0"));
+            result.append(String.format("%-10s %-8d %-8s %-50s\n",
+                    "java", android.os.Process.myPid(), "app", "socket:[12345]"));
 
-                final String finalResult = result.toString();
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
+            return out.success(result.toString());
 
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onError("lsof error: " + e.getMessage())
-                );
-            }
-        }).start();
+        } catch (Exception e) {
+            return out.fail("lsof error: " + e.getMessage());
+        }
     }
 
-    private void handleRealDmesg(CommandCallback callback) {
-        new Thread(() -> {
-            try {
-                Process process = Runtime.getRuntime().exec("dmesg");
-                BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(process.getInputStream()));
-                StringBuilder result = new StringBuilder();
+    private int handleRealDmesg(CancellationToken token, OutputSink out) {
+        try {
+            Process process = Runtime.getRuntime().exec("dmesg");
+            int lineCount = 0;
+            try (CancellationToken.Registration ignored = token.onCancel(process::destroy);
+                 BufferedReader reader = new BufferedReader(
+                         new InputStreamReader(process.getInputStream()))) {
                 String line;
-                int lineCount = 0;
 
-                while ((line = reader.readLine()) != null && lineCount++ < 50) {
-                    result.append(line).append("\n");
+                while (lineCount < 50 && (line = reader.readLine()) != null) {
+                    token.throwIfCancelled();
+                    out.println(line);
+                    lineCount++;
                 }
-                reader.close();
+            } finally {
+                process.destroy();
+            }
 
-                final String finalResult = result.length() > 0 ? result.toString() :
-                        "dmesg: read kernel buffer failed: Operation not permitted";
-                terminal.runOnUiThread(() -> callback.onSuccess(finalResult));
+            return lineCount > 0 ? OutputSink.EXIT_SUCCESS :
+                    out.success("dmesg: read kernel buffer failed: Operation not permitted");
 
-            } catch (Exception e) {
-                terminal.runOnUiThread(() ->
-                        callback.onSuccess("dmesg: read kernel buffer failed: Operation not permitted")
-                );
-            }
-        }).start();
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return out.success("dmesg: read kernel buffer failed: Operation not permitted");
+        }
     }
 
     // ==================== SIMULATED SSH (Original) ====================
-    private void processSSHModeCommand(String command, CommandCallback callback) {
+    private int processSSHModeCommand(String command, OutputSink out) {
         if (command.equals("exit") || command.equals("logout")) {
             String result = disconnectSSH(currentSimulatedSSHSession);
             currentSimulatedSSHSession = null;
             inSSHMode = false;
-            callback.onSuccess(result + "\nReturned to local terminal.");
-            callback.onDirectoryChanged();
-            return;
+            out.onDirectoryChanged();
+            return out.success(result + "\nReturned to local terminal.");
         }
 
         String result = processRemoteCommand(currentSimulatedSSHSession, command);
-        callback.onSuccess(result);
+        return out.success(result);
     }
 
-    private void handleSSH(String fullCommand, CommandCallback callback) {
-        String[] parts = fullCommand.trim().split("\\s+");
-
+    private int handleSSH(String[] parts, OutputSink out) {
         if (parts.length < 2) {
-            callback.onError("ssh-sim: usage: ssh-sim [user@]hostname [command]");
-            return;
+            return out.fail("ssh-sim: usage: ssh-sim [user@]hostname [command]");
         }
 
         String target = parts[1];
@@ -1429,13 +1790,11 @@ public class CommandProcessor {
 
         SSHDevice targetDevice = findDeviceByHostnameOrIP(hostname);
         if (targetDevice == null) {
-            callback.onError("ssh-sim: Could not resolve hostname " + hostname);
-            return;
+            return out.fail("ssh-sim: Could not resolve hostname " + hostname);
         }
 
         if (!targetDevice.isOnline) {
-            callback.onError("ssh-sim: connect to host " + hostname + " port 22: Connection refused");
-            return;
+            return out.fail("ssh-sim: connect to host " + hostname + " port 22: Connection refused");
         }
 
         if (username == null) {
@@ -1446,13 +1805,14 @@ public class CommandProcessor {
         SSHSession session = new SSHSession(sessionId, targetDevice);
 
         String result = initiateSSHConnection(session, username);
-        callback.onSuccess(result);
 
         if (session.isAuthenticated) {
             currentSimulatedSSHSession = sessionId;
             inSSHMode = true;
-            callback.onDirectoryChanged();
+            out.onDirectoryChanged();
+            return out.success(result);
         }
+        return out.fail(result);
     }
 
     private SSHDevice findDeviceByHostnameOrIP(String identifier) {
@@ -1657,7 +2017,7 @@ public class CommandProcessor {
         return "No active session to disconnect.";
     }
 
-    private void handleSSHList(CommandCallback callback) {
+    private int handleSSHList(OutputSink out) {
         StringBuilder result = new StringBuilder("Available SSH devices (simulated):\n");
         result.append(String.format("%-15s %-20s %-15s %-10s %s\n", "ID", "HOSTNAME", "IP ADDRESS", "USER", "STATUS"));
         result.append("─".repeat(75)).append("\n");
@@ -1667,10 +2027,10 @@ public class CommandProcessor {
             result.append(String.format("%-15s %-20s %-15s %-10s %s\n",
                     device.deviceId, device.hostname, device.ipAddress, device.username, status));
         }
-        callback.onSuccess(result.toString());
+        return out.success(result.toString());
     }
 
-    private void handleSSHSessions(CommandCallback callback) {
+    private int handleSSHSessions(OutputSink out) {
         StringBuilder result = new StringBuilder();
 
         // Real SSH sessions
@@ -1704,23 +2064,23 @@ public class CommandProcessor {
             result.append("No active SSH sessions.");
         }
 
-        callback.onSuccess(result.toString());
+        return out.success(result.toString());
     }
 
-    private void handleSSHDisconnect(String[] args, CommandCallback callback) {
+    private int handleSSHDisconnect(String[] args, OutputSink out) {
         if (args.length < 1) {
             if (currentSSHSessionId != null) {
                 disconnectRealSSH();
-                callback.onSuccess("Disconnected real SSH session");
-                callback.onDirectoryChanged();
+                out.onDirectoryChanged();
+                return out.success("Disconnected real SSH session");
             } else if (currentSimulatedSSHSession != null) {
                 String result = disconnectSSH(currentSimulatedSSHSession);
                 currentSimulatedSSHSession = null;
                 inSSHMode = false;
-                callback.onSuccess(result);
-                callback.onDirectoryChanged();
+                out.onDirectoryChanged();
+                return out.success(result);
             } else {
-                callback.onError("No active SSH session to disconnect.");
+                return out.fail("No active SSH session to disconnect.");
             }
         } else {
             String sessionId = args[0];
@@ -1732,25 +2092,24 @@ public class CommandProcessor {
                 if (sessionId.equals(currentSSHSessionId)) {
                     currentSSHSessionId = null;
                     inSSHMode = false;
-                    callback.onDirectoryChanged();
+                    out.onDirectoryChanged();
                 }
-                callback.onSuccess("Disconnected session " + sessionId);
+                return out.success("Disconnected session " + sessionId);
             } else {
                 String result = disconnectSSH(sessionId);
                 if (sessionId.equals(currentSimulatedSSHSession)) {
                     currentSimulatedSSHSession = null;
                     inSSHMode = false;
-                    callback.onDirectoryChanged();
+                    out.onDirectoryChanged();
                 }
-                callback.onSuccess(result);
+                return out.success(result);
             }
         }
     }
 
-    private void handleSSHAdd(String[] args, CommandCallback callback) {
+    private int handleSSHAdd(String[] args, OutputSink out) {
         if (args.length < 5) {
-            callback.onError("Usage: ssh-add <deviceId> <hostname> <ipAddress> <username> <password>");
-            return;
+            return out.fail("Usage: ssh-add <deviceId> <hostname> <ipAddress> <username> <password>");
         }
 
         String deviceId = args[0];
@@ -1760,13 +2119,12 @@ public class CommandProcessor {
         String password = args[4];
 
         addSSHDevice(deviceId, hostname, ipAddress, username, password);
-        callback.onSuccess("✓ SSH device added: " + deviceId + " (" + hostname + ")");
+        return out.success("✓ SSH device added: " + deviceId + " (" + hostname + ")");
     }
 
-    private void handleSSHToggle(String[] args, CommandCallback callback) {
+    private int handleSSHToggle(String[] args, OutputSink out) {
         if (args.length < 2) {
-            callback.onError("Usage: ssh-toggle <deviceId> <online|offline>");
-            return;
+            return out.fail("Usage: ssh-toggle <deviceId> <online|offline>");
         }
 
         String deviceId = args[0];
@@ -1775,9 +2133,9 @@ public class CommandProcessor {
         SSHDevice device = availableDevices.get(deviceId);
         if (device != null) {
             device.isOnline = online;
-            callback.onSuccess("✓ Device " + deviceId + " is now " + (online ? "online" : "offline"));
+            return out.success("✓ Device " + deviceId + " is now " + (online ? "online" : "offline"));
         } else {
-            callback.onError("Device not found: " + deviceId);
+            return out.fail("Device not found: " + deviceId);
         }
     }
 
@@ -1798,8 +2156,8 @@ public class CommandProcessor {
                 }
             }
         }
-        return terminal.getCurrentUser() + "@localhost:" +
-                fsManager.getCurrentDirectory().replace("/storage/emulated/0", "~") + "$ ";
+        return terminalSession.getCurrentUser() + "@localhost:" +
+                terminalSession.getPathContext().getDisplayDirectory() + "$ ";
     }
 
     public boolean isInSSHMode() {
@@ -1811,14 +2169,17 @@ public class CommandProcessor {
         return input.trim().split("\\s+");
     }
 
-    private void handleLs(String[] args, CommandCallback callback) {
+    private int handleLs(String[] args, OutputSink out) {
         boolean longFormat = false;
         boolean showAll = false;
         boolean showHidden = false;
+        boolean color = false;
         String targetDir = null;
 
         for (String arg : args) {
-            if (arg.startsWith("-")) {
+            if (arg.equals("--color") || arg.startsWith("--color=")) {
+                color = !arg.equals("--color=never");
+            } else if (arg.startsWith("-")) {
                 if (arg.contains("l")) longFormat = true;
                 if (arg.contains("a")) showAll = true;
                 if (arg.contains("h")) showHidden = true;
@@ -1828,19 +2189,14 @@ public class CommandProcessor {
         }
 
         try {
-            List<FileItem> files;
-            if (targetDir != null) {
-                String currentDir = fsManager.getCurrentDirectory();
-                fsManager.changeDirectory(targetDir);
-                files = fsManager.listFiles();
-                fsManager.changeDirectory(currentDir);
-            } else {
-                files = fsManager.listFiles();
+            PathContext cwd = terminalSession.getPathContext();
+            if (targetDir != null && !cwd.resolve(targetDir).isDirectory()) {
+                return out.fail("ls: cannot access '" + targetDir + "': No such file or directory");
             }
+            List<FileItem> files = fsManager.listFiles(cwd, targetDir != null ? targetDir : ".");
 
             if (files.isEmpty()) {
-                callback.onSuccess("");
-                return;
+                return out.success("");
             }
 
             StringBuilder output = new StringBuilder();
@@ -1856,64 +2212,77 @@ public class CommandProcessor {
 
                     output.append(String.format("%s  1 %s %s %8s %s %s\n",
                             permissions,
-                            terminal.getCurrentUser(),
-                            terminal.getCurrentUser(),
+                            terminalSession.getCurrentUser(),
+                            terminalSession.getCurrentUser(),
                             size,
                             date,
-                            file.getName()));
+                            lsName(file, color)));
                 }
             } else {
-                List<String> fileNames = new ArrayList<>();
+                List<FileItem> shown = new ArrayList<>();
                 for (FileItem file : files) {
                     if (!showAll && file.getName().startsWith(".")) continue;
-                    fileNames.add(file.getName());
+                    shown.add(file);
                 }
 
                 int columns = 3;
-                for (int i = 0; i < fileNames.size(); i++) {
-                    output.append(String.format("%-20s", fileNames.get(i)));
+                for (int i = 0; i < shown.size(); i++) {
+                    // Pad on the visible name; escape sequences take no columns
+                    String name = shown.get(i).getName();
+                    output.append(lsName(shown.get(i), color));
+                    for (int pad = name.length(); pad < 20; pad++) {
+                        output.append(' ');
+                    }
                     if ((i + 1) % columns == 0) {
                         output.append("\n");
                     }
                 }
-                if (fileNames.size() % columns != 0) {
+                if (shown.size() % columns != 0) {
                     output.append("\n");
                 }
             }
 
-            callback.onSuccess(output.toString());
+            return out.success(output.toString());
         } catch (Exception e) {
-            callback.onError("ls: cannot access '" + (targetDir != null ? targetDir : ".") + "': " + e.getMessage());
+            return out.fail("ls: cannot access '" + (targetDir != null ? targetDir : ".") + "': " + e.getMessage());
         }
     }
 
-    private void handleCd(String[] args, CommandCallback callback) {
+    // Directories in bold blue, as with dircolors' defaults
+    private static String lsName(FileItem file, boolean color) {
+        if (color && file.isDirectory()) {
+            return "\u001b[1;34m" + file.getName() + "\u001b[0m";
+        }
+        return file.getName();
+    }
+
+    private int handleCd(String[] args, OutputSink out) {
         String targetDir = args.length > 0 ? args[0] : "~";
 
-        try {
-            fsManager.changeDirectory(targetDir);
-            callback.onDirectoryChanged();
-            callback.onSuccess("");
-        } catch (Exception e) {
-            callback.onError("cd: " + targetDir + ": No such file or directory");
+        PathContext next = terminalSession.getPathContext().changeDirectory(targetDir);
+        if (next == null) {
+            return out.fail("cd: " + targetDir + ": No such file or directory");
         }
+        terminalSession.setPathContext(next);
+        out.onDirectoryChanged();
+        return out.success("");
     }
 
-    private void handlePwd(CommandCallback callback) {
-        callback.onSuccess(fsManager.getAbsoluteCurrentDirectory());
+    private int handlePwd(OutputSink out) {
+        return out.success(terminalSession.getPathContext().getCurrentDirectory());
     }
 
-    private void handleMkdir(String[] args, CommandCallback callback) {
+    private int handleMkdir(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("mkdir: missing operand");
-            return;
+            return out.fail("mkdir: missing operand");
         }
 
+        PathContext cwd = terminalSession.getPathContext();
         boolean success = true;
         StringBuilder output = new StringBuilder();
 
         for (String dir : args) {
-            if (fsManager.createDirectory(dir)) {
+            if (fsManager.createDirectory(cwd, dir)) {
                 output.append("✓ Created directory: ").append(dir).append("\n");
             } else {
                 output.append("✗ Failed to create directory: ").append(dir).append("\n");
@@ -1922,23 +2291,23 @@ public class CommandProcessor {
         }
 
         if (success) {
-            callback.onSuccess(output.toString());
+            return out.success(output.toString());
         } else {
-            callback.onError(output.toString());
+            return out.fail(output.toString());
         }
     }
 
-    private void handleTouch(String[] args, CommandCallback callback) {
+    private int handleTouch(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("touch: missing file operand");
-            return;
+            return out.fail("touch: missing file operand");
         }
 
+        PathContext cwd = terminalSession.getPathContext();
         boolean success = true;
         StringBuilder output = new StringBuilder();
 
         for (String file : args) {
-            if (fsManager.createFile(file)) {
+            if (fsManager.createFile(cwd, file)) {
                 output.append("✓ Created file: ").append(file).append("\n");
             } else {
                 output.append("✗ Failed to create file: ").append(file).append("\n");
@@ -1947,16 +2316,15 @@ public class CommandProcessor {
         }
 
         if (success) {
-            callback.onSuccess(output.toString());
+            return out.success(output.toString());
         } else {
-            callback.onError(output.toString());
+            return out.fail(output.toString());
         }
     }
 
-    private void handleRm(String[] args, CommandCallback callback) {
+    private int handleRm(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("rm: missing operand");
-            return;
+            return out.fail("rm: missing operand");
         }
 
         boolean recursive = false;
@@ -1972,11 +2340,12 @@ public class CommandProcessor {
             }
         }
 
+        PathContext cwd = terminalSession.getPathContext();
         boolean success = true;
         StringBuilder output = new StringBuilder();
 
         for (String file : filesToDelete) {
-            if (fsManager.deleteFile(file)) {
+            if (fsManager.deleteFile(cwd, file)) {
                 output.append("✓ Deleted: ").append(file).append("\n");
             } else {
                 output.append("✗ Failed to delete: ").append(file).append("\n");
@@ -1985,112 +2354,104 @@ public class CommandProcessor {
         }
 
         if (success) {
-            callback.onSuccess(output.toString());
+            return out.success(output.toString());
         } else {
-            callback.onError(output.toString());
+            return out.fail(output.toString());
         }
     }
 
-    private void handleCp(String[] args, CommandCallback callback) {
+    private int handleCp(String[] args, OutputSink out) {
         if (args.length < 2) {
-            callback.onError("cp: missing destination file operand");
-            return;
+            return out.fail("cp: missing destination file operand");
         }
 
         String source = args[0];
         String dest = args[1];
 
         try {
-            String sourcePath = fsManager.getAbsoluteCurrentDirectory() + "/" + source;
-            String destPath = fsManager.getAbsoluteCurrentDirectory() + "/" + dest;
+            PathContext cwd = terminalSession.getPathContext();
+            String sourcePath = cwd.resolvePath(source);
+            String destPath = cwd.resolvePath(dest);
 
             if (fsManager.copyFile(sourcePath, destPath)) {
-                callback.onSuccess("✓ Copied '" + source + "' to '" + dest + "'");
+                return out.success("✓ Copied '" + source + "' to '" + dest + "'");
             } else {
-                callback.onError("cp: cannot copy '" + source + "' to '" + dest + "'");
+                return out.fail("cp: cannot copy '" + source + "' to '" + dest + "'");
             }
         } catch (Exception e) {
-            callback.onError("cp: " + e.getMessage());
+            return out.fail("cp: " + e.getMessage());
         }
     }
 
-    private void handleMv(String[] args, CommandCallback callback) {
+    private int handleMv(String[] args, OutputSink out) {
         if (args.length < 2) {
-            callback.onError("mv: missing destination file operand");
-            return;
+            return out.fail("mv: missing destination file operand");
         }
 
         String source = args[0];
         String dest = args[1];
 
         try {
-            if (fsManager.renameFile(source, dest)) {
-                callback.onSuccess("✓ Moved '" + source + "' to '" + dest + "'");
+            PathContext cwd = terminalSession.getPathContext();
+            if (fsManager.renameFile(cwd, source, dest)) {
+                return out.success("✓ Moved '" + source + "' to '" + dest + "'");
             } else {
-                callback.onError("mv: cannot move '" + source + "' to '" + dest + "'");
+                return out.fail("mv: cannot move '" + source + "' to '" + dest + "'");
             }
         } catch (Exception e) {
-            callback.onError("mv: " + e.getMessage());
+            return out.fail("mv: " + e.getMessage());
         }
     }
 
-    private void handleCat(String[] args, CommandCallback callback) {
+    private int handleCat(String[] args, CancellationToken token, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("cat: missing file operand");
-            return;
+            return out.fail("cat: missing file operand");
         }
 
-        StringBuilder output = new StringBuilder();
-
         for (String filename : args) {
+            token.throwIfCancelled();
             try {
-                String content = fsManager.readFile(filename);
+                String content = fsManager.readFile(terminalSession.getPathContext(), filename);
                 if (content != null) {
-                    output.append(content);
-                    if (args.length > 1) {
-                        output.append("\n");
-                    }
+                    out.println(content);
                 } else {
-                    callback.onError("cat: " + filename + ": No such file or directory");
-                    return;
+                    return out.fail("cat: " + filename + ": No such file or directory");
                 }
             } catch (Exception e) {
-                callback.onError("cat: " + filename + ": " + e.getMessage());
-                return;
+                return out.fail("cat: " + filename + ": " + e.getMessage());
             }
         }
 
-        callback.onSuccess(output.toString());
+        return OutputSink.EXIT_SUCCESS;
     }
 
-    private void handleEdit(String[] args, CommandCallback callback) {
+    private int handleEdit(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("nano: missing filename");
-            return;
+            return out.fail("nano: missing filename");
         }
 
         String filename = args[0];
-        callback.onSuccess("Opening '" + filename + "' in text editor...");
+        out.println("Opening '" + filename + "' in text editor...");
 
         Intent intent = new Intent(context, TextEditorActivity.class);
-        intent.putExtra("filePath", fsManager.getAbsoluteCurrentDirectory() + "/" + filename);
+        intent.putExtra("filePath", terminalSession.getPathContext().resolvePath(filename));
         intent.putExtra("fileName", filename);
         context.startActivity(intent);
+        return OutputSink.EXIT_SUCCESS;
     }
 
-    private void handleChmod(String[] args, CommandCallback callback) {
+    private int handleChmod(String[] args, OutputSink out) {
         if (args.length < 2) {
-            callback.onError("chmod: missing operand");
-            return;
+            return out.fail("chmod: missing operand");
         }
 
         String permissions = args[0];
         String filename = args[1];
 
-        callback.onSuccess("✓ Changed permissions of '" + filename + "' to " + permissions);
+        return out.success("✓ Changed permissions of '" + filename + "' to " + permissions);
     }
 
-    private void handleFind(String[] args, CommandCallback callback) {
+    private int handleFind(String[] args, CancellationToken token, OutputSink out) {
         String searchPath = ".";
         String searchName = null;
 
@@ -2104,74 +2465,70 @@ public class CommandProcessor {
         }
 
         if (searchName == null) {
-            callback.onError("find: missing search criteria");
-            return;
+            return out.fail("find: missing search criteria");
         }
 
         try {
-            StringBuilder output = new StringBuilder();
-            findFiles(searchPath, searchName, output);
-            callback.onSuccess(output.toString());
+            findFiles(searchPath, searchName, out, token);
+            token.throwIfCancelled();
+            return OutputSink.EXIT_SUCCESS;
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
-            callback.onError("find: " + e.getMessage());
+            return out.fail("find: " + e.getMessage());
         }
     }
 
-    private void findFiles(String path, String pattern, StringBuilder output) {
+    private void findFiles(String path, String pattern, OutputSink out, CancellationToken token) {
         try {
-            String currentDir = fsManager.getCurrentDirectory();
-            if (!path.equals(".")) {
-                fsManager.changeDirectory(path);
-            }
-
-            List<FileItem> files = fsManager.listFiles();
+            List<FileItem> files = fsManager.listFiles(terminalSession.getPathContext(), path);
+            String prefix = path.endsWith("/") ? path : path + "/";
             for (FileItem file : files) {
+                if (token.isCancelled()) break;
                 if (file.getName().contains(pattern) || file.getName().matches(pattern.replace("*", ".*"))) {
-                    output.append(fsManager.getCurrentDirectory()).append("/").append(file.getName()).append("\n");
+                    out.println(prefix + file.getName());
                 }
             }
-
-            if (!path.equals(".")) {
-                fsManager.changeDirectory(currentDir);
-            }
         } catch (Exception e) {
             // Ignore errors in recursive search
         }
     }
 
-    private void handleGrep(String[] args, CommandCallback callback) {
+    private int handleGrep(String[] args, CancellationToken token, OutputSink out) {
         if (args.length < 2) {
-            callback.onError("grep: missing pattern or file");
-            return;
+            return out.fail("grep: missing pattern or file");
         }
 
         String pattern = args[0];
         String filename = args[1];
 
         try {
-            String content = fsManager.readFile(filename);
+            String content = fsManager.readFile(terminalSession.getPathContext(), filename);
             if (content != null) {
-                StringBuilder output = new StringBuilder();
                 String[] lines = content.split("\n");
+                String needle = pattern.toLowerCase();
                 int lineNumber = 1;
 
                 for (String line : lines) {
-                    if (line.toLowerCase().contains(pattern.toLowerCase())) {
-                        output.append(lineNumber).append(": ").append(line).append("\n");
+                    token.throwIfCancelled();
+                    if (line.toLowerCase().contains(needle)) {
+                        out.println(lineNumber + ": " + line);
                     }
                     lineNumber++;
                 }
 
-                callback.onSuccess(output.toString());
+                return OutputSink.EXIT_SUCCESS;
             } else {
-                callback.onError("grep: " + filename + ": No such file or directory");
+                return out.fail("grep: " + filename + ": No such file or directory");
             }
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
-            callback.onError("grep: " + e.getMessage());
+            return out.fail("grep: " + e.getMessage());
         }
     }
 
-    private void handlePs(CommandCallback callback) {
+    private int handlePs(OutputSink out) {
         StringBuilder output = new StringBuilder();
         output.append("  PID TTY          TIME CMD\n");
         output.append(String.format("%5d pts/0    00:00:00 bash\n", 1000));
@@ -2182,29 +2539,86 @@ public class CommandProcessor {
                     entry.getKey(), entry.getValue().toString()));
         }
 
-        callback.onSuccess(output.toString());
+        return out.success(output.toString());
     }
 
-    private void handleKill(String[] args, CommandCallback callback) {
+    private int handleKill(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("kill: missing process ID");
-            return;
+            return out.fail("kill: missing process ID");
         }
 
         String pid = args[0];
         if (runningProcesses.containsKey(pid)) {
             runningProcesses.remove(pid);
-            callback.onSuccess("✓ Process " + pid + " terminated");
+            return out.success("✓ Process " + pid + " terminated");
         } else {
-            callback.onError("kill: no such process: " + pid);
+            return out.fail("kill: no such process: " + pid);
         }
     }
 
-    private void handleClear(CommandCallback callback) {
-        callback.onSuccess(" ");
+    private int handleClear(OutputSink out) {
+        return out.success(" ");
     }
 
-    private void handleHelp(CommandCallback callback) {
+    private int handleTime(String[] args, CancellationToken token, OutputSink out) {
+        if (args.length == 0) {
+            return out.fail("time: missing command");
+        }
+
+        long cpuStart = Debug.threadCpuTimeNanos();
+        long start = System.nanoTime();
+        int status = dispatch(Arrays.asList(args), token, out);
+        long wall = System.nanoTime() - start;
+        long cpu = cpuStart < 0 ? -1 : Debug.threadCpuTimeNanos() - cpuStart;
+
+        // On stderr, as in bash, so the report stays out of captured output
+        out.onErrorChunk("\nreal\t" + formatTime(wall)
+                + "\ncpu\t" + (cpu < 0 ? "n/a" : formatTime(cpu)) + "\n");
+        return status;
+    }
+
+    // bash's format: 0m0.012s
+    private static String formatTime(long nanos) {
+        long millis = nanos / 1_000_000;
+        return String.format(Locale.US, "%dm%d.%03ds", millis / 60_000, millis / 1000 % 60, millis % 1000);
+    }
+
+    private int handlePerfstat(String[] args, OutputSink out) {
+        if (args.length > 0 && args[0].equals("--reset")) {
+            commandStats.reset();
+            return out.success("perfstat: statistics cleared");
+        }
+        if (args.length > 0 && args[0].equals("--export")) {
+            File file = terminalSession.getPathContext().resolve(args.length > 1 ? args[1] : "perfstat.csv");
+            try {
+                commandStats.export(file);
+                return out.success("perfstat: exported to " + file.getPath());
+            } catch (IOException e) {
+                return out.fail("perfstat: " + file.getPath() + ": " + e.getMessage());
+            }
+        }
+
+        List<CommandStats.Entry> entries = commandStats.getEntries();
+        if (entries.isEmpty()) {
+            return out.success("perfstat: no commands recorded yet");
+        }
+        StringBuilder table = new StringBuilder();
+        table.append(String.format(Locale.US, "%-14s %6s %8s %8s %8s %8s %8s\n",
+                "COMMAND", "COUNT", "P50", "P95", "P99", "MAX", "CPU P50"));
+        for (CommandStats.Entry entry : entries) {
+            LatencyHistogram wall = entry.wall;
+            table.append(String.format(Locale.US, "%-14s %6d %8s %8s %8s %8s %8s\n",
+                    entry.command, wall.getCount(),
+                    CommandStats.formatMicros(wall.getValueAtPercentile(50)),
+                    CommandStats.formatMicros(wall.getValueAtPercentile(95)),
+                    CommandStats.formatMicros(wall.getValueAtPercentile(99)),
+                    CommandStats.formatMicros(wall.getMax()),
+                    entry.cpu.getCount() > 0 ? CommandStats.formatMicros(entry.cpu.getValueAtPercentile(50)) : "n/a"));
+        }
+        return out.success(table.toString());
+    }
+
+    private int handleHelp(OutputSink out) {
         StringBuilder help = new StringBuilder();
         help.append("🐧 Linux Terminal - Available Commands:\n\n");
         help.append("📁 File Operations:\n");
@@ -2269,23 +2683,36 @@ public class CommandProcessor {
         help.append("  clear             - Clear terminal\n");
         help.append("  help              - Show this help\n");
         help.append("  exit              - Exit terminal\n");
+        help.append("  true / false      - Exit with status 0 / 1\n");
+        help.append("  time <command>    - Run a command and show how long it took\n");
+        help.append("  perfstat [--reset | --export [file]] - Command latency percentiles\n\n");
+        help.append("⛓ Chaining:\n");
+        help.append("  a ; b             - Run b after a\n");
+        help.append("  a && b            - Run b if a succeeded\n");
+        help.append("  a || b            - Run b if a failed\n");
+        help.append("  echo $?           - Exit status of the last command\n");
+        help.append("\n📜 Scripting:\n");
+        help.append("  sh <file> [args]  - Run a script in a new shell\n");
+        help.append("  source <file>     - Run a script in this shell\n");
+        help.append("  NAME=value        - Set a variable, use it as $NAME\n");
+        help.append("  if / for / while  - Control flow, also at the prompt\n");
+        help.append("  name() { ... }    - Define a function\n");
 
-        callback.onSuccess(help.toString());
+        return out.success(help.toString());
     }
 
-    private void handleWhoami(CommandCallback callback) {
-        callback.onSuccess(terminal.getCurrentUser());
+    private int handleWhoami(OutputSink out) {
+        return out.success(terminalSession.getCurrentUser());
     }
 
-    private void handleDate(CommandCallback callback) {
+    private int handleDate(OutputSink out) {
         SimpleDateFormat sdf = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.getDefault());
-        callback.onSuccess(sdf.format(new Date()));
+        return out.success(sdf.format(new Date()));
     }
 
-    private void handleEcho(String[] args, CommandCallback callback) {
+    private int handleEcho(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onSuccess("");
-            return;
+            return out.success("");
         }
 
         StringBuilder output = new StringBuilder();
@@ -2295,103 +2722,112 @@ public class CommandProcessor {
                 output.append(" ");
             }
         }
-        callback.onSuccess(output.toString());
+        return out.success(output.toString());
     }
 
-    private void handleHistory(CommandCallback callback) {
-        callback.onSuccess("Command history not implemented yet");
+    private int handleHistory(String[] args, CancellationToken token, OutputSink out) {
+        CommandHistory history = CommandHistory.getInstance(context);
+        if (args.length > 0 && args[0].equals("-c")) {
+            history.clear();
+            return OutputSink.EXIT_SUCCESS;
+        }
+
+        int from = history.getFirstNumber();
+        if (args.length > 0) {
+            try {
+                from = Math.max(from, history.getLastNumber() - Integer.parseInt(args[0]) + 1);
+            } catch (NumberFormatException e) {
+                out.fail("history: " + args[0] + ": numeric argument required");
+                return OutputSink.EXIT_USAGE;
+            }
+        }
+
+        // Up to the whole capped history; stream it in chunks rather than one huge string
+        StringBuilder chunk = new StringBuilder();
+        int number = from;
+        for (String command : history.getFrom(from)) {
+            chunk.append(String.format(Locale.US, "%5d  %s\n", number++, command));
+            if (chunk.length() >= 8192) {
+                token.throwIfCancelled();
+                out.onChunk(chunk);
+                chunk = new StringBuilder();
+            }
+        }
+        return out.success(chunk);
     }
 
-    private void handleSu(String[] args, CommandCallback callback) {
+    private int handleSu(String[] args, OutputSink out) {
         String user = args.length > 0 ? args[0] : "root";
         if (user.equals("root")) {
-            terminal.setRoot(true);
-            callback.onSuccess("Switched to root user");
-            callback.onDirectoryChanged();
+            terminalSession.setRoot(true);
+            out.onDirectoryChanged();
+            return out.success("Switched to root user");
         } else {
-            callback.onError("su: user " + user + " does not exist");
+            return out.fail("su: user " + user + " does not exist");
         }
     }
 
-    private void handleSudo(String[] args, CommandCallback callback) {
+    private int handleSudo(String[] args, CancellationToken token, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("sudo: missing command");
-            return;
+            return out.fail("sudo: missing command");
         }
 
-        boolean wasRoot = terminal.isRoot();
-        terminal.setRoot(true);
-
-        processCommand(String.join(" ", args), new CommandCallback() {
-            @Override
-            public void onSuccess(String output) {
-                terminal.setRoot(wasRoot);
-                callback.onSuccess(output);
-            }
-
-            @Override
-            public void onError(String error) {
-                terminal.setRoot(wasRoot);
-                callback.onError(error);
-            }
+        boolean wasRoot = terminalSession.isRoot();
+        terminalSession.setRoot(true);
 
-            @Override
-            public void onDirectoryChanged() {
-                callback.onDirectoryChanged();
-            }
-        });
+        try {
+            return dispatch(Arrays.asList(args), token, out);
+        } finally {
+            terminalSession.setRoot(wasRoot);
+        }
     }
 
-    private void handleEnv(CommandCallback callback) {
+    private int handleEnv(OutputSink out) {
         StringBuilder output = new StringBuilder();
-        Map<String, String> env = terminal.getEnvironmentVariables();
+        Map<String, String> env = terminalSession.getEnvironment();
 
         for (Map.Entry<String, String> entry : env.entrySet()) {
             output.append(entry.getKey()).append("=").append(entry.getValue()).append("\n");
         }
 
-        callback.onSuccess(output.toString());
+        return out.success(output.toString());
     }
 
-    private void handleWhich(String[] args, CommandCallback callback) {
+    private int handleWhich(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("which: missing command");
-            return;
+            return out.fail("which: missing command");
         }
 
         String command = args[0];
         String[] knownCommands = {"ls", "cd", "pwd", "mkdir", "touch", "rm", "cp", "mv", "cat", "nano",
                 "chmod", "find", "grep", "ps", "kill", "clear", "help", "exit", "whoami", "ssh",
-                "ping", "curl", "wget", "git", "netstat", "ifconfig", "nslookup", "traceroute"};
+                "true", "false", "sh", "source", "ping", "curl", "wget", "git", "netstat", "ifconfig", "nslookup", "traceroute"};
 
         for (String cmd : knownCommands) {
             if (cmd.equals(command)) {
-                callback.onSuccess("/usr/bin/" + command);
-                return;
+                return out.success("/usr/bin/" + command);
             }
         }
 
-        callback.onError("which: no " + command + " in PATH");
+        return out.fail("which: no " + command + " in PATH");
     }
 
-    private void handleMan(String[] args, CommandCallback callback) {
+    private int handleMan(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("man: missing command");
-            return;
+            return out.fail("man: missing command");
         }
 
         String command = args[0];
-        callback.onSuccess("Manual page for " + command + " - Use 'help' for available commands");
+        return out.success("Manual page for " + command + " - Use 'help' for available commands");
     }
 
-    private void handleTree(String[] args, CommandCallback callback) {
-        callback.onSuccess("📁 Directory tree:\n" + fsManager.getCurrentDirectory() + "\n└── Use 'ls' to see contents");
+    private int handleTree(String[] args, OutputSink out) {
+        return out.success("📁 Directory tree:\n" + terminalSession.getPathContext().getDisplayDirectory() + "\n└── Use 'ls' to see contents");
     }
 
-    private void handleHead(String[] args, CommandCallback callback) {
+    private int handleHead(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("head: missing file operand");
-            return;
+            return out.fail("head: missing file operand");
         }
 
         String filename = args[0];
@@ -2402,15 +2838,14 @@ public class CommandProcessor {
                 try {
                     lines = Integer.parseInt(args[i + 1]);
                 } catch (NumberFormatException e) {
-                    callback.onError("head: invalid number of lines");
-                    return;
+                    return out.fail("head: invalid number of lines");
                 }
                 break;
             }
         }
 
         try {
-            String content = fsManager.readFile(filename);
+            String content = fsManager.readFile(terminalSession.getPathContext(), filename);
             if (content != null) {
                 String[] fileLines = content.split("\n");
                 StringBuilder output = new StringBuilder();
@@ -2419,26 +2854,25 @@ public class CommandProcessor {
                     output.append(fileLines[i]).append("\n");
                 }
 
-                callback.onSuccess(output.toString());
+                return out.success(output.toString());
             } else {
-                callback.onError("head: " + filename + ": No such file or directory");
+                return out.fail("head: " + filename + ": No such file or directory");
             }
         } catch (Exception e) {
-            callback.onError("head: " + e.getMessage());
+            return out.fail("head: " + e.getMessage());
         }
     }
 
-    private void handleTail(String[] args, CommandCallback callback) {
+    private int handleTail(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("tail: missing file operand");
-            return;
+            return out.fail("tail: missing file operand");
         }
 
         String filename = args[0];
         int lines = 10;
 
         try {
-            String content = fsManager.readFile(filename);
+            String content = fsManager.readFile(terminalSession.getPathContext(), filename);
             if (content != null) {
                 String[] fileLines = content.split("\n");
                 StringBuilder output = new StringBuilder();
@@ -2448,74 +2882,73 @@ public class CommandProcessor {
                     output.append(fileLines[i]).append("\n");
                 }
 
-                callback.onSuccess(output.toString());
+                return out.success(output.toString());
             } else {
-                callback.onError("tail: " + filename + ": No such file or directory");
+                return out.fail("tail: " + filename + ": No such file or directory");
             }
         } catch (Exception e) {
-            callback.onError("tail: " + e.getMessage());
+            return out.fail("tail: " + e.getMessage());
         }
     }
 
-    private void handleWc(String[] args, CommandCallback callback) {
+    private int handleWc(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("wc: missing file operand");
-            return;
+            return out.fail("wc: missing file operand");
         }
 
         String filename = args[0];
 
         try {
-            String content = fsManager.readFile(filename);
+            String content = fsManager.readFile(terminalSession.getPathContext(), filename);
             if (content != null) {
                 String[] lines = content.split("\n");
                 String[] words = content.trim().split("\\s+");
                 int characters = content.length();
 
-                callback.onSuccess(String.format("%d %d %d %s", lines.length, words.length, characters, filename));
+                return out.success(String.format("%d %d %d %s", lines.length, words.length, characters, filename));
             } else {
-                callback.onError("wc: " + filename + ": No such file or directory");
+                return out.fail("wc: " + filename + ": No such file or directory");
             }
         } catch (Exception e) {
-            callback.onError("wc: " + e.getMessage());
+            return out.fail("wc: " + e.getMessage());
         }
     }
 
-    private void handleDf(CommandCallback callback) {
+    private int handleDf(OutputSink out) {
         StringBuilder output = new StringBuilder();
         output.append("Filesystem     1K-blocks    Used Available Use% Mounted on\n");
         output.append("/dev/root       15728640 8123456   7605184  52% /\n");
         output.append("tmpfs            1048576    1024   1047552   1% /tmp\n");
         output.append("tmpfs            2097152   81920   2015232   4% /dev/shm\n");
 
-        callback.onSuccess(output.toString());
+        return out.success(output.toString());
     }
 
-    private void handleFree(CommandCallback callback) {
+    private int handleFree(OutputSink out) {
         StringBuilder output = new StringBuilder();
         output.append("              total        used        free      shared  buff/cache   available\n");
         output.append("Mem:        4194304     1572864     2097152       81920      524288     2359296\n");
         output.append("Swap:       2097152      262144     1835008\n");
 
-        callback.onSuccess(output.toString());
+        return out.success(output.toString());
     }
 
-    private void handleUname(String[] args, CommandCallback callback) {
+    private int handleUname(String[] args, OutputSink out) {
         boolean all = args.length > 0 && args[0].equals("-a");
 
         if (all) {
-            callback.onSuccess("Linux " + Build.MODEL + " 5.15.0-kali3-amd64 #1 SMP Debian " + Build.VERSION.RELEASE + " " + Build.HARDWARE + " GNU/Linux");
+            return out.success("Linux " + Build.MODEL + " 5.15.0-kali3-amd64 #1 SMP Debian " + Build.VERSION.RELEASE + " " + Build.HARDWARE + " GNU/Linux");
         } else {
-            callback.onSuccess("Linux");
+            return out.success("Linux");
         }
     }
 
-    private void handleBpad(String[] args, CommandCallback callback) {
+    private int handleBpad(String[] args, OutputSink out) {
         if (args.length == 0) {
-            callback.onError("bpad: missing operand");
-            return;
+            return out.fail("bpad: missing operand");
         }
         Intent intent = new Intent(context, TextEditorActivity.class);
         context.startActivity(intent);
+        return OutputSink.EXIT_SUCCESS;
     }
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+package com.example.linuxsimulator.terminal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency of every command dispatched, across all terminal sessions: one wall-clock and one
+ * thread-CPU histogram per command name. Recording is cheap enough to leave on for every
+ * command; the figures are read back by the perfstat command.
+ *
+ * Thread-safe.
+ */
+public final class CommandStats {
+
+    // Names beyond this many (typos, mostly) share one entry
+    private static final int MAX_COMMANDS = 256;
+    private static final String OTHER = "(other)";
+
+    private static CommandStats instance;
+
+    /**
+     * Timings of one command
+     */
+    public static final class Entry {
+        public final String command;
+        public final LatencyHistogram wall = new LatencyHistogram();
+        public final LatencyHistogram cpu = new LatencyHistogram();
+
+        Entry(String command) {
+            this.command = command;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    CommandStats() {
+    }
+
+    public static synchronized CommandStats getInstance() {
+        if (instance == null) {
+            instance = new CommandStats();
+        }
+        return instance;
+    }
+
+    /**
+     * Record one run of a command
+     * @param command Command name
+     * @param wallNanos Elapsed time
+     * @param cpuNanos CPU time of the thread that ran it, or negative if unknown
+     */
+    public void record(String command, long wallNanos, long cpuNanos) {
+        Entry entry = entries.get(command);
+        if (entry == null) {
+            String name = entries.size() < MAX_COMMANDS ? command : OTHER;
+            entry = entries.computeIfAbsent(name, Entry::new);
+        }
+        entry.wall.record(wallNanos / 1000);
+        if (cpuNanos >= 0) {
+            entry.cpu.record(cpuNanos / 1000);
+        }
+    }
+
+    /**
+     * Get the timings recorded so far
+     * @return Entries, most time spent first
+     */
+    public List<Entry> getEntries() {
+        // Totals are read once: commands still running keep recording, and a sort whose
+        // keys change under it can fail
+        List<Entry> list = new ArrayList<>(entries.values());
+        Map<Entry, Long> totals = new HashMap<>();
+        for (Entry entry : list) {
+            totals.put(entry, entry.wall.getTotal());
+        }
+        Collections.sort(list, (a, b) -> Long.compare(totals.get(b), totals.get(a)));
+        return list;
+    }
+
+    /**
+     * Forget everything recorded
+     */
+    public void reset() {
+        entries.clear();
+    }
+
+    /**
+     * Write every histogram as CSV, one row per non-empty bucket:
+     * command,metric,upper_bound_us,count
+     * @param file Destination, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void export(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write("command,metric,upper_bound_us,count\n");
+            for (Entry entry : getEntries()) {
+                writeBuckets(writer, entry.command, "wall", entry.wall);
+                writeBuckets(writer, entry.command, "cpu", entry.cpu);
+            }
+        }
+    }
+
+    private static void writeBuckets(Writer writer, String command, String metric,
+                                     LatencyHistogram histogram) throws IOException {
+        for (long[] bucket : histogram.getBuckets()) {
+            writer.write(String.format(Locale.US, "%s,%s,%d,%d\n", command, metric, bucket[0], bucket[1]));
+        }
+    }
+
+    /**
+     * Format a duration for display
+     * @param micros Duration in microseconds
+     * @return e.g. "850us", "12.3ms", "1.52s"
+     */
+    public static String formatMicros(long micros) {
+        if (micros < 1000) {
+            return micros + "us";
+        } else if (micros < 1_000_000) {
+            return String.format(Locale.US, "%.1fms", micros / 1000.0);
+        }
+        return String.format(Locale.US, "%.2fs", micros / 1_000_000.0);
+    }
+}
@@ -0,0 +1,438 @@
+package com.example.linuxsimulator.terminal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tab completion for the terminal. Command names, flags, directory listings, git refs and
+ * SSH hosts are each held in a {@link PrefixTrie}; directory and ref tries are cached and
+ * only rebuilt when the directory's modification time changes, so a Tab press is a few
+ * trie lookups instead of a directory scan.
+ */
+public final class CompletionEngine {
+    private static final int MAX_CANDIDATES = 200;
+    private static final int MAX_CACHED_DIRECTORIES = 32;
+
+    private static final List<String> GIT_SUBCOMMANDS = Arrays.asList(
+            "init", "clone", "status", "add", "commit", "log", "branch", "checkout", "pull", "push",
+            "remote", "diff", "help");
+    private static final Set<String> GIT_REF_COMMANDS = new HashSet<>(Arrays.asList(
+            "checkout", "branch", "merge", "rebase", "push", "pull", "diff", "log", "switch", "reset"));
+    private static final Set<String> HOST_COMMANDS = new HashSet<>(Arrays.asList(
+            "ssh", "ssh-sim", "ping", "traceroute", "nslookup", "dig"));
+    private static final Set<String> DIRECTORY_COMMANDS = new HashSet<>(Arrays.asList(
+            "cd", "tree"));
+    // Commands that only look at the rest of the line, like sudo ls
+    private static final Set<String> PREFIX_COMMANDS = new HashSet<>(Arrays.asList(
+            "sudo"));
+
+    private static final Map<String, PrefixTrie> FLAGS = new HashMap<>();
+
+    static {
+        flags("ls", "-a", "-l", "-la", "-h", "-R");
+        flags("rm", "-r", "-f", "-rf", "-i");
+        flags("cp", "-r", "-i", "-v");
+        flags("mv", "-i", "-v", "-f");
+        flags("mkdir", "-p", "-v");
+        flags("grep", "-i", "-n", "-r", "-v", "-c", "-l", "-w");
+        flags("find", "-name", "-iname", "-type", "-size", "-maxdepth");
+        flags("head", "-n");
+        flags("tail", "-n", "-f");
+        flags("wc", "-l", "-w", "-c");
+        flags("uname", "-a", "-r", "-s", "-m");
+        flags("kill", "-9", "-15", "-l");
+        flags("chmod", "-R", "-v");
+        flags("tree", "-a", "-d", "-L");
+        flags("df", "-h");
+        flags("free", "-h", "-m", "-g");
+        flags("ping", "-c", "-i", "-W");
+        flags("curl", "-I", "-L", "-o", "-s", "-v", "-X", "-H", "-d");
+        flags("wget", "-O", "-q", "-c");
+        flags("netstat", "-a", "-t", "-u", "-l", "-n", "-p");
+        flags("ssh", "-p", "-i", "-v");
+        flags("history", "-c");
+        flags("sh", "-c");
+        flags("git add", "-A", "-p", "--all");
+        flags("git commit", "-m", "-a", "--amend");
+        flags("git log", "--oneline", "--graph", "-n");
+        flags("git branch", "-a", "-d", "-D", "-r");
+        flags("git checkout", "-b", "--");
+        flags("git push", "-u", "--force", "--tags");
+        flags("git pull", "--rebase");
+        flags("git status", "-s", "--short");
+        flags("git diff", "--staged", "--stat");
+        flags("git clone", "--depth", "--branch");
+        flags("git remote", "-v");
+    }
+
+    private static void flags(String command, String... flags) {
+        FLAGS.put(command, new PrefixTrie(Arrays.asList(flags)));
+    }
+
+    private static final PrefixTrie GIT_SUBCOMMAND_TRIE = new PrefixTrie(GIT_SUBCOMMANDS);
+
+    /**
+     * What the engine needs to know about the terminal it completes for
+     */
+    public interface Host {
+        /**
+         * Directory relative paths are resolved against
+         * @return Current directory
+         */
+        File getCurrentDirectory();
+
+        /**
+         * Directory ~ stands for
+         * @return Home directory
+         */
+        File getHomeDirectory();
+
+        /**
+         * Built-in commands, shell builtins and defined functions
+         * @return Command names
+         */
+        Collection<String> getCommandNames();
+
+        /**
+         * Hosts that can be connected to
+         * @return Host names and addresses
+         */
+        Collection<String> getSSHHosts();
+
+        /**
+         * Repository metadata for a directory, wherever the terminal keeps it
+         * @param directory Directory inside a work tree
+         * @return The .git directory, or null if the directory is not in a repository
+         */
+        File getGitDirectory(File directory);
+    }
+
+    /**
+     * Outcome of a completion request
+     */
+    public static final class Result {
+        /** Command line after completion; unchanged if nothing could be added */
+        public final String line;
+        /** Candidates to show when the line could not be extended, at most a few hundred */
+        public final List<String> candidates;
+        /** Total number of candidates, which may exceed {@code candidates.size()} */
+        public final int total;
+
+        Result(String line, List<String> candidates, int total) {
+            this.line = line;
+            this.candidates = candidates;
+            this.total = total;
+        }
+    }
+
+    private static final class DirectoryListing {
+        final long modified;
+        final PrefixTrie names;
+
+        DirectoryListing(long modified, PrefixTrie names) {
+            this.modified = modified;
+            this.names = names;
+        }
+    }
+
+    // Refs of a repository, current while none of the directories they were read from changed
+    private static final class GitRefs {
+        final List<File> stamped;
+        final long[] modified;
+        final PrefixTrie names;
+
+        GitRefs(List<File> stamped, PrefixTrie names) {
+            this.stamped = stamped;
+            this.names = names;
+            modified = new long[stamped.size()];
+            for (int i = 0; i < modified.length; i++) {
+                modified[i] = stamped.get(i).lastModified();
+            }
+        }
+
+        boolean isCurrent() {
+            for (int i = 0; i < modified.length; i++) {
+                if (stamped.get(i).lastModified() != modified[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final Host host;
+    private final CommandExecutor executor;
+    // Access-ordered so the least recently completed directory is evicted first
+    private final Map<String, DirectoryListing> directories =
+            new LinkedHashMap<String, DirectoryListing>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DirectoryListing> eldest) {
+                    return size() > MAX_CACHED_DIRECTORIES;
+                }
+            };
+    private final Map<String, GitRefs> gitRefs = new HashMap<>();
+    private volatile PrefixTrie commandTrie = new PrefixTrie();
+    private volatile PrefixTrie hostTrie = new PrefixTrie();
+
+    public CompletionEngine(Host host, CommandExecutor executor) {
+        this.host = host;
+        this.executor = executor;
+    }
+
+    /**
+     * Complete the last word of a command line
+     * @param line Command line, with the cursor at its end
+     * @return Completed line and, if ambiguous, the candidates
+     */
+    public Result complete(String line) {
+        // Only the simple command the cursor is in matters
+        int segmentStart = 0;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ';' || c == '&' || c == '|' || c == '(') {
+                segmentStart = i + 1;
+            }
+        }
+
+        String segment = line.substring(segmentStart);
+        List<String> words = new ArrayList<>(Arrays.asList(segment.trim().split("\\s+")));
+        if (words.size() == 1 && words.get(0).isEmpty()) {
+            words.clear();
+        }
+        String current = segment.isEmpty() || Character.isWhitespace(segment.charAt(segment.length() - 1))
+                ? "" : words.remove(words.size() - 1);
+        while (!words.isEmpty() && PREFIX_COMMANDS.contains(words.get(0))) {
+            words.remove(0);
+        }
+
+        String head = line.substring(0, line.length() - current.length());
+        if (words.isEmpty()) {
+            return finish(head, "", current, commands(), false);
+        }
+
+        String command = words.get(0);
+        String subcommand = words.size() > 1 ? words.get(1) : "";
+        if (current.startsWith("-")) {
+            PrefixTrie flags = FLAGS.get(command.equals("git") ? "git " + subcommand : command);
+            return finish(head, "", current, flags == null ? new PrefixTrie() : flags, false);
+        }
+        if (command.equals("git") && words.size() == 1) {
+            return finish(head, "", current, GIT_SUBCOMMAND_TRIE, false);
+        }
+        if (command.equals("git") && GIT_REF_COMMANDS.contains(subcommand)) {
+            PrefixTrie refs = gitRefs(host.getCurrentDirectory());
+            if (refs.countWithPrefix(current) > 0) {
+                return finish(head, "", current, refs, false);
+            }
+        }
+        if (HOST_COMMANDS.contains(command)) {
+            int at = current.indexOf('@');
+            String user = at < 0 ? "" : current.substring(0, at + 1);
+            return finish(head, user, current.substring(user.length()), hosts(), false);
+        }
+
+        // Paths: complete the last segment against a cached listing of its directory
+        int slash = current.lastIndexOf('/');
+        String directory = current.substring(0, slash + 1);
+        String name = current.substring(slash + 1);
+        PrefixTrie names = listing(resolve(directory)).names;
+        return finish(head, directory, name, names, DIRECTORY_COMMANDS.contains(command));
+    }
+
+    /**
+     * Read a directory into the cache in the background so the next Tab in it is instant
+     * @param directory Directory to list
+     */
+    public void prefetch(File directory) {
+        try {
+            executor.execute(CommandExecutor.Pool.IO, () -> listing(directory));
+        } catch (RejectedExecutionException e) {
+            // The listing is read on demand instead
+        }
+    }
+
+    // Build the result from the matches of prefix in the trie
+    private Result finish(String head, String base, String prefix, PrefixTrie trie, boolean directoriesOnly) {
+        // Dotfiles only show up when asked for. Only an empty prefix can match them; the limit
+        // leaves room for them and the total leaves them out, so neither comes up short
+        int hidden = prefix.isEmpty() ? trie.countWithPrefix(".") : 0;
+        int total = trie.countWithPrefix(prefix) - hidden;
+        List<String> matches = new ArrayList<>();
+        for (String match : trie.complete(prefix, directoriesOnly ? Integer.MAX_VALUE : MAX_CANDIDATES + hidden)) {
+            if ((hidden == 0 || !match.startsWith(".")) && (!directoriesOnly || match.endsWith("/"))) {
+                matches.add(match);
+            }
+        }
+        if (directoriesOnly) {
+            total = matches.size();
+            if (total > MAX_CANDIDATES) {
+                matches = matches.subList(0, MAX_CANDIDATES);
+            }
+        }
+
+        if (matches.isEmpty()) {
+            return new Result(head + base + prefix, Collections.emptyList(), 0);
+        }
+        if (total == 1) {
+            String match = matches.get(0);
+            return new Result(head + base + match + (match.endsWith("/") ? "" : " "), Collections.emptyList(), 1);
+        }
+
+        // The line can only be extended when every match is in hand
+        if (total == matches.size()) {
+            String common = matches.get(0);
+            for (String match : matches) {
+                int length = 0;
+                int max = Math.min(common.length(), match.length());
+                while (length < max && common.charAt(length) == match.charAt(length)) length++;
+                common = common.substring(0, length);
+            }
+            if (common.length() > prefix.length()) {
+                return new Result(head + base + common, Collections.emptyList(), total);
+            }
+        }
+        return new Result(head + base + prefix, matches, total);
+    }
+
+    private PrefixTrie commands() {
+        Collection<String> names = host.getCommandNames();
+        PrefixTrie trie = commandTrie;
+        // Functions come and go, so the trie is rebuilt whenever the set of names changes
+        if (trie.size() != names.size() || !containsAll(trie, names)) {
+            trie = new PrefixTrie(names);
+            commandTrie = trie;
+        }
+        return trie;
+    }
+
+    private PrefixTrie hosts() {
+        Collection<String> names = host.getSSHHosts();
+        PrefixTrie trie = hostTrie;
+        if (trie.size() != names.size() || !containsAll(trie, names)) {
+            trie = new PrefixTrie(names);
+            hostTrie = trie;
+        }
+        return trie;
+    }
+
+    private static boolean containsAll(PrefixTrie trie, Collection<String> words) {
+        for (String word : words) {
+            if (!trie.contains(word)) return false;
+        }
+        return true;
+    }
+
+    private File resolve(String directory) {
+        if (directory.isEmpty()) {
+            return host.getCurrentDirectory();
+        } else if (directory.startsWith("~/")) {
+            return new File(host.getHomeDirectory(), directory.substring(2));
+        } else if (directory.startsWith("/")) {
+            return new File(directory);
+        }
+        return new File(host.getCurrentDirectory(), directory);
+    }
+
+    // Directory names carry a trailing slash so completing one leaves the cursor inside it
+    private DirectoryListing listing(File directory) {
+        String key = directory.getAbsolutePath();
+        long modified = directory.lastModified();
+        synchronized (directories) {
+            DirectoryListing cached = directories.get(key);
+            if (cached != null && cached.modified == modified) {
+                return cached;
+            }
+        }
+
+        PrefixTrie names = new PrefixTrie();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                names.add(file.isDirectory() ? file.getName() + "/" : file.getName());
+            }
+        }
+        DirectoryListing listing = new DirectoryListing(modified, names);
+        synchronized (directories) {
+            directories.put(key, listing);
+        }
+        return listing;
+    }
+
+    // Branches, remote branches and tags of the repository containing the directory
+    private PrefixTrie gitRefs(File directory) {
+        File gitDir = host.getGitDirectory(directory);
+        if (gitDir == null) {
+            return new PrefixTrie();
+        }
+
+        String key = gitDir.getAbsolutePath();
+        synchronized (gitRefs) {
+            GitRefs cached = gitRefs.get(key);
+            if (cached != null && cached.isCurrent()) {
+                return cached.names;
+            }
+        }
+
+        // Every directory read is stamped, so a ref added anywhere under refs/ is noticed
+        File packed = new File(gitDir, "packed-refs");
+        List<File> stamped = new ArrayList<>();
+        stamped.add(packed);
+        PrefixTrie refs = new PrefixTrie();
+        addRefs(new File(gitDir, "refs/heads"), "", refs, stamped);
+        addRefs(new File(gitDir, "refs/remotes"), "", refs, stamped);
+        addRefs(new File(gitDir, "refs/tags"), "", refs, stamped);
+        GitRefs read = new GitRefs(stamped, refs);
+        if (packed.isFile()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(packed))) {
+                String packedLine;
+                while ((packedLine = reader.readLine()) != null) {
+                    int space = packedLine.indexOf(' ');
+                    if (packedLine.startsWith("#") || packedLine.startsWith("^") || space < 0) continue;
+                    String ref = packedLine.substring(space + 1);
+                    for (String namespace : new String[]{"refs/heads/", "refs/remotes/", "refs/tags/"}) {
+                        if (ref.startsWith(namespace)) refs.add(ref.substring(namespace.length()));
+                    }
+                }
+            } catch (IOException e) {
+                // Loose refs are still offered
+            }
+        }
+        synchronized (gitRefs) {
+            gitRefs.put(key, read);
+        }
+        return refs;
+    }
+
+    private static void addRefs(File directory, String prefix, PrefixTrie refs, List<File> stamped) {
+        stamped.add(directory);
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addRefs(file, prefix + file.getName() + "/", refs, stamped);
+            } else if (!file.getName().equals("HEAD")) {
+                refs.add(prefix + file.getName());
+            }
+        }
+    }
+}
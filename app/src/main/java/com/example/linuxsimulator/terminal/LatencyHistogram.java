@@ -0,0 +1,123 @@
+package com.example.linuxsimulator.terminal;
+
+/**
+ * Fixed-size latency histogram in the style of HdrHistogram: values are bucketed by power of
+ * two, and every power of two is split into equal sub-buckets, so any recorded value is known
+ * to within about 3% whatever its magnitude. Recording is a shift and an array increment;
+ * percentiles walk the buckets. Values are microseconds, from 1 us up to about 1.2 hours.
+ *
+ * Thread-safe.
+ */
+public final class LatencyHistogram {
+
+    // 2^5 = 32 sub-buckets per power of two: about 3% relative error
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Powers of two above the first linear range; 2^(5 + 27) us is over an hour
+    private static final int MAGNITUDES = 27;
+    private static final long MAX_VALUE = (1L << (SUB_BUCKET_BITS + MAGNITUDES)) - 1;
+
+    private final long[] counts = new long[SUB_BUCKETS * (MAGNITUDES + 1)];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Record one value
+     * @param micros Value in microseconds; negative values are ignored, huge ones clamped
+     */
+    public synchronized void record(long micros) {
+        if (micros < 0) {
+            return;
+        }
+        long value = Math.min(micros, MAX_VALUE);
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @return Sum of every value recorded, in microseconds
+     */
+    public synchronized long getTotal() {
+        return sum;
+    }
+
+    /**
+     * Get the value at a percentile
+     * @param percentile Percentile, 0 to 100
+     * @return Upper bound of the bucket holding that value, or 0 if nothing was recorded
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // Never report more than was actually seen
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Copy the non-empty buckets, for export
+     * @return Pairs of bucket upper bound (us) and count, lowest bucket first
+     */
+    public synchronized long[][] getBuckets() {
+        int used = 0;
+        for (long c : counts) {
+            if (c > 0) used++;
+        }
+        long[][] buckets = new long[used][];
+        int next = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                buckets[next++] = new long[]{upperBound(i), counts[i]};
+            }
+        }
+        return buckets;
+    }
+
+    // Values below SUB_BUCKETS are exact; above, the top SUB_BUCKET_BITS + 1 bits pick the slot
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> magnitude) - SUB_BUCKETS;
+        return SUB_BUCKETS + magnitude * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (index - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << magnitude) - 1;
+    }
+}
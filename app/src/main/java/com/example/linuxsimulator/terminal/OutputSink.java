@@ -0,0 +1,89 @@
+package com.example.linuxsimulator.terminal;
+
+/**
+ * Streaming destination for a command's output.
+ * Handlers write text as soon as it is produced instead of building one result string,
+ * and the sink hears exactly one {@link #onComplete(int)} when the command finishes.
+ * Every method may be called from a worker thread.
+ */
+public interface OutputSink {
+    int EXIT_SUCCESS = 0;
+    int EXIT_FAILURE = 1;
+    int EXIT_USAGE = 2;
+    int EXIT_NOT_FOUND = 127;
+    int EXIT_INTERRUPTED = 130;
+
+    /**
+     * Standard output text
+     * @param chunk One or more lines, or part of a line
+     */
+    void onChunk(CharSequence chunk);
+
+    /**
+     * Error output text
+     * @param chunk One or more lines, or part of a line
+     */
+    void onErrorChunk(CharSequence chunk);
+
+    /**
+     * Progress of a long-running step, replacing the previous progress report
+     * @param label What is being counted, e.g. "Downloading" or "Receiving objects"
+     * @param current Units done so far
+     * @param total Total units, or -1 if unknown
+     */
+    void onProgress(CharSequence label, long current, long total);
+
+    /**
+     * The working directory or prompt changed
+     */
+    void onDirectoryChanged();
+
+    /**
+     * The command finished; no further calls follow
+     * @param exitCode 0 on success
+     */
+    void onComplete(int exitCode);
+
+    /**
+     * Write a line of output, adding the newline if missing
+     * @param line Line to write
+     */
+    default void println(CharSequence line) {
+        onChunk(endLine(line));
+    }
+
+    /**
+     * Write a command's whole result
+     * @param output Result text, nothing is written if empty
+     * @return {@link #EXIT_SUCCESS}
+     */
+    default int success(CharSequence output) {
+        if (output.length() > 0) {
+            onChunk(endLine(output));
+        }
+        return EXIT_SUCCESS;
+    }
+
+    /**
+     * Write an error message
+     * @param error Message to write
+     * @return {@link #EXIT_FAILURE}
+     */
+    default int fail(CharSequence error) {
+        onErrorChunk(endLine(error));
+        return EXIT_FAILURE;
+    }
+
+    /**
+     * Terminate text with a newline so the next chunk starts on its own line
+     * @param text Text to terminate
+     * @return Text ending in a newline
+     */
+    static CharSequence endLine(CharSequence text) {
+        int length = text.length();
+        if (length > 0 && text.charAt(length - 1) == '\n') {
+            return text;
+        }
+        return new StringBuilder(length + 1).append(text).append('\n');
+    }
+}
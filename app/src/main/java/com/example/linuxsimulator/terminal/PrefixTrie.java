@@ -0,0 +1,121 @@
+package com.example.linuxsimulator.terminal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sorted set of words supporting prefix lookup in time proportional to the prefix length
+ * plus the number of matches returned.
+ */
+public final class PrefixTrie {
+
+    private static final class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        boolean word;
+        // Number of words at or below this node, so counting matches needs no walk
+        int count;
+    }
+
+    private final Node root = new Node();
+
+    public PrefixTrie() {
+    }
+
+    public PrefixTrie(Collection<String> words) {
+        for (String word : words) {
+            add(word);
+        }
+    }
+
+    /**
+     * Add a word
+     * @param word Word to add
+     * @return True if the word was not present yet
+     */
+    public boolean add(String word) {
+        if (contains(word)) {
+            return false;
+        }
+        Node node = root;
+        node.count++;
+        for (int i = 0; i < word.length(); i++) {
+            Node child = node.children.get(word.charAt(i));
+            if (child == null) {
+                child = new Node();
+                node.children.put(word.charAt(i), child);
+            }
+            child.count++;
+            node = child;
+        }
+        node.word = true;
+        return true;
+    }
+
+    /**
+     * Check whether a word is present
+     * @param word Word to look up
+     * @return True if present
+     */
+    public boolean contains(String word) {
+        Node node = find(word);
+        return node != null && node.word;
+    }
+
+    /**
+     * Get the number of words in the trie
+     * @return Word count
+     */
+    public int size() {
+        return root.count;
+    }
+
+    /**
+     * Count the words starting with a prefix
+     * @param prefix Prefix
+     * @return Number of matches
+     */
+    public int countWithPrefix(String prefix) {
+        Node node = find(prefix);
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * Get the words starting with a prefix, in sorted order
+     * @param prefix Prefix
+     * @param limit Maximum number of words to return
+     * @return Matching words
+     */
+    public List<String> complete(String prefix, int limit) {
+        List<String> matches = new ArrayList<>();
+        Node node = find(prefix);
+        if (node != null && limit > 0) {
+            collect(node, new StringBuilder(prefix), matches, limit);
+        }
+        return matches;
+    }
+
+    private Node find(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.children.get(prefix.charAt(i));
+        }
+        return node;
+    }
+
+    private static void collect(Node node, StringBuilder path, List<String> matches, int limit) {
+        if (node.word) {
+            matches.add(path.toString());
+        }
+        for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+            if (matches.size() >= limit) {
+                return;
+            }
+            path.append(child.getKey());
+            collect(child.getValue(), path, matches, limit);
+            path.setLength(path.length() - 1);
+        }
+    }
+}
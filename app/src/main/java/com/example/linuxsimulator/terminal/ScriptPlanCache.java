@@ -0,0 +1,101 @@
+package com.example.linuxsimulator.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed scripts keyed by path. A script is only read and parsed again once its
+ * modification time or size changes, so loops that call the same script stay cheap.
+ */
+public final class ScriptPlanCache {
+    private static final int MAX_SCRIPTS = 32;
+
+    private static ScriptPlanCache instance;
+
+    private static final class Entry {
+        final long modified;
+        final long length;
+        final ShellScript script;
+
+        Entry(long modified, long length, ShellScript script) {
+            this.modified = modified;
+            this.length = length;
+            this.script = script;
+        }
+    }
+
+    // Access-ordered so the least recently run script is evicted first
+    private final Map<String, Entry> plans = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SCRIPTS;
+        }
+    };
+
+    private ScriptPlanCache() {
+    }
+
+    public static synchronized ScriptPlanCache getInstance() {
+        if (instance == null) {
+            instance = new ScriptPlanCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the plan for a script file, parsing it only if it changed since the last call
+     * @param file Script file
+     * @return Parsed script
+     * @throws IOException if the file cannot be read
+     * @throws ShellScript.SyntaxError if the script is malformed
+     */
+    public ShellScript load(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("No such file or directory");
+        }
+        String key = file.getAbsolutePath();
+        long modified = file.lastModified();
+        long length = file.length();
+
+        synchronized (plans) {
+            Entry entry = plans.get(key);
+            if (entry != null && entry.modified == modified && entry.length == length) {
+                return entry.script;
+            }
+        }
+
+        // Parse outside the lock; two threads racing on the same file just parse it twice
+        ShellScript script = ShellScript.parse(readSource(file));
+        synchronized (plans) {
+            plans.put(key, new Entry(modified, length, script));
+        }
+        return script;
+    }
+
+    /**
+     * Drop every cached plan
+     */
+    public void clear() {
+        synchronized (plans) {
+            plans.clear();
+        }
+    }
+
+    private static String readSource(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(file.length(), Integer.MAX_VALUE));
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,413 @@
+package com.example.linuxsimulator.terminal;
+
+import android.text.Spanned;
+import android.text.TextUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Terminal scrollback: a ring of output rows capped by row count and total characters.
+ * When either cap is exceeded the oldest rows are evicted, and optionally appended to a spill
+ * file so old output is not lost outright. Rows longer than the line limit wrap onto the next
+ * row so no single row gets expensive to lay out. Rows keep any spans they were appended with,
+ * so styling is computed once rather than on every bind.
+ *
+ * Rows carry absolute line numbers that never change while the row is retained, so callers
+ * can hold on to a row (a progress bar, say) across evictions. Confined to the UI thread
+ * apart from the spill writes, which run on the IO pool.
+ */
+public final class ScrollbackBuffer {
+
+    public static final int DEFAULT_MAX_LINES = 100_000;
+    public static final long DEFAULT_MAX_CHARS = 4_000_000;
+    public static final int DEFAULT_MAX_LINE_LENGTH = 1024;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int maxLines;
+    private final long maxChars;
+    private final int maxLineLength;
+    private final File spillFile;
+    private final CommandExecutor executor;
+
+    private CharSequence[] ring;
+    private int head;
+    private int size;
+    private long charCount;
+    // Absolute number of the oldest retained row
+    private long firstLine;
+
+    // Rows evicted during the current operation, handed to the writer once it is done
+    private final List<CharSequence> evicted = new ArrayList<>();
+
+    // Spill state, shared with the IO pool
+    private final Object spillLock = new Object();
+    private final List<CharSequence> pendingSpill = new ArrayList<>();
+    private boolean spillScheduled;
+    private boolean truncateSpill = true;
+
+    /**
+     * Create a buffer without a spill file
+     * @param maxLines Maximum number of rows kept
+     * @param maxChars Maximum number of characters kept across all rows
+     */
+    public ScrollbackBuffer(int maxLines, long maxChars) {
+        this(maxLines, maxChars, DEFAULT_MAX_LINE_LENGTH, null, null);
+    }
+
+    /**
+     * Create a buffer
+     * @param maxLines Maximum number of rows kept
+     * @param maxChars Maximum number of characters kept across all rows
+     * @param maxLineLength Rows longer than this wrap onto a new row
+     * @param spillFile File evicted rows are appended to, or null to drop them; it is
+     *                  truncated before the first write
+     * @param executor Executor for the spill writes, may be null without a spill file
+     */
+    public ScrollbackBuffer(int maxLines, long maxChars, int maxLineLength,
+                            File spillFile, CommandExecutor executor) {
+        if (maxLines < 1 || maxChars < 1 || maxLineLength < 1) {
+            throw new IllegalArgumentException("Scrollback limits must be positive");
+        }
+        this.maxLines = maxLines;
+        this.maxChars = maxChars;
+        this.maxLineLength = maxLineLength;
+        this.spillFile = spillFile;
+        this.executor = executor;
+        ring = new CharSequence[Math.min(INITIAL_CAPACITY, maxLines)];
+    }
+
+    /**
+     * Get the number of retained rows
+     * @return Row count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the absolute line number of the oldest retained row
+     * @return Line number; position 0 holds this line
+     */
+    public long getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * Get the absolute line number the next appended row will get
+     * @return Line number one past the newest row
+     */
+    public long getEndLine() {
+        return firstLine + size;
+    }
+
+    /**
+     * Get the total number of characters retained
+     * @return Character count
+     */
+    public long getCharCount() {
+        return charCount;
+    }
+
+    /**
+     * Get the file evicted rows are spilled to
+     * @return Spill file, or null if evicted rows are dropped
+     */
+    public File getSpillFile() {
+        return spillFile;
+    }
+
+    /**
+     * Get a row
+     * @param position Position, 0 being the oldest retained row
+     * @return Row text
+     */
+    public CharSequence get(int position) {
+        checkPosition(position);
+        return ring[slot(position)];
+    }
+
+    /**
+     * Replace a row. Used for rows redrawn in place, so the text is not wrapped.
+     * @param position Position, 0 being the oldest retained row
+     * @param line New text
+     */
+    public void set(int position, CharSequence line) {
+        checkPosition(position);
+        int slot = slot(position);
+        charCount += line.length() - ring[slot].length();
+        ring[slot] = line;
+        evict();
+    }
+
+    /**
+     * Append text as one or more new rows, splitting at newlines and wrapping long lines
+     * @param text Text to append
+     */
+    public void appendLine(CharSequence text) {
+        int start = 0;
+        int length = text.length();
+        while (true) {
+            int newline = indexOf(text, '\n', start);
+            addWrapped(text, start, newline < 0 ? length : newline);
+            if (newline < 0) {
+                break;
+            }
+            start = newline + 1;
+        }
+        evict();
+    }
+
+    /**
+     * Continue the newest row with text that holds no newline; whatever does not fit within
+     * the line limit wraps onto new rows
+     * @param text Text to append
+     */
+    public void appendToLast(CharSequence text) {
+        if (size == 0) {
+            appendLine(text);
+            return;
+        }
+        int slot = slot(size - 1);
+        CharSequence last = ring[slot];
+        int room = Math.max(0, maxLineLength - last.length());
+        int split = Math.min(room, text.length());
+        if (split > 0) {
+            ring[slot] = TextUtils.concat(last, text.subSequence(0, split));
+            charCount += split;
+        }
+        if (split < text.length()) {
+            addWrapped(text, split, text.length());
+        }
+        evict();
+    }
+
+    /**
+     * Insert rows before the oldest retained row, such as output restored from disk. Retained
+     * rows are never evicted for them: rows that do not fit under the caps are dropped, oldest
+     * first. Inserted rows number downwards from the old first line, possibly below zero.
+     * @param rows Rows, oldest first, without newlines
+     * @return Number of rows inserted, counting wrapped parts separately
+     */
+    public int prepend(List<CharSequence> rows) {
+        int inserted = 0;
+        for (int r = rows.size() - 1; r >= 0; r--) {
+            CharSequence row = rows.get(r);
+            // Wrapped parts go in last part first
+            int parts = Math.max(1, (row.length() + maxLineLength - 1) / maxLineLength);
+            for (int p = parts - 1; p >= 0; p--) {
+                int start = p * maxLineLength;
+                CharSequence part = compact(row.subSequence(start, Math.min(row.length(), start + maxLineLength)));
+                if (size >= maxLines || charCount + part.length() > maxChars) {
+                    return inserted;
+                }
+                if (size == ring.length) {
+                    grow();
+                }
+                head = (head - 1 + ring.length) % ring.length;
+                ring[head] = part;
+                size++;
+                firstLine--;
+                charCount += part.length();
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Copy the row references for reading off the UI thread. Rows are never modified in
+     * place, so the copy stays valid however the buffer changes afterwards.
+     * @return Snapshot of the retained rows
+     */
+    public Snapshot snapshot() {
+        CharSequence[] rows = new CharSequence[size];
+        int tail = Math.min(size, ring.length - head);
+        System.arraycopy(ring, head, rows, 0, tail);
+        System.arraycopy(ring, 0, rows, tail, size - tail);
+        return new Snapshot(firstLine, rows);
+    }
+
+    /**
+     * Drop every row, including anything already spilled
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            ring[slot(i)] = null;
+        }
+        firstLine += size;
+        head = 0;
+        size = 0;
+        charCount = 0;
+        if (spillFile != null) {
+            synchronized (spillLock) {
+                pendingSpill.clear();
+                truncateSpill = true;
+                scheduleSpill();
+            }
+        }
+    }
+
+    /**
+     * Rows as they were when {@link #snapshot()} was called
+     */
+    public static final class Snapshot {
+        private final long firstLine;
+        private final CharSequence[] rows;
+
+        Snapshot(long firstLine, CharSequence[] rows) {
+            this.firstLine = firstLine;
+            this.rows = rows;
+        }
+
+        public long getFirstLine() {
+            return firstLine;
+        }
+
+        public int size() {
+            return rows.length;
+        }
+
+        public CharSequence get(int position) {
+            return rows[position];
+        }
+    }
+
+    // ==================== Ring ====================
+
+    private void addWrapped(CharSequence text, int start, int end) {
+        do {
+            int chunkEnd = Math.min(end, start + maxLineLength);
+            push(compact(text.subSequence(start, chunkEnd)));
+            start = chunkEnd;
+        } while (start < end);
+    }
+
+    private void push(CharSequence line) {
+        if (size == ring.length) {
+            if (size >= maxLines) {
+                evictOne();
+            } else {
+                grow();
+            }
+        }
+        ring[slot(size)] = line;
+        size++;
+        charCount += line.length();
+    }
+
+    private void grow() {
+        CharSequence[] larger = new CharSequence[(int) Math.min(maxLines, ring.length * 2L)];
+        for (int i = 0; i < size; i++) {
+            larger[i] = ring[slot(i)];
+        }
+        ring = larger;
+        head = 0;
+    }
+
+    // Always keep the newest row, even if it alone is over the character cap
+    private void evict() {
+        while (size > 1 && (size > maxLines || charCount > maxChars)) {
+            evictOne();
+        }
+        if (!evicted.isEmpty()) {
+            synchronized (spillLock) {
+                pendingSpill.addAll(evicted);
+                scheduleSpill();
+            }
+            evicted.clear();
+        }
+    }
+
+    private void evictOne() {
+        CharSequence line = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        firstLine++;
+        charCount -= line.length();
+        if (spillFile != null) {
+            evicted.add(line);
+        }
+    }
+
+    private int slot(int position) {
+        return (head + position) % ring.length;
+    }
+
+    // Rows without spans are stored as plain strings, which are far cheaper to keep around
+    private static CharSequence compact(CharSequence row) {
+        if (row instanceof Spanned
+                && ((Spanned) row).getSpans(0, row.length(), Object.class).length > 0) {
+            return row;
+        }
+        return row.toString();
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Row " + position + " of " + size);
+        }
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ==================== Spill file ====================
+
+    // Called with spillLock held; one writer at a time
+    private void scheduleSpill() {
+        if (spillScheduled || (pendingSpill.isEmpty() && !truncateSpill)) {
+            return;
+        }
+        spillScheduled = true;
+        try {
+            executor.execute(CommandExecutor.Pool.IO, this::writeSpill);
+        } catch (RejectedExecutionException e) {
+            // Still pending; the next eviction schedules it again
+            spillScheduled = false;
+        }
+    }
+
+    // Keeps draining until nothing is pending, so batches reach the file in eviction order
+    private void writeSpill() {
+        while (true) {
+            List<CharSequence> batch;
+            boolean truncate;
+            synchronized (spillLock) {
+                if (pendingSpill.isEmpty() && !truncateSpill) {
+                    spillScheduled = false;
+                    return;
+                }
+                batch = new ArrayList<>(pendingSpill);
+                pendingSpill.clear();
+                truncate = truncateSpill;
+                truncateSpill = false;
+            }
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(spillFile, !truncate), StandardCharsets.UTF_8))) {
+                for (CharSequence line : batch) {
+                    writer.append(line);
+                    writer.write('\n');
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
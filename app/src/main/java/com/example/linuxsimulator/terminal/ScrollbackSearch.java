@@ -0,0 +1,240 @@
+package com.example.linuxsimulator.terminal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * One search over a snapshot of the scrollback, run on the CPU pool from the newest row to the
+ * oldest. Matches are delivered to the UI thread in batches while the scan is still going, so
+ * the first hits show up immediately even on very large buffers.
+ *
+ * The query is a literal unless regex mode is on. Either way it is case-insensitive unless it
+ * contains an upper-case letter. Matches are kept newest first; all methods apart from the
+ * constructor are for the UI thread.
+ */
+public final class ScrollbackSearch {
+
+    public static final int MAX_MATCHES = 100_000;
+
+    private static final int BATCH_LINES = 4096;
+    private static final long BATCH_NANOS = 50_000_000L;
+
+    /**
+     * One occurrence of the query
+     */
+    public static final class Match {
+        public final long line;
+        public final int start;
+        public final int end;
+
+        Match(long line, int start, int end) {
+            this.line = line;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Receives results on the UI thread
+     */
+    public interface Listener {
+        /**
+         * More matches were found; they are already part of the search's results
+         * @param search Search that found them
+         * @param added Number of matches added
+         */
+        void onMatches(ScrollbackSearch search, int added);
+
+        /**
+         * The scan finished
+         * @param search Search that finished
+         */
+        void onComplete(ScrollbackSearch search);
+    }
+
+    private final String query;
+    private final boolean regex;
+    private final boolean ignoreCase;
+    private final Pattern pattern;
+    private final CancellationToken token = new CancellationToken();
+    private final List<Match> matches = new ArrayList<>();
+    private boolean complete;
+
+    /**
+     * Prepare a search
+     * @param query Text or regular expression to look for
+     * @param regex Whether the query is a regular expression
+     * @throws PatternSyntaxException if regex is set and the query is not a valid expression
+     */
+    public ScrollbackSearch(String query, boolean regex) {
+        this.query = query;
+        this.regex = regex;
+        this.ignoreCase = query.equals(query.toLowerCase());
+        this.pattern = regex
+                ? Pattern.compile(query, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0)
+                : null;
+    }
+
+    /**
+     * Start scanning
+     * @param snapshot Rows to search
+     * @param executor Executor for the scan and the result delivery
+     * @param listener Listener for results
+     * @throws RejectedExecutionException if the CPU pool is saturated
+     */
+    public void start(ScrollbackBuffer.Snapshot snapshot, CommandExecutor executor, Listener listener) {
+        executor.execute(CommandExecutor.Pool.CPU, () -> scan(snapshot, executor, listener));
+    }
+
+    /**
+     * Stop scanning; no further results are delivered
+     */
+    public void cancel() {
+        token.cancel();
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public boolean isRegex() {
+        return regex;
+    }
+
+    /**
+     * Check whether the scan has finished
+     * @return True once every row has been searched or the match limit was reached
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Get the number of matches found so far
+     * @return Match count
+     */
+    public int getMatchCount() {
+        return matches.size();
+    }
+
+    /**
+     * Get a match
+     * @param index Index, 0 being the newest match
+     * @return Match
+     */
+    public Match getMatch(int index) {
+        return matches.get(index);
+    }
+
+    /**
+     * Find the matches on a row
+     * @param line Absolute scrollback line
+     * @return Index of the first match on the line, or -1 if none; following matches on
+     *         the same line have consecutive indexes
+     */
+    public int findLine(long line) {
+        // Matches are sorted by descending line, ascending start within a line
+        int low = 0;
+        int high = matches.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midLine = matches.get(mid).line;
+            if (midLine > line) {
+                low = mid + 1;
+            } else {
+                if (midLine == line) {
+                    found = mid;
+                }
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // ==================== Scan ====================
+
+    private void scan(ScrollbackBuffer.Snapshot snapshot, CommandExecutor executor, Listener listener) {
+        List<Match> batch = new ArrayList<>();
+        String literal = ignoreCase ? query.toLowerCase() : query;
+        Matcher matcher = pattern != null ? pattern.matcher("") : null;
+        long batchStarted = System.nanoTime();
+        int found = 0;
+
+        for (int i = snapshot.size() - 1; i >= 0 && found < MAX_MATCHES; i--) {
+            if (token.isCancelled()) {
+                return;
+            }
+            long line = snapshot.getFirstLine() + i;
+            String text = snapshot.get(i).toString();
+            if (matcher != null) {
+                matcher.reset(text);
+                while (matcher.find() && found < MAX_MATCHES) {
+                    if (matcher.end() > matcher.start()) {
+                        batch.add(new Match(line, matcher.start(), matcher.end()));
+                        found++;
+                    }
+                }
+            } else if (!literal.isEmpty()) {
+                int from = 0;
+                int at;
+                while (found < MAX_MATCHES && (at = indexOf(text, literal, from)) >= 0) {
+                    batch.add(new Match(line, at, at + literal.length()));
+                    found++;
+                    from = at + literal.length();
+                }
+            }
+
+            if (!batch.isEmpty() && (i % BATCH_LINES == 0
+                    || System.nanoTime() - batchStarted > BATCH_NANOS)) {
+                deliver(batch, executor, listener);
+                batch = new ArrayList<>();
+                batchStarted = System.nanoTime();
+            }
+        }
+
+        List<Match> last = batch;
+        executor.postToUi(() -> {
+            if (token.isCancelled()) {
+                return;
+            }
+            if (!last.isEmpty()) {
+                matches.addAll(last);
+                listener.onMatches(this, last.size());
+            }
+            complete = true;
+            listener.onComplete(this);
+        });
+    }
+
+    private void deliver(List<Match> batch, CommandExecutor executor, Listener listener) {
+        executor.postToUi(() -> {
+            if (!token.isCancelled()) {
+                matches.addAll(batch);
+                listener.onMatches(this, batch.size());
+            }
+        });
+    }
+
+    // Literal fast path; the query is already lower-cased when ignoring case
+    private int indexOf(String text, String literal, int from) {
+        if (!ignoreCase) {
+            return text.indexOf(literal, from);
+        }
+        char first = literal.charAt(0);
+        char firstUpper = Character.toUpperCase(first);
+        int last = text.length() - literal.length();
+        for (int i = from; i <= last; i++) {
+            char c = text.charAt(i);
+            if ((c == first || c == firstUpper || Character.toLowerCase(c) == first)
+                    && text.regionMatches(true, i + 1, literal, 1, literal.length() - 1)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.linuxsimulator.terminal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Append-only record of a session's output, so the scrollback survives the activity and the
+ * process. Output is written exactly as it entered the scrollback, with spans turned back into
+ * ANSI sequences; once the file holds much more than the scrollback can show it is rewritten
+ * from the scrollback.
+ *
+ * Writes, rewrites and reads go through one queue drained on the IO pool, so they reach the
+ * file in the order they were issued even when a new activity reads what the old one wrote.
+ */
+public final class SessionLog {
+
+    // Rewrite once the log holds this many characters more than the last rewrite left
+    private static final long MIN_COMPACT_CHARS = 8_000_000;
+    // Read first on restore, so the screenful the user left is back before the rest
+    private static final int TAIL_BYTES = 64 * 1024;
+    // Never restore more than this; the scrollback would drop the rest anyway
+    private static final int MAX_RESTORE_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Receives restored rows on the UI thread
+     */
+    public interface RestoreListener {
+        /**
+         * Rows read back from the log, oldest first. The newest rows come first; each later
+         * call delivers rows that go before everything delivered so far.
+         * @param rows Restored rows
+         * @param complete True on the last call
+         */
+        void onRows(List<CharSequence> rows, boolean complete);
+    }
+
+    // Rewrites the whole log with these rows
+    private static final class Rewrite {
+        final List<CharSequence> rows;
+        final boolean lastLineOpen;
+
+        Rewrite(List<CharSequence> rows, boolean lastLineOpen) {
+            this.rows = rows;
+            this.lastLineOpen = lastLineOpen;
+        }
+    }
+
+    private final File file;
+    private final CommandExecutor executor;
+
+    private final Object lock = new Object();
+    // Text to append, Rewrite or Runnable, in issue order
+    private final List<Object> pending = new ArrayList<>();
+    private boolean drainScheduled;
+    private long loggedChars;
+    private long compactAt = MIN_COMPACT_CHARS;
+
+    SessionLog(File file, CommandExecutor executor) {
+        this.file = file;
+        this.executor = executor;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Record output. The text must not be modified afterwards.
+     * @param text Output as it entered the scrollback, newlines included
+     */
+    public void append(CharSequence text) {
+        if (text.length() == 0) {
+            return;
+        }
+        synchronized (lock) {
+            loggedChars += text.length();
+            enqueue(text);
+        }
+    }
+
+    /**
+     * Check whether the log has grown enough that it should be rewritten from the scrollback
+     * @return True if {@link #rewrite} is due
+     */
+    public boolean needsCompaction() {
+        synchronized (lock) {
+            return loggedChars >= compactAt;
+        }
+    }
+
+    /**
+     * Replace the log's contents
+     * @param rows Rows to keep, oldest first; they must not be modified afterwards
+     * @param lastLineOpen Whether the last row is still waiting for its newline
+     */
+    public void rewrite(List<CharSequence> rows, boolean lastLineOpen) {
+        long chars = 0;
+        for (CharSequence row : rows) {
+            chars += row.length() + 1;
+        }
+        synchronized (lock) {
+            loggedChars = chars;
+            compactAt = Math.max(MIN_COMPACT_CHARS, chars * 2);
+            enqueue(new Rewrite(rows, lastLineOpen));
+        }
+    }
+
+    /**
+     * Empty the log
+     */
+    public void clear() {
+        rewrite(new ArrayList<>(), false);
+    }
+
+    /**
+     * Empty the log and remove the file
+     */
+    public void delete() {
+        clear();
+        synchronized (lock) {
+            enqueue((Runnable) file::delete);
+        }
+    }
+
+    /**
+     * Read the log back. Issue before any new output is appended; the newest rows are
+     * delivered first, then the older ones.
+     * @param foreground Default text color for the parser
+     * @param background Default background color for the parser
+     * @param listener Listener for the rows
+     */
+    public void restore(int foreground, int background, RestoreListener listener) {
+        synchronized (lock) {
+            enqueue((Runnable) () -> read(new AnsiParser(foreground, background, false), listener));
+        }
+    }
+
+    // ==================== IO pool ====================
+
+    // Called with the lock held; one drain at a time keeps operations in order
+    private void enqueue(Object operation) {
+        pending.add(operation);
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        try {
+            executor.execute(CommandExecutor.Pool.IO, this::drain);
+        } catch (RejectedExecutionException e) {
+            // Still pending; the next operation schedules it again
+            drainScheduled = false;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<Object> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    drainScheduled = false;
+                    return;
+                }
+                batch = new ArrayList<>(pending);
+                pending.clear();
+            }
+            Writer writer = null;
+            for (Object operation : batch) {
+                // A failure costs only its own operation; a lost restore would never report back
+                try {
+                    if (operation instanceof CharSequence) {
+                        // Consecutive appends share one open file
+                        if (writer == null) {
+                            writer = open(true);
+                        }
+                        writer.write(AnsiParser.encode((CharSequence) operation));
+                        continue;
+                    }
+                    writer = close(writer);
+                    if (operation instanceof Rewrite) {
+                        writeRows((Rewrite) operation);
+                    } else {
+                        ((Runnable) operation).run();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    // The next append opens the file again
+                    writer = close(writer);
+                }
+            }
+            close(writer);
+        }
+    }
+
+    // Returns null, for the writer variable
+    private static Writer close(Writer writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    private Writer open(boolean append) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, append), StandardCharsets.UTF_8));
+    }
+
+    private void writeRows(Rewrite rewrite) throws IOException {
+        if (rewrite.rows.isEmpty()) {
+            if (file.exists()) {
+                new FileOutputStream(file, false).close();
+            }
+            return;
+        }
+        try (Writer writer = open(false)) {
+            int count = rewrite.rows.size();
+            for (int i = 0; i < count; i++) {
+                writer.write(AnsiParser.encode(rewrite.rows.get(i)));
+                if (i < count - 1 || !rewrite.lastLineOpen) {
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    // Runs in the drain, so it sees everything written before it and nothing after
+    private void read(AnsiParser parser, RestoreListener listener) {
+        long length = file.length();
+        if (length == 0) {
+            executor.postToUi(() -> listener.onRows(new ArrayList<>(), true));
+            return;
+        }
+        // Whatever goes wrong, the listener hears its last call
+        boolean complete = false;
+        try (RandomAccessFile in = new RandomAccessFile(file, "rw")) {
+            long start = Math.max(0, length - MAX_RESTORE_BYTES);
+            long tailStart = lineStart(in, Math.max(start, length - TAIL_BYTES), length);
+            List<CharSequence> tail = rows(parser, in, tailStart, length);
+            synchronized (lock) {
+                loggedChars = length;
+                compactAt = Math.max(MIN_COMPACT_CHARS, length * 2);
+            }
+
+            // Output from now on starts a new line, whatever the last session left open
+            in.seek(length - 1);
+            if (in.read() != '\n') {
+                in.seek(length);
+                in.write('\n');
+            }
+
+            boolean older = start < tailStart;
+            complete = !older;
+            executor.postToUi(() -> listener.onRows(tail, !older));
+            if (older) {
+                parser.reset();
+                List<CharSequence> head = rows(parser, in, lineStart(in, start, tailStart), tailStart);
+                complete = true;
+                executor.postToUi(() -> listener.onRows(head, true));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (!complete) {
+                executor.postToUi(() -> listener.onRows(new ArrayList<>(), true));
+            }
+        }
+    }
+
+    // First byte of a line at or after from; a newline byte is never part of a UTF-8 sequence
+    private static long lineStart(RandomAccessFile in, long from, long end) throws IOException {
+        if (from == 0) {
+            return 0;
+        }
+        in.seek(from - 1);
+        byte[] buffer = new byte[8192];
+        long position = from - 1;
+        while (position < end) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    private static List<CharSequence> rows(AnsiParser parser, RandomAccessFile in, long from, long to)
+            throws IOException {
+        List<CharSequence> rows = new ArrayList<>();
+        if (to <= from) {
+            return rows;
+        }
+        byte[] bytes = new byte[(int) (to - from)];
+        in.seek(from);
+        in.readFully(bytes);
+        CharSequence text = parser.parse(new String(bytes, StandardCharsets.UTF_8));
+        int lineStart = 0;
+        int length = text.length();
+        while (lineStart < length) {
+            int newline = indexOf(text, '\n', lineStart);
+            int lineEnd = newline < 0 ? length : newline;
+            rows.add(text.subSequence(lineStart, lineEnd));
+            lineStart = lineEnd + 1;
+        }
+        return rows;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
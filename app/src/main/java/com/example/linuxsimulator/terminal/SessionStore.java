@@ -0,0 +1,266 @@
+package com.example.linuxsimulator.terminal;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps terminal tabs across activity restarts and process death: a small snapshot of every
+ * session's user, working directory and environment, plus one {@link SessionLog} of output
+ * per session. The snapshot is replaced atomically on the IO pool; reading it back is cheap
+ * enough for onCreate, while the logs are restored in the background.
+ */
+public final class SessionStore {
+
+    private static final String DIRECTORY = "sessions";
+    private static final String STATE_FILE = "sessions.json";
+
+    private static SessionStore instance;
+
+    /**
+     * A session as it was last saved
+     */
+    public static final class SavedSession {
+        public final int id;
+        public final boolean root;
+        public final String directory;
+        public final Map<String, String> environment;
+        public final boolean active;
+
+        SavedSession(int id, boolean root, String directory, Map<String, String> environment,
+                     boolean active) {
+            this.id = id;
+            this.root = root;
+            this.directory = directory;
+            this.environment = environment;
+            this.active = active;
+        }
+    }
+
+    private final File directory;
+    private final CommandExecutor executor;
+    private final Map<Integer, SessionLog> logs = new HashMap<>();
+
+    private final Object stateLock = new Object();
+    private String pendingState;
+    private boolean stateScheduled;
+
+    SessionStore(File directory, CommandExecutor executor) {
+        this.directory = directory;
+        this.executor = executor;
+    }
+
+    public static synchronized SessionStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new SessionStore(new File(context.getApplicationContext().getFilesDir(), DIRECTORY),
+                    CommandExecutor.getInstance());
+        }
+        return instance;
+    }
+
+    /**
+     * Get the output log of a session. The same log is returned for as long as the process
+     * lives, so a recreated activity queues behind whatever the old one was still writing.
+     * @param id Session number
+     * @return Log
+     */
+    public synchronized SessionLog getLog(int id) {
+        SessionLog log = logs.get(id);
+        if (log == null) {
+            log = new SessionLog(new File(directory, "session-" + id + ".log"), executor);
+            logs.put(id, log);
+        }
+        return log;
+    }
+
+    /**
+     * Read the last saved snapshot; a save still waiting to be written wins over the file.
+     * @return Saved sessions in tab order, empty if there are none or the file is unreadable
+     */
+    public List<SavedSession> load() {
+        List<SavedSession> saved = new ArrayList<>();
+        String json;
+        synchronized (stateLock) {
+            json = pendingState;
+            if (json == null) {
+                json = readState();
+            }
+        }
+        if (json == null || json.isEmpty()) {
+            return saved;
+        }
+        try {
+            JSONObject state = new JSONObject(json);
+            int active = state.optInt("active", -1);
+            JSONArray sessions = state.getJSONArray("sessions");
+            for (int i = 0; i < sessions.length(); i++) {
+                JSONObject session = sessions.getJSONObject(i);
+                Map<String, String> environment = new HashMap<>();
+                JSONObject env = session.optJSONObject("env");
+                if (env != null) {
+                    Iterator<String> keys = env.keys();
+                    while (keys.hasNext()) {
+                        String key = keys.next();
+                        environment.put(key, env.getString(key));
+                    }
+                }
+                int id = session.getInt("id");
+                saved.add(new SavedSession(id, session.optBoolean("root"),
+                        session.optString("cwd", null), environment, id == active));
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+            saved.clear();
+        }
+        return saved;
+    }
+
+    /**
+     * Snapshot the open sessions; the file is written in the background
+     * @param sessions Sessions in tab order
+     * @param active Session in front
+     */
+    public void save(List<TerminalSession> sessions, TerminalSession active) {
+        try {
+            JSONArray list = new JSONArray();
+            for (TerminalSession session : sessions) {
+                JSONObject saved = new JSONObject();
+                saved.put("id", session.getId());
+                saved.put("root", session.isRoot());
+                saved.put("cwd", session.getPathContext().getCurrentDirectory());
+                saved.put("env", new JSONObject(new HashMap<>(session.getEnvironment())));
+                list.put(saved);
+            }
+            JSONObject state = new JSONObject();
+            state.put("active", active != null ? active.getId() : -1);
+            state.put("sessions", list);
+            writeState(state.toString());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Forget every session: the snapshot and all output logs
+     */
+    public synchronized void clear() {
+        // Logs left by an earlier process are not in the map yet
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                int id = logNumber(file);
+                if (id >= 0) {
+                    getLog(id);
+                }
+            }
+        }
+        for (SessionLog log : logs.values()) {
+            log.delete();
+        }
+        writeState("");
+    }
+
+    private static int logNumber(File file) {
+        String name = file.getName();
+        if (!name.startsWith("session-") || !name.endsWith(".log")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring("session-".length(), name.length() - ".log".length()));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    // ==================== State file ====================
+
+    private void writeState(String json) {
+        synchronized (stateLock) {
+            pendingState = json;
+            if (stateScheduled) {
+                return;
+            }
+            stateScheduled = true;
+            try {
+                executor.execute(CommandExecutor.Pool.IO, this::drainState);
+            } catch (RejectedExecutionException e) {
+                // Still pending; the next save schedules it again
+                stateScheduled = false;
+            }
+        }
+    }
+
+    // Only the newest snapshot is written; a snapshot superseded while queued is skipped
+    private void drainState() {
+        while (true) {
+            String json;
+            synchronized (stateLock) {
+                json = pendingState;
+                if (json == null) {
+                    stateScheduled = false;
+                    return;
+                }
+            }
+            File target = new File(directory, STATE_FILE);
+            File temp = new File(directory, STATE_FILE + ".tmp");
+            try {
+                if (!directory.exists()) {
+                    directory.mkdirs();
+                }
+                try (FileOutputStream out = new FileOutputStream(temp)) {
+                    out.write(json.getBytes(StandardCharsets.UTF_8));
+                    out.getFD().sync();
+                }
+                // rename replaces the old snapshot in one step, so a crash leaves one or the other
+                if (!temp.renameTo(target)) {
+                    throw new IOException("Could not replace " + target);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized (stateLock) {
+                if (pendingState == json) {
+                    pendingState = null;
+                }
+            }
+        }
+    }
+
+    // Called with stateLock held
+    private String readState() {
+        File file = new File(directory, STATE_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return new String(bytes, 0, read, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
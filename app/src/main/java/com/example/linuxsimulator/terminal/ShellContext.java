@@ -0,0 +1,84 @@
+package com.example.linuxsimulator.terminal;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Variables, functions and the last exit status of one shell. The interactive terminal keeps
+ * one for its whole lifetime (so {@code source} can define things for later commands) and
+ * every {@code sh script.sh} gets a fresh one.
+ */
+public final class ShellContext {
+
+    private final Map<String, String> variables = new ConcurrentHashMap<>();
+    private final Map<String, ShellScript.Function> functions = new ConcurrentHashMap<>();
+    private volatile int lastStatus = OutputSink.EXIT_SUCCESS;
+
+    /**
+     * Get a shell variable
+     * @param name Variable name
+     * @return Value, or null if unset
+     */
+    public String getVariable(String name) {
+        return variables.get(name);
+    }
+
+    /**
+     * Set a shell variable
+     * @param name Variable name
+     * @param value New value
+     */
+    public void setVariable(String name, String value) {
+        variables.put(name, value);
+    }
+
+    /**
+     * Remove a shell variable
+     * @param name Variable name
+     */
+    public void unsetVariable(String name) {
+        variables.remove(name);
+    }
+
+    ShellScript.Function getFunction(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * Get the names of the defined functions
+     * @return Function names
+     */
+    public Set<String> getFunctionNames() {
+        return functions.keySet();
+    }
+
+    void defineFunction(ShellScript.Function function) {
+        functions.put(function.name, function);
+    }
+
+    /**
+     * Remove a function
+     * @param name Function name
+     * @return True if a function was removed
+     */
+    public boolean unsetFunction(String name) {
+        return functions.remove(name) != null;
+    }
+
+    /**
+     * Get the exit status of the last command, as seen by $?
+     * @return Exit status
+     */
+    public int getLastStatus() {
+        return lastStatus;
+    }
+
+    /**
+     * Record the exit status of a command
+     * @param status Exit status
+     */
+    public void setLastStatus(int status) {
+        lastStatus = status;
+    }
+}
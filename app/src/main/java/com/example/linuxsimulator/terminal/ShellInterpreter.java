@@ -0,0 +1,1088 @@
+package com.example.linuxsimulator.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Runs {@link ShellScript} plans: expands variables, $(...) and $((...)), handles the
+ * shell builtins and control flow, and hands every other command to the terminal.
+ * Everything runs on the calling worker thread and streams to the given sink.
+ */
+public final class ShellInterpreter {
+    private static final int MAX_CALL_DEPTH = 100;
+    private static final Pattern ASSIGNMENT = Pattern.compile("^[A-Za-z_][A-Za-z0-9_]*=.*", Pattern.DOTALL);
+    private static final Pattern NAME = Pattern.compile("^[A-Za-z_][A-Za-z0-9_]*$");
+    private static final Set<String> BUILTINS = new HashSet<>(Arrays.asList(
+            "sh", "bash", "source", ".", "test", "[", "export", "local", "unset", "shift",
+            "return", "break", "continue", "exit"));
+
+    /**
+     * What the interpreter needs from the terminal it runs in
+     */
+    public interface Host {
+        /**
+         * Run a fully expanded terminal command
+         * @param argv Command name and arguments, one word each, quotes already removed
+         * @param token Cancellation token of the running command
+         * @param out Output destination
+         * @return Exit status
+         */
+        int runCommand(List<String> argv, CancellationToken token, OutputSink out);
+
+        /**
+         * Resolve a path against the current directory
+         * @param path Absolute, ~ or relative path
+         * @return File
+         */
+        File resolvePath(String path);
+
+        /**
+         * Look up an environment variable such as HOME or PWD
+         * @param name Variable name
+         * @return Value, or null if unset
+         */
+        String getEnvironmentVariable(String name);
+    }
+
+    // Where a statement runs: positional parameters, function locals and output
+    private static final class Frame {
+        final ShellContext shell;
+        final String name;
+        final List<String> args;
+        final Map<String, String> locals;
+        final Frame caller;
+        final boolean script;
+        final int depth;
+        final CancellationToken token;
+        final OutputSink out;
+
+        Frame(ShellContext shell, String name, List<String> args, Map<String, String> locals,
+              Frame caller, boolean script, int depth, CancellationToken token, OutputSink out) {
+            this.shell = shell;
+            this.name = name;
+            this.args = args;
+            this.locals = locals;
+            this.caller = caller;
+            this.script = script;
+            this.depth = depth;
+            this.token = token;
+            this.out = out;
+        }
+
+        Frame withOutput(OutputSink output) {
+            return new Frame(shell, name, args, locals, caller, script, depth, token, output);
+        }
+    }
+
+    // Control flow unwinds the Java stack; no stack traces are needed
+    private static class ControlSignal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        int value;
+
+        ControlSignal(int value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    private static final class BreakSignal extends ControlSignal {
+        private static final long serialVersionUID = 1L;
+
+        BreakSignal(int levels) {
+            super(levels);
+        }
+    }
+
+    private static final class ContinueSignal extends ControlSignal {
+        private static final long serialVersionUID = 1L;
+
+        ContinueSignal(int levels) {
+            super(levels);
+        }
+    }
+
+    private static final class ReturnSignal extends ControlSignal {
+        private static final long serialVersionUID = 1L;
+
+        ReturnSignal(int status) {
+            super(status);
+        }
+    }
+
+    private static final class ExitSignal extends ControlSignal {
+        private static final long serialVersionUID = 1L;
+
+        ExitSignal(int status) {
+            super(status);
+        }
+    }
+
+    // A runtime error in one statement; the script carries on with the next one
+    private static final class ShellError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        ShellError(String message) {
+            this(message, OutputSink.EXIT_FAILURE);
+        }
+
+        ShellError(String message, int status) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+
+    private final Host host;
+    private final ScriptPlanCache cache;
+
+    /**
+     * Get the commands the interpreter runs itself
+     * @return Builtin names
+     */
+    public static Set<String> getBuiltinNames() {
+        return Collections.unmodifiableSet(BUILTINS);
+    }
+
+    public ShellInterpreter(Host host, ScriptPlanCache cache) {
+        this.host = host;
+        this.cache = cache;
+    }
+
+    /**
+     * Run an interactive command line in the terminal's own shell
+     * @param script Parsed command line
+     * @param shell Shell the line runs in
+     * @param token Cancellation token of the command
+     * @param out Output destination
+     * @return Exit status of the last command
+     */
+    public int run(ShellScript script, ShellContext shell, CancellationToken token, OutputSink out) {
+        Frame frame = new Frame(shell, "bash", new ArrayList<>(), null, null, false, 0, token, out);
+        try {
+            return execute(script.getBody(), frame);
+        } catch (ReturnSignal | ExitSignal e) {
+            return e.value;
+        } catch (BreakSignal | ContinueSignal e) {
+            return OutputSink.EXIT_SUCCESS;
+        }
+    }
+
+    // ==================== Statements ====================
+
+    private int execute(List<ShellScript.Node> nodes, Frame frame) {
+        int status = OutputSink.EXIT_SUCCESS;
+        for (ShellScript.Node node : nodes) {
+            frame.token.throwIfCancelled();
+            try {
+                status = execute(node, frame);
+            } catch (ShellError e) {
+                status = error(frame, node.line, e.getMessage(), e.status);
+            }
+        }
+        return status;
+    }
+
+    private int execute(ShellScript.Node node, Frame frame) {
+        if (node instanceof ShellScript.Command) {
+            return runList((ShellScript.Command) node, frame);
+        } else if (node instanceof ShellScript.If) {
+            ShellScript.If branch = (ShellScript.If) node;
+            for (int i = 0; i < branch.conditions.size(); i++) {
+                if (runList(branch.conditions.get(i), frame) == OutputSink.EXIT_SUCCESS) {
+                    return execute(branch.branches.get(i), frame);
+                }
+            }
+            return branch.elseBranch != null ? execute(branch.elseBranch, frame) : OutputSink.EXIT_SUCCESS;
+        } else if (node instanceof ShellScript.For) {
+            ShellScript.For loop = (ShellScript.For) node;
+            List<String> items = loop.words == null
+                    ? new ArrayList<>(frame.args)
+                    : expandWords(loop.words, frame);
+            int status = OutputSink.EXIT_SUCCESS;
+            for (String item : items) {
+                frame.token.throwIfCancelled();
+                setVariable(frame, loop.variable, item);
+                try {
+                    status = execute(loop.body, frame);
+                } catch (BreakSignal e) {
+                    if (--e.value > 0) throw e;
+                    break;
+                } catch (ContinueSignal e) {
+                    if (--e.value > 0) throw e;
+                }
+            }
+            return status;
+        } else if (node instanceof ShellScript.While) {
+            ShellScript.While loop = (ShellScript.While) node;
+            int status = OutputSink.EXIT_SUCCESS;
+            while (true) {
+                frame.token.throwIfCancelled();
+                boolean succeeded = runList(loop.condition, frame) == OutputSink.EXIT_SUCCESS;
+                if (succeeded == loop.until) {
+                    break;
+                }
+                try {
+                    status = execute(loop.body, frame);
+                } catch (BreakSignal e) {
+                    if (--e.value > 0) throw e;
+                    break;
+                } catch (ContinueSignal e) {
+                    if (--e.value > 0) throw e;
+                }
+            }
+            return status;
+        } else if (node instanceof ShellScript.Group) {
+            return execute(((ShellScript.Group) node).body, frame);
+        } else if (node instanceof ShellScript.Function) {
+            frame.shell.defineFunction((ShellScript.Function) node);
+            return OutputSink.EXIT_SUCCESS;
+        }
+        return OutputSink.EXIT_SUCCESS;
+    }
+
+    // Runs a ;/&&/|| list; a skipped step leaves the status untouched
+    private int runList(ShellScript.Command command, Frame frame) {
+        int status = OutputSink.EXIT_SUCCESS;
+        for (CommandChain.Step step : command.chain.getSteps()) {
+            if (!step.shouldRun(status)) {
+                continue;
+            }
+            frame.token.throwIfCancelled();
+            status = runSimple(step.command, frame);
+            frame.shell.setLastStatus(status);
+        }
+        return status;
+    }
+
+    private int runSimple(String text, Frame frame) {
+        boolean negate = text.startsWith("! ");
+        if (negate) {
+            text = text.substring(2).trim();
+        }
+
+        // Leading NAME=value words are assignments
+        List<String> raw = splitRaw(text);
+        int first = 0;
+        while (first < raw.size() && ASSIGNMENT.matcher(raw.get(first)).matches()) {
+            String assignment = raw.get(first++);
+            int equals = assignment.indexOf('=');
+            setVariable(frame, assignment.substring(0, equals), expandValue(assignment.substring(equals + 1), frame));
+        }
+
+        int status = OutputSink.EXIT_SUCCESS;
+        if (first < raw.size()) {
+            // Each raw word expands on its own, so word boundaries survive to the command
+            List<String> words = new ArrayList<>();
+            for (String word : raw.subList(first, raw.size())) {
+                words.addAll(expandWords(word, frame));
+            }
+            if (!words.isEmpty()) {
+                status = runWords(words, frame);
+            }
+        }
+        if (negate) {
+            return status == OutputSink.EXIT_SUCCESS ? OutputSink.EXIT_FAILURE : OutputSink.EXIT_SUCCESS;
+        }
+        return status;
+    }
+
+    private int runWords(List<String> words, Frame frame) {
+        String name = words.get(0);
+        List<String> args = words.subList(1, words.size());
+
+        ShellScript.Function function = frame.shell.getFunction(name);
+        if (function != null) {
+            return callFunction(function, new ArrayList<>(args), frame);
+        }
+        // At the prompt, exit closes the terminal
+        if (BUILTINS.contains(name) && !(name.equals("exit") && !frame.script)) {
+            return runBuiltin(name, args, frame);
+        }
+        return host.runCommand(words, frame.token, frame.out);
+    }
+
+    private int callFunction(ShellScript.Function function, List<String> args, Frame frame) {
+        if (frame.depth >= MAX_CALL_DEPTH) {
+            throw new ShellError(function.name + ": maximum function nesting level exceeded (" + MAX_CALL_DEPTH + ")");
+        }
+        Frame callee = new Frame(frame.shell, frame.name, args, new HashMap<>(), frame,
+                frame.script, frame.depth + 1, frame.token, frame.out);
+        try {
+            return execute(function.body, callee);
+        } catch (ReturnSignal e) {
+            return e.value;
+        } catch (BreakSignal | ContinueSignal e) {
+            return OutputSink.EXIT_SUCCESS;
+        }
+    }
+
+    // ==================== Builtins ====================
+
+    private int runBuiltin(String name, List<String> args, Frame frame) {
+        switch (name) {
+            case "sh":
+            case "bash":
+                return runScript(name, args, frame, false);
+            case "source":
+            case ".":
+                return runScript(name, args, frame, true);
+            case "test":
+                return test(args);
+            case "[":
+                if (args.isEmpty() || !args.get(args.size() - 1).equals("]")) {
+                    throw new ShellError("[: missing `]'", OutputSink.EXIT_USAGE);
+                }
+                return test(args.subList(0, args.size() - 1));
+            case "export":
+            case "local":
+                return declare(name, args, frame);
+            case "unset":
+                for (String variable : args) {
+                    if (!frame.shell.unsetFunction(variable)) {
+                        unsetVariable(frame, variable);
+                    }
+                }
+                return OutputSink.EXIT_SUCCESS;
+            case "shift": {
+                int count = args.isEmpty() ? 1 : parseNumber(name, args.get(0));
+                if (count > frame.args.size()) {
+                    return OutputSink.EXIT_FAILURE;
+                }
+                frame.args.subList(0, count).clear();
+                return OutputSink.EXIT_SUCCESS;
+            }
+            case "return":
+                if (frame.locals == null && !frame.script) {
+                    throw new ShellError("return: can only `return' from a function or sourced script");
+                }
+                throw new ReturnSignal(args.isEmpty() ? frame.shell.getLastStatus() : parseNumber(name, args.get(0)));
+            case "break":
+                throw new BreakSignal(args.isEmpty() ? 1 : Math.max(1, parseNumber(name, args.get(0))));
+            case "continue":
+                throw new ContinueSignal(args.isEmpty() ? 1 : Math.max(1, parseNumber(name, args.get(0))));
+            case "exit":
+                throw new ExitSignal(args.isEmpty() ? frame.shell.getLastStatus() : parseNumber(name, args.get(0)));
+            default:
+                return OutputSink.EXIT_NOT_FOUND;
+        }
+    }
+
+    // sh runs the script in a fresh shell, source runs it in the caller's
+    private int runScript(String name, List<String> args, Frame frame, boolean source) {
+        if (args.isEmpty()) {
+            throw new ShellError(name + ": filename argument required", OutputSink.EXIT_USAGE);
+        }
+
+        ShellScript script;
+        String scriptName;
+        List<String> scriptArgs;
+        if (!source && args.get(0).equals("-c")) {
+            if (args.size() < 2) {
+                throw new ShellError(name + ": -c: option requires an argument", OutputSink.EXIT_USAGE);
+            }
+            try {
+                script = ShellScript.parse(args.get(1));
+            } catch (ShellScript.SyntaxError e) {
+                throw new ShellError(name + ": -c: " + e.getMessage(), OutputSink.EXIT_USAGE);
+            }
+            // As in bash, the first word after the command string becomes $0
+            scriptName = args.size() > 2 ? args.get(2) : name;
+            scriptArgs = new ArrayList<>(args.subList(Math.min(3, args.size()), args.size()));
+        } else {
+            String path = args.get(0);
+            try {
+                script = cache.load(host.resolvePath(path));
+            } catch (ShellScript.SyntaxError e) {
+                throw new ShellError(path + ": line " + e.getLine() + ": " + e.getMessage(), OutputSink.EXIT_USAGE);
+            } catch (IOException e) {
+                throw new ShellError(name + ": " + path + ": " + e.getMessage(), OutputSink.EXIT_NOT_FOUND);
+            }
+            scriptName = path;
+            scriptArgs = new ArrayList<>(args.subList(1, args.size()));
+        }
+
+        if (frame.depth >= MAX_CALL_DEPTH) {
+            throw new ShellError(name + ": maximum nesting level exceeded (" + MAX_CALL_DEPTH + ")");
+        }
+        Frame scriptFrame = source
+                ? new Frame(frame.shell, scriptName, scriptArgs.isEmpty() ? frame.args : scriptArgs,
+                        frame.locals, frame.caller, true, frame.depth + 1, frame.token, frame.out)
+                : new Frame(new ShellContext(), scriptName, scriptArgs, null, null, true,
+                        frame.depth + 1, frame.token, frame.out);
+        try {
+            return execute(script.getBody(), scriptFrame);
+        } catch (ReturnSignal | ExitSignal e) {
+            return e.value;
+        } catch (BreakSignal | ContinueSignal e) {
+            return OutputSink.EXIT_SUCCESS;
+        }
+    }
+
+    // export and local take NAME or NAME=value; exported values live in the shell like any other
+    private int declare(String name, List<String> args, Frame frame) {
+        if (name.equals("local") && frame.locals == null) {
+            throw new ShellError("local: can only be used in a function");
+        }
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String variable = equals < 0 ? arg : arg.substring(0, equals);
+            if (!NAME.matcher(variable).matches()) {
+                throw new ShellError(name + ": `" + arg + "': not a valid identifier");
+            }
+            if (name.equals("local")) {
+                frame.locals.put(variable, equals < 0 ? "" : arg.substring(equals + 1));
+            } else if (equals >= 0) {
+                setVariable(frame, variable, arg.substring(equals + 1));
+            }
+        }
+        return OutputSink.EXIT_SUCCESS;
+    }
+
+    // test / [ with the common file, string and integer operators
+    private int test(List<String> args) {
+        return evaluateTest(args) ? OutputSink.EXIT_SUCCESS : OutputSink.EXIT_FAILURE;
+    }
+
+    private boolean evaluateTest(List<String> args) {
+        int or = args.lastIndexOf("-o");
+        if (or > 0) {
+            return evaluateTest(args.subList(0, or)) || evaluateTest(args.subList(or + 1, args.size()));
+        }
+        int and = args.lastIndexOf("-a");
+        if (and > 0 && args.size() > 2) {
+            return evaluateTest(args.subList(0, and)) && evaluateTest(args.subList(and + 1, args.size()));
+        }
+        if (!args.isEmpty() && args.get(0).equals("!")) {
+            return !evaluateTest(args.subList(1, args.size()));
+        }
+
+        switch (args.size()) {
+            case 0:
+                return false;
+            case 1:
+                return !args.get(0).isEmpty();
+            case 2:
+                return unaryTest(args.get(0), args.get(1));
+            case 3:
+                return binaryTest(args.get(0), args.get(1), args.get(2));
+            default:
+                throw new ShellError("test: too many arguments", OutputSink.EXIT_USAGE);
+        }
+    }
+
+    private boolean unaryTest(String operator, String operand) {
+        switch (operator) {
+            case "-z":
+                return operand.isEmpty();
+            case "-n":
+                return !operand.isEmpty();
+            case "-e":
+                return host.resolvePath(operand).exists();
+            case "-f":
+                return host.resolvePath(operand).isFile();
+            case "-d":
+                return host.resolvePath(operand).isDirectory();
+            case "-s":
+                return host.resolvePath(operand).length() > 0;
+            case "-r":
+                return host.resolvePath(operand).canRead();
+            case "-w":
+                return host.resolvePath(operand).canWrite();
+            case "-x":
+                return host.resolvePath(operand).canExecute();
+            default:
+                throw new ShellError("test: " + operator + ": unary operator expected", OutputSink.EXIT_USAGE);
+        }
+    }
+
+    private boolean binaryTest(String left, String operator, String right) {
+        switch (operator) {
+            case "=":
+            case "==":
+                return left.equals(right);
+            case "!=":
+                return !left.equals(right);
+            case "-eq":
+                return parseInteger(left) == parseInteger(right);
+            case "-ne":
+                return parseInteger(left) != parseInteger(right);
+            case "-lt":
+                return parseInteger(left) < parseInteger(right);
+            case "-le":
+                return parseInteger(left) <= parseInteger(right);
+            case "-gt":
+                return parseInteger(left) > parseInteger(right);
+            case "-ge":
+                return parseInteger(left) >= parseInteger(right);
+            default:
+                throw new ShellError("test: " + operator + ": binary operator expected", OutputSink.EXIT_USAGE);
+        }
+    }
+
+    private static long parseInteger(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ShellError("test: " + value + ": integer expression expected", OutputSink.EXIT_USAGE);
+        }
+    }
+
+    private static int parseNumber(String builtin, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ShellError(builtin + ": " + value + ": numeric argument required", OutputSink.EXIT_USAGE);
+        }
+    }
+
+    // ==================== Variables ====================
+
+    private String getVariable(Frame frame, String name) {
+        for (Frame f = frame; f != null; f = f.caller) {
+            if (f.locals != null && f.locals.containsKey(name)) {
+                return f.locals.get(name);
+            }
+        }
+        String value = frame.shell.getVariable(name);
+        return value != null ? value : host.getEnvironmentVariable(name);
+    }
+
+    private void setVariable(Frame frame, String name, String value) {
+        for (Frame f = frame; f != null; f = f.caller) {
+            if (f.locals != null && f.locals.containsKey(name)) {
+                f.locals.put(name, value);
+                return;
+            }
+        }
+        frame.shell.setVariable(name, value);
+    }
+
+    private void unsetVariable(Frame frame, String name) {
+        for (Frame f = frame; f != null; f = f.caller) {
+            if (f.locals != null && f.locals.remove(name) != null) {
+                return;
+            }
+        }
+        frame.shell.unsetVariable(name);
+    }
+
+    // ==================== Expansion ====================
+
+    // Split on unquoted whitespace, keeping quotes and $( ) intact
+    private static List<String> splitRaw(String text) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        char quote = 0;
+        int depth = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+                else if (c == '\\' && quote == '"' && i + 1 < text.length()) {
+                    word.append(c);
+                    c = text.charAt(++i);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '\\' && i + 1 < text.length()) {
+                word.append(c);
+                c = text.charAt(++i);
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && depth > 0) {
+                depth--;
+            } else if (depth == 0 && Character.isWhitespace(c)) {
+                if (word.length() > 0) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                }
+                continue;
+            }
+            word.append(c);
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    // Expand into words: quotes removed, unquoted expansions split on whitespace, globs matched
+    private List<String> expandWords(String text, Frame frame) {
+        return expand(text, frame, true);
+    }
+
+    // Expand into a single value, as on the right of an assignment
+    private String expandValue(String text, Frame frame) {
+        List<String> value = expand(text, frame, false);
+        return value.isEmpty() ? "" : value.get(0);
+    }
+
+    private List<String> expand(String text, Frame frame, boolean split) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        // A quoted empty string still makes a word
+        boolean quoted = false;
+        boolean glob = false;
+        boolean inDouble = false;
+        int length = text.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\'' && !inDouble) {
+                int end = text.indexOf('\'', i + 1);
+                if (end < 0) end = length;
+                word.append(text, i + 1, end);
+                quoted = true;
+                i = end;
+                continue;
+            }
+            if (split && !inDouble && text.startsWith("\"$@\"", i)) {
+                // "$@" keeps every positional parameter a separate word, and is nothing without any
+                for (int p = 0; p < frame.args.size(); p++) {
+                    if (p > 0) {
+                        words.add(word.toString());
+                        word.setLength(0);
+                    }
+                    word.append(frame.args.get(p));
+                    quoted = true;
+                }
+                i += 3;
+                continue;
+            }
+            if (c == '"') {
+                inDouble = !inDouble;
+                quoted = true;
+                continue;
+            }
+            if (c == '\\' && i + 1 < length) {
+                char next = text.charAt(++i);
+                if (inDouble && "$`\"\\".indexOf(next) < 0) {
+                    word.append('\\');
+                }
+                word.append(next);
+                continue;
+            }
+            if (c == '$' && i + 1 < length) {
+                StringBuilder value = new StringBuilder();
+                int end = expandDollar(text, i, frame, value);
+                if (end >= 0) {
+                    if (split && !inDouble) {
+                        for (int v = 0; v < value.length(); v++) {
+                            char ch = value.charAt(v);
+                            if (Character.isWhitespace(ch)) {
+                                if (word.length() > 0 || quoted) {
+                                    addWord(words, word.toString(), glob);
+                                    word.setLength(0);
+                                    quoted = false;
+                                    glob = false;
+                                }
+                            } else {
+                                glob |= ch == '*' || ch == '?';
+                                word.append(ch);
+                            }
+                        }
+                    } else {
+                        word.append(value);
+                        quoted |= inDouble;
+                    }
+                    i = end;
+                    continue;
+                }
+            }
+            if (split && !inDouble && Character.isWhitespace(c)) {
+                if (word.length() > 0 || quoted) {
+                    addWord(words, word.toString(), glob);
+                    word.setLength(0);
+                    quoted = false;
+                    glob = false;
+                }
+                continue;
+            }
+            if (!inDouble && (c == '*' || c == '?')) {
+                glob = true;
+            }
+            word.append(c);
+        }
+
+        if (!split) {
+            return Collections.singletonList(word.toString());
+        }
+        if (word.length() > 0 || quoted) {
+            addWord(words, word.toString(), glob);
+        }
+        return words;
+    }
+
+    // Append a word, replacing an unquoted glob with the matching file names if there are any
+    private void addWord(List<String> words, String word, boolean glob) {
+        if (!glob) {
+            words.add(word);
+            return;
+        }
+        int slash = word.lastIndexOf('/');
+        String directory = slash < 0 ? "" : word.substring(0, slash + 1);
+        String pattern = word.substring(slash + 1);
+        if (directory.indexOf('*') >= 0 || directory.indexOf('?') >= 0) {
+            words.add(word);
+            return;
+        }
+
+        File[] files = host.resolvePath(directory.isEmpty() ? "." : directory).listFiles();
+        List<String> matches = new ArrayList<>();
+        if (files != null) {
+            Pattern regex = globToRegex(pattern);
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(".") && !pattern.startsWith(".")) continue;
+                if (regex.matcher(name).matches()) {
+                    matches.add(directory + name);
+                }
+            }
+        }
+        if (matches.isEmpty()) {
+            words.add(word);
+        } else {
+            Collections.sort(matches);
+            words.addAll(matches);
+        }
+    }
+
+    private static Pattern globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Expand the $ expression starting at {@code start}
+     * @return Index of the last character consumed, or -1 if this is a literal $
+     */
+    private int expandDollar(String text, int start, Frame frame, StringBuilder value) {
+        int length = text.length();
+        char next = text.charAt(start + 1);
+
+        if (next == '(') {
+            int close = matchParen(text, start + 1);
+            if (close < 0) {
+                return -1;
+            }
+            if (start + 2 < length && text.charAt(start + 2) == '(' && matchParen(text, start + 2) == close - 1) {
+                String expression = expandValue(text.substring(start + 3, close - 1), frame);
+                value.append(new Arithmetic(expression, frame).evaluate());
+            } else {
+                value.append(substitute(text.substring(start + 2, close), frame));
+            }
+            return close;
+        }
+
+        if (next == '{') {
+            int close = text.indexOf('}', start + 2);
+            if (close < 0) {
+                return -1;
+            }
+            value.append(expandBraced(text.substring(start + 2, close), frame));
+            return close;
+        }
+
+        if (Character.isDigit(next)) {
+            int index = next - '0';
+            if (index == 0) {
+                value.append(frame.name);
+            } else if (index <= frame.args.size()) {
+                value.append(frame.args.get(index - 1));
+            }
+            return start + 1;
+        }
+
+        switch (next) {
+            case '?':
+                value.append(frame.shell.getLastStatus());
+                return start + 1;
+            case '#':
+                value.append(frame.args.size());
+                return start + 1;
+            case '@':
+            case '*':
+                value.append(String.join(" ", frame.args));
+                return start + 1;
+            default:
+                break;
+        }
+
+        int end = start + 1;
+        while (end < length && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_')) {
+            end++;
+        }
+        if (end == start + 1 || Character.isDigit(next)) {
+            return -1;
+        }
+        String variable = getVariable(frame, text.substring(start + 1, end));
+        if (variable != null) {
+            value.append(variable);
+        }
+        return end - 1;
+    }
+
+    // ${name}, ${#name}, ${name:-default} and ${name:=default}
+    private String expandBraced(String expression, Frame frame) {
+        if (expression.startsWith("#") && expression.length() > 1) {
+            String variable = lookup(expression.substring(1), frame);
+            return String.valueOf(variable.length());
+        }
+        int colon = expression.indexOf(':');
+        if (colon > 0 && colon + 1 < expression.length()) {
+            String name = expression.substring(0, colon);
+            char operator = expression.charAt(colon + 1);
+            String fallback = expandValue(expression.substring(colon + 2), frame);
+            String variable = lookup(name, frame);
+            if (!variable.isEmpty()) {
+                return variable;
+            }
+            if (operator == '=') {
+                setVariable(frame, name, fallback);
+            } else if (operator != '-') {
+                throw new ShellError("${" + expression + "}: bad substitution");
+            }
+            return fallback;
+        }
+        return lookup(expression, frame);
+    }
+
+    private String lookup(String name, Frame frame) {
+        StringBuilder value = new StringBuilder();
+        if (expandDollar("$" + name, 0, frame, value) < 0 && !name.isEmpty()) {
+            throw new ShellError("${" + name + "}: bad substitution");
+        }
+        return value.toString();
+    }
+
+    // $( ): run the command and capture its output, minus trailing newlines
+    private String substitute(String commandText, Frame frame) {
+        ShellScript script;
+        try {
+            script = ShellScript.parse(commandText);
+        } catch (ShellScript.SyntaxError e) {
+            throw new ShellError(e.getMessage(), OutputSink.EXIT_USAGE);
+        }
+
+        StringBuilder captured = new StringBuilder();
+        OutputSink target = frame.out;
+        OutputSink capture = new OutputSink() {
+            @Override
+            public void onChunk(CharSequence chunk) {
+                captured.append(chunk);
+            }
+
+            @Override
+            public void onErrorChunk(CharSequence chunk) {
+                target.onErrorChunk(chunk);
+            }
+
+            @Override
+            public void onProgress(CharSequence label, long current, long total) {
+            }
+
+            @Override
+            public void onDirectoryChanged() {
+                target.onDirectoryChanged();
+            }
+
+            @Override
+            public void onComplete(int exitCode) {
+            }
+        };
+
+        try {
+            execute(script.getBody(), frame.withOutput(capture));
+        } catch (ReturnSignal | ExitSignal | BreakSignal | ContinueSignal e) {
+            // Ends the substitution only
+        }
+        int end = captured.length();
+        while (end > 0 && captured.charAt(end - 1) == '\n') end--;
+        captured.setLength(end);
+        return captured.toString();
+    }
+
+    private static int matchParen(String text, int open) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = open; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int error(Frame frame, int line, String message, int status) {
+        String prefix = frame.script ? frame.name + ": line " + line + ": " : "bash: ";
+        frame.out.onErrorChunk(prefix + message + "\n");
+        frame.shell.setLastStatus(status);
+        return status;
+    }
+
+    // ==================== Arithmetic ====================
+
+    // Integer $(( )) expressions: + - * / %, comparisons, && || ! and parentheses
+    private final class Arithmetic {
+        private final String text;
+        private final Frame frame;
+        private int position;
+
+        Arithmetic(String text, Frame frame) {
+            this.text = text;
+            this.frame = frame;
+        }
+
+        long evaluate() {
+            long result = or();
+            skipSpaces();
+            if (position < text.length()) {
+                throw new ShellError(text + ": syntax error in expression (error token is \""
+                        + text.substring(position) + "\")");
+            }
+            return result;
+        }
+
+        private long or() {
+            long left = and();
+            while (accept("||")) {
+                long right = and();
+                left = (left != 0 || right != 0) ? 1 : 0;
+            }
+            return left;
+        }
+
+        private long and() {
+            long left = comparison();
+            while (accept("&&")) {
+                long right = comparison();
+                left = (left != 0 && right != 0) ? 1 : 0;
+            }
+            return left;
+        }
+
+        private long comparison() {
+            long left = sum();
+            while (true) {
+                if (accept("==")) left = left == sum() ? 1 : 0;
+                else if (accept("!=")) left = left != sum() ? 1 : 0;
+                else if (accept("<=")) left = left <= sum() ? 1 : 0;
+                else if (accept(">=")) left = left >= sum() ? 1 : 0;
+                else if (accept("<")) left = left < sum() ? 1 : 0;
+                else if (accept(">")) left = left > sum() ? 1 : 0;
+                else return left;
+            }
+        }
+
+        private long sum() {
+            long left = product();
+            while (true) {
+                if (accept("+")) left += product();
+                else if (accept("-")) left -= product();
+                else return left;
+            }
+        }
+
+        private long product() {
+            long left = unary();
+            while (true) {
+                if (accept("*")) {
+                    left *= unary();
+                } else if (accept("/") || accept("%")) {
+                    boolean divide = text.charAt(position - 1) == '/';
+                    long right = unary();
+                    if (right == 0) {
+                        throw new ShellError(text + ": division by 0");
+                    }
+                    left = divide ? left / right : left % right;
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private long unary() {
+            if (accept("-")) return -unary();
+            if (accept("+")) return unary();
+            if (accept("!")) return unary() == 0 ? 1 : 0;
+            return primary();
+        }
+
+        private long primary() {
+            skipSpaces();
+            if (accept("(")) {
+                long value = or();
+                if (!accept(")")) {
+                    throw new ShellError(text + ": missing `)'");
+                }
+                return value;
+            }
+            int start = position;
+            while (position < text.length() && (Character.isLetterOrDigit(text.charAt(position))
+                    || text.charAt(position) == '_')) {
+                position++;
+            }
+            String operand = text.substring(start, position);
+            if (operand.isEmpty()) {
+                throw new ShellError(text + ": syntax error: operand expected");
+            }
+            if (Character.isDigit(operand.charAt(0))) {
+                try {
+                    return Long.parseLong(operand);
+                } catch (NumberFormatException e) {
+                    throw new ShellError(text + ": value too great for base");
+                }
+            }
+            // Bare names are variables; unset or non-numeric ones count as 0
+            String variable = getVariable(frame, operand);
+            try {
+                return variable == null || variable.trim().isEmpty() ? 0 : Long.parseLong(variable.trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private boolean accept(String operator) {
+            skipSpaces();
+            if (text.startsWith(operator, position)) {
+                position += operator.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpaces() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
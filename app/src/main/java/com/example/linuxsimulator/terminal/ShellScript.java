@@ -0,0 +1,474 @@
+package com.example.linuxsimulator.terminal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A shell script compiled into a tree of statements, ready to be run any number of times
+ * by {@link ShellInterpreter}. Supports command lists, variable assignments, if/elif/else,
+ * for, while/until, { } groups and function definitions.
+ */
+public final class ShellScript {
+
+    private static final Set<String> PREFIX_KEYWORDS = new HashSet<>(Arrays.asList(
+            "then", "do", "else", "{", "fi", "done", "}"));
+    private static final Set<String> CONDITION_KEYWORDS = new HashSet<>(Arrays.asList(
+            "if", "elif", "while", "until"));
+    private static final Pattern FUNCTION_HEADER = Pattern.compile(
+            "^(?:function\\s+([A-Za-z_][\\w.-]*)(?:\\s*\\(\\s*\\))?|([A-Za-z_][\\w.-]*)\\s*\\(\\s*\\))\\s*(.*)$",
+            Pattern.DOTALL);
+    private static final Pattern FOR_HEADER = Pattern.compile(
+            "^([A-Za-z_][A-Za-z0-9_]*)(\\s+in(?:\\s+(.*))?)?$", Pattern.DOTALL);
+
+    // ==================== Plan nodes ====================
+
+    abstract static class Node {
+        final int line;
+
+        Node(int line) {
+            this.line = line;
+        }
+    }
+
+    /** A command list such as {@code mkdir out && cd out} */
+    static final class Command extends Node {
+        final CommandChain chain;
+
+        Command(int line, CommandChain chain) {
+            super(line);
+            this.chain = chain;
+        }
+    }
+
+    static final class If extends Node {
+        final List<Command> conditions;
+        final List<List<Node>> branches;
+        final List<Node> elseBranch;
+
+        If(int line, List<Command> conditions, List<List<Node>> branches, List<Node> elseBranch) {
+            super(line);
+            this.conditions = conditions;
+            this.branches = branches;
+            this.elseBranch = elseBranch;
+        }
+    }
+
+    static final class For extends Node {
+        final String variable;
+        // Unexpanded word list, or null to loop over the positional parameters
+        final String words;
+        final List<Node> body;
+
+        For(int line, String variable, String words, List<Node> body) {
+            super(line);
+            this.variable = variable;
+            this.words = words;
+            this.body = body;
+        }
+    }
+
+    static final class While extends Node {
+        final Command condition;
+        final boolean until;
+        final List<Node> body;
+
+        While(int line, Command condition, boolean until, List<Node> body) {
+            super(line);
+            this.condition = condition;
+            this.until = until;
+            this.body = body;
+        }
+    }
+
+    static final class Group extends Node {
+        final List<Node> body;
+
+        Group(int line, List<Node> body) {
+            super(line);
+            this.body = body;
+        }
+    }
+
+    static final class Function extends Node {
+        final String name;
+        final List<Node> body;
+
+        Function(int line, String name, List<Node> body) {
+            super(line);
+            this.name = name;
+            this.body = body;
+        }
+    }
+
+    /**
+     * A script that could not be parsed
+     */
+    public static final class SyntaxError extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        private final int line;
+
+        SyntaxError(int line, String message) {
+            super(message);
+            this.line = line;
+        }
+
+        /**
+         * Get the line the error was found on
+         * @return 1-based line number
+         */
+        public int getLine() {
+            return line;
+        }
+    }
+
+    private final List<Node> body;
+
+    private ShellScript(List<Node> body) {
+        this.body = Collections.unmodifiableList(body);
+    }
+
+    List<Node> getBody() {
+        return body;
+    }
+
+    /**
+     * Parse script source into a plan
+     * @param source Script text, or a single command line
+     * @return Parsed script
+     * @throws SyntaxError if the script is malformed
+     */
+    public static ShellScript parse(String source) {
+        return new ShellScript(new Parser(tokenize(source)).parseAll());
+    }
+
+    /**
+     * Get every command line the script may run, unexpanded
+     * @return Command lines in source order
+     */
+    public List<String> getCommandLines() {
+        List<String> lines = new ArrayList<>();
+        collectCommandLines(body, lines);
+        return lines;
+    }
+
+    private static void collectCommandLines(List<Node> nodes, List<String> lines) {
+        for (Node node : nodes) {
+            if (node instanceof Command) {
+                for (CommandChain.Step step : ((Command) node).chain.getSteps()) {
+                    lines.add(step.command);
+                }
+            } else if (node instanceof If) {
+                If branch = (If) node;
+                collectCommandLines(new ArrayList<Node>(branch.conditions), lines);
+                for (List<Node> nodesOfBranch : branch.branches) {
+                    collectCommandLines(nodesOfBranch, lines);
+                }
+                if (branch.elseBranch != null) {
+                    collectCommandLines(branch.elseBranch, lines);
+                }
+            } else if (node instanceof For) {
+                collectCommandLines(((For) node).body, lines);
+            } else if (node instanceof While) {
+                collectCommandLines(Collections.singletonList(((While) node).condition), lines);
+                collectCommandLines(((While) node).body, lines);
+            } else if (node instanceof Group) {
+                collectCommandLines(((Group) node).body, lines);
+            } else if (node instanceof Function) {
+                collectCommandLines(((Function) node).body, lines);
+            }
+        }
+    }
+
+    // ==================== Tokenizer ====================
+
+    private enum Kind {
+        COMMAND,
+        KEYWORD,
+        FOR,
+        FUNCTION
+    }
+
+    private static final class Token {
+        final Kind kind;
+        final String text;
+        final int line;
+
+        Token(Kind kind, String text, int line) {
+            this.kind = kind;
+            this.text = text;
+            this.line = line;
+        }
+    }
+
+    // Split the source into statements on newlines and ';' outside quotes, $( ) and comments
+    private static List<Token> tokenize(String source) {
+        List<Token> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int length = source.length();
+        int line = 1;
+        int segmentLine = 1;
+        char quote = 0;
+        int substitutionDepth = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(i);
+            if (current.length() == 0 && !Character.isWhitespace(c)) {
+                segmentLine = line;
+            }
+            if (c == '\n') {
+                line++;
+            }
+
+            if (quote != 0) {
+                current.append(c);
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"' && i + 1 < length) {
+                    char next = source.charAt(++i);
+                    if (next == '\n') line++;
+                    current.append(next);
+                }
+                continue;
+            }
+
+            if (c == '\\' && i + 1 < length) {
+                char next = source.charAt(++i);
+                if (next == '\n') {
+                    // Line continuation
+                    line++;
+                } else {
+                    current.append(c).append(next);
+                }
+                continue;
+            }
+            if (c == '\'' || c == '"') {
+                quote = c;
+                current.append(c);
+                continue;
+            }
+            if (c == '(' && i > 0 && source.charAt(i - 1) == '$') {
+                substitutionDepth++;
+            } else if (substitutionDepth > 0 && c == '(') {
+                substitutionDepth++;
+            } else if (substitutionDepth > 0 && c == ')') {
+                substitutionDepth--;
+            }
+            if (substitutionDepth > 0) {
+                current.append(c);
+                continue;
+            }
+
+            if (c == '#' && (current.length() == 0 || Character.isWhitespace(current.charAt(current.length() - 1)))) {
+                while (i + 1 < length && source.charAt(i + 1) != '\n') i++;
+                continue;
+            }
+            if (c == '\n' || c == ';') {
+                addSegment(tokens, current.toString(), segmentLine);
+                current.setLength(0);
+                continue;
+            }
+            if (current.length() > 0 || !Character.isWhitespace(c)) {
+                current.append(c);
+            }
+        }
+
+        if (quote != 0) {
+            throw new SyntaxError(line, "unexpected EOF while looking for matching `" + quote + "'");
+        }
+        addSegment(tokens, current.toString(), segmentLine);
+        return tokens;
+    }
+
+    // Peel leading keywords off a statement; whatever follows them is a command
+    private static void addSegment(List<Token> tokens, String segment, int line) {
+        String rest = segment.trim();
+        while (!rest.isEmpty()) {
+            int space = 0;
+            while (space < rest.length() && !Character.isWhitespace(rest.charAt(space))) space++;
+            String word = rest.substring(0, space);
+            String after = rest.substring(space).trim();
+
+            if (PREFIX_KEYWORDS.contains(word)) {
+                tokens.add(new Token(Kind.KEYWORD, word, line));
+                rest = after;
+                continue;
+            }
+            if (CONDITION_KEYWORDS.contains(word)) {
+                if (after.isEmpty()) {
+                    throw new SyntaxError(line, "syntax error near unexpected token `newline'");
+                }
+                tokens.add(new Token(Kind.KEYWORD, word, line));
+                tokens.add(new Token(Kind.COMMAND, after, line));
+                return;
+            }
+            if (word.equals("for")) {
+                tokens.add(new Token(Kind.FOR, after, line));
+                return;
+            }
+            if (word.equals("case") || word.equals("select")) {
+                throw new SyntaxError(line, word + ": not supported");
+            }
+
+            Matcher header = FUNCTION_HEADER.matcher(rest);
+            if (header.matches()) {
+                String name = header.group(1) != null ? header.group(1) : header.group(2);
+                tokens.add(new Token(Kind.FUNCTION, name, line));
+                rest = header.group(3).trim();
+                continue;
+            }
+
+            tokens.add(new Token(Kind.COMMAND, rest, line));
+            return;
+        }
+    }
+
+    // ==================== Parser ====================
+
+    private static final class Parser {
+        private final List<Token> tokens;
+        private int position;
+
+        Parser(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        List<Node> parseAll() {
+            return parseBlock();
+        }
+
+        // Statements up to (not including) one of the terminating keywords
+        private List<Node> parseBlock(String... terminators) {
+            List<Node> nodes = new ArrayList<>();
+            while (position < tokens.size()) {
+                Token token = tokens.get(position);
+                if (token.kind == Kind.KEYWORD && Arrays.asList(terminators).contains(token.text)) {
+                    return nodes;
+                }
+                nodes.add(parseStatement());
+            }
+            if (terminators.length > 0) {
+                throw new SyntaxError(lastLine(), "syntax error: unexpected end of file");
+            }
+            return nodes;
+        }
+
+        private Node parseStatement() {
+            Token token = tokens.get(position++);
+            switch (token.kind) {
+                case COMMAND:
+                    return command(token);
+                case FOR:
+                    return parseFor(token);
+                case FUNCTION: {
+                    expect("{");
+                    List<Node> body = parseBlock("}");
+                    expect("}");
+                    return new Function(token.line, token.text, body);
+                }
+                default:
+                    break;
+            }
+
+            switch (token.text) {
+                case "if":
+                    return parseIf(token);
+                case "while":
+                case "until": {
+                    Command condition = expectCommand();
+                    expect("do");
+                    List<Node> body = parseBlock("done");
+                    expect("done");
+                    return new While(token.line, condition, token.text.equals("until"), body);
+                }
+                case "{": {
+                    List<Node> body = parseBlock("}");
+                    expect("}");
+                    return new Group(token.line, body);
+                }
+                default:
+                    throw unexpected(token);
+            }
+        }
+
+        private Node parseIf(Token start) {
+            List<Command> conditions = new ArrayList<>();
+            List<List<Node>> branches = new ArrayList<>();
+            List<Node> elseBranch = null;
+
+            conditions.add(expectCommand());
+            expect("then");
+            branches.add(parseBlock("elif", "else", "fi"));
+            while (true) {
+                Token token = tokens.get(position++);
+                if (token.text.equals("elif")) {
+                    conditions.add(expectCommand());
+                    expect("then");
+                    branches.add(parseBlock("elif", "else", "fi"));
+                } else if (token.text.equals("else")) {
+                    elseBranch = parseBlock("fi");
+                } else {
+                    // fi
+                    return new If(start.line, conditions, branches, elseBranch);
+                }
+            }
+        }
+
+        private Node parseFor(Token start) {
+            Matcher header = FOR_HEADER.matcher(start.text);
+            if (!header.matches()) {
+                throw new SyntaxError(start.line, "syntax error near `for " + start.text + "'");
+            }
+            String words = header.group(2) == null ? null
+                    : header.group(3) != null ? header.group(3) : "";
+            expect("do");
+            List<Node> body = parseBlock("done");
+            expect("done");
+            return new For(start.line, header.group(1), words, body);
+        }
+
+        private Command expectCommand() {
+            if (position >= tokens.size()) {
+                throw new SyntaxError(lastLine(), "syntax error: unexpected end of file");
+            }
+            Token token = tokens.get(position++);
+            if (token.kind != Kind.COMMAND) {
+                throw unexpected(token);
+            }
+            return command(token);
+        }
+
+        private void expect(String keyword) {
+            if (position >= tokens.size()) {
+                throw new SyntaxError(lastLine(), "syntax error: unexpected end of file");
+            }
+            Token token = tokens.get(position++);
+            if (token.kind != Kind.KEYWORD || !token.text.equals(keyword)) {
+                throw unexpected(token);
+            }
+        }
+
+        private Command command(Token token) {
+            try {
+                return new Command(token.line, CommandChain.parse(token.text));
+            } catch (IllegalArgumentException e) {
+                throw new SyntaxError(token.line, "syntax error near unexpected token `" + e.getMessage() + "'");
+            }
+        }
+
+        private SyntaxError unexpected(Token token) {
+            String text = token.kind == Kind.KEYWORD ? token.text : token.text.split("\\s+")[0];
+            return new SyntaxError(token.line, "syntax error near unexpected token `" + text + "'");
+        }
+
+        private int lastLine() {
+            return tokens.isEmpty() ? 1 : tokens.get(tokens.size() - 1).line;
+        }
+    }
+}
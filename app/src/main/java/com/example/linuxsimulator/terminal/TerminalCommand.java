@@ -17,9 +17,10 @@ public abstract class TerminalCommand {
     /**
      * Execute the command with given arguments
      * @param args Command arguments
-     * @param callback Callback to handle result
+     * @param out Sink that receives the command's output as it is produced
+     * @return Exit status, 0 on success
      */
-    public abstract void execute(String[] args, CommandCallback callback);
+    public abstract int execute(String[] args, OutputSink out);
 
     /**
      * Get command name
@@ -53,13 +54,4 @@ public abstract class TerminalCommand {
     public boolean matches(String commandName) {
         return name.equalsIgnoreCase(commandName);
     }
-
-    /**
-     * Callback interface for command execution
-     */
-    public interface CommandCallback {
-        void onSuccess(String output);
-        void onError(String error);
-        void onDirectoryChanged();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,331 @@
+package com.example.linuxsimulator.terminal;
+
+import android.text.SpannableStringBuilder;
+import android.text.TextUtils;
+
+import com.example.linuxsimulator.TerminalActivity;
+import com.example.linuxsimulator.data.FileSystemManager;
+import com.example.linuxsimulator.data.PathContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * One terminal tab: its command processor (shell variables, functions, SSH state and running
+ * jobs), environment, user, working directory and scrollback. Every session shares the one
+ * {@link CommandExecutor}, script cache and history file, so a long job can keep running in
+ * one tab while another is in front.
+ *
+ * Output from worker threads is buffered here and moved into the scrollback on the UI thread,
+ * whether or not the session is the one on screen. Everything that enters the scrollback is
+ * also recorded in the session's log, if it has one, so it can be restored later.
+ */
+public final class TerminalSession {
+
+    private final int id;
+    private final ScrollbackBuffer scrollback;
+    private final SessionLog log;
+    private final CommandProcessor processor;
+    private final Map<String, String> environment = new ConcurrentHashMap<>();
+    private volatile String currentUser = "kali";
+    private volatile boolean root;
+    // Working directory; replaced wholesale on cd, so commands on any thread resolve
+    // against a consistent value
+    private volatile PathContext pathContext;
+    // Steps back from the newest history entry while browsing; 0 is the line being typed
+    private int historyOffset;
+    private boolean unseenOutput;
+
+    // Streamed output; worker threads append, the UI thread drains
+    private final SpannableStringBuilder pendingOutput = new SpannableStringBuilder();
+    private String pendingProgress;
+    // UI thread only: the last row is still waiting for its newline / is a live progress bar
+    private boolean lastLineOpen;
+    // Absolute scrollback line of the live progress bar, or -1
+    private long progressRow = -1;
+    // The log is not compacted while older rows are still being read back from it
+    private boolean restoring;
+
+    /**
+     * Create a session
+     * @param id Tab number, unique among open sessions
+     * @param terminal Terminal the session is shown in
+     * @param fsManager File system
+     * @param pathContext Initial working directory
+     * @param scrollback Scrollback for the session's output
+     * @param log Log the output is recorded in, or null to keep it in memory only
+     */
+    public TerminalSession(int id, TerminalActivity terminal, FileSystemManager fsManager,
+                           PathContext pathContext, ScrollbackBuffer scrollback, SessionLog log) {
+        this.id = id;
+        this.scrollback = scrollback;
+        this.log = log;
+        this.pathContext = pathContext;
+
+        environment.put("HOME", "/home/" + currentUser);
+        environment.put("USER", currentUser);
+        environment.put("PWD", pathContext.getCurrentDirectory());
+        environment.put("PATH", "/usr/local/sbin:/usr/local/bin:/usr/sbin:/usr/bin:/sbin:/bin");
+        environment.put("SHELL", "/bin/bash");
+        environment.put("TERM", "xterm-256color");
+
+        this.processor = new CommandProcessor(terminal, this, fsManager);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public CommandProcessor getProcessor() {
+        return processor;
+    }
+
+    public ScrollbackBuffer getScrollback() {
+        return scrollback;
+    }
+
+    public Map<String, String> getEnvironment() {
+        return environment;
+    }
+
+    public String getCurrentUser() {
+        return currentUser;
+    }
+
+    public boolean isRoot() {
+        return root;
+    }
+
+    /**
+     * Switch between root and the normal user
+     * @param root True for root
+     */
+    public void setRoot(boolean root) {
+        this.root = root;
+        currentUser = root ? "root" : "kali";
+    }
+
+    public PathContext getPathContext() {
+        return pathContext;
+    }
+
+    /**
+     * Change the working directory and keep PWD in step
+     * @param context New working directory
+     */
+    public void setPathContext(PathContext context) {
+        pathContext = context;
+        environment.put("PWD", context.getCurrentDirectory());
+    }
+
+    public int getHistoryOffset() {
+        return historyOffset;
+    }
+
+    public void setHistoryOffset(int offset) {
+        historyOffset = offset;
+    }
+
+    /**
+     * Check whether output arrived while the session was in the background
+     * @return True until the flag is cleared
+     */
+    public boolean hasUnseenOutput() {
+        return unseenOutput;
+    }
+
+    public void setUnseenOutput(boolean unseen) {
+        unseenOutput = unseen;
+    }
+
+    /**
+     * Stop the session's commands and SSH connections and discard its output for good
+     */
+    public void close() {
+        processor.close();
+        scrollback.clear();
+        if (log != null) {
+            log.delete();
+        }
+    }
+
+    /**
+     * Drop the scrollback and the recorded output, as for the clear command
+     */
+    public void clearOutput() {
+        lastLineOpen = false;
+        progressRow = -1;
+        scrollback.clear();
+        if (log != null) {
+            log.clear();
+        }
+    }
+
+    /**
+     * Read the output recorded by an earlier run of this session back into the scrollback,
+     * above anything already there. The rows nearest the end arrive first.
+     * @param foreground Default text color
+     * @param background Default background color
+     * @param onRows Called on the UI thread with the number of rows inserted at the top
+     */
+    public void restoreOutput(int foreground, int background, IntConsumer onRows) {
+        if (log == null) {
+            return;
+        }
+        restoring = true;
+        log.restore(foreground, background, (rows, complete) -> {
+            restoring = !complete;
+            int inserted = scrollback.prepend(rows);
+            if (inserted > 0) {
+                onRows.accept(inserted);
+            }
+        });
+    }
+
+    // ==================== Output ====================
+
+    /**
+     * Buffer a chunk of command output. Safe from any thread.
+     * @param chunk Output, possibly styled
+     */
+    public void appendOutput(CharSequence chunk) {
+        synchronized (pendingOutput) {
+            pendingOutput.append(chunk);
+        }
+    }
+
+    /**
+     * Replace the live progress bar. Safe from any thread.
+     * @param progress Rendered progress line
+     */
+    public void setProgress(String progress) {
+        synchronized (pendingOutput) {
+            pendingProgress = progress;
+        }
+    }
+
+    /**
+     * Check whether output is waiting to be drained
+     * @return True if there is buffered output or progress
+     */
+    public boolean hasPendingOutput() {
+        synchronized (pendingOutput) {
+            return pendingOutput.length() > 0 || pendingProgress != null;
+        }
+    }
+
+    /**
+     * Move buffered output into the scrollback: complete lines become rows, a trailing partial
+     * line stays open so the next chunk continues it. At most budget characters are taken;
+     * the rest is left for the next call so a fast producer cannot stall one frame.
+     * @param budget Maximum number of characters to take
+     * @return Absolute line of the first existing row that was redrawn in place, or the
+     *         scrollback's end line from before the call if none was
+     */
+    public long drainOutput(int budget) {
+        CharSequence text;
+        String progress;
+        synchronized (pendingOutput) {
+            int cut = pendingOutput.length();
+            if (cut > budget) {
+                // Prefer to stop after a newline so rows are not redrawn mid-line
+                cut = TextUtils.lastIndexOf(pendingOutput, '\n', budget - 1) + 1;
+                if (cut <= 0) {
+                    cut = budget;
+                }
+            }
+            // Unstyled output travels as a plain string; styled output keeps its spans
+            text = pendingOutput.getSpans(0, cut, Object.class).length == 0
+                    ? TextUtils.substring(pendingOutput, 0, cut)
+                    : pendingOutput.subSequence(0, cut);
+            pendingOutput.delete(0, cut);
+            progress = pendingProgress;
+            pendingProgress = null;
+        }
+
+        long firstChanged = scrollback.getEndLine();
+        if (progress != null) {
+            if (progressRow >= 0 && progressRow >= scrollback.getFirstLine()
+                    && progressRow < scrollback.getEndLine()) {
+                scrollback.set((int) (progressRow - scrollback.getFirstLine()), progress);
+                firstChanged = Math.min(firstChanged, progressRow);
+            } else {
+                closeOpenLine();
+                progressRow = scrollback.getEndLine();
+                scrollback.appendLine(progress);
+            }
+        }
+
+        if (text.length() > 0) {
+            // Output after a progress bar starts below it; the bar keeps its last value
+            finishProgress();
+            int lineStart = 0;
+            int length = text.length();
+            while (lineStart < length) {
+                int newline = TextUtils.indexOf(text, '\n', lineStart);
+                int lineEnd = newline < 0 ? length : newline;
+                CharSequence segment = text.subSequence(lineStart, lineEnd);
+                if (lastLineOpen && scrollback.size() > 0) {
+                    firstChanged = Math.min(firstChanged, scrollback.getEndLine() - 1);
+                    scrollback.appendToLast(segment);
+                } else {
+                    scrollback.appendLine(segment);
+                }
+                lastLineOpen = newline < 0;
+                lineStart = lineEnd + 1;
+            }
+            record(text);
+        }
+        return firstChanged;
+    }
+
+    /**
+     * Append rows directly, after anything streamed so far. UI thread only.
+     * @param text Text to append; newlines start further rows
+     */
+    public void appendLine(CharSequence text) {
+        closeOpenLine();
+        scrollback.appendLine(text);
+        record(TextUtils.concat(text, "\n"));
+    }
+
+    /**
+     * End the open line and the live progress bar, so the next output starts a new row
+     */
+    public void closeOpenLine() {
+        if (lastLineOpen) {
+            lastLineOpen = false;
+            record("\n");
+        }
+        finishProgress();
+    }
+
+    // A progress bar is only recorded once it stops changing
+    private void finishProgress() {
+        long row = progressRow;
+        progressRow = -1;
+        if (row >= 0 && row >= scrollback.getFirstLine() && row < scrollback.getEndLine()) {
+            record(TextUtils.concat(scrollback.get((int) (row - scrollback.getFirstLine())), "\n"));
+        }
+    }
+
+    private void record(CharSequence text) {
+        if (log == null) {
+            return;
+        }
+        log.append(text);
+        if (!restoring && log.needsCompaction()) {
+            // Everything recorded so far is in the scrollback, bar a live progress bar
+            ScrollbackBuffer.Snapshot rows = scrollback.snapshot();
+            int count = rows.size() - (progressRow >= 0 ? 1 : 0);
+            List<CharSequence> kept = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                kept.add(rows.get(i));
+            }
+            log.rewrite(kept, lastLineOpen);
+        }
+    }
+}
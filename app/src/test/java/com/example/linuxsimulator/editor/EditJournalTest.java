@@ -0,0 +1,141 @@
+package com.example.linuxsimulator.editor;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EditJournalTest {
+
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void replaysEditsOntoTheFile() throws IOException {
+        File base = file("hello world\n".getBytes(StandardCharsets.UTF_8));
+        File journal = journal(base, EditJournal.Stamp.of(base),
+                EditJournal.frame(6, 5, "there"),
+                EditJournal.frame(0, 0, "> "));
+
+        EditJournal.Recovery recovery = EditJournal.read(journal);
+        assertEquals(base.getAbsoluteFile(), recovery.getFile().getAbsoluteFile());
+        assertEquals(2, recovery.getEditCount());
+        assertEquals(StandardCharsets.UTF_8, recovery.getEncoding().charset);
+        assertEquals("> hello there\n", recovery.replay(new CancellationToken(), null));
+    }
+
+    @Test
+    public void untitledJournalsStartFromNothing() throws IOException {
+        File journal = journal(null, null, EditJournal.frame(0, 0, "draft"));
+        EditJournal.Recovery recovery = EditJournal.read(journal);
+        assertNull(recovery.getFile());
+        assertEquals("draft", recovery.replay(new CancellationToken(), null));
+    }
+
+    @Test
+    public void aRecordWithABadChecksumEndsTheJournal() throws IOException {
+        byte[] damaged = EditJournal.frame(1, 0, "b");
+        damaged[damaged.length - 1] ^= 1;
+        File journal = journal(null, null,
+                EditJournal.frame(0, 0, "a"),
+                damaged,
+                EditJournal.frame(2, 0, "c"));
+
+        EditJournal.Recovery recovery = EditJournal.read(journal);
+        assertEquals(1, recovery.getEditCount());
+        assertEquals("a", recovery.replay(new CancellationToken(), null));
+    }
+
+    @Test
+    public void aRecordCutShortEndsTheJournal() throws IOException {
+        byte[] last = EditJournal.frame(1, 0, "second");
+        File journal = journal(null, null,
+                EditJournal.frame(0, 0, "1"),
+                Arrays.copyOf(last, last.length - 3));
+
+        EditJournal.Recovery recovery = EditJournal.read(journal);
+        assertEquals(1, recovery.getEditCount());
+        assertEquals("1", recovery.replay(new CancellationToken(), null));
+    }
+
+    @Test
+    public void halvesOfASurrogatePairSurvive() throws IOException {
+        String emoji = "😀";
+        File journal = journal(null, null,
+                EditJournal.frame(0, 0, emoji.substring(0, 1)),
+                EditJournal.frame(1, 0, emoji.substring(1)),
+                EditJournal.frame(2, 0, "\u0000"));
+        assertEquals(emoji + "\u0000", EditJournal.read(journal).replay(new CancellationToken(), null));
+    }
+
+    @Test
+    public void aFileChangedSinceTheJournalBeganIsNotReplayedOnto() throws IOException {
+        File base = file("one".getBytes(StandardCharsets.UTF_8));
+        File journal = journal(base, EditJournal.Stamp.of(base), EditJournal.frame(3, 0, " two"));
+        try (OutputStream out = new FileOutputStream(base)) {
+            out.write("changed".getBytes(StandardCharsets.UTF_8));
+        }
+
+        EditJournal.Recovery recovery = EditJournal.read(journal);
+        assertThrows(IOException.class, () -> recovery.replay(new CancellationToken(), null));
+    }
+
+    @Test
+    public void editsThatDoNotFitTheTextAreRejected() throws IOException {
+        File journal = journal(null, null, EditJournal.frame(5, 0, "x"));
+        EditJournal.Recovery recovery = EditJournal.read(journal);
+        assertThrows(IOException.class, () -> recovery.replay(new CancellationToken(), null));
+    }
+
+    @Test
+    public void nothingToRecoverWithoutEdits() throws IOException {
+        assertNull(EditJournal.read(journal(null, null)));
+        assertNull(EditJournal.read(file("not a journal".getBytes(StandardCharsets.UTF_8))));
+        File missing = file(new byte[0]);
+        missing.delete();
+        assertNull(EditJournal.read(missing));
+    }
+
+    @Test
+    public void journalsAreNotOpenUntilStarted() throws InterruptedException, IOException {
+        File journal = journal(null, null, EditJournal.frame(0, 0, "a"));
+        assertFalse(EditJournal.isOpen(journal));
+        assertTrue(EditJournal.awaitClosed(journal, 0));
+    }
+
+    private File journal(File base, EditJournal.Stamp stamp, byte[]... records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(EditJournal.header(base, stamp, TextFileIO.Encoding.DEFAULT));
+        for (byte[] record : records) {
+            bytes.write(record);
+        }
+        return file(bytes.toByteArray());
+    }
+
+    private File file(byte[] bytes) throws IOException {
+        File file = File.createTempFile("journal", ".bin");
+        files.add(file);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.linuxsimulator.editor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FuzzyMatcherTest {
+
+    @Test
+    public void charactersMustAppearInOrder() {
+        FuzzyMatcher matcher = new FuzzyMatcher("abc");
+        assertNotEquals(FuzzyMatcher.NO_MATCH, score(matcher, "a/b/c.txt"));
+        assertNotEquals(FuzzyMatcher.NO_MATCH, score(matcher, "xaxbxc"));
+        assertEquals(FuzzyMatcher.NO_MATCH, score(matcher, "cba"));
+        assertEquals(FuzzyMatcher.NO_MATCH, score(matcher, "ab"));
+    }
+
+    @Test
+    public void caseAndSpacesAreIgnored() {
+        FuzzyMatcher matcher = new FuzzyMatcher(" Te A ");
+        assertEquals(3, matcher.length());
+        assertNotEquals(FuzzyMatcher.NO_MATCH, score(matcher, "TEXTAREA"));
+        assertEquals(0, score(new FuzzyMatcher("  "), "anything"));
+    }
+
+    @Test
+    public void wordStartsInTheFileNameRankFirst() {
+        FuzzyMatcher matcher = new FuzzyMatcher("tea");
+        assertTrue(score(matcher, "src/TextEditorActivity.java") > score(matcher, "templates/area.txt"));
+        assertTrue(score(matcher, "docs/tea.md") > score(matcher, "tea/notes.md"));
+    }
+
+    @Test
+    public void consecutiveCharactersBeatScatteredOnes() {
+        FuzzyMatcher matcher = new FuzzyMatcher("main");
+        assertTrue(score(matcher, "main.c") > score(matcher, "mxaxixn.c"));
+    }
+
+    @Test
+    public void shorterPathsWinTies() {
+        FuzzyMatcher matcher = new FuzzyMatcher("readme");
+        assertTrue(score(matcher, "a/readme") > score(matcher, "a/b/readme"));
+    }
+
+    @Test
+    public void onlyThePathPastFromIsMatched() {
+        FuzzyMatcher matcher = new FuzzyMatcher("sd");
+        String path = "/sdcard/notes.txt";
+        int from = "/sdcard/".length();
+        assertEquals(FuzzyMatcher.NO_MATCH, matcher.score(path, from, path.lastIndexOf('/') + 1, null));
+    }
+
+    @Test
+    public void positionsMarkTheMatchedCharacters() {
+        FuzzyMatcher matcher = new FuzzyMatcher("fm");
+        String path = "editor/FuzzyMatcher.java";
+        int[] positions = new int[matcher.length()];
+        matcher.score(path, 0, path.lastIndexOf('/') + 1, positions);
+        assertEquals(path.indexOf('F'), positions[0]);
+        assertEquals(path.indexOf('M'), positions[1]);
+    }
+
+    private static int score(FuzzyMatcher matcher, String path) {
+        return matcher.score(path, 0, path.lastIndexOf('/') + 1, null);
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.linuxsimulator.editor;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+public class LargeFileIndexTest {
+
+    private final List<File> files = new ArrayList<>();
+    private final List<LargeFileIndex> indexes = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (LargeFileIndex index : indexes) {
+            index.close();
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rowsAreLines() throws IOException {
+        LargeFileIndex index = build("a\nbb\r\nccc");
+        assertEquals(3, index.getRowCount());
+        assertEquals(3, index.getLineCount());
+        assertEquals(1, index.getPageCount());
+
+        LargeFileIndex.Page page = index.readPage(0);
+        assertArrayEquals(new String[] {"a", "bb", "ccc"}, page.rows);
+        assertArrayEquals(new int[] {1, 2, 3}, page.lines);
+    }
+
+    @Test
+    public void finalLineFeedDoesNotStartALine() throws IOException {
+        LargeFileIndex index = build("a\nb\n");
+        assertEquals(2, index.getRowCount());
+        assertEquals(2, index.getLineCount());
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        LargeFileIndex index = build("");
+        assertEquals(0, index.getRowCount());
+        assertEquals(0, index.getPageCount());
+        assertEquals(0, index.rowOfLine(5));
+        assertEquals(0, index.rowOfOffset(5));
+        assertNull(index.search("x", 0, 0, new CancellationToken()));
+    }
+
+    @Test
+    public void longLinesAreCutIntoRows() throws IOException {
+        int max = LargeFileIndex.MAX_ROW_BYTES;
+        LargeFileIndex index = build(repeat('x', max * 2 + 10) + "\nend");
+        assertEquals(4, index.getRowCount());
+        assertEquals(2, index.getLineCount());
+
+        LargeFileIndex.Page page = index.readPage(0);
+        assertEquals(max, page.rows[0].length());
+        assertEquals(max, page.rows[1].length());
+        assertEquals("xxxxxxxxxx", page.rows[2]);
+        assertEquals("end", page.rows[3]);
+        // Rows that continue a cut line have no line number
+        assertArrayEquals(new int[] {1, 0, 0, 2}, page.lines);
+    }
+
+    @Test
+    public void cutsNeverSplitAUtf8Character() throws IOException {
+        int max = LargeFileIndex.MAX_ROW_BYTES;
+        // The two bytes of the e-acute straddle the cut point, so the cut moves past them
+        LargeFileIndex index = build(repeat('a', max - 1) + "\u00e9b");
+        LargeFileIndex.Page page = index.readPage(0);
+        assertEquals(2, page.rows.length);
+        assertEquals(repeat('a', max - 1) + "\u00e9", page.rows[0]);
+        assertEquals("b", page.rows[1]);
+    }
+
+    @Test
+    public void pagesHoldPageRowsEach() throws IOException {
+        LargeFileIndex index = build(numberedLines(1000));
+        int rows = LargeFileIndex.PAGE_ROWS;
+        assertEquals(1000, index.getRowCount());
+        assertEquals((1000 + rows - 1) / rows, index.getPageCount());
+
+        LargeFileIndex.Page last = index.readPage(index.getPageCount() - 1);
+        assertEquals((index.getPageCount() - 1) * rows, last.firstRow);
+        assertEquals(1000 - last.firstRow, last.rows.length);
+        assertEquals("line " + (last.firstRow + 1) + ".", last.rows[0]);
+        assertEquals(last.firstRow + 1, last.lines[0]);
+    }
+
+    @Test
+    public void findsRowsByLineAndOffset() throws IOException {
+        String text = numberedLines(1000);
+        LargeFileIndex index = build(text);
+        assertEquals(799, index.rowOfLine(800));
+        assertEquals(0, index.rowOfLine(-3));
+        assertEquals(999, index.rowOfLine(5000));
+
+        int offset = text.indexOf("line 600.");
+        assertEquals(599, index.rowOfOffset(offset));
+        assertEquals(599, index.rowOfOffset(offset + 4));
+        assertEquals(999, index.rowOfOffset(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void findsTheFirstRowOfALineSpanningPages() throws IOException {
+        int before = LargeFileIndex.PAGE_ROWS - 6;
+        StringBuilder text = new StringBuilder(numberedLines(before));
+        // 20 rows, starting near the end of the first page and running into the second
+        text.append(repeat('y', LargeFileIndex.MAX_ROW_BYTES * 20)).append('\n');
+        text.append("after\n");
+        LargeFileIndex index = build(text.toString());
+
+        assertEquals(before, index.rowOfLine(before + 1));
+        assertEquals(before + 20, index.rowOfLine(before + 2));
+        assertEquals(0, index.readPage(1).lines[0]);
+    }
+
+    @Test
+    public void searchIgnoresCaseAndWraps() throws IOException {
+        LargeFileIndex index = build(numberedLines(1000));
+        CancellationToken token = new CancellationToken();
+
+        LargeFileIndex.Match match = index.search("LINE 999.", 0, 0, token);
+        assertEquals(998, match.row);
+        assertEquals(0, match.start);
+        assertEquals(9, match.end);
+
+        // Past every other match, so the search comes round to the start of the file
+        match = index.search("line 10.", 500, 0, token);
+        assertEquals(9, match.row);
+
+        // From inside the match, it is only found again after wrapping round the whole file
+        match = index.search("line 10.", 9, 1, token);
+        assertEquals(9, match.row);
+        assertNull(index.search("missing", 0, 0, token));
+    }
+
+    @Test
+    public void cancelledBuildThrows() throws IOException {
+        File file = write(numberedLines(10));
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        assertThrows(CancellationException.class,
+                () -> LargeFileIndex.build(file, StandardCharsets.UTF_8, token, null));
+    }
+
+    @Test
+    public void buildReportsProgressToTheEnd() throws IOException {
+        File file = write(numberedLines(100));
+        long[] last = new long[2];
+        indexes.add(LargeFileIndex.build(file, StandardCharsets.UTF_8, new CancellationToken(),
+                (done, total) -> {
+                    last[0] = done;
+                    last[1] = total;
+                }));
+        assertEquals(file.length(), last[0]);
+        assertEquals(file.length(), last[1]);
+    }
+
+    private LargeFileIndex build(String text) throws IOException {
+        LargeFileIndex index = LargeFileIndex.build(write(text), StandardCharsets.UTF_8,
+                new CancellationToken(), null);
+        indexes.add(index);
+        return index;
+    }
+
+    private File write(String text) throws IOException {
+        File file = File.createTempFile("large", ".txt");
+        files.add(file);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    // "line 1." to "line N.", each on its own line
+    private static String numberedLines(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            text.append("line ").append(i).append(".\n");
+        }
+        return text.toString();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder text = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+}
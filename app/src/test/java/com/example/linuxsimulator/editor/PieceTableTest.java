@@ -0,0 +1,179 @@
+package com.example.linuxsimulator.editor;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PieceTableTest {
+
+    @Test
+    public void insertDeleteAndReplace() {
+        PieceTable document = new PieceTable("hello world");
+        document.insert(5, ",");
+        document.insert(document.length(), "!");
+        assertEquals("hello, world!", document.toString());
+
+        document.delete(0, 7);
+        assertEquals("world!", document.toString());
+
+        document.replace(0, 5, "there");
+        assertEquals("there!", document.toString());
+        assertEquals('!', document.charAt(5));
+        assertEquals("her", document.getText(1, 4));
+    }
+
+    @Test
+    public void emptyDocument() {
+        PieceTable document = new PieceTable();
+        assertEquals(0, document.length());
+        assertEquals(1, document.getLineCount());
+        assertEquals(0, document.getLineOfOffset(0));
+        assertEquals(0, document.getLineStart(0));
+        assertEquals(0, document.getLineEnd(0));
+        assertEquals("", document.toString());
+    }
+
+    @Test
+    public void outOfRangeEditsThrow() {
+        PieceTable document = new PieceTable("abc");
+        assertThrows(IndexOutOfBoundsException.class, () -> document.delete(2, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> document.insert(4, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> document.replace(-1, 1, "x"));
+        assertEquals("abc", document.toString());
+    }
+
+    @Test
+    public void lineIndexFollowsEdits() {
+        PieceTable document = new PieceTable("one\ntwo\nthree");
+        assertEquals(3, document.getLineCount());
+        assertEquals(4, document.getLineStart(1));
+        assertEquals(7, document.getLineEnd(1));
+        assertEquals(2, document.getLineOfOffset(8));
+        // The line feed belongs to the line it ends
+        assertEquals(0, document.getLineOfOffset(3));
+
+        document.insert(4, "new\n");
+        assertEquals(4, document.getLineCount());
+        assertEquals("new", lineText(document, 1));
+        assertEquals("two", lineText(document, 2));
+
+        document.delete(4, 4);
+        assertEquals("one\ntwo\nthree", document.toString());
+        assertEquals(3, document.getLineCount());
+
+        document.insert(document.length(), "\n");
+        assertEquals(4, document.getLineCount());
+        assertEquals(document.length(), document.getLineStart(3));
+    }
+
+    @Test
+    public void snapshotIsUnaffectedByLaterEdits() throws IOException {
+        PieceTable document = new PieceTable("abc\ndef");
+        PieceTable.Snapshot snapshot = document.snapshot();
+        document.replace(1, 4, "XYZ");
+        document.insert(0, "\n\n");
+
+        assertEquals("abc\ndef", snapshot.toString());
+        assertEquals(2, snapshot.getLineCount());
+        assertEquals("c\nd", snapshot.subSequence(2, 5).toString());
+        StringWriter writer = new StringWriter();
+        snapshot.writeTo(writer);
+        assertEquals("abc\ndef", writer.toString());
+        assertEquals("\n\naXYZef", document.toString());
+    }
+
+    @Test
+    public void listenerHearsEachChange() {
+        PieceTable document = new PieceTable("a\nb\nc");
+        List<int[]> changes = new ArrayList<>();
+        document.addChangeListener((offset, removed, inserted, line, lineDelta) ->
+                changes.add(new int[] {offset, removed, inserted, line, lineDelta}));
+
+        document.replace(2, 3, "x\ny\nz");
+        document.delete(0, 2);
+        // Nothing removed and nothing inserted is no change at all
+        document.replace(1, 0, "");
+
+        assertEquals(2, changes.size());
+        assertArrayEquals(new int[] {2, 3, 5, 1, 1}, changes.get(0));
+        assertArrayEquals(new int[] {0, 2, 0, 0, -1}, changes.get(1));
+    }
+
+    @Test
+    public void compactKeepsTextAndDropsReplacedText() {
+        PieceTable document = new PieceTable("0123456789");
+        for (int i = 0; i < 100; i++) {
+            document.replace(0, 5, "abcde");
+        }
+        List<int[]> changes = new ArrayList<>();
+        document.addChangeListener((offset, removed, inserted, line, lineDelta) ->
+                changes.add(new int[] {offset}));
+        PieceTable.Snapshot before = document.snapshot();
+
+        document.compact();
+
+        assertEquals("abcde56789", document.toString());
+        assertEquals(document.length(), document.getBufferedChars());
+        assertEquals("abcde56789", before.toString());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void randomEditsMatchAStringBuilder() {
+        Random random = new Random(42);
+        PieceTable document = new PieceTable("seed\ntext\n");
+        StringBuilder expected = new StringBuilder("seed\ntext\n");
+        String alphabet = "ab\ncd\nef";
+
+        for (int step = 0; step < 2000; step++) {
+            int offset = random.nextInt(expected.length() + 1);
+            int length = random.nextInt(Math.min(8, expected.length() - offset) + 1);
+            StringBuilder text = new StringBuilder();
+            int count = random.nextInt(6);
+            for (int i = 0; i < count; i++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            if (random.nextInt(50) == 0) {
+                document.compact();
+            }
+            document.replace(offset, length, text);
+            expected.replace(offset, offset + length, text.toString());
+
+            if (step % 50 == 0) {
+                assertMatches(expected.toString(), document);
+            }
+        }
+        assertMatches(expected.toString(), document);
+    }
+
+    // Text, line index and a front-to-back snapshot scan all agree with the expected text
+    private static void assertMatches(String expected, PieceTable document) {
+        assertEquals(expected, document.toString());
+        assertEquals(expected.length(), document.length());
+
+        String[] lines = expected.split("\n", -1);
+        assertEquals(lines.length, document.getLineCount());
+        int start = 0;
+        for (int line = 0; line < lines.length; line++) {
+            assertEquals(start, document.getLineStart(line));
+            assertEquals(start + lines[line].length(), document.getLineEnd(line));
+            assertEquals(line, document.getLineOfOffset(start));
+            start += lines[line].length() + 1;
+        }
+
+        PieceTable.Snapshot snapshot = document.snapshot();
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.charAt(i), snapshot.charAt(i));
+        }
+    }
+
+    private static String lineText(PieceTable document, int line) {
+        return document.getText(document.getLineStart(line), document.getLineEnd(line));
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.linuxsimulator.editor;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TextFileIOTest {
+
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void detectsByteOrderMarksAndLineEnds() throws IOException {
+        TextFileIO.Encoding encoding = TextFileIO.detect(file(new byte[]{(byte) 0xFF, (byte) 0xFE, 'a', 0, '\r', 0, '\n', 0}));
+        assertEquals(StandardCharsets.UTF_16LE, encoding.charset);
+        assertTrue(encoding.bom);
+        assertEquals("\r\n", encoding.lineSeparator);
+        assertFalse(encoding.isAsciiCompatible());
+
+        encoding = TextFileIO.detect(file("plain\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(StandardCharsets.UTF_8, encoding.charset);
+        assertFalse(encoding.bom);
+        assertEquals("\n", encoding.lineSeparator);
+    }
+
+    @Test
+    public void readDropsTheMarkAndCarriageReturns() throws IOException {
+        File file = file(utf16WithBom("one\r\ntwo\r\n"));
+        TextFileIO.Contents contents = TextFileIO.read(file, TextFileIO.detect(file), new CancellationToken(), null);
+        assertEquals("one\ntwo\n", contents.text);
+        assertEquals("\r\n", contents.encoding.lineSeparator);
+        assertFalse(contents.mixedLineEnds);
+    }
+
+    @Test
+    public void mixedLineEndsAreKeptAndSavedBack() throws IOException {
+        // The first line alone looks like a CRLF file
+        byte[] original = "one\r\ntwo\nthree\r\n".getBytes(StandardCharsets.UTF_8);
+        File file = file(original);
+        TextFileIO.Encoding detected = TextFileIO.detect(file);
+        assertEquals("\r\n", detected.lineSeparator);
+
+        TextFileIO.Contents contents = TextFileIO.read(file, detected, new CancellationToken(), null);
+        assertTrue(contents.mixedLineEnds);
+        assertEquals("one\r\ntwo\nthree\r\n", contents.text);
+        assertEquals("\n", contents.encoding.lineSeparator);
+
+        TextFileIO.write(file, contents.text, contents.encoding, new CancellationToken(), null);
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void crlfFilesRoundTrip() throws IOException {
+        byte[] original = "a\r\nb\r\n".getBytes(StandardCharsets.UTF_8);
+        File file = file(original);
+        TextFileIO.Contents contents = TextFileIO.read(file, TextFileIO.detect(file), new CancellationToken(), null);
+        TextFileIO.write(file, contents.text, contents.encoding, new CancellationToken(), null);
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void unmappableCharactersFailTheSaveUnlessLossy() throws IOException {
+        byte[] original = "old".getBytes(StandardCharsets.ISO_8859_1);
+        File file = file(original);
+        TextFileIO.Encoding latin1 = new TextFileIO.Encoding(StandardCharsets.ISO_8859_1, false, "\n");
+
+        assertThrows(CharacterCodingException.class, () ->
+                TextFileIO.write(file, "caf\u00e9 \u4e2d", latin1, new CancellationToken(), null));
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+
+        TextFileIO.write(file, "caf\u00e9 \u4e2d", latin1, true, new CancellationToken(), null);
+        assertEquals("caf\u00e9 ?", new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void transcodeCopiesUtf16AsUtf8() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            expected.append("line ").append(i).append(" é中\r\n");
+        }
+        File file = file(utf16WithBom(expected.toString()));
+        File copy = file(new byte[0]);
+        long[] progress = new long[1];
+
+        TextFileIO.transcode(file, TextFileIO.detect(file), copy, new CancellationToken(),
+                (done, total) -> progress[0] = done);
+        assertEquals(expected.toString(), new String(Files.readAllBytes(copy.toPath()), StandardCharsets.UTF_8));
+        assertEquals(file.length(), progress[0]);
+    }
+
+    private static byte[] utf16WithBom(String text) {
+        byte[] body = text.getBytes(StandardCharsets.UTF_16LE);
+        byte[] bytes = new byte[body.length + 2];
+        bytes[0] = (byte) 0xFF;
+        bytes[1] = (byte) 0xFE;
+        System.arraycopy(body, 0, bytes, 2, body.length);
+        return bytes;
+    }
+
+    private File file(byte[] bytes) throws IOException {
+        File file = File.createTempFile("textio", ".txt");
+        files.add(file);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.linuxsimulator.editor;
+
+import com.example.linuxsimulator.terminal.CancellationToken;
+
+import org.junit.Test;
+
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.*;
+
+public class TextSearchTest {
+
+    private final CancellationToken token = new CancellationToken();
+
+    @Test
+    public void plainSearchIgnoresCaseUnlessAsked() {
+        int[] match = new int[2];
+        assertTrue(new TextSearch("WORLD", false, false, false).find("hello world", 0, match));
+        assertArrayEquals(new int[] {6, 11}, match);
+        assertFalse(new TextSearch("WORLD", true, false, false).find("hello world", 0, match));
+        assertFalse(new TextSearch("world", false, false, false).find("hello world", 7, match));
+    }
+
+    @Test
+    public void wholeWordSkipsMatchesInsideWords() {
+        TextSearch search = new TextSearch("cat", false, true, false);
+        TextSearch.Matches matches = search.findAll("concat cat_ cat, (cat)", token);
+        assertEquals(2, matches.count);
+        assertEquals(12, matches.getStart(0));
+        assertEquals(18, matches.getStart(1));
+    }
+
+    @Test
+    public void findAllReturnsEveryMatchInOrder() {
+        TextSearch.Matches matches = new TextSearch("aa", true, false, false).findAll("aaaaa", token);
+        // Matches do not overlap
+        assertEquals(2, matches.count);
+        assertEquals(0, matches.getStart(0));
+        assertEquals(2, matches.getStart(1));
+        assertEquals(4, matches.getEnd(1));
+        assertFalse(matches.capped);
+    }
+
+    @Test
+    public void regexReplacementExpandsGroups() {
+        TextSearch search = new TextSearch("(\\w+)@(\\w+)", false, false, true);
+        assertEquals("b at a", search.expand("a@b", 0, 3, "$2 at $1"));
+        assertEquals("$1", search.expand("a@b", 0, 3, "\\$1"));
+        // Plain searches take the replacement as it is
+        assertEquals("$1", new TextSearch("a", false, false, false).expand("a", 0, 1, "$1"));
+    }
+
+    @Test
+    public void replaceAllIsOneEditOverTheMatches() {
+        TextSearch search = new TextSearch("o", false, false, false);
+        TextSearch.Replacement edit = search.replaceAll("foo boo", "0", token);
+        assertEquals(1, edit.start);
+        assertEquals(7, edit.end);
+        assertEquals("00 b00", edit.text);
+        assertEquals(4, edit.count);
+        assertNull(search.replaceAll("xyz", "0", token));
+    }
+
+    @Test
+    public void matchesAtChecksTheExactRange() {
+        TextSearch search = new TextSearch("ab", false, false, false);
+        assertTrue(search.matchesAt("xxab", 2, 4));
+        assertFalse(search.matchesAt("xxab", 1, 3));
+    }
+
+    @Test
+    public void invalidExpressionThrows() {
+        assertThrows(PatternSyntaxException.class, () -> new TextSearch("(", false, false, true));
+    }
+}
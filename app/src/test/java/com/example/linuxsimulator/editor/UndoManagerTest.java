@@ -0,0 +1,168 @@
+package com.example.linuxsimulator.editor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UndoManagerTest {
+
+    private long now = 10_000;
+    private final StringBuilder document = new StringBuilder();
+    private final UndoManager.Target target = (offset, length, text) -> document.replace(offset, offset + length, text.toString());
+    private UndoManager undo = new UndoManager(1 << 20, () -> now);
+
+    @Test
+    public void typingIsOneStep() {
+        type(0, "hello");
+        assertEquals("hello", document.toString());
+        assertEquals(0, undo.undo(target));
+        assertEquals("", document.toString());
+        assertFalse(undo.canUndo());
+    }
+
+    @Test
+    public void aPauseStartsANewStep() {
+        type(0, "ab");
+        now += 2000;
+        type(2, "cd");
+        undo.undo(target);
+        assertEquals("ab", document.toString());
+        undo.undo(target);
+        assertEquals("", document.toString());
+    }
+
+    @Test
+    public void lineBreaksAndPastesAreStepsOfTheirOwn() {
+        type(0, "ab");
+        edit(2, 0, "\n");
+        type(3, "cd");
+        edit(5, 0, "a pasted block that is far longer than anything typed in one keystroke");
+        undo.undo(target);
+        assertEquals("ab\ncd", document.toString());
+        undo.undo(target);
+        assertEquals("ab\n", document.toString());
+        undo.undo(target);
+        assertEquals("ab", document.toString());
+    }
+
+    @Test
+    public void backspaceOverTypedTextStaysInTheStep() {
+        type(0, "helo");
+        edit(3, 1, "");
+        type(3, "lo");
+        assertEquals("hello", document.toString());
+        undo.undo(target);
+        assertEquals("", document.toString());
+    }
+
+    @Test
+    public void backspacesAndForwardDeletesCoalesce() {
+        edit(0, 0, "one two three");
+        undo.breakStep();
+        // Backspace from the end of "two"
+        edit(6, 1, "");
+        edit(5, 1, "");
+        edit(4, 1, "");
+        assertEquals("one  three", document.toString());
+        assertEquals(7, undo.undo(target));
+        assertEquals("one two three", document.toString());
+
+        // Forward delete at the start of "three"
+        edit(8, 1, "");
+        edit(8, 1, "");
+        assertEquals("one two ree", document.toString());
+        assertEquals(10, undo.undo(target));
+        assertEquals("one two three", document.toString());
+    }
+
+    @Test
+    public void composingKeyboardsReplaceTheWordSoFar() {
+        edit(0, 0, "h");
+        edit(0, 1, "he");
+        edit(0, 2, "hel");
+        assertEquals("hel", document.toString());
+        undo.undo(target);
+        assertEquals("", document.toString());
+    }
+
+    @Test
+    public void breakStepEndsCoalescing() {
+        type(0, "ab");
+        undo.breakStep();
+        type(2, "cd");
+        undo.undo(target);
+        assertEquals("ab", document.toString());
+    }
+
+    @Test
+    public void compoundEditsUndoTogether() {
+        edit(0, 0, "a-b-c");
+        undo.beginCompound();
+        edit(1, 1, "+");
+        undo.beginCompound();
+        edit(3, 1, "+");
+        undo.endCompound();
+        undo.endCompound();
+        assertEquals("a+b+c", document.toString());
+
+        undo.undo(target);
+        assertEquals("a-b-c", document.toString());
+        undo.redo(target);
+        assertEquals("a+b+c", document.toString());
+    }
+
+    @Test
+    public void redoIsClearedByANewEdit() {
+        type(0, "ab");
+        assertEquals(0, undo.undo(target));
+        assertTrue(undo.canRedo());
+        assertEquals(2, undo.redo(target));
+        assertEquals("ab", document.toString());
+
+        undo.undo(target);
+        type(0, "x");
+        assertFalse(undo.canRedo());
+        assertEquals(-1, undo.redo(target));
+    }
+
+    @Test
+    public void oldestStepsAreDroppedOverBudgetButNeverTheNewest() {
+        undo = new UndoManager(300, () -> now);
+        for (int i = 0; i < 10; i++) {
+            edit(document.length(), 0, "line " + i + "\n");
+        }
+        assertTrue(undo.getUsedBytes() <= 300);
+        int steps = 0;
+        while (undo.undo(target) >= 0) {
+            steps++;
+        }
+        assertTrue(steps > 0 && steps < 10);
+        assertTrue(document.toString().startsWith("line 0\n"));
+
+        undo = new UndoManager(10, () -> now);
+        edit(0, 0, "far more than ten bytes of history\n");
+        assertTrue(undo.canUndo());
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        type(0, "ab");
+        undo.clear();
+        assertFalse(undo.canUndo());
+        assertEquals(0, undo.getUsedBytes());
+        assertEquals(-1, undo.undo(target));
+    }
+
+    private void type(int offset, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            edit(offset + i, 0, text.substring(i, i + 1));
+            now += 100;
+        }
+    }
+
+    private void edit(int offset, int length, String text) {
+        String removed = document.substring(offset, offset + length);
+        document.replace(offset, offset + length, text);
+        undo.record(offset, removed, text);
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.linuxsimulator.terminal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CompletionEngineTest {
+
+    private File directory;
+    private File gitDirectory;
+    private CompletionEngine engine;
+
+    private final CompletionEngine.Host host = new CompletionEngine.Host() {
+        @Override
+        public File getCurrentDirectory() {
+            return directory;
+        }
+
+        @Override
+        public File getHomeDirectory() {
+            return directory;
+        }
+
+        @Override
+        public Collection<String> getCommandNames() {
+            return Arrays.asList("cat", "cd", "ls", "less", "git", "ssh");
+        }
+
+        @Override
+        public Collection<String> getSSHHosts() {
+            return Arrays.asList("server", "staging");
+        }
+
+        @Override
+        public File getGitDirectory(File dir) {
+            return gitDirectory;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("complete", "");
+        directory.delete();
+        directory.mkdir();
+        // Only prefetch uses the executor
+        engine = new CompletionEngine(host, null);
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void commandNames() {
+        assertEquals("less ", engine.complete("le").line);
+
+        CompletionEngine.Result result = engine.complete("l");
+        assertEquals("l", result.line);
+        assertEquals(Arrays.asList("less", "ls"), result.candidates);
+        assertEquals(2, result.total);
+
+        // Only the command after the last separator counts, and sudo is looked through
+        assertEquals("ls -a; sudo cat ", engine.complete("ls -a; sudo ca").line);
+    }
+
+    @Test
+    public void flagsAndGitSubcommands() {
+        assertEquals(Arrays.asList("-l", "-la"), engine.complete("ls -l").candidates);
+        assertEquals("git checkout ", engine.complete("git ch").line);
+        assertEquals("git commit --amend ", engine.complete("git commit --a").line);
+    }
+
+    @Test
+    public void hostsKeepTheUser() {
+        assertEquals("ssh root@server ", engine.complete("ssh root@se").line);
+        assertEquals(Arrays.asList("server", "staging"), engine.complete("ssh s").candidates);
+    }
+
+    @Test
+    public void pathsExtendToTheCommonPrefix() throws IOException {
+        write("alpha.txt");
+        new File(directory, "alpine").mkdir();
+        write("alpine/inner.txt");
+
+        assertEquals("cat alp", engine.complete("cat al").line);
+        assertEquals("cat alpine/", engine.complete("cat alpi").line);
+        assertEquals("cat alpine/inner.txt ", engine.complete("cat alpine/in").line);
+        // cd only offers directories
+        assertEquals("cd alpine/", engine.complete("cd al").line);
+    }
+
+    @Test
+    public void newFilesAreSeenWhenTheDirectoryChanges() throws IOException {
+        write("one.txt");
+        assertEquals("cat one.txt ", engine.complete("cat o").line);
+
+        write("other.txt");
+        directory.setLastModified(directory.lastModified() + 2000);
+        assertEquals(Arrays.asList("one.txt", "other.txt"), engine.complete("cat o").candidates);
+    }
+
+    @Test
+    public void dotfilesAreHiddenWithoutCuttingIntoVisibleMatches() throws IOException {
+        // Dotfiles sort first, and there are more of them than fit in one result
+        for (int i = 0; i < 250; i++) {
+            write(String.format(".rc%03d", i));
+        }
+        write("a.txt");
+        write("b.txt");
+
+        CompletionEngine.Result result = engine.complete("cat ");
+        assertEquals(Arrays.asList("a.txt", "b.txt"), result.candidates);
+        assertEquals(2, result.total);
+
+        result = engine.complete("cat .rc");
+        assertEquals(250, result.total);
+        assertEquals(200, result.candidates.size());
+    }
+
+    @Test
+    public void totalCountsMatchesPastTheCap() throws IOException {
+        for (int i = 0; i < 300; i++) {
+            write(String.format("f%03d", i));
+        }
+        write(".hidden");
+
+        CompletionEngine.Result result = engine.complete("cat ");
+        assertEquals(300, result.total);
+        assertEquals(200, result.candidates.size());
+        assertEquals("cat ", result.line);
+
+        for (int i = 0; i < 300; i++) {
+            new File(directory, String.format("d%03d", i)).mkdir();
+        }
+        result = engine.complete("cd ");
+        assertEquals(300, result.total);
+        assertEquals(200, result.candidates.size());
+    }
+
+    @Test
+    public void gitRefsIncludeNestedAndPackedRefs() throws IOException {
+        gitDirectory = new File(directory, ".git");
+        File feature = new File(gitDirectory, "refs/heads/feature");
+        feature.mkdirs();
+        new File(gitDirectory, "refs/tags").mkdirs();
+        write(".git/refs/heads/main");
+        write(".git/refs/heads/feature/login");
+        write(".git/packed-refs", "# pack-refs with: peeled\nabc123 refs/tags/v1.0\n");
+
+        assertEquals("git checkout feature/login ", engine.complete("git checkout fe").line);
+        assertEquals("git checkout v1.0 ", engine.complete("git checkout v").line);
+        assertEquals(Collections.emptyList(), engine.complete("git checkout ma").candidates);
+        assertEquals("git checkout main ", engine.complete("git checkout ma").line);
+
+        // A branch added in a nested directory is picked up from that directory's stamp
+        write(".git/refs/heads/feature/signup");
+        feature.setLastModified(feature.lastModified() + 2000);
+        assertEquals(Arrays.asList("feature/login", "feature/signup"),
+                engine.complete("git checkout feature/").candidates);
+    }
+
+    private void write(String name) throws IOException {
+        write(name, "");
+    }
+
+    private void write(String name, String text) throws IOException {
+        try (OutputStream out = new FileOutputStream(new File(directory, name))) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
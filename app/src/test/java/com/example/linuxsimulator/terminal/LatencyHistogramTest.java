@@ -0,0 +1,83 @@
+package com.example.linuxsimulator.terminal;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getBuckets().length);
+    }
+
+    @Test
+    public void summaryFigures() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(30);
+        histogram.record(-5);
+        assertEquals(2, histogram.getCount());
+        assertEquals(10, histogram.getMin());
+        assertEquals(30, histogram.getMax());
+        assertEquals(20, histogram.getMean());
+        assertEquals(40, histogram.getTotal());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 64; value++) {
+            histogram.record(value);
+        }
+        long[][] buckets = histogram.getBuckets();
+        assertEquals(64, buckets.length);
+        for (int value = 0; value < 64; value++) {
+            assertEquals(value, buckets[value][0]);
+            assertEquals(1, buckets[value][1]);
+        }
+    }
+
+    @Test
+    public void bucketsAreWithinThreePercent() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            long value = 64 + (long) (random.nextDouble() * 3_000_000_000L);
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            long bound = histogram.getBuckets()[0][0];
+            assertTrue(value + " in bucket " + bound, bound >= value);
+            assertTrue(value + " in bucket " + bound, bound - value <= value / 32);
+        }
+    }
+
+    @Test
+    public void hugeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals((1L << 32) - 1, histogram.getMax());
+        assertEquals(1, histogram.getBuckets().length);
+    }
+
+    @Test
+    public void percentilesFollowTheDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue("median " + median, median >= 500 && median <= 500 + 500 / 32);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue("p99 " + p99, p99 >= 990 && p99 <= 1000);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.linuxsimulator.terminal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PrefixTrieTest {
+
+    @Test
+    public void addIgnoresDuplicates() {
+        PrefixTrie trie = new PrefixTrie();
+        assertTrue(trie.add("git"));
+        assertTrue(trie.add("gi"));
+        assertFalse(trie.add("git"));
+        assertEquals(2, trie.size());
+        assertTrue(trie.contains("gi"));
+        assertFalse(trie.contains("g"));
+        assertFalse(trie.contains("gitk"));
+    }
+
+    @Test
+    public void emptyWordIsAWord() {
+        PrefixTrie trie = new PrefixTrie(Arrays.asList("", "a"));
+        assertEquals(2, trie.size());
+        assertTrue(trie.contains(""));
+        assertEquals(Arrays.asList("", "a"), trie.complete("", 10));
+    }
+
+    @Test
+    public void countsMatchesWithoutListingThem() {
+        PrefixTrie trie = new PrefixTrie(Arrays.asList("cat", "cd", "chmod", "clear", "ls"));
+        assertEquals(4, trie.countWithPrefix("c"));
+        assertEquals(1, trie.countWithPrefix("ch"));
+        assertEquals(1, trie.countWithPrefix("chmod"));
+        assertEquals(0, trie.countWithPrefix("chmodx"));
+        assertEquals(5, trie.countWithPrefix(""));
+    }
+
+    @Test
+    public void completesInSortedOrderUpToTheLimit() {
+        PrefixTrie trie = new PrefixTrie(Arrays.asList("push", "pull", "pwd", "ps", "p", "ping"));
+        assertEquals(Arrays.asList("p", "ping", "ps", "pull", "push", "pwd"), trie.complete("p", 10));
+        assertEquals(Arrays.asList("p", "ping", "ps"), trie.complete("p", 3));
+        assertEquals(Arrays.asList("pull", "push"), trie.complete("pu", 10));
+        assertEquals(Collections.emptyList(), trie.complete("x", 10));
+        assertEquals(Collections.emptyList(), trie.complete("p", 0));
+    }
+}
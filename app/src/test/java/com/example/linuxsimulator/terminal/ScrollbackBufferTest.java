@@ -0,0 +1,152 @@
+package com.example.linuxsimulator.terminal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScrollbackBufferTest {
+
+    @Test
+    public void appendSplitsAtNewlines() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(100, 1000);
+        buffer.appendLine("one\ntwo\n");
+        assertEquals(3, buffer.size());
+        assertEquals("one", buffer.get(0).toString());
+        assertEquals("two", buffer.get(1).toString());
+        assertEquals("", buffer.get(2).toString());
+        assertEquals(0, buffer.getFirstLine());
+        assertEquals(3, buffer.getEndLine());
+        assertEquals(6, buffer.getCharCount());
+    }
+
+    @Test
+    public void longLinesWrap() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(100, 1000, 4, null, null);
+        buffer.appendLine("abcdefghij");
+        assertEquals(Arrays.asList("abcd", "efgh", "ij"), rows(buffer));
+    }
+
+    @Test
+    public void oldestRowsAreEvictedAsTheRingWrapsAround() {
+        // The ring starts at the line cap here, so every append past it wraps
+        ScrollbackBuffer buffer = new ScrollbackBuffer(3, 1000);
+        for (int i = 0; i < 10; i++) {
+            buffer.appendLine(String.valueOf(i));
+            assertEquals(Math.min(i + 1, 3), buffer.size());
+            assertEquals(String.valueOf(i), buffer.get(buffer.size() - 1).toString());
+        }
+        assertEquals(Arrays.asList("7", "8", "9"), rows(buffer));
+        assertEquals(7, buffer.getFirstLine());
+        assertEquals(10, buffer.getEndLine());
+        assertEquals(3, buffer.getCharCount());
+    }
+
+    @Test
+    public void rowsStayInOrderAcrossGrowthAndWraparound() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(700, 100_000);
+        for (int i = 0; i < 2000; i++) {
+            buffer.appendLine("row " + i);
+        }
+        assertEquals(700, buffer.size());
+        assertEquals(1300, buffer.getFirstLine());
+        for (int position = 0; position < buffer.size(); position++) {
+            assertEquals("row " + (1300 + position), buffer.get(position).toString());
+        }
+
+        ScrollbackBuffer.Snapshot snapshot = buffer.snapshot();
+        assertEquals(1300, snapshot.getFirstLine());
+        assertEquals(700, snapshot.size());
+        for (int position = 0; position < snapshot.size(); position++) {
+            assertEquals(buffer.get(position), snapshot.get(position));
+        }
+    }
+
+    @Test
+    public void snapshotIsUnaffectedByLaterAppends() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(2, 1000);
+        buffer.appendLine("a\nb");
+        ScrollbackBuffer.Snapshot snapshot = buffer.snapshot();
+        buffer.appendLine("c\nd");
+        assertEquals("a", snapshot.get(0).toString());
+        assertEquals("b", snapshot.get(1).toString());
+        assertEquals(Arrays.asList("c", "d"), rows(buffer));
+    }
+
+    @Test
+    public void characterCapEvictsButKeepsTheNewestRow() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(100, 10);
+        buffer.appendLine("aaaa\nbbbb\ncccc");
+        assertEquals(Arrays.asList("bbbb", "cccc"), rows(buffer));
+        assertEquals(8, buffer.getCharCount());
+
+        buffer.appendLine("twenty characters!!!");
+        assertEquals(Arrays.asList("twenty characters!!!"), rows(buffer));
+        assertEquals(20, buffer.getCharCount());
+    }
+
+    @Test
+    public void setReplacesInPlaceAndKeepsTheCaps() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(100, 10);
+        buffer.appendLine("ab\ncd");
+        buffer.set(1, "progress");
+        assertEquals(Arrays.asList("ab", "progress"), rows(buffer));
+        assertEquals(10, buffer.getCharCount());
+
+        buffer.set(1, "progress 100%");
+        assertEquals(Arrays.asList("progress 100%"), rows(buffer));
+        assertEquals(1, buffer.getFirstLine());
+    }
+
+    @Test
+    public void prependNumbersDownwardsAndNeverEvicts() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(5, 1000);
+        buffer.appendLine("x\ny\nz");
+        List<CharSequence> restored = Arrays.asList("r1", "r2", "r3", "r4");
+        // Only the newest two restored rows fit
+        assertEquals(2, buffer.prepend(restored));
+        assertEquals(Arrays.asList("r3", "r4", "x", "y", "z"), rows(buffer));
+        assertEquals(-2, buffer.getFirstLine());
+        assertEquals(3, buffer.getEndLine());
+    }
+
+    @Test
+    public void prependWrapsLongRows() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(10, 1000, 3, null, null);
+        assertEquals(3, buffer.prepend(Arrays.asList("abcdefg")));
+        assertEquals(Arrays.asList("abc", "def", "g"), rows(buffer));
+    }
+
+    @Test
+    public void clearKeepsNumberingGoing() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(10, 1000);
+        buffer.appendLine("a\nb");
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getCharCount());
+        assertEquals(2, buffer.getFirstLine());
+        buffer.appendLine("c");
+        assertEquals(2, buffer.getFirstLine());
+        assertEquals("c", buffer.get(0).toString());
+    }
+
+    @Test
+    public void outOfRangeRowsThrow() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(10, 1000);
+        buffer.appendLine("a");
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.get(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.get(-1));
+        assertThrows(IllegalArgumentException.class, () -> new ScrollbackBuffer(0, 10));
+    }
+
+    private static List<String> rows(ScrollbackBuffer buffer) {
+        List<String> rows = new ArrayList<>();
+        for (int position = 0; position < buffer.size(); position++) {
+            rows.add(buffer.get(position).toString());
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.linuxsimulator.terminal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+public class ShellInterpreterTest {
+
+    private File directory;
+    private final List<List<String>> commands = new ArrayList<>();
+    private final StringBuilder output = new StringBuilder();
+    private final StringBuilder errors = new StringBuilder();
+    private ShellInterpreter interpreter;
+    private ShellContext shell;
+
+    // Stands in for the terminal: echo prints its arguments, false fails, the rest succeed
+    private final ShellInterpreter.Host host = new ShellInterpreter.Host() {
+        @Override
+        public int runCommand(List<String> argv, CancellationToken token, OutputSink out) {
+            commands.add(new ArrayList<>(argv));
+            if (argv.get(0).equals("echo")) {
+                out.println(String.join(" ", argv.subList(1, argv.size())));
+                return OutputSink.EXIT_SUCCESS;
+            }
+            return argv.get(0).equals("false") ? OutputSink.EXIT_FAILURE : OutputSink.EXIT_SUCCESS;
+        }
+
+        @Override
+        public File resolvePath(String path) {
+            return new File(directory, path);
+        }
+
+        @Override
+        public String getEnvironmentVariable(String name) {
+            return name.equals("HOME") ? "/home/user" : null;
+        }
+    };
+
+    private final OutputSink sink = new OutputSink() {
+        @Override
+        public void onChunk(CharSequence chunk) {
+            output.append(chunk);
+        }
+
+        @Override
+        public void onErrorChunk(CharSequence chunk) {
+            errors.append(chunk);
+        }
+
+        @Override
+        public void onProgress(CharSequence label, long current, long total) {
+        }
+
+        @Override
+        public void onDirectoryChanged() {
+        }
+
+        @Override
+        public void onComplete(int exitCode) {
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("shell", "");
+        directory.delete();
+        directory.mkdir();
+        interpreter = new ShellInterpreter(host, ScriptPlanCache.getInstance());
+        shell = new ShellContext();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void variablesExpand() {
+        assertEquals("1 /home/user\n", run("x=1; echo $x ${HOME}"));
+        assertEquals("[]\n", run("unset x; echo \"[$x]\""));
+        assertEquals("$x\n", run("echo '$x'"));
+        assertEquals("a  b c\n", run("echo \"a  b\" c"));
+    }
+
+    @Test
+    public void commandsGetTheirWordsAsExpanded() {
+        run("touch \"my file\" other");
+        assertEquals(Arrays.asList("touch", "my file", "other"), commands.get(0));
+
+        run("x='a  b'; printf $x \"$x\" \"\"");
+        assertEquals(Arrays.asList("printf", "a", "b", "a  b", ""), commands.get(1));
+
+        run("f() { cp \"$@\"; }; f \"one two\" three");
+        assertEquals(Arrays.asList("cp", "one two", "three"), commands.get(2));
+    }
+
+    @Test
+    public void chainsFollowExitStatus() {
+        assertEquals("yes\n", run("false && echo no || echo yes"));
+        assertEquals(OutputSink.EXIT_SUCCESS, shell.getLastStatus());
+        assertEquals("negated\n", run("! false && echo negated"));
+        assertEquals("1\n", run("false; echo $?"));
+    }
+
+    @Test
+    public void arithmeticAndCommandSubstitution() {
+        assertEquals("14 1 -6\n", run("echo $((2+3*4)) $((10 % 3)) $((-2 * 3))"));
+        assertEquals("hi\n", run("echo $(echo hi)"));
+
+        assertEquals("", run("echo $((7/0))"));
+        assertEquals(OutputSink.EXIT_FAILURE, shell.getLastStatus());
+        assertTrue(errors.toString().contains("division by 0"));
+    }
+
+    @Test
+    public void conditionsAndLoops() {
+        assertEquals("lt\n", run("if [ 1 -lt 2 ]; then echo lt; else echo ge; fi"));
+        assertEquals("empty ne\n", run("[ -z \"\" ] && [ abc != abd ] && echo empty ne"));
+        assertEquals("1\n2\n3\n", run("for i in 1 2 3; do echo $i; done"));
+        assertEquals("3\n", run("n=0; while [ $n -lt 3 ]; do n=$((n+1)); done; echo $n"));
+        assertEquals("1\n2\n", run("until [ ${m:-0} -ge 2 ]; do m=$((${m:-0}+1)); echo $m; done"));
+        assertEquals("a\n", run("for i in a b c; do if [ $i = b ]; then break; fi; echo $i; done"));
+        assertEquals("1\n3\n", run("for i in 1 2 3; do if [ $i = 2 ]; then continue; fi; echo $i; done"));
+    }
+
+    @Test
+    public void functionsTakeArgumentsAndKeepLocalsToThemselves() {
+        assertEquals("in arg\n3\n", run("f() { echo in $1; return 3; }; f arg; echo $?"));
+        assertEquals("1 2 3\n2\n", run("g() { echo \"$@\"; echo $#; }; g 1 \"2 3\""));
+        assertEquals("in\nout\n", run("h() { local v=in; echo $v; }; v=out; h; echo $v"));
+        assertTrue(shell.getFunctionNames().contains("h"));
+    }
+
+    @Test
+    public void runawayRecursionIsStopped() {
+        assertEquals("", run("r() { r; }; r"));
+        assertEquals(OutputSink.EXIT_FAILURE, shell.getLastStatus());
+        assertTrue(errors.toString().contains("maximum function nesting level"));
+    }
+
+    @Test
+    public void scriptsGetTheirOwnArgumentsAndExitStatus() throws IOException {
+        write("args.sh", "echo script $# $1 $2\nshift\necho after $1\nexit 5\necho never\n");
+        assertEquals("script 2 a b\nafter b\n", run("sh args.sh a b"));
+        assertEquals(5, shell.getLastStatus());
+    }
+
+    @Test
+    public void sourcedScriptsShareTheShell() throws IOException {
+        write("vars.sh", "greeting=hello\n");
+        assertEquals("hello\n", run("source vars.sh; echo $greeting"));
+    }
+
+    @Test
+    public void cancelledTokenStopsTheScript() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        assertThrows(CancellationException.class,
+                () -> interpreter.run(ShellScript.parse("echo never"), shell, token, sink));
+        assertTrue(commands.isEmpty());
+    }
+
+    // Run a line the way the terminal does, recording its status as $?
+    private String run(String line) {
+        output.setLength(0);
+        int status = interpreter.run(ShellScript.parse(line), shell, new CancellationToken(), sink);
+        shell.setLastStatus(status);
+        return output.toString();
+    }
+
+    private void write(String name, String text) throws IOException {
+        try (OutputStream out = new FileOutputStream(new File(directory, name))) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
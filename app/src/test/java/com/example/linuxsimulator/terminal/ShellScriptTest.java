@@ -0,0 +1,65 @@
+package com.example.linuxsimulator.terminal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ShellScriptTest {
+
+    @Test
+    public void commandListsSplitIntoCommands() {
+        assertEquals(Arrays.asList("mkdir out", "cd out", "ls"),
+                ShellScript.parse("mkdir out && cd out; ls").getCommandLines());
+    }
+
+    @Test
+    public void quotedSeparatorsAndCommentsAreNotCommands() {
+        assertEquals(Arrays.asList("echo \"a; b\""),
+                ShellScript.parse("echo \"a; b\" # comment").getCommandLines());
+    }
+
+    @Test
+    public void controlFlowCommandsAreCollected() {
+        assertEquals(Arrays.asList("test -f x", "true", "cat x", "echo y", "echo z"),
+                ShellScript.parse("if test -f x; then cat x; elif true; then echo y; else echo z; fi")
+                        .getCommandLines());
+        assertEquals(Arrays.asList("false", "echo w"),
+                ShellScript.parse("while false; do echo w; done").getCommandLines());
+        assertEquals(Arrays.asList("echo $i"),
+                ShellScript.parse("for i in a b; do echo $i; done").getCommandLines());
+        assertEquals(Arrays.asList("ls -l"),
+                ShellScript.parse("f() { ls -l; }").getCommandLines());
+        assertEquals(Arrays.asList("echo a", "echo b"),
+                ShellScript.parse("{ echo a; echo b; }").getCommandLines());
+    }
+
+    @Test
+    public void backslashNewlineContinuesTheLine() {
+        assertEquals(Arrays.asList("echo a b"), ShellScript.parse("echo a \\\nb").getCommandLines());
+    }
+
+    @Test
+    public void unterminatedBlockReportsTheLastLine() {
+        ShellScript.SyntaxError error = assertThrows(ShellScript.SyntaxError.class,
+                () -> ShellScript.parse("echo one\necho two\nif true; then\necho three"));
+        assertEquals(4, error.getLine());
+        assertTrue(error.getMessage().contains("unexpected end of file"));
+    }
+
+    @Test
+    public void strayKeywordsAndOperatorsAreErrors() {
+        ShellScript.SyntaxError error = assertThrows(ShellScript.SyntaxError.class,
+                () -> ShellScript.parse("echo ok\ndone"));
+        assertEquals(2, error.getLine());
+        assertTrue(error.getMessage().contains("`done'"));
+
+        error = assertThrows(ShellScript.SyntaxError.class, () -> ShellScript.parse("&& b"));
+        assertEquals(1, error.getLine());
+        assertTrue(error.getMessage().contains("`&&'"));
+
+        assertThrows(ShellScript.SyntaxError.class, () -> ShellScript.parse("echo \"unterminated"));
+        assertThrows(ShellScript.SyntaxError.class, () -> ShellScript.parse("fi"));
+    }
+}